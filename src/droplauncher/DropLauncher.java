@@ -98,10 +98,12 @@ public class DropLauncher {
 
 //  public static final String TEMP_DIRECTORY = Paths.get(System.getProperty("user.home"), "DropLauncher").toString();
   public static final Path TEMP_DIRECTORY = DATA_DIRECTORY.resolve("tmp");
+  public static final Path CACHE_DIRECTORY = DATA_DIRECTORY.resolve("cache");
 
 //  public static final Prefs PREF_ROOT = new Prefs(Preferences.userRoot().node("droplauncher"));
   private static final Ini INI = new Ini();
   public static final Path SETTINGS_FILE = DATA_DIRECTORY.resolve("settings.ini");
+  public static final Path CLEANUP_JOURNAL_FILE = DATA_DIRECTORY.resolve("cleanup.journal");
 
   private DropLauncher() {}
 
@@ -17,6 +17,7 @@
 
 package droplauncher.bwapi;
 
+import droplauncher.io.PortableExecutable;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Locale;
@@ -34,6 +35,26 @@ public class BWAPI {
      */
     COPY_WRITE_READ("copy_write_read"),
 
+    /**
+     * Whether files which no longer exist in the "StarCraft/bwapi-data/write/"
+     * directory should be deleted from the "StarCraft/bwapi-data/read/"
+     * directory when copying.
+     */
+    MIRROR_WRITE_READ("mirror_write_read"),
+
+    /**
+     * Whether files with the same size but a different modification time
+     * should have their contents compared instead of being copied again
+     * when synchronizing "StarCraft/bwapi-data/" directories.
+     */
+    VERIFY_COPY_CONTENTS("verify_copy_contents"),
+
+    /**
+     * Whether to store a snapshot of the "StarCraft/bwapi-data/write/"
+     * directory each time the bot is ejected.
+     */
+    SNAPSHOT_WRITE("snapshot_write"),
+
     /**
      * Whether to warn if the specified BWAPI.dll is not recognized.
      */
@@ -94,22 +115,30 @@ public class BWAPI {
   }
 
   /**
-   * Enum for extractable files.
-   *
-   * sha256 checksums:
-   * 60e69e90943073696458cd2e5ace9baa39c542cb4ec1ab1d2adfe5dba18035ee *Broodwar.map
-   * d16c2909993b9de89b8a285c89cf17e8b16375c876d3ebfd443fde31c9d504a5 *bwapi.ini
+   * Enum for extractable files. Each file is listed with the SHA-256
+   * checksum of the copy bundled with this program. Files which users are
+   * expected to edit have no checksum and are never verified.
    */
   public enum ExtractableFile {
 
-    BROODWAR_MAP("Broodwar.map"), /* Exception Filter input file for BWAPI */
-    BWAPI_INI("bwapi.ini")        /* BWAPI configuration file */
+    BROODWAR_MAP("Broodwar.map", "60e69e90943073696458cd2e5ace9baa39c542cb4ec1ab1d2adfe5dba18035ee"), /* Exception Filter input file for BWAPI */
+    BWAPI_INI("bwapi.ini", null) /* BWAPI configuration file, edited by users */
     ;
 
     private final String str;
+    private final String sha256;
 
-    private ExtractableFile(String str) {
+    private ExtractableFile(String str, String sha256) {
       this.str = str;
+      this.sha256 = sha256;
+    }
+
+    /**
+     * Returns the SHA-256 checksum of the bundled file or null if the
+     * file is not verified.
+     */
+    public String getSHA256Checksum() {
+      return this.sha256;
     }
 
     @Override
@@ -120,26 +149,8 @@ public class BWAPI {
   }
 
   /**
-   * Enum for extractable DLLs.
-   *
-   * SHA-256 checksums:
-   * 9b21735b6e7cd11531cad609abb27eb2e0cacd76f7466c24228dae0ddcf2a7ba *bwapi_bridge2_5.dll
-   * ca985bdce5a7c16ad2a397df2c4ac53293c50648aa3474bbbfefa8d2fd8790ed *client-bridge-1_3-x86.dll
-   * 75dbc782e66ec8ff127176034da5cd8e0f934fc21a79135d7688689674930bd6 *client-bridge-1_4b-x86.dll
-   * e3a6ed46393507f794b051228ff995b8a4eb9d847715d33dde20076cddb23b01 *client-bridge-1_4c-x86.dll
-   * 75dbc782e66ec8ff127176034da5cd8e0f934fc21a79135d7688689674930bd6 *client-bridge-1_4-x86.dll
-   * 529637ef7bce676f9de869453eda0f57d09af2b9ebf6656bcf772c901c9aa392 *client-bridge-1_5-x86.dll
-   * 9a037024258521a3d500caaa3ca59ef9fcf6052818a3e8d2521a26ac7511403d *client-bridge-amd64.dll
-   * 732e941a23f6e5925f7837e68a60d535a8585bbd4293d9fe2db08282a8b74c0a *client-bridge-julien-rame.dll
-   * 0c1b3c79608dd5a1c25057dc49d0763c5f89077cb4a16e8c0cc0181de363ce91 *client-bridge-x86.dll
-   * 75dbc782e66ec8ff127176034da5cd8e0f934fc21a79135d7688689674930bd6 *client-bridge-x86-jni-sp-1-4.dll
-   * 732e941a23f6e5925f7837e68a60d535a8585bbd4293d9fe2db08282a8b74c0a *client-bridge-x86-lebedser.dll
-   * 9f45860228df80656d2c7407a0fa6d82c1b759d47c7dee843877700740eb4b58 *gmp-vc90-mt.dll
-   * 28282d77de250e4c7dd7b5ac1563c62d43465a2dda19119f551b45e7dc0d2aa7 *gmp-vc90-mt-gd.dll
-   * 9be85bd8468363703304d0bbd059c9709dba270d0ff5a1a94823cb5dbbfa5f20 *libgmp-10.dll
-   * 5a72d472e892efd7d94ea287eda354637394805c2f445edec051b5c0a3d0f55b *libmpfr-4.dll
-   * 647760f4b63ce1a4c36de4c71176f59cfccdfbb9ad397979725228272c8c67ae *mpfr-vc90-mt.dll
-   * b1873ca36d8ff3f0df0bbf1895916cc13e4bb95588e0e711c689bd37ead8100f *mpfr-vc90-mt-gd.dll
+   * Enum for extractable DLLs. Each DLL is listed with the SHA-256
+   * checksum of the copy bundled with this program.
    */
   public enum ExtractableDll {
 
@@ -147,40 +158,49 @@ public class BWAPI {
     /* BWTA */
     /**********************************************************************/
 
-    LIBGMP("libgmp-10.dll"),
-    GMP("gmp-vc90-mt.dll"),
-    GMP_GD("gmp-vc90-mt-gd.dll"),
-    LIBMPFR("libmpfr-4.dll"),
-    MPFR("mpfr-vc90-mt.dll"),
-    MPFR_GD("mpfr-vc90-mt-gd.dll"),
+    LIBGMP("libgmp-10.dll", "9be85bd8468363703304d0bbd059c9709dba270d0ff5a1a94823cb5dbbfa5f20"),
+    GMP("gmp-vc90-mt.dll", "9f45860228df80656d2c7407a0fa6d82c1b759d47c7dee843877700740eb4b58"),
+    GMP_GD("gmp-vc90-mt-gd.dll", "28282d77de250e4c7dd7b5ac1563c62d43465a2dda19119f551b45e7dc0d2aa7"),
+    LIBMPFR("libmpfr-4.dll", "5a72d472e892efd7d94ea287eda354637394805c2f445edec051b5c0a3d0f55b"),
+    MPFR("mpfr-vc90-mt.dll", "647760f4b63ce1a4c36de4c71176f59cfccdfbb9ad397979725228272c8c67ae"),
+    MPFR_GD("mpfr-vc90-mt-gd.dll", "b1873ca36d8ff3f0df0bbf1895916cc13e4bb95588e0e711c689bd37ead8100f"),
 
     /**********************************************************************/
     /* JNIBWAPI */
     /**********************************************************************/
 
-    JNI_CLIENT_BRIDGE_1_3("client-bridge-1_3-x86.dll"),
-    JNI_CLIENT_BRIDGE_1_4("client-bridge-1_4-x86.dll"),
-    JNI_CLIENT_BRIDGE_1_4b("client-bridge-1_4b-x86.dll"),
-    JNI_CLIENT_BRIDGE_1_4c("client-bridge-1_4c-x86.dll"),
-    JNI_CLIENT_BRIDGE_1_5("client-bridge-1_5-x86.dll"),
-    JNI_CLIENT_BRIDGE_AMD64("client-bridge-amd64.dll"),
-    JNI_CLIENT_BRIDGE_JULIEN_RAME("client-bridge-julien-rame.dll"),
-    JNI_CLIENT_BRIDGE_JNI_SP_1_4("client-bridge-x86-jni-sp-1-4.dll"),
-    JNI_CLIENT_BRIDGE_LEBEDSER("client-bridge-x86-lebedser.dll"),
-    JNI_CLIENT_BRIDGE("client-bridge-x86.dll"),
+    JNI_CLIENT_BRIDGE_1_3("client-bridge-1_3-x86.dll", "ca985bdce5a7c16ad2a397df2c4ac53293c50648aa3474bbbfefa8d2fd8790ed"),
+    JNI_CLIENT_BRIDGE_1_4("client-bridge-1_4-x86.dll", "75dbc782e66ec8ff127176034da5cd8e0f934fc21a79135d7688689674930bd6"),
+    JNI_CLIENT_BRIDGE_1_4b("client-bridge-1_4b-x86.dll", "75dbc782e66ec8ff127176034da5cd8e0f934fc21a79135d7688689674930bd6"),
+    JNI_CLIENT_BRIDGE_1_4c("client-bridge-1_4c-x86.dll", "e3a6ed46393507f794b051228ff995b8a4eb9d847715d33dde20076cddb23b01"),
+    JNI_CLIENT_BRIDGE_1_5("client-bridge-1_5-x86.dll", "529637ef7bce676f9de869453eda0f57d09af2b9ebf6656bcf772c901c9aa392"),
+    JNI_CLIENT_BRIDGE_AMD64("client-bridge-amd64.dll", "9a037024258521a3d500caaa3ca59ef9fcf6052818a3e8d2521a26ac7511403d"),
+    JNI_CLIENT_BRIDGE_JULIEN_RAME("client-bridge-julien-rame.dll", "732e941a23f6e5925f7837e68a60d535a8585bbd4293d9fe2db08282a8b74c0a"),
+    JNI_CLIENT_BRIDGE_JNI_SP_1_4("client-bridge-x86-jni-sp-1-4.dll", "75dbc782e66ec8ff127176034da5cd8e0f934fc21a79135d7688689674930bd6"),
+    JNI_CLIENT_BRIDGE_LEBEDSER("client-bridge-x86-lebedser.dll", "732e941a23f6e5925f7837e68a60d535a8585bbd4293d9fe2db08282a8b74c0a"),
+    JNI_CLIENT_BRIDGE("client-bridge-x86.dll", "0c1b3c79608dd5a1c25057dc49d0763c5f89077cb4a16e8c0cc0181de363ce91"),
 
     /**********************************************************************/
     /* BWMirror */
     /**********************************************************************/
 
-    BWMIRROR_BWAPI_BRIDGE_2_5("bwapi_bridge2_5.dll")
+    BWMIRROR_BWAPI_BRIDGE_2_5("bwapi_bridge2_5.dll", "9b21735b6e7cd11531cad609abb27eb2e0cacd76f7466c24228dae0ddcf2a7ba")
 
     ;
 
     private final String str;
+    private final String sha256;
 
-    private ExtractableDll(String str) {
+    private ExtractableDll(String str, String sha256) {
       this.str = str;
+      this.sha256 = sha256;
+    }
+
+    /**
+     * Returns the SHA-256 checksum of the bundled DLL.
+     */
+    public String getSHA256Checksum() {
+      return this.sha256;
     }
 
     @Override
@@ -228,4 +248,57 @@ public class BWAPI {
     return BWAPI.DLL_UNKNOWN;
   }
 
+  /**
+   * Returns the BWAPI version described by the version resource of the
+   * specified BWAPI.dll, e.g. "4.1.2" or "4.1.2 (debug)". Debug builds
+   * (i.e. BWAPId.dll) and non-x86 builds are indicated in parentheses.
+   *
+   * @param dll specified headers of target BWAPI.dll
+   * @return
+   *     the file version if the DLL has a version resource,
+   *     otherwise an unknown-type indication string
+   */
+  public static String getBwapiVersion(PortableExecutable dll) {
+    if (dll == null || !dll.hasVersionInfo()) {
+      return BWAPI.DLL_UNKNOWN;
+    }
+    int[] version = dll.getFileVersion();
+    StringBuilder sb = new StringBuilder();
+    sb.append(version[0]).append('.').append(version[1]).append('.').append(version[2]);
+    boolean isDebug = dll.isDebugBuild()
+        || BWAPI.DLL_FILENAME_DEBUG.equalsIgnoreCase(dll.getString("OriginalFilename"));
+    if (isDebug) {
+      sb.append(" (debug)");
+    }
+    if (dll.getMachine() != PortableExecutable.Machine.X86) {
+      sb.append(" (").append(dll.getMachine().toString()).append(")");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the BWAPI version of target BWAPI.dll. The MD5 checksum is
+   * used to confirm official releases. Otherwise, the version resource
+   * is reported and marked as unverified.
+   *
+   * @param dllChecksum specified MD5 checksum of target BWAPI.dll or null if unavailable
+   * @param dll specified headers of target BWAPI.dll or null if unavailable
+   * @return
+   *     the BWAPI version if known,
+   *     otherwise an unknown-type indication string
+   */
+  public static String getBwapiVersion(String dllChecksum, PortableExecutable dll) {
+    if (dllChecksum != null) {
+      String version = getBwapiVersion(dllChecksum);
+      if (!version.equals(BWAPI.DLL_UNKNOWN)) {
+        return version;
+      }
+    }
+    String fileVersion = getBwapiVersion(dll);
+    if (fileVersion.equals(BWAPI.DLL_UNKNOWN)) {
+      return BWAPI.DLL_UNKNOWN;
+    }
+    return (dllChecksum == null) ? fileVersion : fileVersion + " (unverified)";
+  }
+
 }
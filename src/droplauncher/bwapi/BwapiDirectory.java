@@ -19,8 +19,6 @@ package droplauncher.bwapi;
 
 import adakite.debugging.Debugging;
 import adakite.exception.InvalidArgumentException;
-import adakite.ini.Ini;
-import adakite.ini.exception.IniParseException;
 import adakite.util.AdakiteUtils;
 import droplauncher.DropLauncher;
 import droplauncher.bwapi.bot.Bot;
@@ -29,16 +27,27 @@ import droplauncher.bwapi.bot.exception.MissingBotFileException;
 import droplauncher.bwapi.bot.exception.MissingBotNameException;
 import droplauncher.bwapi.bot.exception.MissingBotRaceException;
 import droplauncher.bwta.BWTA;
+import droplauncher.io.AtomicFile;
+import droplauncher.io.ChecksumService;
+import droplauncher.io.MultiDigest;
 import droplauncher.mvc.model.Model;
-import droplauncher.mvc.view.ConsoleOutputWrapper;
+import droplauncher.mvc.model.SettingsSnapshot;
 import droplauncher.mvc.view.View;
 import droplauncher.starcraft.Starcraft;
+import droplauncher.ui.ConsoleSink;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 import net.lingala.zip4j.core.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 import org.apache.commons.io.FileUtils;
@@ -46,18 +55,35 @@ import org.apache.commons.io.FilenameUtils;
 
 public class BwapiDirectory {
 
+  /* Directory which holds the journaled bwapi.ini of each BWAPI directory until it is restored. */
+  public static final Path INI_JOURNAL_DIRECTORY = DropLauncher.DATA_DIRECTORY.resolve("bwapi-ini");
+
   private Path directory;
-  private ConsoleOutputWrapper consoleOutput;
+  private ConsoleSink consoleOutput;
+  private byte[] iniJournal; /* user's original bwapi.ini, restored after the bot stops */
+  private Consumer<Path> writeLog;
 
   public BwapiDirectory() {
     this.directory = Paths.get("");
     this.consoleOutput = null;
+    this.iniJournal = null;
+    this.writeLog = null;
   }
 
-  public void setConsoleOutput(ConsoleOutputWrapper consoleOutput) {
+  public void setConsoleOutput(ConsoleSink consoleOutput) {
     this.consoleOutput = consoleOutput;
   }
 
+  /**
+   * Sets the callback which receives every file this class creates
+   * where no file existed before, e.g. to delete these files later.
+   *
+   * @param writeLog specified callback or null
+   */
+  public void setWriteLog(Consumer<Path> writeLog) {
+    this.writeLog = writeLog;
+  }
+
   public Path getDirectory() {
     return this.directory;
   }
@@ -81,6 +107,18 @@ public class BwapiDirectory {
     return this.directory.resolve(BWAPI.INI_BACKUP_FILE);
   }
 
+  /**
+   * Returns the file which holds the journaled bwapi.ini of this
+   * directory while a bot is running. The file survives a crash of this
+   * program so that the original can still be restored on the next
+   * launch.
+   */
+  public Path getIniJournalFile() {
+    String key = this.directory.toAbsolutePath().normalize().toString().toLowerCase(Locale.US);
+    String name = MultiDigest.toHex(sha1(key.getBytes(StandardCharsets.UTF_8)));
+    return INI_JOURNAL_DIRECTORY.resolve(name + ".ini");
+  }
+
   public Path getReadDirectory() {
     return this.directory.resolve(BWAPI.READ_DIRECTORY);
   }
@@ -93,17 +131,52 @@ public class BwapiDirectory {
     return this.directory.resolve(BWAPI.DATA_DIRECTORY);
   }
 
+  /**
+   * Records the user's original bwapi.ini in the journal so it can be
+   * restored via {@link #restoreIniFile()} after the bot has stopped.
+   * The journal is written to {@link #getIniJournalFile()} before
+   * bwapi.ini is modified. An existing journal entry from a launch which
+   * was never restored, e.g. because this program crashed, is kept. A
+   * leftover backup file from a previous version of this program is
+   * treated as the original and removed.
+   *
+   * @throws IOException if an I/O error occurs
+   */
   public void backupIniFile() throws IOException {
-    if (AdakiteUtils.fileExists(getIniFile())) {
-      Files.copy(getIniFile(), getIniBackupFile(), StandardCopyOption.REPLACE_EXISTING);
+    Path journalFile = getIniJournalFile();
+    if (this.iniJournal != null) {
+      return;
+    } else if (AdakiteUtils.fileExists(journalFile)) {
+      this.iniJournal = Files.readAllBytes(journalFile);
+    } else if (AdakiteUtils.fileExists(getIniBackupFile())) {
+      this.iniJournal = Files.readAllBytes(getIniBackupFile());
+      AtomicFile.write(journalFile, this.iniJournal);
+      AdakiteUtils.deleteFile(getIniBackupFile());
+    } else if (AdakiteUtils.fileExists(getIniFile())) {
+      this.iniJournal = Files.readAllBytes(getIniFile());
+      AtomicFile.write(journalFile, this.iniJournal);
+    } else {
+      this.iniJournal = null;
     }
   }
 
+  /**
+   * Writes the journaled bwapi.ini back to disk if it differs from the
+   * current file and clears the journal.
+   *
+   * @throws IOException if an I/O error occurs
+   */
   public void restoreIniFile() throws IOException {
-    if (AdakiteUtils.fileExists(getIniBackupFile())) {
-      Files.copy(getIniBackupFile(), getIniFile(), StandardCopyOption.REPLACE_EXISTING);
-      AdakiteUtils.deleteFile(getIniBackupFile());
+    Path journalFile = getIniJournalFile();
+    if (this.iniJournal == null && AdakiteUtils.fileExists(journalFile)) {
+      /* Journal left by a previous run of this program. */
+      this.iniJournal = Files.readAllBytes(journalFile);
     }
+    if (this.iniJournal != null) {
+      AtomicFile.writeIfChanged(getIniFile(), this.iniJournal);
+      this.iniJournal = null;
+    }
+    Files.deleteIfExists(journalFile);
   }
 
   /**
@@ -111,21 +184,22 @@ public class BwapiDirectory {
    *
    * @param starcraftDirectory specified Starcraft path to use in configuration
    * @param bot specified bot to use in configuration
+   * @param settings specified program settings for this launch
+   * @param map specified map relative to the StarCraft directory if the
+   *     bot hosts a game, otherwise null
    * @throws IOException
-   * @throws IniParseException
    * @throws MissingBotFileException
    * @throws InvalidBotTypeException
    * @throws InvalidArgumentException
    * @throws MissingBotNameException
    * @throws MissingBotRaceException
    */
-  public void configure(Path starcraftDirectory, Bot bot) throws IOException,
-                                                                 IniParseException,
-                                                                 MissingBotFileException,
-                                                                 InvalidArgumentException,
-                                                                 InvalidBotTypeException,
-                                                                 MissingBotNameException,
-                                                                 MissingBotRaceException {
+  public void configure(Path starcraftDirectory, Bot bot, SettingsSnapshot settings, String map) throws IOException,
+                                                                                            MissingBotFileException,
+                                                                                            InvalidArgumentException,
+                                                                                            InvalidBotTypeException,
+                                                                                            MissingBotNameException,
+                                                                                            MissingBotRaceException {
     uilog("Configuring BWAPI in " + starcraftDirectory.toAbsolutePath().toString());
     int logDepth = 2;
 
@@ -150,60 +224,46 @@ public class BwapiDirectory {
       URL url = DropLauncher.getResource(BWAPI.FILES_RESOURCE_DIRECTORY + BWAPI.ExtractableFile.BWAPI_INI.toString());
       FileUtils.copyURLToFile(url, getIniFile().toFile());
     }
-    /* Read the bwapi.ini file. */
-    Ini bwapiIni = new Ini();
-    uilog("Parsing " + BWAPI.ExtractableFile.BWAPI_INI.toString(), logDepth);
-    bwapiIni.parse(getIniFile());
+    /* Collect this launch's bwapi.ini changes. They are applied to the user's original in memory. */
+    IniOverlay bwapiIni = new IniOverlay();
 
     /* Check for the Broodwar.map file. */
     uilog("Configuring " + BWAPI.ExtractableFile.BROODWAR_MAP.toString(), logDepth);
     Path bwapiBroodwarMap = getDataDirectory().resolve(BWAPI.ExtractableFile.BROODWAR_MAP.toString());
-    if (!AdakiteUtils.fileExists(bwapiBroodwarMap)) {
-      uilog("Extracting " + BWAPI.ExtractableFile.BROODWAR_MAP.toString(), logDepth);
-      /* If Broodwar.map is not found in the target BWAPI directory, extract it from this program. */
-      URL url = DropLauncher.getResource(BWAPI.FILES_RESOURCE_DIRECTORY + BWAPI.ExtractableFile.BROODWAR_MAP.toString());
-      FileUtils.copyURLToFile(url, bwapiBroodwarMap.toFile());
-    }
+    /* If Broodwar.map is missing or corrupt in the target BWAPI directory, extract it from this program. */
+    deploy(
+        BWAPI.FILES_RESOURCE_DIRECTORY + BWAPI.ExtractableFile.BROODWAR_MAP.toString(),
+        bwapiBroodwarMap,
+        BWAPI.ExtractableFile.BROODWAR_MAP.getSHA256Checksum(),
+        logDepth
+    );
 
     /* Check if bot dependencies should be extracted to the StarCraft root directory. */
-    if (Model.getSettings().isEnabled(Starcraft.PropertyKey.EXTRACT_BOT_DEPENDENCIES.toString())) {
+    if (settings.isEnabled(Starcraft.PropertyKey.EXTRACT_BOT_DEPENDENCIES.toString())) {
       uilog("Extracting bot dependencies", logDepth);
       for (BWAPI.ExtractableDll val : BWAPI.ExtractableDll.values()) {
-        /* If dependency is not found in the StarCraft root directory, extract it from this program. */
-        Path targetDependency = starcraftDirectory.resolve(val.toString());
-        if (!AdakiteUtils.fileExists(targetDependency)) {
-          URL url = DropLauncher.getResource(BWAPI.DLL_RESOURCE_DIRECTORY + val.toString());
-          FileUtils.copyURLToFile(url, targetDependency.toFile());
-        }
+        /* If dependency is missing or corrupt in the StarCraft root directory, extract it from this program. */
+        deploy(
+            BWAPI.DLL_RESOURCE_DIRECTORY + val.toString(),
+            starcraftDirectory.resolve(val.toString()),
+            val.getSHA256Checksum(),
+            logDepth + 1
+        );
       }
 
       /* Extract BWTA cache files. */
       try {
         uilog("Configuring BWTA cache files", logDepth);
-
-        ZipFile bwtaZip = new ZipFile(BWTA.CACHE_ARCHIVE_FILE.toFile());
-
-          /* Check for BWTA version 1 cache files. */
-          {
-            uilog("Configuring BWTA version 1 cache files", logDepth + 1);
-            Path bwtaCacheDirectory = getDirectory().resolve(BWTA.V1_DIRECTORY);
-            for (BWTA.CacheV1 val : BWTA.CacheV1.values()) {
-              if (!AdakiteUtils.fileExists(bwtaCacheDirectory.resolve(val.toString()))) {
-                bwtaZip.extractFile(BWTA.V1_DIRECTORY.resolve(val.toString()).toString(), getDirectory().toString());
-              }
-            }
-          }
-
-          /* Check for BWTA version 2 cache files. */
-          {
-            uilog("Configuring BWTA version 2 cache files", logDepth + 1);
-            Path bwtaCacheDirectory = getDirectory().resolve(BWTA.V2_DIRECTORY);
-            for (BWTA.CacheV2 val : BWTA.CacheV2.values()) {
-              if (!AdakiteUtils.fileExists(bwtaCacheDirectory.resolve(val.toString()))) {
-                bwtaZip.extractFile(BWTA.V2_DIRECTORY.resolve(val.toString()).toString(), getDirectory().toString());
-              }
+        List<Path> entries = getBwtaCacheEntries(starcraftDirectory, map, logDepth + 1);
+        ZipFile bwtaZip = null;
+        for (Path entry : entries) {
+          if (!AdakiteUtils.fileExists(getDirectory().resolve(entry))) {
+            if (bwtaZip == null) {
+              bwtaZip = new ZipFile(BWTA.CACHE_ARCHIVE_FILE.toFile());
             }
+            bwtaZip.extractFile(entry.toString(), getDirectory().toString());
           }
+        }
       } catch (ZipException ex) {
         /* Do nothing. */
       }
@@ -229,7 +289,11 @@ public class BwapiDirectory {
         /* Copy client to StarCraft root directory. */
         Path src = bot.getFile();
         Path dest = starcraftDirectory.resolve(FilenameUtils.getName(bot.getFile().toString()));
+        boolean isNew = !AdakiteUtils.fileExists(dest);
         Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+        if (isNew) {
+          logWrite(dest);
+        }
         bot.setFile(dest);
         bwapiIni.commentVariable("ai", "ai");
         break;
@@ -251,18 +315,127 @@ public class BwapiDirectory {
 //    bwapiIni.set("auto_menu", "auto_restart", "OFF");
     bwapiIni.setValue("auto_menu", "race", bot.getRace());
 
-    uilog("Creating a backup of " + BWAPI.ExtractableFile.BWAPI_INI.toString(), logDepth);
-    /* Update bwapi.ini file. */
-    bwapiIni.store(getIniFile());
+    /* Render bwapi.ini from the journaled original and only write it if it changed. */
+    byte[] original = (this.iniJournal != null) ? this.iniJournal : Files.readAllBytes(getIniFile());
+    String rendered = bwapiIni.render(new String(original, StandardCharsets.ISO_8859_1));
+    if (AtomicFile.writeIfChanged(getIniFile(), rendered.getBytes(StandardCharsets.ISO_8859_1))) {
+      uilog("Updating " + BWAPI.ExtractableFile.BWAPI_INI.toString(), logDepth);
+    }
 
     if (bot.getExtraFiles().size() > 0) {
       uilog("Copying extra bot configuration files to " + getAiDirectory().toString(), logDepth);
     }
-    /* Copy extra files to common bot I/O directories. */
+    /* Copy extra files to common bot I/O directories. Copies from a previous launch are kept. */
     for (String file : bot.getExtraFiles()) {
-      if (AdakiteUtils.fileExists(Paths.get(file))) {
-        Files.copy(Paths.get(file), Paths.get(getAiDirectory().toString(), FilenameUtils.getName(file)), StandardCopyOption.REPLACE_EXISTING);
+      Path src = Paths.get(file);
+      if (AdakiteUtils.fileExists(src)) {
+        Path dest = Paths.get(getAiDirectory().toString(), FilenameUtils.getName(file));
+        if (AdakiteUtils.fileExists(dest)
+            && Files.size(dest) == Files.size(src)
+            && Files.getLastModifiedTime(dest).equals(Files.getLastModifiedTime(src))) {
+          continue;
+        }
+        Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+  }
+
+  /**
+   * Returns the BWTA cache archive entries to extract. If the bot hosts a
+   * game, the map is identified by its checksum and only its cache files
+   * are returned. Otherwise the map is not known in advance and every
+   * cache file is returned.
+   */
+  private List<Path> getBwtaCacheEntries(Path starcraftDirectory, String map, int logDepth) {
+    if (map == null) {
+      return BWTA.getBundledEntries();
+    }
+    Path mapFile = starcraftDirectory.resolve(map.trim());
+    if (!AdakiteUtils.fileExists(mapFile)) {
+      /* bwheadless reports a missing map. */
+      return BWTA.getBundledEntries();
+    }
+    String cacheFilename;
+    try {
+      cacheFilename = BWTA.getCacheFilename(mapFile).get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return BWTA.getBundledEntries();
+    } catch (ExecutionException ex) {
+      return BWTA.getBundledEntries();
+    }
+    if (!BWTA.isBundled(cacheFilename)) {
+      uilog("No bundled BWTA cache file for " + mapFile.getFileName().toString(), logDepth);
+    }
+    return BWTA.getBundledEntries(cacheFilename);
+  }
+
+  /**
+   * Extracts the specified resource to the specified target file unless
+   * the target already matches the specified SHA-256 checksum.
+   *
+   * Checksums are looked up via {@link ChecksumService}, which only reads
+   * the file again if its size or modification time changed since it was
+   * last verified. Files are written to a temporary file and renamed so
+   * that an interrupted extraction never leaves a partial file behind.
+   *
+   * @param resource specified resource path
+   * @param target specified target file
+   * @param sha256 specified expected checksum or null to only check existence
+   * @param logDepth specified log indentation depth
+   * @throws IOException if an I/O error occurs
+   */
+  private void deploy(String resource, Path target, String sha256, int logDepth) throws IOException {
+    if (AdakiteUtils.fileExists(target)) {
+      if (sha256 == null || sha256.equals(getSha256Checksum(target))) {
+        return;
       }
+      uilog("Replacing corrupt " + target.getFileName().toString(), logDepth);
+    } else {
+      uilog("Extracting " + target.getFileName().toString(), logDepth);
+      logWrite(target);
+    }
+    URL url = DropLauncher.getResource(resource);
+    Path tmp = AtomicFile.getTempFile(target);
+    try {
+      FileUtils.copyURLToFile(url, tmp.toFile());
+      AtomicFile.move(tmp, target);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    /* Record the new file's metadata so the next launch takes the fast path. */
+    if (sha256 != null && !sha256.equals(getSha256Checksum(target))) {
+      uilog("Warning: bundled " + target.getFileName().toString() + " does not match its checksum", logDepth);
+    }
+  }
+
+  /**
+   * Returns the SHA-256 checksum of the specified file or null if it
+   * could not be read.
+   */
+  private static String getSha256Checksum(Path file) {
+    try {
+      return Model.getChecksumService().getChecksum(file, MultiDigest.SHA256).get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException ex) {
+      return null;
+    }
+  }
+
+  private static byte[] sha1(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance(MultiDigest.SHA1).digest(bytes);
+    } catch (NoSuchAlgorithmException ex) {
+      /* Every Java platform is required to support SHA-1. */
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  private void logWrite(Path file) {
+    if (this.writeLog != null) {
+      this.writeLog.accept(file);
     }
   }
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.bwapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Class for a set of per-launch changes to an INI file. The overlay is
+ * applied to the text of an original INI file in memory via
+ * {@link #render(java.lang.String)} so that the original file is
+ * never parsed into and re-serialized from an intermediate model.
+ * Lines which are not affected by the overlay are kept as-is.
+ */
+public class IniOverlay {
+
+  private static final String COMMENT_PREFIX = ";";
+
+  /* Maps "section" -> "key" -> value. A null value indicates the key should be commented out. */
+  private final Map<String, Map<String, String>> changes;
+
+  public IniOverlay() {
+    this.changes = new LinkedHashMap<>();
+  }
+
+  /**
+   * Sets the specified key in the specified section to the specified value.
+   * A commented occurrence of the key is uncommented if the key is not
+   * already active. The key is appended to the section if it does not exist.
+   *
+   * @param section specified section
+   * @param key specified key
+   * @param value specified value
+   */
+  public IniOverlay setValue(String section, String key, String value) {
+    if (value == null) {
+      throw new IllegalArgumentException("value cannot be null");
+    }
+    put(section, key, value);
+    return this;
+  }
+
+  /**
+   * Comments out every active occurrence of the specified key in the
+   * specified section.
+   *
+   * @param section specified section
+   * @param key specified key
+   */
+  public IniOverlay commentVariable(String section, String key) {
+    put(section, key, null);
+    return this;
+  }
+
+  private void put(String section, String key, String value) {
+    section = section.trim().toLowerCase(Locale.US);
+    key = key.trim().toLowerCase(Locale.US);
+    Map<String, String> keys = this.changes.get(section);
+    if (keys == null) {
+      keys = new LinkedHashMap<>();
+      this.changes.put(section, keys);
+    }
+    keys.put(key, value);
+  }
+
+  /**
+   * Returns the specified original INI text with this overlay applied.
+   * The line separator and trailing newline of the original are preserved.
+   *
+   * @param original specified original INI text
+   */
+  public String render(String original) {
+    String newline = original.contains("\r\n") ? "\r\n" : System.lineSeparator();
+    boolean hasTrailingNewline = original.endsWith("\n");
+
+    List<String> lines = new ArrayList<>(Arrays.asList(original.split("\r?\n", -1)));
+    if (hasTrailingNewline) {
+      /* Drop the empty element after the final line separator. */
+      lines.remove(lines.size() - 1);
+    }
+
+    for (Map.Entry<String, Map<String, String>> section : this.changes.entrySet()) {
+      for (Map.Entry<String, String> change : section.getValue().entrySet()) {
+        apply(lines, section.getKey(), change.getKey(), change.getValue());
+      }
+    }
+
+    StringBuilder sb = new StringBuilder(original.length() + 256);
+    for (int i = 0; i < lines.size(); i++) {
+      sb.append(lines.get(i));
+      if (i < lines.size() - 1 || hasTrailingNewline) {
+        sb.append(newline);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static void apply(List<String> lines, String section, String key, String value) {
+    int sectionStart = -1; /* index of the section header */
+    int sectionEnd = -1; /* index of the last non-blank line in the section */
+    int active = -1;
+    int commented = -1;
+    String currentSection = "";
+
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i).trim();
+      if (line.startsWith("[") && line.endsWith("]")) {
+        currentSection = line.substring(1, line.length() - 1).trim().toLowerCase(Locale.US);
+        if (currentSection.equals(section) && sectionStart < 0) {
+          sectionStart = i;
+          sectionEnd = i;
+        }
+        continue;
+      }
+      if (!currentSection.equals(section)) {
+        continue;
+      }
+      if (!line.isEmpty()) {
+        sectionEnd = i;
+      }
+      boolean isComment = line.startsWith(COMMENT_PREFIX) || line.startsWith("#");
+      String keyPart = isComment ? line.substring(1).trim() : line;
+      int eq = keyPart.indexOf('=');
+      if (eq < 0 || !keyPart.substring(0, eq).trim().toLowerCase(Locale.US).equals(key)) {
+        continue;
+      }
+      if (!isComment) {
+        if (value == null) {
+          lines.set(i, COMMENT_PREFIX + lines.get(i));
+        } else if (active < 0) {
+          active = i;
+        }
+      } else if (commented < 0) {
+        commented = i;
+      }
+    }
+
+    if (value == null) {
+      return;
+    }
+
+    String entry = key + " = " + value;
+    if (active >= 0) {
+      lines.set(active, entry);
+    } else if (commented >= 0) {
+      lines.set(commented, entry);
+    } else if (sectionStart >= 0) {
+      lines.add(sectionEnd + 1, entry);
+    } else {
+      if (!lines.isEmpty() && !lines.get(lines.size() - 1).trim().isEmpty()) {
+        lines.add("");
+      }
+      lines.add("[" + section + "]");
+      lines.add(entry);
+    }
+  }
+
+}
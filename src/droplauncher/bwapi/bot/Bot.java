@@ -94,6 +94,21 @@ public class Bot {
     this.extraFiles = new ArrayList<>();
   }
 
+  /**
+   * Creates a copy of the specified bot.
+   *
+   * @param bot specified bot
+   */
+  public Bot(Bot bot) {
+    this.settings = new Settings();
+    for (PropertyKey key : PropertyKey.values()) {
+      if (bot.settings.hasValue(key.toString())) {
+        this.settings.set(key.toString(), bot.settings.getValue(key.toString()));
+      }
+    }
+    this.extraFiles = new ArrayList<>(bot.extraFiles);
+  }
+
   /**
    * Returns the name of this bot.
    *
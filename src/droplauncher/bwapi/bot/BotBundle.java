@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.bwapi.bot;
+
+import adakite.exception.InvalidArgumentException;
+import droplauncher.bwapi.BWAPI;
+import droplauncher.bwapi.bot.exception.InvalidBwapiDllException;
+import droplauncher.bwapi.bot.exception.MissingBotFileException;
+import droplauncher.bwapi.bot.exception.MissingBotNameException;
+import droplauncher.bwapi.bot.exception.MissingBotRaceException;
+import droplauncher.bwapi.bot.exception.MissingBwapiDllException;
+import droplauncher.io.AtomicFile;
+import droplauncher.io.MultiDigest;
+import droplauncher.starcraft.Starcraft.Race;
+import droplauncher.starcraft.exception.StarcraftProfileNameException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Class for reading and writing single-file bot bundles (*.dlbot).
+ *
+ * A bundle starts with a header which contains the bot's metadata and a
+ * table of contents. Each entry of the table of contents names a file,
+ * its role and the SHA-256 checksum, offset and size of its content.
+ * Contents are stored once per checksum after the header.
+ *
+ * Opening a bundle maps and reads only the header. Extracting a bundle
+ * maps each content region and writes it directly to its target file.
+ */
+public class BotBundle {
+
+  public static final String EXTENSION = "dlbot";
+
+  /**
+   * The first bytes of every bundle.
+   */
+  public static final byte[] MAGIC = {'D', 'L', 'B', 'T'};
+
+  private static final int FORMAT_VERSION = 1;
+  private static final int PREFIX_LENGTH = 12; /* magic, version, header length */
+  private static final int HASH_LENGTH = 32; /* SHA-256 */
+  private static final int MAX_HEADER_LENGTH = 16 * 1024 * 1024;
+
+  public enum Role {
+
+    BOT,
+    BWAPI_DLL,
+    EXTRA_FILE
+
+  }
+
+  /**
+   * Table of contents entry of a bundle.
+   */
+  public static class Item {
+
+    private final Role role;
+    private final String name;
+    private final String hash;
+    private final long offset;
+    private final long size;
+
+    private Item(Role role, String name, String hash, long offset, long size) {
+      this.role = role;
+      this.name = name;
+      this.hash = hash;
+      this.offset = offset;
+      this.size = size;
+    }
+
+    public Role getRole() {
+      return this.role;
+    }
+
+    /**
+     * Returns the filename of this item.
+     */
+    public String getName() {
+      return this.name;
+    }
+
+    /**
+     * Returns the SHA-256 checksum of the content of this item.
+     */
+    public String getHash() {
+      return this.hash;
+    }
+
+    public long getSize() {
+      return this.size;
+    }
+
+  }
+
+  private final Path file;
+  private final String name;
+  private final String race;
+  private final Bot.Type type;
+  private final String bwapiVersion;
+  private final List<Item> items;
+
+  private BotBundle(Path file, String name, String race, Bot.Type type, String bwapiVersion, List<Item> items) {
+    this.file = file;
+    this.name = name;
+    this.race = race;
+    this.type = type;
+    this.bwapiVersion = bwapiVersion;
+    this.items = Collections.unmodifiableList(items);
+  }
+
+  public Path getFile() {
+    return this.file;
+  }
+
+  public String getName() {
+    return this.name;
+  }
+
+  public String getRace() {
+    return this.race;
+  }
+
+  public Bot.Type getType() {
+    return this.type;
+  }
+
+  public String getBwapiVersion() {
+    return this.bwapiVersion;
+  }
+
+  public List<Item> getItems() {
+    return this.items;
+  }
+
+  /**
+   * Tests whether the specified leading bytes of a file are the start of
+   * a bundle.
+   *
+   * @param header specified leading bytes
+   */
+  public static boolean isBundle(byte[] header) {
+    if (header.length < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header[i] != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the header of the specified bundle.
+   *
+   * @param file specified bundle
+   * @throws IOException if an I/O error occurs or the file is not a
+   *     valid bundle
+   */
+  public static BotBundle open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long fileSize = channel.size();
+      if (fileSize < PREFIX_LENGTH) {
+        throw new IOException("not a bot bundle: " + file.toString());
+      }
+      MappedByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREFIX_LENGTH);
+      byte[] magic = new byte[MAGIC.length];
+      prefix.get(magic);
+      if (!isBundle(magic)) {
+        throw new IOException("not a bot bundle: " + file.toString());
+      }
+      int version = prefix.getInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("unsupported bot bundle version " + version + ": " + file.toString());
+      }
+      int headerLength = prefix.getInt();
+      if (headerLength < PREFIX_LENGTH || headerLength > MAX_HEADER_LENGTH || headerLength > fileSize) {
+        throw new IOException("corrupt bot bundle header: " + file.toString());
+      }
+
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, PREFIX_LENGTH, headerLength - PREFIX_LENGTH);
+      byte[] header = new byte[mapped.remaining()];
+      mapped.get(header);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+      String name = in.readUTF();
+      String race = in.readUTF();
+      Bot.Type type;
+      try {
+        type = Bot.Type.valueOf(in.readUTF());
+      } catch (IllegalArgumentException ex) {
+        type = Bot.Type.UNKNOWN;
+      }
+      String bwapiVersion = in.readUTF();
+      int count = in.readInt();
+      if (count < 0) {
+        throw new IOException("corrupt bot bundle header: " + file.toString());
+      }
+      List<Item> items = new ArrayList<>();
+      byte[] hash = new byte[HASH_LENGTH];
+      for (int i = 0; i < count; i++) {
+        int roleOrdinal = in.readUnsignedByte();
+        String itemName = in.readUTF();
+        in.readFully(hash);
+        long offset = in.readLong();
+        long size = in.readLong();
+        if (roleOrdinal >= Role.values().length
+            || !isValidName(itemName)
+            || offset < headerLength || size < 0 || offset + size > fileSize) {
+          throw new IOException("corrupt bot bundle header: " + file.toString());
+        }
+        items.add(new Item(Role.values()[roleOrdinal], itemName, MultiDigest.toHex(hash), offset, size));
+      }
+      return new BotBundle(file, name, race, type, bwapiVersion, items);
+    }
+  }
+
+  /**
+   * Extracts the files of this bundle into the specified directory and
+   * returns a bot which uses them. Each file is verified against its
+   * checksum.
+   *
+   * @param directory specified target directory
+   * @throws IOException if an I/O error occurs or a file is corrupt
+   * @throws InvalidArgumentException if the bundle contains invalid metadata
+   */
+  public Bot extract(Path directory) throws IOException, InvalidArgumentException {
+    Files.createDirectories(directory);
+    Bot bot = new Bot();
+    try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+      for (Item item : this.items) {
+        Path target = directory.resolve(item.name);
+        extract(channel, item, target);
+        switch (item.role) {
+          case BOT:
+            bot.setFile(target);
+            break;
+          case BWAPI_DLL:
+            bot.setBwapiDll(target);
+            break;
+          case EXTRA_FILE:
+            bot.addExtraFile(target);
+            break;
+          default:
+            break;
+        }
+      }
+    } catch (InvalidBwapiDllException ex) {
+      throw new IOException(ex);
+    }
+    try {
+      bot.setName(this.name);
+    } catch (StarcraftProfileNameException ex) {
+      /* Keep the default name. */
+    }
+    bot.setRace(Race.isValid(this.race) ? this.race : Race.RANDOM.toString());
+    return bot;
+  }
+
+  private void extract(FileChannel channel, Item item, Path target) throws IOException {
+    MessageDigest md = newSha256();
+    Path tmp = AtomicFile.getTempFile(target);
+    try {
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        if (item.size > 0) {
+          MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, item.offset, item.size);
+          md.update(content.duplicate());
+          while (content.hasRemaining()) {
+            out.write(content);
+          }
+        }
+      }
+      if (!MultiDigest.toHex(md.digest()).equals(item.hash)) {
+        throw new IOException("checksum mismatch: " + item.name + " in " + this.file.toString());
+      }
+      AtomicFile.move(tmp, target);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Writes the specified bot to a bundle at the specified path. Extra
+   * files which do not exist are skipped.
+   *
+   * @param bot specified bot
+   * @param bwapiVersion specified version of the bot's BWAPI.dll
+   * @param target specified bundle file
+   * @throws IOException if an I/O error occurs
+   * @throws MissingBotFileException if the bot file is not set
+   */
+  public static void write(Bot bot, String bwapiVersion, Path target) throws IOException,
+                                                                             MissingBotFileException {
+    String name;
+    try {
+      name = bot.getName();
+    } catch (MissingBotNameException ex) {
+      name = Bot.DEFAULT_NAME;
+    }
+    String race;
+    try {
+      race = bot.getRace();
+    } catch (MissingBotRaceException ex) {
+      race = Race.RANDOM.toString();
+    }
+
+    /* Collect files by role. Later extra files with the same name replace earlier ones. */
+    Map<String, Path> files = new LinkedHashMap<>(); /* lowercase filename -> file */
+    Map<String, Role> fileRoles = new LinkedHashMap<>();
+    String botKey = FilenameUtils.getName(bot.getFile().toString()).toLowerCase(Locale.US);
+    files.put(botKey, bot.getFile());
+    fileRoles.put(botKey, Role.BOT);
+    try {
+      String dllKey = BWAPI.DLL_FILENAME_RELEASE.toLowerCase(Locale.US);
+      files.put(dllKey, bot.getBwapiDll());
+      fileRoles.put(dllKey, Role.BWAPI_DLL);
+    } catch (MissingBwapiDllException ex) {
+      /* Not set. */
+    }
+    for (String extraFile : bot.getExtraFiles()) {
+      Path path = Paths.get(extraFile);
+      String key = path.getFileName().toString().toLowerCase(Locale.US);
+      if (Files.isRegularFile(path) && fileRoles.getOrDefault(key, Role.EXTRA_FILE) == Role.EXTRA_FILE) {
+        files.put(key, path);
+        fileRoles.put(key, Role.EXTRA_FILE);
+      }
+    }
+
+    /* Hash each file and store each content once. */
+    List<Role> roles = new ArrayList<>();
+    List<Path> paths = new ArrayList<>();
+    List<String> hashes = new ArrayList<>();
+    Map<String, Path> contents = new LinkedHashMap<>(); /* hash -> first file with this content */
+    for (Map.Entry<String, Path> file : files.entrySet()) {
+      Path path = file.getValue();
+      String hash = MultiDigest.compute(path, Collections.singletonList(MultiDigest.SHA256)).get(MultiDigest.SHA256);
+      roles.add(fileRoles.get(file.getKey()));
+      paths.add(path);
+      hashes.add(hash);
+      contents.putIfAbsent(hash, path);
+    }
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    for (Map.Entry<String, Path> content : contents.entrySet()) {
+      sizes.put(content.getKey(), Files.size(content.getValue()));
+    }
+
+    /* The header length does not depend on the offsets, so it can be computed up front. */
+    int headerLength = PREFIX_LENGTH + encodeHeader(name, race, bot.getType(), bwapiVersion, roles, paths, hashes, null, sizes).length;
+    Map<String, Long> offsets = new LinkedHashMap<>();
+    long offset = headerLength;
+    for (Map.Entry<String, Long> size : sizes.entrySet()) {
+      offsets.put(size.getKey(), offset);
+      offset += size.getValue();
+    }
+    byte[] header = encodeHeader(name, race, bot.getType(), bwapiVersion, roles, paths, hashes, offsets, sizes);
+
+    Path parent = target.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path tmp = AtomicFile.getTempFile(target);
+    try {
+      try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer prefix = ByteBuffer.allocate(PREFIX_LENGTH);
+        prefix.put(MAGIC).putInt(FORMAT_VERSION).putInt(headerLength).flip();
+        writeFully(out, prefix);
+        writeFully(out, ByteBuffer.wrap(header));
+        for (Map.Entry<String, Path> content : contents.entrySet()) {
+          try (FileChannel in = FileChannel.open(content.getValue(), StandardOpenOption.READ)) {
+            long size = sizes.get(content.getKey());
+            long position = 0;
+            while (position < size) {
+              position += in.transferTo(position, size - position, out);
+            }
+          }
+        }
+      }
+      AtomicFile.move(tmp, target);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static byte[] encodeHeader(String name, String race, Bot.Type type, String bwapiVersion,
+                                     List<Role> roles, List<Path> paths, List<String> hashes,
+                                     Map<String, Long> offsets, Map<String, Long> sizes) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(name);
+    out.writeUTF(race);
+    out.writeUTF(type.name());
+    out.writeUTF((bwapiVersion != null) ? bwapiVersion : BWAPI.DLL_UNKNOWN);
+    out.writeInt(roles.size());
+    for (int i = 0; i < roles.size(); i++) {
+      String hash = hashes.get(i);
+      out.writeByte(roles.get(i).ordinal());
+      out.writeUTF((roles.get(i) == Role.BWAPI_DLL) ? BWAPI.DLL_FILENAME_RELEASE : paths.get(i).getFileName().toString());
+      out.write(MultiDigest.fromHex(hash));
+      out.writeLong((offsets != null) ? offsets.get(hash) : 0);
+      out.writeLong(sizes.get(hash));
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Tests whether the specified item name is a plain filename which
+   * cannot escape the extraction directory.
+   */
+  private static boolean isValidName(String name) {
+    return !name.isEmpty()
+        && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf(':') < 0
+        && !name.equals(".") && !name.equals("..");
+  }
+
+  private static MessageDigest newSha256() throws IOException {
+    try {
+      return MessageDigest.getInstance(MultiDigest.SHA256);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+}
@@ -0,0 +1,763 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.bwapi.bot;
+
+import adakite.exception.InvalidArgumentException;
+import droplauncher.DropLauncher;
+import droplauncher.bwapi.BWAPI;
+import droplauncher.bwapi.bot.exception.InvalidBwapiDllException;
+import droplauncher.bwapi.bot.exception.MissingBotFileException;
+import droplauncher.bwapi.bot.exception.MissingBotNameException;
+import droplauncher.bwapi.bot.exception.MissingBotRaceException;
+import droplauncher.bwapi.bot.exception.MissingBwapiDllException;
+import droplauncher.io.AtomicFile;
+import droplauncher.io.ChecksumService;
+import droplauncher.io.MultiDigest;
+import droplauncher.io.PortableExecutable;
+import droplauncher.jre.JRE;
+import droplauncher.starcraft.Starcraft;
+import droplauncher.starcraft.Starcraft.Race;
+import droplauncher.starcraft.exception.StarcraftProfileNameException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Class for remembering bots between sessions so that loading a known bot
+ * is a lookup rather than a full import.
+ *
+ * Bots are keyed by the SHA-1 checksum of the bot file. An entry stores
+ * the bot's name, race, type, BWAPI version, resolved dependencies, extra
+ * files and the settings of its last launch. Checksums are computed via
+ * {@link ChecksumService}, so looking up an unmodified bot file does not
+ * read the file again.
+ *
+ * The catalog is a binary file which starts with an index of checksums
+ * and record offsets sorted by checksum, followed by the records. Only
+ * the index is decoded when the catalog is loaded. Records are decoded on
+ * first access.
+ */
+public class BotCatalog {
+
+  private static final Logger LOGGER = Logger.getLogger(BotCatalog.class.getName());
+
+  /**
+   * Default path to the catalog file used by this program.
+   */
+  public static final Path DEFAULT_FILE = DropLauncher.DATA_DIRECTORY.resolve("bots.catalog");
+
+  private static final int MAGIC = 0x444c4243; /* "DLBC" */
+  private static final int FORMAT_VERSION = 1;
+  private static final int HASH_LENGTH = 20; /* SHA-1 */
+  private static final int HEADER_LENGTH = 12; /* magic, version, count */
+  private static final int INDEX_ENTRY_LENGTH = HASH_LENGTH + 8; /* hash, offset, length */
+
+  /**
+   * Callback for the progress of {@link #catalog(Path, ProgressListener)}.
+   */
+  public interface ProgressListener {
+    void progress(int done, int total);
+  }
+
+  /**
+   * Immutable catalog entry of a single bot.
+   */
+  public static class Entry {
+
+    private final String hash;
+    private final Path file;
+    private final String name;
+    private final String race;
+    private final Bot.Type type;
+    private final Path bwapiDll;
+    private final String bwapiVersion;
+    private final List<String> dependencies;
+    private final List<String> extraFiles;
+    private final Map<String, String> settings;
+    private final long lastUsed;
+
+    private Entry(String hash, Path file, String name, String race, Bot.Type type,
+                  Path bwapiDll, String bwapiVersion, List<String> dependencies,
+                  List<String> extraFiles, Map<String, String> settings, long lastUsed) {
+      this.hash = hash;
+      this.file = file;
+      this.name = name;
+      this.race = race;
+      this.type = type;
+      this.bwapiDll = bwapiDll;
+      this.bwapiVersion = bwapiVersion;
+      this.dependencies = Collections.unmodifiableList(new ArrayList<>(dependencies));
+      this.extraFiles = Collections.unmodifiableList(new ArrayList<>(extraFiles));
+      this.settings = Collections.unmodifiableMap(new TreeMap<>(settings));
+      this.lastUsed = lastUsed;
+    }
+
+    /**
+     * Returns the SHA-1 checksum of the bot file.
+     */
+    public String getHash() {
+      return this.hash;
+    }
+
+    /**
+     * Returns the path where the bot file was last seen.
+     */
+    public Path getFile() {
+      return this.file;
+    }
+
+    public String getName() {
+      return this.name;
+    }
+
+    public String getRace() {
+      return this.race;
+    }
+
+    public Bot.Type getType() {
+      return this.type;
+    }
+
+    /**
+     * Returns the path to BWAPI.dll or null if not set.
+     */
+    public Path getBwapiDll() {
+      return this.bwapiDll;
+    }
+
+    public String getBwapiVersion() {
+      return this.bwapiVersion;
+    }
+
+    /**
+     * Returns the files the bot requires besides its own file, e.g.
+     * BWAPI.dll or the JRE for JAR bots.
+     */
+    public List<String> getDependencies() {
+      return this.dependencies;
+    }
+
+    public List<String> getExtraFiles() {
+      return this.extraFiles;
+    }
+
+    /**
+     * Returns the program settings of the bot's last launch or an empty
+     * map if the bot was never launched.
+     */
+    public Map<String, String> getSettings() {
+      return this.settings;
+    }
+
+    /**
+     * Returns the time of the last import or launch in milliseconds
+     * since the epoch.
+     */
+    public long getLastUsed() {
+      return this.lastUsed;
+    }
+
+    /**
+     * Returns a new bot which uses the files and properties of this entry.
+     *
+     * @throws InvalidArgumentException if the entry contains an invalid value
+     * @throws StarcraftProfileNameException if the name is not a valid profile name
+     * @throws InvalidBwapiDllException if the BWAPI.dll path is invalid
+     */
+    public Bot toBot() throws InvalidArgumentException,
+                              StarcraftProfileNameException,
+                              InvalidBwapiDllException {
+      Bot bot = new Bot();
+      bot.setFile(this.file);
+      bot.setName(this.name);
+      bot.setRace(this.race);
+      if (this.bwapiDll != null) {
+        bot.setBwapiDll(this.bwapiDll);
+      }
+      for (String extraFile : this.extraFiles) {
+        bot.addExtraFile(Paths.get(extraFile));
+      }
+      return bot;
+    }
+
+    @Override
+    public String toString() {
+      return this.name + " (" + this.race + ", BWAPI " + this.bwapiVersion + ")";
+    }
+
+  }
+
+  /**
+   * Summary of {@link #catalog(Path, ProgressListener)}.
+   */
+  public static class Report {
+
+    private final List<Entry> entries;
+    private final Map<Path, List<String>> problems;
+
+    private Report(List<Entry> entries, Map<Path, List<String>> problems) {
+      this.entries = Collections.unmodifiableList(entries);
+      this.problems = Collections.unmodifiableMap(problems);
+    }
+
+    /**
+     * Returns the entries which were added or updated.
+     */
+    public List<Entry> getEntries() {
+      return this.entries;
+    }
+
+    /**
+     * Returns the problems found during validation keyed by the
+     * cataloged file or directory. Bots with problems are still
+     * cataloged if a bot file was found.
+     */
+    public Map<Path, List<String>> getProblems() {
+      return this.problems;
+    }
+
+    @Override
+    public String toString() {
+      return "cataloged=" + this.entries.size() + ", with_problems=" + this.problems.size();
+    }
+
+  }
+
+  private final ChecksumService checksumService;
+  private final ImportPipeline importPipeline;
+  private final Path file;
+  private final ExecutorService executor;
+  private byte[] data; /* contents of the catalog file when it was loaded */
+  private Map<String, int[]> index; /* hash -> {offset, length} into data */
+  private Map<String, Entry> entries; /* decoded and modified entries */
+
+  /**
+   * Creates a catalog which is persisted to the specified file.
+   *
+   * @param checksumService specified service used to identify bot files
+   * @param importPipeline specified pipeline used to catalog directories
+   * @param file specified catalog file
+   */
+  public BotCatalog(ChecksumService checksumService, ImportPipeline importPipeline, Path file) {
+    if (checksumService == null || importPipeline == null || file == null) {
+      throw new IllegalArgumentException("checksumService, importPipeline and file cannot be null");
+    }
+    this.checksumService = checksumService;
+    this.importPipeline = importPipeline;
+    this.file = file;
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "catalog-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.data = null;
+    this.index = null;
+    this.entries = null;
+  }
+
+  /**
+   * Returns a future which completes with the entry of the specified bot
+   * file or null if the bot is unknown or the file cannot be read.
+   *
+   * @param botFile specified bot file
+   */
+  public CompletableFuture<Entry> find(Path botFile) {
+    return this.checksumService.getChecksum(botFile, MultiDigest.SHA1)
+        .handle((hash, ex) -> (ex == null) ? get(hash) : null);
+  }
+
+  /**
+   * Returns the entry with the specified checksum or null if not found.
+   *
+   * @param hash specified SHA-1 checksum of the bot file
+   */
+  public synchronized Entry get(String hash) {
+    load();
+    Entry entry = this.entries.get(hash);
+    if (entry == null) {
+      int[] location = this.index.get(hash);
+      if (location != null) {
+        try {
+          entry = decode(hash, this.data, location[0], location[1]);
+          this.entries.put(hash, entry);
+        } catch (IOException ex) {
+          LOGGER.log(Level.WARNING, "failed to decode catalog entry: " + hash, ex);
+        }
+      }
+    }
+    return entry;
+  }
+
+  /**
+   * Returns every entry, most recently used first.
+   */
+  public synchronized List<Entry> getEntries() {
+    load();
+    List<Entry> ret = new ArrayList<>();
+    for (String hash : new ArrayList<>(this.index.keySet())) {
+      Entry entry = get(hash);
+      if (entry != null) {
+        ret.add(entry);
+      }
+    }
+    ret.sort(Comparator.comparingLong(Entry::getLastUsed).reversed());
+    return ret;
+  }
+
+  /**
+   * Returns a future which completes with every entry, most recently used
+   * first. The catalog is read in the background, so this method is safe
+   * to call from the JavaFX thread.
+   */
+  public CompletableFuture<List<Entry>> getEntriesAsync() {
+    return CompletableFuture.supplyAsync(this::getEntries, this.executor);
+  }
+
+  /**
+   * Removes entries whose bot file no longer exists and entries whose bot
+   * file is located in the specified directory and has not been used for
+   * longer than the specified age, then persists the catalog if anything
+   * was removed. Used to release files extracted by imports so that they
+   * can be deleted.
+   *
+   * @param directory specified directory of expiring files, e.g. the
+   *     temporary directory of {@link ImportPipeline}
+   * @param maxAge specified maximum age in milliseconds since the last use
+   * @return a future which completes with the removed entries
+   */
+  public CompletableFuture<List<Entry>> prune(Path directory, long maxAge) {
+    Path normalizedDirectory = directory.toAbsolutePath().normalize();
+    return CompletableFuture.supplyAsync(() -> {
+      long now = System.currentTimeMillis();
+      List<Entry> removed = new ArrayList<>();
+      synchronized (this) {
+        for (Entry entry : getEntries()) {
+          boolean isExpired = entry.getFile().toAbsolutePath().normalize().startsWith(normalizedDirectory)
+              && now - entry.getLastUsed() > maxAge;
+          if (isExpired || !Files.isRegularFile(entry.getFile())) {
+            this.index.remove(entry.getHash());
+            this.entries.remove(entry.getHash());
+            removed.add(entry);
+          }
+        }
+        if (!removed.isEmpty()) {
+          store();
+        }
+      }
+      return removed;
+    }, this.executor);
+  }
+
+  /**
+   * Removes the entry with the specified checksum and persists the catalog.
+   *
+   * @param hash specified SHA-1 checksum of the bot file
+   */
+  public CompletableFuture<Void> remove(String hash) {
+    return CompletableFuture.runAsync(() -> {
+      synchronized (this) {
+        load();
+        if (this.index.remove(hash) != null) {
+          this.entries.remove(hash);
+          store();
+        }
+      }
+    }, this.executor);
+  }
+
+  /**
+   * Adds or updates the entry of the specified bot and persists the
+   * catalog. The bot's BWAPI version and dependencies are resolved in the
+   * background.
+   *
+   * @param bot specified bot, which is not modified
+   * @param settings specified settings of the bot's launch or null to
+   *     keep the settings of the existing entry
+   */
+  public CompletableFuture<Entry> record(Bot bot, Map<String, String> settings) {
+    Bot copy = new Bot(bot);
+    return createEntry(copy, settings, new ArrayList<>()).thenApplyAsync(entry -> {
+      put(Collections.singletonList(entry));
+      return entry;
+    }, this.executor);
+  }
+
+  /**
+   * Catalogs every bot in the specified directory in parallel. Each file
+   * or subdirectory of the specified directory is imported as one bot via
+   * {@link ImportPipeline} and validated. Existing entries keep their
+   * race and settings.
+   *
+   * @param directory specified directory of bots
+   * @param listener specified progress listener or null
+   */
+  public CompletableFuture<Report> catalog(Path directory, ProgressListener listener) {
+    ProgressListener progress = (listener != null) ? listener : (done, total) -> {};
+    return CompletableFuture.supplyAsync(() -> {
+      List<Path> children = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path child : stream) {
+          children.add(child);
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+      Collections.sort(children);
+      return children;
+    }, this.executor).thenCompose(children -> {
+      int total = children.size();
+      AtomicInteger done = new AtomicInteger(0);
+      Map<Path, List<String>> problems = Collections.synchronizedMap(new TreeMap<>());
+      List<CompletableFuture<Entry>> futures = new ArrayList<>();
+      List<ImportPipeline.Task> tasks = new ArrayList<>();
+      for (Path child : children) {
+        List<String> childProblems = Collections.synchronizedList(new ArrayList<>());
+        ImportPipeline.Task task = this.importPipeline.start(Collections.singletonList(child), null);
+        tasks.add(task);
+        futures.add(task.getResult()
+            .thenCompose(result -> catalogResult(result, childProblems))
+            .handle((entry, ex) -> {
+              if (ex != null) {
+                Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                childProblems.add("failed to import: " + cause.getMessage());
+              }
+              if (!childProblems.isEmpty()) {
+                problems.put(child, new ArrayList<>(childProblems));
+              }
+              progress.progress(done.incrementAndGet(), total);
+              return (ex == null) ? entry : null;
+            }));
+      }
+      return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApplyAsync(v -> {
+        List<Entry> cataloged = new ArrayList<>();
+        for (CompletableFuture<Entry> future : futures) {
+          Entry entry = future.join();
+          if (entry != null) {
+            cataloged.add(entry);
+          }
+        }
+        put(cataloged);
+        return new Report(cataloged, new LinkedHashMap<>(problems));
+      }, this.executor).whenComplete((report, ex) -> {
+        /* The extracted files are now referenced by the stored entries. */
+        for (ImportPipeline.Task task : tasks) {
+          task.release();
+        }
+      });
+    });
+  }
+
+  private CompletableFuture<Entry> catalogResult(ImportPipeline.Result result, List<String> problems) {
+    problems.addAll(result.getWarnings());
+    if (result.getBotFile() == null) {
+      problems.add("no bot file found");
+      return CompletableFuture.completedFuture(null);
+    }
+    Bot bot = new Bot();
+    try {
+      Path botFile = result.getBotFile().toAbsolutePath();
+      bot.setFile(botFile);
+      bot.setName(Starcraft.sanitizeProfileName(FilenameUtils.getBaseName(botFile.toString())));
+      bot.setRace(Race.RANDOM.toString());
+      if (result.getBwapiDll() != null) {
+        bot.setBwapiDll(result.getBwapiDll().toAbsolutePath());
+      }
+      for (Path config : result.getConfigFiles()) {
+        bot.addExtraFile(config.toAbsolutePath());
+      }
+    } catch (Exception ex) {
+      problems.add(ex.getMessage());
+      return CompletableFuture.completedFuture(null);
+    }
+    return createEntry(bot, null, problems);
+  }
+
+  /**
+   * Hashes, resolves and validates the specified bot. Values of an
+   * existing entry with the same checksum are kept where the bot does not
+   * provide them. Problems found during validation are added to the
+   * specified list.
+   */
+  private CompletableFuture<Entry> createEntry(Bot bot, Map<String, String> settings, List<String> problems) {
+    Path botFile;
+    try {
+      botFile = bot.getFile().toAbsolutePath();
+    } catch (MissingBotFileException ex) {
+      CompletableFuture<Entry> failed = new CompletableFuture<>();
+      failed.completeExceptionally(ex);
+      return failed;
+    }
+    CompletableFuture<String> dllChecksum;
+    Path dll;
+    try {
+      dll = bot.getBwapiDll().toAbsolutePath();
+      dllChecksum = this.checksumService.getChecksum(dll, MultiDigest.MD5)
+          .handle((md5sum, ex) -> (ex == null) ? md5sum : null);
+    } catch (MissingBwapiDllException ex) {
+      dll = null;
+      dllChecksum = CompletableFuture.completedFuture(null);
+    }
+    Path bwapiDll = dll;
+    return this.checksumService.getChecksum(botFile, MultiDigest.SHA1).thenCombineAsync(dllChecksum, (hash, md5sum) -> {
+      Entry existing = get(hash);
+
+      String name;
+      try {
+        name = bot.getName();
+      } catch (MissingBotNameException ex) {
+        name = (existing != null) ? existing.getName() : Bot.DEFAULT_NAME;
+      }
+      String race;
+      if (existing != null && settings == null) {
+        /* Cataloging must not overwrite a race chosen by the user. */
+        race = existing.getRace();
+      } else {
+        try {
+          race = bot.getRace();
+        } catch (MissingBotRaceException ex) {
+          race = Race.RANDOM.toString();
+        }
+      }
+      Bot.Type type;
+      try {
+        type = bot.getType();
+      } catch (MissingBotFileException ex) {
+        type = Bot.Type.UNKNOWN;
+      }
+      if (type == Bot.Type.UNKNOWN) {
+        problems.add("unsupported bot type: " + botFile.getFileName().toString());
+      }
+
+      /* Resolve and validate dependencies. */
+      List<String> dependencies = new ArrayList<>();
+      String bwapiVersion = BWAPI.DLL_UNKNOWN;
+      if (bwapiDll == null) {
+        problems.add(BWAPI.DLL_FILENAME_RELEASE + " not found");
+      } else {
+        dependencies.add(bwapiDll.toString());
+        PortableExecutable headers = null;
+        try {
+          headers = PortableExecutable.read(bwapiDll);
+        } catch (IOException ex) {
+          problems.add("failed to read " + BWAPI.DLL_FILENAME_RELEASE + ": " + ex.getMessage());
+        }
+        bwapiVersion = (md5sum == null && headers == null) ? BWAPI.DLL_UNKNOWN : BWAPI.getBwapiVersion(md5sum, headers);
+        if (bwapiVersion.equals(BWAPI.DLL_UNKNOWN)) {
+          problems.add("unknown " + BWAPI.DLL_FILENAME_RELEASE + " version");
+        }
+      }
+      if (FilenameUtils.getExtension(botFile.toString()).equalsIgnoreCase("jar")) {
+        dependencies.add(JRE.BINARY_FILE.toString());
+      }
+      for (String extraFile : bot.getExtraFiles()) {
+        if (!Files.isRegularFile(Paths.get(extraFile))) {
+          problems.add("extra file not found: " + extraFile);
+        }
+      }
+
+      Map<String, String> entrySettings = (settings != null) ? settings
+          : (existing != null) ? existing.getSettings() : Collections.<String, String>emptyMap();
+      return new Entry(hash, botFile, name, race, type, bwapiDll, bwapiVersion,
+          dependencies, bot.getExtraFiles(), entrySettings, System.currentTimeMillis());
+    }, this.executor);
+  }
+
+  private synchronized void put(List<Entry> added) {
+    if (added.isEmpty()) {
+      return;
+    }
+    load();
+    for (Entry entry : added) {
+      this.entries.put(entry.getHash(), entry);
+      if (!this.index.containsKey(entry.getHash())) {
+        this.index.put(entry.getHash(), null);
+      }
+    }
+    store();
+  }
+
+  /* ************************************************************ */
+  /* Catalog file */
+  /* ************************************************************ */
+
+  private void load() {
+    if (this.entries != null) {
+      return;
+    }
+    this.entries = new HashMap<>();
+    this.index = new TreeMap<>();
+    this.data = new byte[0];
+    if (!Files.isRegularFile(this.file)) {
+      return;
+    }
+    try {
+      byte[] bytes = Files.readAllBytes(this.file);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (bytes.length < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        LOGGER.log(Level.WARNING, "ignoring unsupported catalog file: {0}", this.file);
+        return;
+      }
+      int count = buffer.getInt();
+      if (count < 0 || (long) count * INDEX_ENTRY_LENGTH > buffer.remaining()) {
+        throw new IOException("corrupt index");
+      }
+      Map<String, int[]> entries = new TreeMap<>();
+      byte[] hash = new byte[HASH_LENGTH];
+      for (int i = 0; i < count; i++) {
+        buffer.get(hash);
+        int offset = buffer.getInt();
+        int length = buffer.getInt();
+        if (offset < 0 || length < 0 || (long) offset + length > bytes.length) {
+          throw new IOException("corrupt index");
+        }
+        entries.put(MultiDigest.toHex(hash), new int[] {offset, length});
+      }
+      this.index = entries;
+      this.data = bytes;
+    } catch (IOException | RuntimeException ex) {
+      LOGGER.log(Level.WARNING, "failed to read catalog file: " + this.file.toString(), ex);
+    }
+  }
+
+  private void store() {
+    try {
+      /* Decode remaining records so the old data can be released. */
+      for (String hash : new ArrayList<>(this.index.keySet())) {
+        if (get(hash) == null) {
+          this.index.remove(hash);
+        }
+      }
+
+      List<String> hashes = new ArrayList<>(this.index.keySet());
+      List<byte[]> records = new ArrayList<>();
+      for (String hash : hashes) {
+        records.add(encode(this.entries.get(hash)));
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(hashes.size());
+      int offset = HEADER_LENGTH + hashes.size() * INDEX_ENTRY_LENGTH;
+      Map<String, int[]> newIndex = new TreeMap<>();
+      for (int i = 0; i < hashes.size(); i++) {
+        out.write(MultiDigest.fromHex(hashes.get(i)));
+        out.writeInt(offset);
+        out.writeInt(records.get(i).length);
+        newIndex.put(hashes.get(i), new int[] {offset, records.get(i).length});
+        offset += records.get(i).length;
+      }
+      for (byte[] record : records) {
+        out.write(record);
+      }
+      out.flush();
+      this.data = bytes.toByteArray();
+      this.index = newIndex;
+      AtomicFile.write(this.file, this.data);
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to write catalog file: " + this.file.toString(), ex);
+    }
+  }
+
+  private static byte[] encode(Entry entry) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(entry.file.toString());
+    out.writeUTF(entry.name);
+    out.writeUTF(entry.race);
+    out.writeByte(entry.type.ordinal());
+    out.writeUTF((entry.bwapiDll != null) ? entry.bwapiDll.toString() : "");
+    out.writeUTF(entry.bwapiVersion);
+    out.writeLong(entry.lastUsed);
+    writeStrings(out, entry.dependencies);
+    writeStrings(out, entry.extraFiles);
+    out.writeShort(entry.settings.size());
+    for (Map.Entry<String, String> setting : entry.settings.entrySet()) {
+      out.writeUTF(setting.getKey());
+      out.writeUTF(setting.getValue());
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static Entry decode(String hash, byte[] data, int offset, int length) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, offset, length));
+    Path file = Paths.get(in.readUTF());
+    String name = in.readUTF();
+    String race = in.readUTF();
+    int typeOrdinal = in.readUnsignedByte();
+    Bot.Type type = (typeOrdinal < Bot.Type.values().length) ? Bot.Type.values()[typeOrdinal] : Bot.Type.UNKNOWN;
+    String bwapiDll = in.readUTF();
+    String bwapiVersion = in.readUTF();
+    long lastUsed = in.readLong();
+    List<String> dependencies = readStrings(in);
+    List<String> extraFiles = readStrings(in);
+    int settingCount = in.readUnsignedShort();
+    Map<String, String> settings = new TreeMap<>();
+    for (int i = 0; i < settingCount; i++) {
+      settings.put(in.readUTF(), in.readUTF());
+    }
+    return new Entry(hash, file, name, race, type,
+        bwapiDll.isEmpty() ? null : Paths.get(bwapiDll), bwapiVersion,
+        dependencies, extraFiles, settings, lastUsed);
+  }
+
+  private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+    out.writeShort(strings.size());
+    for (String str : strings) {
+      out.writeUTF(str);
+    }
+  }
+
+  private static List<String> readStrings(DataInputStream in) throws IOException {
+    int count = in.readUnsignedShort();
+    List<String> strings = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      strings.add(in.readUTF());
+    }
+    return strings;
+  }
+
+}
@@ -0,0 +1,968 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.bwapi.bot;
+
+import adakite.exception.InvalidArgumentException;
+import droplauncher.bwapi.BWAPI;
+import droplauncher.bwapi.bot.exception.MissingBotFileException;
+import droplauncher.bwapi.bot.exception.MissingBwapiDllException;
+import droplauncher.exception.EncryptedArchiveException;
+import droplauncher.io.ChecksumService;
+import droplauncher.io.MultiDigest;
+import droplauncher.starcraft.Starcraft;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import net.lingala.zip4j.exception.ZipException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Class for importing dropped or selected files in the background.
+ *
+ * Files pass through the following stages, each of which runs in
+ * parallel on a small worker pool:
+ * <ol>
+ *   <li>walk: dropped directories are traversed, one task per directory</li>
+ *   <li>sniff: the first bytes of every file are read to tell executables
+ *       and archives apart regardless of their extension</li>
+ *   <li>extract: the top-level entries of archives are sniffed and
+ *       classified from the archive itself. Only entries which are used
+ *       are streamed to disk. Bot bundles (*.{@value BotBundle#EXTENSION})
+ *       are extracted completely and their files keep the roles recorded
+ *       in the bundle.</li>
+ *   <li>classify and deduplicate: every file is classified as the bot,
+ *       {@value droplauncher.bwapi.BWAPI#DLL_FILENAME_RELEASE},
+ *       {@value droplauncher.starcraft.Starcraft#BINARY_FILENAME} or a
+ *       configuration file and duplicates are removed</li>
+ * </ol>
+ *
+ * The pipeline does not modify the bot. The caller applies the
+ * {@link Result} in a single step once the import has completed.
+ *
+ * Every import extracts into its own temporary directory, so concurrent
+ * imports do not interfere. Directories of cancelled or failed imports
+ * are deleted in the background. Directories of completed imports are
+ * kept until {@link #cleanup(java.util.Collection)} finds them unused.
+ */
+public class ImportPipeline {
+
+  private static final Logger LOGGER = Logger.getLogger(ImportPipeline.class.getName());
+
+  public enum Kind {
+    BOT,
+    BWAPI_DLL,
+    STARCRAFT_EXE,
+    CONFIG,
+    ARCHIVE,
+    BUNDLE,
+    INVALID
+  }
+
+  public enum Stage {
+
+    WALK("Scanning"),
+    SNIFF("Reading"),
+    EXTRACT("Extracting"),
+    CLASSIFY("Comparing")
+    ;
+
+    private final String str;
+
+    private Stage(String str) {
+      this.str = str;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
+  /**
+   * Interface for receiving progress updates. Called from worker threads.
+   */
+  public interface ProgressListener {
+
+    /**
+     * @param stage current stage
+     * @param done number of items completed in the current stage
+     * @param total number of items in the current stage or -1 if unknown
+     */
+    void progress(Stage stage, int done, int total);
+
+  }
+
+  /**
+   * Classified files of a completed import.
+   */
+  public static class Result {
+
+    private final Path botFile;
+    private final Path bwapiDll;
+    private final Path starcraftExe;
+    private final List<Path> configFiles;
+    private final List<String> warnings;
+    private final BotBundle bundle;
+
+    private Result(Path botFile, Path bwapiDll, Path starcraftExe, List<Path> configFiles, List<String> warnings, BotBundle bundle) {
+      this.botFile = botFile;
+      this.bwapiDll = bwapiDll;
+      this.starcraftExe = starcraftExe;
+      this.configFiles = Collections.unmodifiableList(configFiles);
+      this.warnings = Collections.unmodifiableList(warnings);
+      this.bundle = bundle;
+    }
+
+    /**
+     * Returns the bot file or null if none was found.
+     */
+    public Path getBotFile() {
+      return this.botFile;
+    }
+
+    /**
+     * Returns the BWAPI.dll or null if none was found.
+     */
+    public Path getBwapiDll() {
+      return this.bwapiDll;
+    }
+
+    /**
+     * Returns the StarCraft.exe or null if none was found.
+     */
+    public Path getStarcraftExe() {
+      return this.starcraftExe;
+    }
+
+    public List<Path> getConfigFiles() {
+      return this.configFiles;
+    }
+
+    /**
+     * Returns messages about files which were skipped or replaced.
+     */
+    public List<String> getWarnings() {
+      return this.warnings;
+    }
+
+    /**
+     * Returns the bundle the bot file was extracted from or null if the
+     * bot file did not come from a bundle.
+     */
+    public BotBundle getBundle() {
+      return this.bundle;
+    }
+
+  }
+
+  /**
+   * Handle of a running import. The files of a successful import are
+   * protected from {@link ImportPipeline#cleanup(java.util.Collection)}
+   * until {@link #release()} is called, so the consumer must release the
+   * task once it has recorded or discarded the result.
+   */
+  public static class Task {
+
+    private final AtomicBoolean isCancelled;
+    private final CompletableFuture<Result> result;
+    private final Path parentDirectory;
+    private final Set<Task> activeTasks;
+    private Path directory;
+
+    private Task(Path parentDirectory, Set<Task> activeTasks) {
+      this.isCancelled = new AtomicBoolean(false);
+      this.result = new CompletableFuture<>();
+      this.parentDirectory = parentDirectory;
+      this.activeTasks = activeTasks;
+      this.directory = null;
+    }
+
+    /**
+     * Returns the temporary directory of this import, creating it on
+     * first use.
+     */
+    private synchronized Path getDirectory() throws IOException {
+      if (this.directory == null) {
+        Files.createDirectories(this.parentDirectory);
+        this.directory = Files.createTempDirectory(this.parentDirectory, TEMP_DIRECTORY_PREFIX);
+      }
+      return this.directory;
+    }
+
+    /**
+     * Returns the temporary directory or null if nothing was extracted.
+     */
+    private synchronized Path peekDirectory() {
+      return this.directory;
+    }
+
+    /**
+     * Requests cancellation. Work which is in progress finishes its
+     * current file. The result completes with a
+     * {@link CancellationException}.
+     */
+    public void cancel() {
+      this.isCancelled.set(true);
+      this.result.cancel(false);
+    }
+
+    public boolean isCancelled() {
+      return this.isCancelled.get();
+    }
+
+    /**
+     * Allows the files of this import to be deleted by the next cleanup
+     * unless they are still in use. Called by the consumer of the result
+     * once it has been recorded or discarded.
+     */
+    public void release() {
+      this.activeTasks.remove(this);
+    }
+
+    public CompletableFuture<Result> getResult() {
+      return this.result;
+    }
+
+    private void checkCancelled() {
+      if (this.isCancelled.get()) {
+        throw new CancellationException();
+      }
+    }
+
+  }
+
+  private static final String TEMP_DIRECTORY_PREFIX = "import-";
+  private static final long CLEANUP_GRACE_PERIOD = 2000; /* milliseconds, file times may be coarse */
+
+  private static final int MAX_ARCHIVE_DEPTH = 2; /* archives inside archives inside archives are ignored */
+
+  /* Lowercase filename prefixes of libraries which are shipped with bots but are never the bot. */
+  private static final String[] DEPENDENCY_PREFIXES = {
+    "bwta", "bwem", "boost", "msvc", "vcruntime", "concrt", "ucrtbase", "api-ms-",
+    "libgcc", "libstdc++", "libwinpthread", "libgomp", "tbb", "zlib", "sqlite", "bwapiclient"
+  };
+
+  /*
+   * Order of bot candidates: the file of a bot bundle, then a file named
+   * like the dropped directory or archive, then the shallowest file, then
+   * *.exe and *.jar files, which are started directly, then the largest.
+   */
+  private static final Comparator<Entry> BOT_PREFERENCE = Comparator
+      .comparing((Entry e) -> e.bundle == null)
+      .thenComparing(e -> !isNamedLikeOrigin(e))
+      .thenComparingInt(e -> e.depth)
+      .thenComparing(e -> FilenameUtils.getExtension(e.file.toString()).equalsIgnoreCase("dll"))
+      .thenComparing(Comparator.comparingLong((Entry e) -> e.size).reversed());
+
+  private static final byte[] MAGIC_PE = {'M', 'Z'};
+  private static final byte[] MAGIC_ZIP = {'P', 'K', 3, 4};
+  private static final byte[] MAGIC_ZIP_EMPTY = {'P', 'K', 5, 6};
+  private static final int MAGIC_LENGTH = 4;
+
+  private final ExecutorService executor;
+  private final ChecksumService checksumService;
+  private final Path tempDirectory;
+  private final AtomicInteger archiveCount;
+  private final Set<Task> activeTasks;
+
+  /**
+   * Creates a pipeline which extracts archives below the specified
+   * temporary directory.
+   *
+   * @param checksumService service used to compare file contents
+   * @param tempDirectory specified temporary directory
+   */
+  public ImportPipeline(ChecksumService checksumService, Path tempDirectory) {
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "import-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.checksumService = checksumService;
+    this.tempDirectory = tempDirectory;
+    this.archiveCount = new AtomicInteger(0);
+    this.activeTasks = ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+   * Starts importing the specified files and directories.
+   *
+   * @param roots specified files and directories
+   * @param listener specified progress listener or null
+   */
+  public Task start(Collection<Path> roots, ProgressListener listener) {
+    Task task = new Task(this.tempDirectory, this.activeTasks);
+    this.activeTasks.add(task);
+    ProgressListener progress = (listener != null) ? listener : (stage, done, total) -> {};
+    List<Path> rootList = new ArrayList<>(roots);
+
+    progress.progress(Stage.WALK, 0, -1);
+    List<CompletableFuture<List<Entry>>> walks = new ArrayList<>();
+    for (Path root : rootList) {
+      if (Files.isDirectory(root)) {
+        walks.add(walk(root, 1, task, getOrigin(root)));
+      } else {
+        walks.add(CompletableFuture.completedFuture(Collections.singletonList(new Entry(root, 0))));
+      }
+    }
+    flatten(walks)
+        .thenCompose(entries -> sniff(entries, task, progress))
+        .thenCompose(entries -> classify(entries, task, progress))
+        .whenComplete((result, ex) -> {
+          if (ex != null || task.isCancelled()) {
+            /* Nothing to record. Successful imports stay registered until released by the consumer. */
+            task.release();
+            deleteAsync(task.peekDirectory());
+          }
+          if (ex != null) {
+            task.result.completeExceptionally(ex);
+          } else {
+            task.result.complete(result);
+          }
+        });
+    return task;
+  }
+
+  /**
+   * Deletes the temporary directories of previous imports in the
+   * background, except for directories of imports which are running or
+   * have not been released, directories created after this call and
+   * directories containing any of the specified files.
+   *
+   * @param inUse specified files which are still referenced, e.g. the
+   *     current bot file, BWAPI.dll and configuration files
+   */
+  public CompletableFuture<Void> cleanup(Collection<Path> inUse) {
+    long requested = System.currentTimeMillis();
+    List<Path> keep = new ArrayList<>();
+    for (Path path : inUse) {
+      keep.add(path.toAbsolutePath().normalize());
+    }
+    return CompletableFuture.runAsync(() -> {
+      if (!Files.isDirectory(this.tempDirectory)) {
+        return;
+      }
+      /* Read the running imports now rather than when cleanup was requested. */
+      for (Task task : this.activeTasks) {
+        Path directory = task.peekDirectory();
+        if (directory != null) {
+          keep.add(directory.toAbsolutePath().normalize());
+        }
+      }
+      List<Path> stale = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.tempDirectory)) {
+        for (Path child : stream) {
+          if (isCreatedAfter(child, requested - CLEANUP_GRACE_PERIOD)) {
+            /* Created by an import which started after cleanup was requested. */
+            continue;
+          }
+          Path normalized = child.toAbsolutePath().normalize();
+          boolean isUsed = false;
+          for (Path path : keep) {
+            if (path.startsWith(normalized)) {
+              isUsed = true;
+              break;
+            }
+          }
+          if (!isUsed) {
+            stale.add(child);
+          }
+        }
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, "failed to list temporary directory", ex);
+        return;
+      }
+      for (Path path : stale) {
+        if (!FileUtils.deleteQuietly(path.toFile())) {
+          LOGGER.log(Level.FINE, "failed to delete {0}", path);
+        }
+      }
+    }, this.executor);
+  }
+
+  private static boolean isCreatedAfter(Path path, long time) {
+    try {
+      return Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis() >= time;
+    } catch (IOException ex) {
+      /* Keep files whose age is unknown. */
+      return true;
+    }
+  }
+
+  private void deleteAsync(Path directory) {
+    if (directory != null) {
+      CompletableFuture.runAsync(() -> FileUtils.deleteQuietly(directory.toFile()), this.executor);
+    }
+  }
+
+  /* ************************************************************ */
+  /* Walk */
+  /* ************************************************************ */
+
+  /**
+   * Walks the specified directory. Symbolic links are not followed, so
+   * link loops and files outside the dropped directory are never
+   * reached.
+   *
+   * @param origin normalized name of the dropped directory
+   */
+  private CompletableFuture<List<Entry>> walk(Path directory, int depth, Task task, String origin) {
+    return CompletableFuture.supplyAsync(() -> {
+      task.checkCancelled();
+      List<Entry> files = new ArrayList<>();
+      List<Path> directories = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path path : stream) {
+          BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          if (attrs.isDirectory()) {
+            directories.add(path);
+          } else if (attrs.isRegularFile()) {
+            Entry entry = new Entry(path, depth);
+            entry.origin = origin;
+            files.add(entry);
+          }
+        }
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+      List<CompletableFuture<List<Entry>>> futures = new ArrayList<>();
+      futures.add(CompletableFuture.completedFuture(files));
+      for (Path subdirectory : directories) {
+        futures.add(walk(subdirectory, depth + 1, task, origin));
+      }
+      return futures;
+    }, this.executor).thenCompose(ImportPipeline::flatten);
+  }
+
+  private static <T> CompletableFuture<List<T>> flatten(List<CompletableFuture<List<T>>> futures) {
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+      List<T> list = new ArrayList<>();
+      for (CompletableFuture<List<T>> future : futures) {
+        list.addAll(future.join());
+      }
+      return list;
+    });
+  }
+
+  /* ************************************************************ */
+  /* Sniff and extract */
+  /* ************************************************************ */
+
+  private CompletableFuture<List<Entry>> sniff(List<Entry> entries, Task task, ProgressListener progress) {
+    int total = entries.size();
+    AtomicInteger done = new AtomicInteger(0);
+    List<CompletableFuture<List<Entry>>> futures = new ArrayList<>();
+    for (Entry entry : entries) {
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        task.checkCancelled();
+        try {
+          entry.size = Files.size(entry.file);
+          try (InputStream is = Files.newInputStream(entry.file)) {
+            entry.kind = classify(entry.file, readHeader(is));
+          }
+        } catch (IOException ex) {
+          entry.kind = Kind.INVALID;
+          entry.reason = "failed to read: " + ex.getMessage();
+        }
+        progress.progress(Stage.SNIFF, done.incrementAndGet(), total);
+        return entry;
+      }, this.executor).thenCompose(sniffed -> expand(sniffed, 0, task, progress)));
+    }
+    return flatten(futures);
+  }
+
+  /**
+   * Returns the specified entry or, if it is an archive, the entries
+   * extracted from it.
+   */
+  private CompletableFuture<List<Entry>> expand(Entry entry, int archiveDepth, Task task, ProgressListener progress) {
+    if (entry.kind == Kind.BUNDLE) {
+      return CompletableFuture.supplyAsync(() -> {
+        task.checkCancelled();
+        progress.progress(Stage.EXTRACT, 0, -1);
+        try {
+          return extractBundle(entry, task);
+        } catch (Exception ex) {
+          entry.kind = Kind.INVALID;
+          entry.reason = "failed to extract: " + ex.getMessage();
+          return Collections.singletonList(entry);
+        }
+      }, this.executor);
+    }
+    if (entry.kind != Kind.ARCHIVE) {
+      return CompletableFuture.completedFuture(Collections.singletonList(entry));
+    }
+    if (archiveDepth >= MAX_ARCHIVE_DEPTH) {
+      entry.kind = Kind.INVALID;
+      entry.reason = "nested too deeply in archives";
+      return CompletableFuture.completedFuture(Collections.singletonList(entry));
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      task.checkCancelled();
+      progress.progress(Stage.EXTRACT, 0, -1);
+      try {
+        return extract(entry, task);
+      } catch (Exception ex) {
+        entry.kind = Kind.INVALID;
+        entry.reason = "failed to extract: " + ex.getMessage();
+        return Collections.singletonList(entry);
+      }
+    }, this.executor).thenCompose(entries -> {
+      List<CompletableFuture<List<Entry>>> futures = new ArrayList<>();
+      for (Entry extracted : entries) {
+        futures.add((extracted == entry) ? CompletableFuture.completedFuture(Collections.singletonList(entry)) : expand(extracted, archiveDepth + 1, task, progress));
+      }
+      return flatten(futures);
+    });
+  }
+
+  /**
+   * Classifies the top-level entries of the specified archive from the
+   * archive itself and streams only the entries which are used into the
+   * temporary directory of the specified import. Entries in
+   * subdirectories are ignored.
+   */
+  private List<Entry> extract(Entry archive, Task task) throws IOException, EncryptedArchiveException {
+    try {
+      if (new net.lingala.zip4j.core.ZipFile(archive.file.toAbsolutePath().toString()).isEncrypted()) {
+        throw new EncryptedArchiveException("encrypted archive not supported: " + archive.file.toAbsolutePath().toString());
+      }
+    } catch (ZipException ex) {
+      throw new IOException(ex);
+    }
+
+    List<Entry> entries = new ArrayList<>();
+    Path destination = null;
+    try (ZipFile zipFile = openZipFile(archive.file)) {
+      Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+      while (zipEntries.hasMoreElements()) {
+        ZipEntry zipEntry = zipEntries.nextElement();
+        String name = zipEntry.getName();
+        if (zipEntry.isDirectory()
+            || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0
+            || name.equals(".") || name.equals("..")) {
+          continue;
+        }
+        task.checkCancelled();
+
+        if (destination == null) {
+          destination = task.getDirectory().resolve(this.archiveCount.incrementAndGet() + "-" + FilenameUtils.getBaseName(archive.file.toString()));
+          Files.createDirectories(destination);
+        }
+        Entry entry;
+        try {
+          entry = new Entry(destination.resolve(name), archive.depth);
+        } catch (InvalidPathException ex) {
+          continue;
+        }
+        entry.origin = getOrigin(archive.file);
+        try (InputStream is = zipFile.getInputStream(zipEntry)) {
+          entry.kind = classify(entry.file, readHeader(is));
+        }
+        if (entry.kind == Kind.INVALID) {
+          entry.reason = "content does not match its file extension (in " + archive.file.getFileName().toString() + ")";
+          entries.add(entry);
+          continue;
+        }
+        try (InputStream is = zipFile.getInputStream(zipEntry)) {
+          entry.size = Files.copy(is, entry.file);
+        }
+        entries.add(entry);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Extracts the specified bot bundle into the temporary directory of the
+   * specified import. The extracted files are classified by their role in
+   * the bundle instead of their content.
+   */
+  private List<Entry> extractBundle(Entry entry, Task task) throws IOException, InvalidArgumentException, MissingBotFileException {
+    BotBundle bundle = BotBundle.open(entry.file);
+    Path destination = task.getDirectory().resolve(this.archiveCount.incrementAndGet() + "-" + FilenameUtils.getBaseName(entry.file.toString()));
+    Bot bot = bundle.extract(destination);
+
+    List<Entry> entries = new ArrayList<>();
+    Entry botEntry = new Entry(bot.getFile(), entry.depth);
+    botEntry.kind = Kind.BOT;
+    botEntry.bundle = bundle;
+    entries.add(botEntry);
+    try {
+      Entry dllEntry = new Entry(bot.getBwapiDll(), entry.depth);
+      dllEntry.kind = Kind.BWAPI_DLL;
+      entries.add(dllEntry);
+    } catch (MissingBwapiDllException ex) {
+      /* Not included. */
+    }
+    for (String extraFile : bot.getExtraFiles()) {
+      Entry configEntry = new Entry(Paths.get(extraFile), entry.depth);
+      configEntry.kind = Kind.CONFIG;
+      entries.add(configEntry);
+    }
+    for (Entry extracted : entries) {
+      extracted.size = Files.size(extracted.file);
+    }
+    return entries;
+  }
+
+  /**
+   * Opens the specified archive. Entry names which are not valid UTF-8
+   * are read with the code page most ZIP tools on Windows use.
+   */
+  private static ZipFile openZipFile(Path file) throws IOException {
+    try {
+      ZipFile zipFile = new ZipFile(file.toFile(), StandardCharsets.UTF_8);
+      /* Entry names are decoded while iterating. */
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      try {
+        while (entries.hasMoreElements()) {
+          entries.nextElement();
+        }
+      } catch (IllegalArgumentException ex) {
+        zipFile.close();
+        throw ex;
+      }
+      return zipFile;
+    } catch (IllegalArgumentException ex) {
+      return new ZipFile(file.toFile(), Charset.forName("IBM437"));
+    }
+  }
+
+  private static byte[] readHeader(InputStream is) throws IOException {
+    byte[] header = new byte[MAGIC_LENGTH];
+    int length = 0;
+    int read;
+    while (length < header.length && (read = is.read(header, length, header.length - length)) != -1) {
+      length += read;
+    }
+    byte[] ret = new byte[length];
+    System.arraycopy(header, 0, ret, 0, length);
+    return ret;
+  }
+
+  /**
+   * Returns the kind of the specified file determined by its header and
+   * name. Files whose extension claims an executable or archive but whose
+   * content does not match are invalid.
+   */
+  private static Kind classify(Path file, byte[] header) {
+    String filename = file.getFileName().toString();
+    String ext = FilenameUtils.getExtension(filename).toLowerCase(Locale.US);
+    if (BotBundle.isBundle(header)) {
+      return Kind.BUNDLE;
+    } else if (startsWith(header, MAGIC_PE)) {
+      if (filename.equalsIgnoreCase(Starcraft.BINARY_FILENAME)) {
+        return Kind.STARCRAFT_EXE;
+      } else if (filename.equalsIgnoreCase(BWAPI.DLL_FILENAME_RELEASE)) {
+        return Kind.BWAPI_DLL;
+      } else if (ext.equals("dll") || ext.equals("exe")) {
+        return Kind.BOT;
+      }
+      return Kind.CONFIG;
+    } else if (startsWith(header, MAGIC_ZIP) || startsWith(header, MAGIC_ZIP_EMPTY)) {
+      if (ext.equals("jar")) {
+        return Kind.BOT;
+      } else if (ext.equals("zip") || ext.isEmpty()) {
+        return Kind.ARCHIVE;
+      }
+      return Kind.CONFIG;
+    }
+    switch (ext) {
+      case "dll":
+        /* Fall through. */
+      case "exe":
+        /* Fall through. */
+      case "jar":
+        /* Fall through. */
+      case "zip":
+        /* Fall through. */
+      case BotBundle.EXTENSION:
+        return Kind.INVALID;
+      default:
+        return Kind.CONFIG;
+    }
+  }
+
+  private static boolean startsWith(byte[] header, byte[] magic) {
+    if (header.length < magic.length) {
+      return false;
+    }
+    for (int i = 0; i < magic.length; i++) {
+      if (header[i] != magic[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* ************************************************************ */
+  /* Classify and deduplicate */
+  /* ************************************************************ */
+
+  private CompletableFuture<Result> classify(List<Entry> sniffed, Task task, ProgressListener progress) {
+    task.checkCancelled();
+    progress.progress(Stage.CLASSIFY, 0, -1);
+
+    /* Parallel stages complete in any order. Sort so the outcome does not depend on timing. */
+    List<Entry> entries = new ArrayList<>(sniffed);
+    Collections.sort(entries, Comparator.comparingInt((Entry e) -> e.depth).thenComparing(e -> e.file.toString()));
+
+    /* Drop files which were reached more than once, e.g. a directory and a file inside it. */
+    Map<Path, Entry> unique = new LinkedHashMap<>();
+    for (Entry entry : entries) {
+      unique.putIfAbsent(entry.file.toAbsolutePath().normalize(), entry);
+    }
+    entries = new ArrayList<>(unique.values());
+
+    /* Only files which could be duplicates of each other are hashed. */
+    Set<Path> toHash = new LinkedHashSet<>();
+    Map<String, List<Entry>> byName = new HashMap<>();
+    List<Entry> bots = new ArrayList<>();
+    for (Entry entry : entries) {
+      if (entry.kind == Kind.CONFIG) {
+        byName.computeIfAbsent(entry.file.getFileName().toString().toLowerCase(Locale.US), k -> new ArrayList<>()).add(entry);
+      } else if (entry.kind == Kind.BOT) {
+        bots.add(entry);
+      }
+    }
+    for (List<Entry> group : byName.values()) {
+      if (group.size() > 1) {
+        for (Entry entry : group) {
+          toHash.add(entry.file);
+        }
+      }
+    }
+    if (bots.size() > 1) {
+      for (Entry entry : bots) {
+        toHash.add(entry.file);
+      }
+    }
+
+    final List<Entry> candidates = entries;
+    CompletableFuture<Map<Path, Map<String, String>>> hashes = toHash.isEmpty()
+        ? CompletableFuture.completedFuture(Collections.<Path, Map<String, String>>emptyMap())
+        : this.checksumService.getChecksums(toHash, MultiDigest.SHA1);
+    return hashes.thenApply(checksums -> {
+      task.checkCancelled();
+      return buildResult(candidates, checksums);
+    });
+  }
+
+  private static Result buildResult(List<Entry> entries, Map<Path, Map<String, String>> checksums) {
+    List<String> warnings = new ArrayList<>();
+    Entry bot = null;
+    Path bwapiDll = null;
+    Path starcraftExe = null;
+    Map<String, Entry> configFiles = new LinkedHashMap<>(); /* lowercase filename -> entry */
+    Set<String> botHashes = new LinkedHashSet<>();
+
+    for (Entry entry : entries) {
+      switch (entry.kind) {
+        case BOT:
+          String hash = getSha1(checksums, entry.file);
+          if (hash != null && !botHashes.add(hash)) {
+            /* Identical copy of a bot file which has already been seen. */
+            continue;
+          }
+          if (entry.bundle == null && isKnownDependency(entry.file)) {
+            warnings.add("Treating " + entry.file.getFileName().toString() + " as a configuration file");
+            addConfig(configFiles, entry, checksums, warnings);
+            continue;
+          }
+          /* Other executables are likely dependencies. */
+          Entry dependency = entry;
+          if (bot == null || BOT_PREFERENCE.compare(entry, bot) < 0) {
+            dependency = bot;
+            bot = entry;
+          }
+          if (dependency != null) {
+            warnings.add("Treating " + dependency.file.getFileName().toString() + " as a configuration file");
+            addConfig(configFiles, dependency, checksums, warnings);
+          }
+          break;
+        case BWAPI_DLL:
+          if (bwapiDll == null) {
+            bwapiDll = entry.file;
+          } else {
+            warnings.add("Ignored additional " + BWAPI.DLL_FILENAME_RELEASE + ": " + entry.file.toString());
+          }
+          break;
+        case STARCRAFT_EXE:
+          if (starcraftExe == null) {
+            starcraftExe = entry.file;
+          } else {
+            warnings.add("Ignored additional " + Starcraft.BINARY_FILENAME + ": " + entry.file.toString());
+          }
+          break;
+        case CONFIG:
+          addConfig(configFiles, entry, checksums, warnings);
+          break;
+        case INVALID:
+          warnings.add("Skipped " + entry.file.toString() + ((entry.reason != null) ? ": " + entry.reason : ": content does not match its file extension"));
+          break;
+        default:
+          break;
+      }
+    }
+
+    List<Path> configs = new ArrayList<>();
+    for (Entry entry : configFiles.values()) {
+      configs.add(entry.file);
+    }
+    return new Result((bot != null) ? bot.file : null, bwapiDll, starcraftExe, configs, warnings, (bot != null) ? bot.bundle : null);
+  }
+
+  /**
+   * Tests whether the specified executable is a library which bots
+   * commonly depend on rather than a bot.
+   */
+  private static boolean isKnownDependency(Path file) {
+    String name = file.getFileName().toString().toLowerCase(Locale.US);
+    for (String prefix : DEPENDENCY_PREFIXES) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the normalized name of the specified dropped directory or
+   * archive, which is compared to the names of bot candidates.
+   */
+  private static String getOrigin(Path path) {
+    Path filename = path.getFileName();
+    return (filename == null) ? null : normalizeName(FilenameUtils.getBaseName(filename.toString()));
+  }
+
+  /**
+   * Returns the lowercase letters and digits of the specified name, e.g.
+   * "iron1" for "Iron-1".
+   */
+  private static String normalizeName(String name) {
+    StringBuilder sb = new StringBuilder();
+    for (char ch : name.toLowerCase(Locale.US).toCharArray()) {
+      if (Character.isLetterOrDigit(ch)) {
+        sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Tests whether the name of the specified bot candidate matches the
+   * name of the directory or archive it was dropped in, e.g. "Iron.dll"
+   * in "Iron-1.2.zip".
+   */
+  private static boolean isNamedLikeOrigin(Entry entry) {
+    if (entry.origin == null || entry.origin.isEmpty()) {
+      return false;
+    }
+    String name = normalizeName(FilenameUtils.getBaseName(entry.file.getFileName().toString()));
+    return !name.isEmpty() && (entry.origin.startsWith(name) || name.startsWith(entry.origin));
+  }
+
+  /**
+   * Adds the specified configuration file. A later file with the same
+   * name replaces an earlier one, as with
+   * {@link Bot#addExtraFile(java.nio.file.Path)}, and a warning is
+   * recorded unless both files are identical.
+   */
+  private static void addConfig(Map<String, Entry> configFiles, Entry entry, Map<Path, Map<String, String>> checksums, List<String> warnings) {
+    String key = entry.file.getFileName().toString().toLowerCase(Locale.US);
+    Entry previous = configFiles.get(key);
+    if (previous != null) {
+      String previousHash = getSha1(checksums, previous.file);
+      String hash = getSha1(checksums, entry.file);
+      if (previousHash != null && previousHash.equals(hash)) {
+        return;
+      }
+      warnings.add("Replaced " + previous.file.toString() + " with " + entry.file.toString());
+      configFiles.remove(key);
+    }
+    configFiles.put(key, entry);
+  }
+
+  private static String getSha1(Map<Path, Map<String, String>> checksums, Path file) {
+    Map<String, String> values = checksums.get(file);
+    return (values == null) ? null : values.get(MultiDigest.normalize(MultiDigest.SHA1));
+  }
+
+  /**
+   * A file found by the pipeline. Fields are filled in by the stages.
+   */
+  private static class Entry {
+
+    private final Path file;
+    private final int depth; /* directory depth below the dropped item */
+    private long size;
+    private Kind kind;
+    private String reason;
+    private BotBundle bundle; /* bundle a bot file was extracted from */
+    private String origin; /* normalized name of the dropped directory or archive, or null */
+
+    private Entry(Path file, int depth) {
+      this.file = file;
+      this.depth = depth;
+      this.size = 0;
+      this.kind = null;
+      this.reason = null;
+      this.bundle = null;
+      this.origin = null;
+    }
+
+  }
+
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.bwapi.snapshot;
+
+import droplauncher.DropLauncher;
+import droplauncher.io.AtomicFile;
+import droplauncher.io.MultiDigest;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class for storing versioned snapshots of a bot's
+ * "bwapi-data/write/" directory.
+ *
+ * Snapshots are stored like a content-addressed file system. File
+ * contents are stored as compressed blob objects named by their SHA-256
+ * checksum. Each directory is stored as a tree object which lists the
+ * name, size, modification time and checksum of every file and the
+ * checksum of every subdirectory's tree. A snapshot is a small file which
+ * refers to the tree of the captured directory. Unchanged files and
+ * subtrees resolve to existing objects, so storage grows with the amount
+ * of changed data rather than the number of snapshots, and capturing an
+ * unchanged directory stores no new objects.
+ */
+public class SnapshotStore {
+
+  /**
+   * Default path to the snapshot store used by this program.
+   */
+  public static final Path ROOT_DIRECTORY = DropLauncher.DATA_DIRECTORY.resolve("snapshots");
+
+  private static final String OBJECTS_DIRECTORY = "objects";
+  private static final String BOTS_DIRECTORY = "bots";
+  private static final String MANIFEST_EXTENSION = ".snapshot";
+  private static final String OBJECT_EXTENSION = ".gz";
+  private static final String TYPE_BLOB = "blob";
+  private static final String TYPE_TREE = "tree";
+  private static final DateTimeFormatter ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+
+  /**
+   * Container class for a single file in a snapshot.
+   */
+  private static class Entry {
+
+    private final String checksum;
+    private final long size;
+    private final long lastModified;
+
+    private Entry(String checksum, long size, long lastModified) {
+      this.checksum = checksum;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+  }
+
+  /**
+   * Container class for the files and directories of a snapshot, keyed by
+   * relative path.
+   */
+  private static class Contents {
+
+    private final Map<String, Entry> files;
+    private final Set<String> directories;
+
+    private Contents() {
+      this.files = new LinkedHashMap<>();
+      this.directories = new HashSet<>();
+    }
+
+  }
+
+  private final Path directory;
+
+  public SnapshotStore(Path directory) {
+    if (directory == null) {
+      throw new IllegalArgumentException("directory cannot be null");
+    }
+    this.directory = directory;
+  }
+
+  public SnapshotStore() {
+    this(ROOT_DIRECTORY);
+  }
+
+  /**
+   * Captures the specified directory as a new snapshot for the specified bot.
+   * Files whose size and modification time match the previous snapshot are
+   * not read again.
+   *
+   * @param botName specified bot name
+   * @param source specified directory to capture
+   * @return the ID of the new snapshot
+   * @throws IOException if an I/O error occurs
+   */
+  public synchronized String capture(String botName, Path source) throws IOException {
+    List<String> ids = list(botName);
+    Map<String, Entry> previous = ids.isEmpty()
+        ? Collections.<String, Entry>emptyMap()
+        : readSnapshot(getManifestFile(botName, ids.get(ids.size() - 1))).files;
+
+    String root = Files.isDirectory(source)
+        ? storeTree(source, "", previous)
+        : storeBytes(new byte[0]);
+
+    String id = ID_FORMAT.format(LocalDateTime.now());
+    if (!ids.isEmpty() && id.compareTo(ids.get(ids.size() - 1)) <= 0) {
+      /* Keep IDs strictly increasing when snapshots are taken in quick succession. */
+      id = ids.get(ids.size() - 1) + "_1";
+    }
+    AtomicFile.write(getManifestFile(botName, id), (TYPE_TREE + " " + root + "\n").getBytes(StandardCharsets.UTF_8));
+    return id;
+  }
+
+  /**
+   * Restores the specified snapshot into the specified target directory.
+   * Files which already match the snapshot are left untouched. Files and
+   * directories which are not part of the snapshot are deleted.
+   *
+   * @param botName specified bot name
+   * @param id specified snapshot ID
+   * @param target specified target directory
+   * @return the number of files written
+   * @throws IOException if an I/O error occurs
+   */
+  public synchronized int restore(String botName, String id, Path target) throws IOException {
+    Path manifestFile = getManifestFile(botName, id);
+    if (!Files.isRegularFile(manifestFile)) {
+      throw new IOException("snapshot not found: " + botName + "/" + id);
+    }
+    Contents contents = readSnapshot(manifestFile);
+    Files.createDirectories(target);
+
+    /* Delete files and directories which are not part of the snapshot. */
+    List<Path> extraneous = new ArrayList<>();
+    Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if (!contents.files.containsKey(getRelativePath(target, file))) {
+          extraneous.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+        if (ex != null) {
+          throw ex;
+        }
+        if (!dir.equals(target) && !contents.directories.contains(getRelativePath(target, dir))) {
+          /* Visited after its children, so the directory is deleted after its files. */
+          extraneous.add(dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    for (Path path : extraneous) {
+      Files.delete(path);
+    }
+
+    for (String relative : contents.directories) {
+      Files.createDirectories(target.resolve(relative));
+    }
+    int written = 0;
+    for (Map.Entry<String, Entry> item : contents.files.entrySet()) {
+      Entry entry = item.getValue();
+      Path file = target.resolve(item.getKey());
+      if (Files.isRegularFile(file)
+          && Files.size(file) == entry.size
+          && Files.getLastModifiedTime(file).toMillis() == entry.lastModified) {
+        continue;
+      }
+      Path parent = file.getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      Path tmp = AtomicFile.getTempFile(file);
+      try (InputStream in = new GZIPInputStream(Files.newInputStream(getObjectFile(entry.checksum)))) {
+        Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+      }
+      Files.setLastModifiedTime(tmp, FileTime.fromMillis(entry.lastModified));
+      AtomicFile.move(tmp, file);
+      written++;
+    }
+    return written;
+  }
+
+  /**
+   * Returns the IDs of all snapshots of the specified bot, oldest first.
+   *
+   * @param botName specified bot name
+   * @throws IOException if an I/O error occurs
+   */
+  public List<String> list(String botName) throws IOException {
+    List<String> ids = new ArrayList<>();
+    Path botDirectory = getBotDirectory(botName);
+    if (!Files.isDirectory(botDirectory)) {
+      return ids;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(botDirectory, "*" + MANIFEST_EXTENSION)) {
+      for (Path file : stream) {
+        String name = file.getFileName().toString();
+        ids.add(name.substring(0, name.length() - MANIFEST_EXTENSION.length()));
+      }
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+  private Path getBotDirectory(String botName) {
+    return this.directory.resolve(BOTS_DIRECTORY).resolve(botName);
+  }
+
+  private Path getManifestFile(String botName, String id) {
+    return getBotDirectory(botName).resolve(id + MANIFEST_EXTENSION);
+  }
+
+  private Path getObjectFile(String checksum) {
+    return this.directory.resolve(OBJECTS_DIRECTORY).resolve(checksum.substring(0, 2)).resolve(checksum + OBJECT_EXTENSION);
+  }
+
+  private static String getRelativePath(Path base, Path path) {
+    return base.relativize(path).toString().replace('\\', '/');
+  }
+
+  /* ************************************************************ */
+  /* Objects */
+  /* ************************************************************ */
+
+  /**
+   * Stores the tree of the specified directory and its subdirectories.
+   *
+   * @param dir specified directory
+   * @param prefix specified relative path of the directory including a
+   *     trailing slash, or an empty string for the captured directory
+   * @param previous specified files of the previous snapshot
+   * @return the SHA-256 checksum of the tree
+   */
+  private String storeTree(Path dir, String prefix, Map<String, Entry> previous) throws IOException {
+    List<Path> children = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path child : stream) {
+        children.add(child);
+      }
+    }
+    Collections.sort(children);
+
+    /* Format: blob <checksum> <size> <last modified> <name> or tree <checksum> <name> */
+    StringBuilder sb = new StringBuilder();
+    for (Path child : children) {
+      String name = child.getFileName().toString();
+      String relative = prefix + name;
+      BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      if (attrs.isDirectory()) {
+        sb.append(TYPE_TREE).append(' ').append(storeTree(child, relative + "/", previous)).append(' ').append(name).append('\n');
+      } else if (attrs.isRegularFile()) {
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        Entry prev = previous.get(relative);
+        String checksum = (prev != null && prev.size == attrs.size() && prev.lastModified == lastModified)
+            ? prev.checksum
+            : storeFile(child);
+        sb.append(TYPE_BLOB).append(' ').append(checksum).append(' ')
+            .append(attrs.size()).append(' ')
+            .append(lastModified).append(' ')
+            .append(name).append('\n');
+      }
+    }
+    return storeBytes(sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Adds the specified file to the object store unless an object with the
+   * same checksum exists. The file is only compressed if it is new.
+   *
+   * @return the SHA-256 checksum of the specified file
+   */
+  private String storeFile(Path file) throws IOException {
+    MessageDigest md = newDigest();
+    byte[] buffer = new byte[64 * 1024];
+    try (InputStream in = Files.newInputStream(file)) {
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        md.update(buffer, 0, len);
+      }
+    }
+    String checksum = MultiDigest.toHex(md.digest());
+    Path object = getObjectFile(checksum);
+    if (!Files.exists(object)) {
+      try (InputStream in = Files.newInputStream(file)) {
+        writeObject(object, in);
+      }
+    }
+    return checksum;
+  }
+
+  /**
+   * Adds the specified bytes to the object store unless an object with
+   * the same checksum exists.
+   *
+   * @return the SHA-256 checksum of the specified bytes
+   */
+  private String storeBytes(byte[] bytes) throws IOException {
+    String checksum = MultiDigest.toHex(newDigest().digest(bytes));
+    Path object = getObjectFile(checksum);
+    if (!Files.exists(object)) {
+      writeObject(object, new ByteArrayInputStream(bytes));
+    }
+    return checksum;
+  }
+
+  private void writeObject(Path object, InputStream in) throws IOException {
+    Files.createDirectories(object.getParent());
+    Path tmp = Files.createTempFile(object.getParent(), "object", ".tmp");
+    try {
+      try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+        byte[] buffer = new byte[64 * 1024];
+        int len;
+        while ((len = in.read(buffer)) != -1) {
+          out.write(buffer, 0, len);
+        }
+      }
+      AtomicFile.move(tmp, object);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private byte[] readObject(String checksum) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(getObjectFile(checksum)))) {
+      byte[] buffer = new byte[64 * 1024];
+      int len;
+      while ((len = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, len);
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  private static MessageDigest newDigest() throws IOException {
+    try {
+      return MessageDigest.getInstance(MultiDigest.SHA256);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /* ************************************************************ */
+  /* Snapshots */
+  /* ************************************************************ */
+
+  /**
+   * Reads the files and directories of the specified snapshot file.
+   * Snapshots written before tree objects were introduced list every file
+   * directly and are still supported.
+   */
+  private Contents readSnapshot(Path file) throws IOException {
+    Contents contents = new Contents();
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    if (!lines.isEmpty() && lines.get(0).startsWith(TYPE_TREE + " ")) {
+      readTree(lines.get(0).substring(TYPE_TREE.length() + 1).trim(), "", contents);
+      return contents;
+    }
+    for (String line : lines) {
+      /* Format: <checksum> <size> <last modified> <relative path> */
+      String[] tokens = line.split(" ", 4);
+      if (tokens.length != 4) {
+        continue;
+      }
+      contents.files.put(tokens[3], new Entry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2])));
+      for (int index = tokens[3].indexOf('/'); index >= 0; index = tokens[3].indexOf('/', index + 1)) {
+        contents.directories.add(tokens[3].substring(0, index));
+      }
+    }
+    return contents;
+  }
+
+  private void readTree(String checksum, String prefix, Contents contents) throws IOException {
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(readObject(checksum)), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.startsWith(TYPE_TREE + " ")) {
+          String[] tokens = line.split(" ", 3);
+          if (tokens.length != 3) {
+            continue;
+          }
+          String relative = prefix + tokens[2];
+          contents.directories.add(relative);
+          readTree(tokens[1], relative + "/", contents);
+        } else if (line.startsWith(TYPE_BLOB + " ")) {
+          String[] tokens = line.split(" ", 5);
+          if (tokens.length != 5) {
+            continue;
+          }
+          contents.files.put(prefix + tokens[4], new Entry(tokens[1], Long.parseLong(tokens[2]), Long.parseLong(tokens[3])));
+        }
+      }
+    }
+  }
+
+}
@@ -21,13 +21,14 @@ import adakite.debugging.Debugging;
 import adakite.exception.InvalidArgumentException;
 import adakite.exception.InvalidStateException;
 import droplauncher.process.KillableTask;
-import adakite.ini.exception.IniParseException;
 import adakite.util.AdakiteUtils;
+import adakite.util.AdakiteUtils.StringCompareOption;
 import droplauncher.bwapi.BWAPI;
 import droplauncher.bwapi.bot.exception.InvalidBotTypeException;
 import adakite.process.CommandBuilder;
 import adakite.settings.Settings;
 import droplauncher.process.CustomProcess;
+import droplauncher.process.ProcessTree;
 import adakite.windows.task.Task;
 import adakite.windows.task.TaskTracker;
 import adakite.windows.task.Tasklist;
@@ -45,7 +46,8 @@ import droplauncher.starcraft.exception.MissingStarcraftExeException;
 import droplauncher.bwheadless.exception.MissingBWHeadlessExeException;
 import droplauncher.jre.JRE;
 import droplauncher.mvc.model.Model;
-import droplauncher.mvc.view.ConsoleOutputWrapper;
+import droplauncher.mvc.model.SettingsSnapshot;
+import droplauncher.ui.ConsoleSink;
 import droplauncher.mvc.view.View;
 import droplauncher.starcraft.exception.UnsupportedStarcraftVersionException;
 import droplauncher.process.exception.ClosePipeException;
@@ -53,14 +55,30 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.apache.commons.io.FilenameUtils;
 
 /**
  * Class for handling execution and communication with bwheadless.
+ *
+ * Several instances may run at the same time as long as each uses its
+ * own StarCraft directory. Every instance claims the processes it started
+ * and their descendants, which are identified by the process tree. When
+ * stopped, an instance kills its claimed tasks and the tasks they started
+ * since, e.g. StarCraft.exe. Other new tasks are only killed if no other
+ * instance is running.
  */
 public class BWHeadless {
 
+  private static final Logger LOGGER = Logger.getLogger(BWHeadless.class.getName());
+
   public enum PropertyKey {
 
     /**********************************************************************/
@@ -186,18 +204,115 @@ public class BWHeadless {
 
   }
 
+  /**
+   * Enum for values of {@link PropertyKey#CONNECT_MODE}.
+   */
+  public enum ConnectMode {
+
+    /**
+     * Join the first open game.
+     */
+    JOIN("join"),
+
+    /**
+     * Host a game with the configured game name and map.
+     */
+    HOST("host")
+
+    ;
+
+    private final String str;
+
+    private ConnectMode(String str) {
+      this.str = str;
+    }
+
+    /**
+     * Returns the corresponding ConnectMode object or {@link #JOIN} if
+     * the specified string is null or not recognized.
+     *
+     * @param str specified string
+     */
+    public static ConnectMode get(String str) {
+      for (ConnectMode val : ConnectMode.values()) {
+        if (val.str.equalsIgnoreCase((str != null) ? str.trim() : null)) {
+          return val;
+        }
+      }
+      return JOIN;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
+  /**
+   * Enum for values of {@link PropertyKey#NETWORK_PROVIDER}.
+   */
+  public enum NetworkProvider {
+
+    /**
+     * Local Area Network (UDP).
+     */
+    LAN("LAN"),
+
+    /**
+     * Games between instances on the same computer without the network
+     * stack.
+     */
+    LOCAL_PC("LocalPC")
+
+    ;
+
+    private final String str;
+
+    private NetworkProvider(String str) {
+      this.str = str;
+    }
+
+    /**
+     * Returns the corresponding NetworkProvider object or {@link #LAN} if
+     * the specified string is null or not recognized.
+     *
+     * @param str specified string
+     */
+    public static NetworkProvider get(String str) {
+      for (NetworkProvider val : NetworkProvider.values()) {
+        if (val.str.equalsIgnoreCase((str != null) ? str.trim() : null)) {
+          return val;
+        }
+      }
+      return LAN;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
   public static final String BINARY_FILENAME = "bwheadless.exe";
   public static final Path BINARY_DIRECTORY = DropLauncher.BINARY_DIRECTORY.resolve("bwh");
   public static final String BINARY_FILENAME_AUTO_DROP = "bwheadless_kick.exe";
   public static final String BINARY_FILENAME_NO_DROP = "bwheadless_nokick.exe";
 
+  /* Launches are serialized so that every new task is claimed by the instance which started it. */
+  private static final Object LAUNCH_LOCK = new Object();
+  private static final Set<String> CLAIMED_TASKS = ConcurrentHashMap.newKeySet(); /* PIDs */
+  private static final Set<BWHeadless> RUNNING_INSTANCES = ConcurrentHashMap.newKeySet();
+
   private Settings settings;
   private CustomProcess bwheadlessProcess;
   private CustomProcess botProcess;
   private BwapiDirectory bwapiDirectory;
   private Bot bot;
-  private ConsoleOutputWrapper consoleOutput;
+  private ConsoleSink consoleOutput;
   private TaskTracker taskTracker;
+  private final Set<String> ownTasks; /* PIDs claimed by this instance */
 
   public BWHeadless() {
     this.settings = new Settings();
@@ -207,6 +322,7 @@ public class BWHeadless {
     this.bot = new Bot();
     this.consoleOutput = null;
     this.taskTracker = new TaskTracker();
+    this.ownTasks = new HashSet<>();
 
 //    this.settings.set(PropertyKey.BWHEADLESS_EXE.toString(), BWHeadless.BINARY_DIRECTORY.resolve(BWHeadless.BINARY_FILENAME).toString());
   }
@@ -217,17 +333,28 @@ public class BWHeadless {
    * @throws MissingBWHeadlessExeException if path is not set
    */
   public Path getFile() throws MissingBWHeadlessExeException {
-    if (Model.getSettings().hasValue(BWHeadless.PropertyKey.KICK_BOT_ON_LAG.toString())) {
-      if (Model.getSettings().isEnabled(BWHeadless.PropertyKey.KICK_BOT_ON_LAG.toString())) {
-        Model.getSettings().setValue(BWHeadless.PropertyKey.BWHEADLESS_EXE.toString(), BWHeadless.BINARY_DIRECTORY.resolve(BWHeadless.BINARY_FILENAME_AUTO_DROP).toAbsolutePath().toString());
-      } else {
-        Model.getSettings().setValue(BWHeadless.PropertyKey.BWHEADLESS_EXE.toString(), BWHeadless.BINARY_DIRECTORY.resolve(BWHeadless.BINARY_FILENAME_NO_DROP).toAbsolutePath().toString());
-      }
+    return getFile(Model.getSettings().snapshot());
+  }
+
+  /**
+   * Returns the path to the bwheadless.exe according to the specified
+   * settings. The "kick bot on lag" setting takes precedence over the
+   * stored path.
+   *
+   * @param settings specified settings
+   * @throws MissingBWHeadlessExeException if path is not set
+   */
+  public Path getFile(SettingsSnapshot settings) throws MissingBWHeadlessExeException {
+    if (settings.hasValue(BWHeadless.PropertyKey.KICK_BOT_ON_LAG.toString())) {
+      String filename = settings.isEnabled(BWHeadless.PropertyKey.KICK_BOT_ON_LAG.toString())
+          ? BWHeadless.BINARY_FILENAME_AUTO_DROP
+          : BWHeadless.BINARY_FILENAME_NO_DROP;
+      return BWHeadless.BINARY_DIRECTORY.resolve(filename).toAbsolutePath();
     }
-    if (!Model.getSettings().hasValue(PropertyKey.BWHEADLESS_EXE.toString())) {
+    if (!settings.hasValue(PropertyKey.BWHEADLESS_EXE.toString())) {
       throw new MissingBWHeadlessExeException();
     }
-    String val = Model.getSettings().getValue(PropertyKey.BWHEADLESS_EXE.toString());
+    String val = settings.getValue(PropertyKey.BWHEADLESS_EXE.toString());
     return Paths.get(val);
   }
 
@@ -336,7 +463,7 @@ public class BWHeadless {
    *
    * @param consoleOutput specified UI object
    */
-  public BWHeadless enableConsoleOutput(ConsoleOutputWrapper consoleOutput) {
+  public BWHeadless enableConsoleOutput(ConsoleSink consoleOutput) {
     if (consoleOutput == null) {
       throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL.toString("consoleOutput"));
     }
@@ -353,14 +480,36 @@ public class BWHeadless {
     return this;
   }
 
+  /**
+   * Starts bwheadless with the current program settings.
+   *
+   * @see #start(droplauncher.mvc.model.SettingsSnapshot)
+   */
+  public void start() throws IOException,
+                             MissingBotException,
+                             InvalidBotTypeException,
+                             MissingBotNameException,
+                             MissingBotRaceException,
+                             MissingBotFileException,
+                             MissingBwapiDllException,
+                             MissingStarcraftExeException,
+                             InvalidArgumentException,
+                             InvalidStateException,
+                             TasklistParseException,
+                             MissingBWHeadlessExeException,
+                             UnsupportedStarcraftVersionException {
+    start(Model.getSettings().snapshot());
+  }
+
   //TODO: Test: After the files have been loaded, delete them and try to start.
   /**
    * Starts bwheadless after configuring and checking settings.
    *
+   * @param settings specified settings for this launch
+   *
    * @throws IOException if an I/O error occurs
    * @throws MissingBotException if the bot object is not set
    * @throws InvalidBotTypeException if the bot type is not recognized
-   * @throws IniParseException
    * @throws MissingBotNameException
    * @throws MissingBotRaceException
    * @throws MissingBotFileException
@@ -372,60 +521,73 @@ public class BWHeadless {
    * @throws MissingBWHeadlessExeException
    * @throws UnsupportedStarcraftVersionException
    */
-  public void start() throws IOException,
-                             MissingBotException,
-                             InvalidBotTypeException,
-                             IniParseException,
-                             MissingBotNameException,
-                             MissingBotRaceException,
-                             MissingBotFileException,
-                             MissingBwapiDllException,
-                             MissingStarcraftExeException,
-                             InvalidArgumentException,
-                             InvalidStateException,
-                             TasklistParseException,
-                             MissingBWHeadlessExeException,
-                             UnsupportedStarcraftVersionException {
+  public void start(SettingsSnapshot settings) throws IOException,
+                                                      MissingBotException,
+                                                      InvalidBotTypeException,
+                                                      MissingBotNameException,
+                                                      MissingBotRaceException,
+                                                      MissingBotFileException,
+                                                      MissingBwapiDllException,
+                                                      MissingStarcraftExeException,
+                                                      InvalidArgumentException,
+                                                      InvalidStateException,
+                                                      TasklistParseException,
+                                                      MissingBWHeadlessExeException,
+                                                      UnsupportedStarcraftVersionException {
     this.bwapiDirectory.backupIniFile();
 
-    this.taskTracker.reset();
-
     /* Check for StarCraft.exe */
     if (!AdakiteUtils.fileReadable(getStarcraftExe())) {
       throw new IOException("failed to access " + Starcraft.BINARY_FILENAME + ": " + getStarcraftExe().toAbsolutePath().toString());
     }
 
     /* Check StarCraft.exe version. */
-    if (Model.getSettings().isEnabled(Starcraft.PropertyKey.CHECK_FOR_SUPPORTED_VERSION.toString())
-        && !Starcraft.isBroodWar1161(getStarcraftExe())) {
-      throw new UnsupportedStarcraftVersionException();
+    if (settings.isEnabled(Starcraft.PropertyKey.CHECK_FOR_SUPPORTED_VERSION.toString())) {
+      Starcraft.Build build = Starcraft.getBuild(getStarcraftExe());
+      if (!build.isSupported()) {
+        throw new UnsupportedStarcraftVersionException("detected build: " + build.toString());
+      }
+    }
+
+    ConnectMode connectMode = ConnectMode.get(getValue(settings, PropertyKey.CONNECT_MODE));
+    String map = null;
+    if (connectMode == ConnectMode.HOST) {
+      map = getValue(settings, PropertyKey.MAP);
+      if (AdakiteUtils.isNullOrEmpty(map, StringCompareOption.TRIM)) {
+        throw new InvalidArgumentException("a map is required to host a game");
+      }
     }
 
     this.bwapiDirectory.setConsoleOutput(this.consoleOutput);
-    this.bwapiDirectory.configure(getStarcraftDirectory(), this.bot);
+    this.bwapiDirectory.configure(getStarcraftDirectory(), this.bot, settings, map);
 
     /* Compile bwheadless arguments. */
     CommandBuilder bwhCommand = new CommandBuilder();
-    bwhCommand.setFile(getFile().toAbsolutePath());
+    bwhCommand.setFile(getFile(settings).toAbsolutePath());
     bwhCommand.addArg(RuntimeArgument.STARCRAFT_EXE.toString(), getStarcraftExe().toAbsolutePath().toString());
-    bwhCommand.addArg(RuntimeArgument.JOIN_GAME.toString());
+    if (connectMode == ConnectMode.HOST) {
+      String gameName = getValue(settings, PropertyKey.GAME_NAME);
+      if (AdakiteUtils.isNullOrEmpty(gameName, StringCompareOption.TRIM)) {
+        gameName = this.bot.getName();
+      }
+      bwhCommand.addArg(RuntimeArgument.HOST.toString());
+      bwhCommand.addArg(RuntimeArgument.GAME_NAME.toString(), gameName.trim());
+      bwhCommand.addArg(RuntimeArgument.MAP.toString(), map.trim());
+    } else {
+      bwhCommand.addArg(RuntimeArgument.JOIN_GAME.toString());
+    }
     bwhCommand.addArg(RuntimeArgument.BOT_NAME.toString(), this.bot.getName());
     bwhCommand.addArg(RuntimeArgument.BOT_RACE.toString(), this.bot.getRace());
     bwhCommand.addArg(RuntimeArgument.LOAD_DLL.toString(), this.bot.getBwapiDll().toAbsolutePath().toString());
-    bwhCommand.addArg(RuntimeArgument.ENABLE_LAN.toString());
+    if (NetworkProvider.get(getValue(settings, PropertyKey.NETWORK_PROVIDER)) == NetworkProvider.LAN) {
+      bwhCommand.addArg(RuntimeArgument.ENABLE_LAN.toString());
+    }
     bwhCommand.addArg(RuntimeArgument.STARCRAFT_INSTALL_PATH.toString(), getStarcraftDirectory().toString());
 
-    /* Start bwheadless. */
-    this.bwheadlessProcess
-        .setCWD(getStarcraftDirectory())
-        .setProcessName(BINARY_FILENAME)
-        .setConsoleOutput(this.consoleOutput);
-    this.bwheadlessProcess.run(bwhCommand.get());
-
-    /* Start bot client. */
+    /* Compile bot client arguments. */
+    CommandBuilder clientCommand = null;
     if (this.bot.getType() == Bot.Type.CLIENT) {
-      /* Compile bot client arguments. */
-      CommandBuilder clientCommand = new CommandBuilder();
+      clientCommand = new CommandBuilder();
       String ext = FilenameUtils.getExtension(this.bot.getFile().toString()).toLowerCase(Locale.US);
       if (AdakiteUtils.isNullOrEmpty(ext)) {
         throw new IllegalArgumentException("bot file does not have a file extension: " + this.bot.getFile().toString());
@@ -445,14 +607,81 @@ public class BWHeadless {
         default:
           throw new InvalidBotTypeException(FilenameUtils.getName(this.bot.getFile().toString()));
       }
-      this.botProcess
+    }
+
+    synchronized (LAUNCH_LOCK) {
+      this.taskTracker.reset();
+
+      /* Start bwheadless. */
+      this.bwheadlessProcess
           .setCWD(getStarcraftDirectory())
-          .setProcessName(View.MessagePrefix.BOT.toString())
+          .setProcessName(BINARY_FILENAME)
           .setConsoleOutput(this.consoleOutput);
-      this.botProcess.run(clientCommand.get());
+      this.bwheadlessProcess.run(bwhCommand.get());
+
+      /* Start bot client. */
+      if (clientCommand != null) {
+        this.botProcess
+            .setCWD(getStarcraftDirectory())
+            .setProcessName(View.MessagePrefix.BOT.toString())
+            .setConsoleOutput(this.consoleOutput);
+        this.botProcess.run(clientCommand.get());
+      }
+
+      /*
+       * Claim the tasks started by this launch, i.e. new children of this
+       * program and their descendants. Other new tasks may have been
+       * started by another instance, e.g. its StarCraft.exe.
+       */
+      this.taskTracker.update();
+      List<String> newTasks = new ArrayList<>();
+      for (Task task : this.taskTracker.getNewTasks()) {
+        newTasks.add(String.valueOf(task.getPID()));
+      }
+      ProcessTree processTree = null;
+      String currentPid = ProcessTree.getCurrentPid();
+      if (currentPid != null) {
+        try {
+          processTree = ProcessTree.query();
+        } catch (IOException ex) {
+          LOGGER.log(Level.WARNING, "failed to query process tree", ex);
+        }
+      }
+      Set<String> roots = new HashSet<>();
+      if (processTree != null) {
+        for (String pid : newTasks) {
+          if (currentPid.equals(processTree.getParent(pid))) {
+            roots.add(pid);
+          }
+        }
+      }
+      boolean isOtherInstanceRunning = isOtherInstanceRunning();
+      for (String pid : newTasks) {
+        boolean isOwnTask = (processTree != null) ? processTree.isDescendant(pid, roots) : !isOtherInstanceRunning;
+        if (isOwnTask && CLAIMED_TASKS.add(pid)) {
+          this.ownTasks.add(pid);
+        }
+      }
+      RUNNING_INSTANCES.add(this);
     }
   }
 
+  /**
+   * Returns the value of the specified key in the specified settings or
+   * null if the key has no value.
+   */
+  private static String getValue(SettingsSnapshot settings, PropertyKey key) {
+    return settings.hasValue(key.toString()) ? settings.getValue(key.toString()) : null;
+  }
+
+  /**
+   * Tests whether the bwheadless process of the current launch is still
+   * running.
+   */
+  public boolean isAlive() {
+    return this.bwheadlessProcess.isAlive();
+  }
+
   /**
    * Stops the bwheadless and bot processes.
    *
@@ -465,34 +694,67 @@ public class BWHeadless {
                             ClosePipeException,
                             MissingBotFileException,
                             TasklistParseException {
-    this.bwheadlessProcess.stop();
-    if (this.bot.getType() == Bot.Type.CLIENT) {
-      this.botProcess.stop();
+    boolean isOtherInstanceRunning = isOtherInstanceRunning();
+    /* Resolve the tasks started by this instance's processes before they exit. */
+    ProcessTree processTree = null;
+    if (isOtherInstanceRunning && !this.ownTasks.isEmpty()) {
+      try {
+        processTree = ProcessTree.query();
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, "failed to query process tree", ex);
+      }
     }
 
-    /* Kill new tasks that were started after bwheadless. */
-    String botFilename = FilenameUtils.getBaseName(this.bot.getFile().toString());
-    this.taskTracker.update();
-    for (Task task : this.taskTracker.getNewTasks()) {
-      /* Kill bot client. */
-      if (this.bot.getType() == Bot.Type.CLIENT && botFilename.contains(task.getImageName())) {
-        println(View.MessagePrefix.DROPLAUNCHER.get(View.MessagePrefix.KILL.get(task.getPID() + " " + task.getImageName())));
-        Tasklist.kill(task.getPID());
-        continue;
+    try {
+      this.bwheadlessProcess.stop();
+      if (this.bot.getType() == Bot.Type.CLIENT) {
+        this.botProcess.stop();
       }
-      /* Only kill tasks whose names start with known associated tasks. */
-      for (KillableTask kt : KillableTask.values()) {
-        if (task.getImageName().toLowerCase(Locale.US).startsWith(FilenameUtils.getBaseName(kt.toString()).toLowerCase(Locale.US))) {
+
+      /* Kill new tasks that were started after bwheadless. */
+      String botFilename = FilenameUtils.getBaseName(this.bot.getFile().toString());
+      this.taskTracker.update();
+      for (Task task : this.taskTracker.getNewTasks()) {
+        String pid = String.valueOf(task.getPID());
+        boolean isOwnTask = this.ownTasks.contains(pid)
+            || (processTree != null && processTree.isDescendant(pid, this.ownTasks));
+        if (!isOwnTask && (CLAIMED_TASKS.contains(pid) || isOtherInstanceRunning)) {
+          /* Started by another instance or cannot be attributed to this one. */
+          continue;
+        }
+        /* Kill bot client. */
+        if (this.bot.getType() == Bot.Type.CLIENT && botFilename.contains(task.getImageName())) {
           println(View.MessagePrefix.DROPLAUNCHER.get(View.MessagePrefix.KILL.get(task.getPID() + " " + task.getImageName())));
           Tasklist.kill(task.getPID());
-          break;
+          continue;
+        }
+        /* Only kill tasks whose names start with known associated tasks. */
+        for (KillableTask kt : KillableTask.values()) {
+          if (task.getImageName().toLowerCase(Locale.US).startsWith(FilenameUtils.getBaseName(kt.toString()).toLowerCase(Locale.US))) {
+            println(View.MessagePrefix.DROPLAUNCHER.get(View.MessagePrefix.KILL.get(task.getPID() + " " + task.getImageName())));
+            Tasklist.kill(task.getPID());
+            break;
+          }
         }
       }
+    } finally {
+      CLAIMED_TASKS.removeAll(this.ownTasks);
+      this.ownTasks.clear();
+      RUNNING_INSTANCES.remove(this);
     }
 
     this.bwapiDirectory.restoreIniFile();
   }
 
+  private boolean isOtherInstanceRunning() {
+    for (BWHeadless instance : RUNNING_INSTANCES) {
+      if (instance != this) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private void println(String line) {
     if (this.consoleOutput != null) {
       this.consoleOutput.println(line);
@@ -18,8 +18,15 @@
 package droplauncher.bwta;
 
 import droplauncher.DropLauncher;
+import droplauncher.io.MultiDigest;
+import droplauncher.mvc.model.Model;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class BWTA {
 
@@ -220,6 +227,78 @@ public class BWTA {
 
   public static final Path CACHE_ARCHIVE_FILE = DropLauncher.DATA_DIRECTORY.resolve("bwta-cache.zip");
 
+  public static final String CACHE_FILE_EXTENSION = ".bwta";
+
+  private static final Set<String> BUNDLED_V1_FILES = new HashSet<>();
+  private static final Set<String> BUNDLED_V2_FILES = new HashSet<>();
+
+  static {
+    for (CacheV1 val : CacheV1.values()) {
+      BUNDLED_V1_FILES.add(val.toString());
+    }
+    for (CacheV2 val : CacheV2.values()) {
+      BUNDLED_V2_FILES.add(val.toString());
+    }
+  }
+
   private BWTA() {}
 
+  /**
+   * Returns a future which completes with the BWTA cache filename of the
+   * specified map file. BWTA names its cache files after the SHA-1
+   * checksum of the map.
+   *
+   * @param mapFile specified map file
+   */
+  public static CompletableFuture<String> getCacheFilename(Path mapFile) {
+    return Model.getChecksumService().getChecksum(mapFile, MultiDigest.SHA1)
+        .thenApply(sha1 -> sha1 + CACHE_FILE_EXTENSION);
+  }
+
+  /**
+   * Tests whether this program provides a BWTA cache file with the
+   * specified filename.
+   *
+   * @param cacheFilename specified cache filename
+   * @see #getCacheFilename(java.nio.file.Path)
+   */
+  public static boolean isBundled(String cacheFilename) {
+    return BUNDLED_V1_FILES.contains(cacheFilename) || BUNDLED_V2_FILES.contains(cacheFilename);
+  }
+
+  /**
+   * Returns the entries of {@link #CACHE_ARCHIVE_FILE} which hold the
+   * BWTA and BWTA2 cache files with the specified filename, e.g.
+   * "BWTA/&lt;sha1&gt;.bwta". The entries are relative to the BWAPI
+   * directory.
+   *
+   * @param cacheFilename specified cache filename
+   * @see #getCacheFilename(java.nio.file.Path)
+   */
+  public static List<Path> getBundledEntries(String cacheFilename) {
+    List<Path> entries = new ArrayList<>();
+    if (BUNDLED_V1_FILES.contains(cacheFilename)) {
+      entries.add(V1_DIRECTORY.resolve(cacheFilename));
+    }
+    if (BUNDLED_V2_FILES.contains(cacheFilename)) {
+      entries.add(V2_DIRECTORY.resolve(cacheFilename));
+    }
+    return entries;
+  }
+
+  /**
+   * Returns every entry of {@link #CACHE_ARCHIVE_FILE}, relative to the
+   * BWAPI directory.
+   */
+  public static List<Path> getBundledEntries() {
+    List<Path> entries = new ArrayList<>();
+    for (CacheV1 val : CacheV1.values()) {
+      entries.add(V1_DIRECTORY.resolve(val.toString()));
+    }
+    for (CacheV2 val : CacheV2.values()) {
+      entries.add(V2_DIRECTORY.resolve(val.toString()));
+    }
+    return entries;
+  }
+
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Utilities class for replacing files via a temporary file and an
+ * atomic rename so that readers never observe a partially written file.
+ */
+public class AtomicFile {
+
+  private static final String TEMP_SUFFIX = ".dltmp";
+
+  private AtomicFile() {}
+
+  /**
+   * Returns the path of the temporary file used when replacing the
+   * specified file.
+   *
+   * @param file specified file
+   */
+  public static Path getTempFile(Path file) {
+    return file.resolveSibling(file.getFileName().toString() + TEMP_SUFFIX);
+  }
+
+  /**
+   * Replaces the contents of the specified file with the specified bytes.
+   * The bytes are written to a temporary file in the same directory which
+   * is then renamed over the target.
+   *
+   * @param file specified file
+   * @param bytes specified contents
+   * @throws IOException if an I/O error occurs
+   */
+  public static void write(Path file, byte[] bytes) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path tmp = getTempFile(file);
+    Files.write(tmp, bytes);
+    move(tmp, file);
+  }
+
+  /**
+   * Replaces the contents of the specified file with the specified bytes
+   * only if the current contents differ.
+   *
+   * @param file specified file
+   * @param bytes specified contents
+   * @return
+   *     true if the file was written,
+   *     otherwise false if the file already had the specified contents
+   * @throws IOException if an I/O error occurs
+   */
+  public static boolean writeIfChanged(Path file, byte[] bytes) throws IOException {
+    if (Files.isRegularFile(file)
+        && Files.size(file) == bytes.length
+        && Arrays.equals(Files.readAllBytes(file), bytes)) {
+      return false;
+    }
+    write(file, bytes);
+    return true;
+  }
+
+  /**
+   * Renames the specified source over the specified target. Falls back to
+   * a plain replacing move if the file system does not support atomic moves.
+   *
+   * @param src specified source
+   * @param dest specified target
+   * @throws IOException if an I/O error occurs
+   */
+  public static void move(Path src, Path dest) throws IOException {
+    try {
+      Files.move(src, dest, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (AtomicMoveNotSupportedException ex) {
+      Files.move(src, dest, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+}
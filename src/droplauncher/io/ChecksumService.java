@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class for computing file checksums in the background. This is the
+ * single entry point for identifying files by content, e.g. BWAPI.dll
+ * versions, deployed file integrity and BWTA map hashes.
+ *
+ * All requested digests of a file are computed in one pass via
+ * {@link MultiDigest}. Results are memoized per file revision (see
+ * {@link FileStamp}) in a persistent {@link StampCache}, so a file is only
+ * read again after it has been modified or when a digest is requested
+ * which was not computed before. Batches of files are hashed in parallel.
+ */
+public class ChecksumService {
+
+  private static final String CACHE_FILENAME = "checksums.cache";
+
+  private final ExecutorService executor;
+  private final StampCache cache;
+  private final Map<String, CompletableFuture<Map<String, String>>> pending; /* stamp + algorithms -> checksums */
+
+  /**
+   * Creates a service which persists its cache to the specified directory.
+   *
+   * @param cacheDirectory specified cache directory
+   */
+  public ChecksumService(Path cacheDirectory) {
+    if (cacheDirectory == null) {
+      throw new IllegalArgumentException("cacheDirectory cannot be null");
+    }
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "checksum-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.cache = new StampCache(cacheDirectory.resolve(CACHE_FILENAME));
+    this.pending = new HashMap<>();
+  }
+
+  /**
+   * Returns the executor on which files are read. Other short file reads,
+   * e.g. of headers, may be run on it instead of the common pool.
+   */
+  public Executor getExecutor() {
+    return this.executor;
+  }
+
+  /**
+   * Returns a future which completes with the lowercase hexadecimal
+   * checksum of the specified file. All file I/O, including reading the
+   * file attributes, is performed on a background thread.
+   *
+   * @param file specified file
+   * @param algorithm specified algorithm name, e.g. {@link MultiDigest#MD5}
+   */
+  public CompletableFuture<String> getChecksum(Path file, String algorithm) {
+    String name = MultiDigest.normalize(algorithm);
+    return getChecksums(file, name).thenApply(checksums -> checksums.get(name));
+  }
+
+  /**
+   * Returns a future which completes with the checksums of the specified
+   * file for each of the specified algorithms, keyed by the algorithm name
+   * as returned by {@link MultiDigest#normalize(java.lang.String)}.
+   *
+   * @param file specified file
+   * @param algorithms specified algorithm names
+   */
+  public CompletableFuture<Map<String, String>> getChecksums(Path file, String... algorithms) {
+    TreeSet<String> names = new TreeSet<>();
+    for (String algorithm : algorithms) {
+      names.add(MultiDigest.normalize(algorithm));
+    }
+    if (names.isEmpty()) {
+      throw new IllegalArgumentException("algorithms cannot be empty");
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return FileStamp.of(file);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }, this.executor).thenCompose(stamp -> getChecksums(stamp, file, names));
+  }
+
+  /**
+   * Returns a future which completes with the checksums of every
+   * specified file as described in
+   * {@link #getChecksums(java.nio.file.Path, java.lang.String...)}.
+   * Files are hashed in parallel. The future completes exceptionally if
+   * any file cannot be read.
+   *
+   * @param files specified files
+   * @param algorithms specified algorithm names
+   */
+  public CompletableFuture<Map<Path, Map<String, String>>> getChecksums(Collection<Path> files, String... algorithms) {
+    List<Path> list = new ArrayList<>(files);
+    List<CompletableFuture<Map<String, String>>> futures = new ArrayList<>();
+    for (Path file : list) {
+      futures.add(getChecksums(file, algorithms));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+      Map<Path, Map<String, String>> result = new LinkedHashMap<>();
+      for (int i = 0; i < list.size(); i++) {
+        result.put(list.get(i), futures.get(i).join());
+      }
+      return result;
+    });
+  }
+
+  private CompletableFuture<Map<String, String>> getChecksums(FileStamp stamp, Path file, TreeSet<String> names) {
+    Map<String, String> cached = decode(this.cache.get(stamp));
+    if (cached.keySet().containsAll(names)) {
+      return CompletableFuture.completedFuture(select(cached, names));
+    }
+
+    /* Share a single computation between concurrent requests for the same file revision. */
+    String key = names.toString() + "\t" + stamp.toString();
+    synchronized (this.pending) {
+      CompletableFuture<Map<String, String>> future = this.pending.get(key);
+      if (future == null) {
+        List<String> missing = new ArrayList<>(names);
+        missing.removeAll(cached.keySet());
+        future = CompletableFuture.supplyAsync(() -> {
+          try {
+            Map<String, String> computed = MultiDigest.compute(file, missing);
+            /* Merge with whatever was cached in the meantime. */
+            Map<String, String> merged = decode(this.cache.get(stamp));
+            merged.putAll(computed);
+            this.cache.put(stamp, encode(merged));
+            return select(merged, names);
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        }, this.executor);
+        this.pending.put(key, future);
+        future.whenComplete((checksums, ex) -> {
+          synchronized (this.pending) {
+            this.pending.remove(key);
+          }
+        });
+      }
+      return future;
+    }
+  }
+
+  private static Map<String, String> select(Map<String, String> checksums, Collection<String> names) {
+    Map<String, String> result = new TreeMap<>();
+    for (String name : names) {
+      result.put(name, checksums.get(name));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /* Cache values are formatted as "MD5=<hex>;SHA-1=<hex>". */
+
+  private static Map<String, String> decode(String value) {
+    Map<String, String> checksums = new TreeMap<>();
+    if (value == null) {
+      return checksums;
+    }
+    for (String token : value.split(";")) {
+      int eq = token.indexOf('=');
+      if (eq > 0) {
+        checksums.put(token.substring(0, eq), token.substring(eq + 1));
+      }
+    }
+    return checksums;
+  }
+
+  private static String encode(Map<String, String> checksums) {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> entry : checksums.entrySet()) {
+      if (sb.length() > 0) {
+        sb.append(';');
+      }
+      sb.append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return sb.toString();
+  }
+
+}
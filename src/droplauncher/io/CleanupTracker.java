@@ -0,0 +1,569 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Class for recording which files and directories are created in a
+ * directory tree so they can be deleted later, e.g. files left behind
+ * in the StarCraft directory by a bot.
+ *
+ * Entries are recorded from two sources: a {@link WatchService} on the
+ * existing directories of the tree and the write log of this program,
+ * which reports files it creates itself via {@link #record(Path)}. Only
+ * top-level creations are recorded. A new directory is deleted as a
+ * whole, so its contents are neither watched nor recorded. Paths which
+ * existed when tracking started are never recorded, even if they are
+ * deleted and created again.
+ *
+ * Every change is appended to a journal file. Entries which were not
+ * deleted, e.g. because this program exited unexpectedly, are loaded
+ * again by the next tracker which uses the same journal. Cleaning up is
+ * therefore proportional to what changed rather than to the size of the
+ * tree.
+ */
+public class CleanupTracker {
+
+  private static final Logger LOGGER = Logger.getLogger(CleanupTracker.class.getName());
+
+  /**
+   * Callback for the progress of {@link #cleanup(ProgressListener)}.
+   */
+  public interface ProgressListener {
+    void progress(int done, int total);
+  }
+
+  /**
+   * Summary of a cleanup.
+   */
+  public static class Result {
+
+    private final int deletedCount;
+    private final List<Path> failed;
+
+    private Result(int deletedCount, List<Path> failed) {
+      this.deletedCount = deletedCount;
+      this.failed = Collections.unmodifiableList(failed);
+    }
+
+    public int getDeletedCount() {
+      return this.deletedCount;
+    }
+
+    /**
+     * Returns the entries which could not be deleted. These entries
+     * remain in the journal.
+     */
+    public List<Path> getFailed() {
+      return this.failed;
+    }
+
+    @Override
+    public String toString() {
+      return "deleted=" + this.deletedCount + ", failed=" + this.failed.size();
+    }
+
+  }
+
+  private static final char ADD = '+';
+  private static final char REMOVE = '-';
+
+  private final Path root;
+  private final Path journalFile;
+  private final List<String> ignoreList;
+  private final Set<Path> entries; /* guarded by this */
+  private final Set<Path> preexisting; /* paths which existed when tracking started, guarded by this */
+  private final Map<WatchKey, Path> watchedDirectories;
+  private final ExecutorService executor;
+  private BufferedWriter journal; /* guarded by this */
+  private int journalLength; /* lines in the journal file, guarded by this */
+  private FileTime startTime;
+  private WatchService watchService;
+  private Thread thread;
+
+  /**
+   * Creates a tracker for the specified directory tree.
+   *
+   * @param root specified directory tree
+   * @param journalFile specified journal file
+   */
+  public CleanupTracker(Path root, Path journalFile) {
+    if (root == null || journalFile == null) {
+      throw new IllegalArgumentException("root and journalFile cannot be null");
+    }
+    this.root = root.toAbsolutePath().normalize();
+    this.journalFile = journalFile;
+    this.ignoreList = new ArrayList<>();
+    this.entries = new LinkedHashSet<>();
+    this.preexisting = new HashSet<>();
+    this.watchedDirectories = new HashMap<>();
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "cleanup-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.journal = null;
+    this.journalLength = 0;
+    this.startTime = null;
+    this.watchService = null;
+    this.thread = null;
+  }
+
+  public Path getRoot() {
+    return this.root;
+  }
+
+  /**
+   * Returns the list of ignored names. Any file or directory whose path
+   * below the root contains a name which contains one of these strings
+   * is neither watched nor recorded. Matching is case-insensitive.
+   * Changes only take effect before {@link #start()}.
+   */
+  public List<String> getIgnoreList() {
+    return this.ignoreList;
+  }
+
+  /**
+   * Loads the journal and starts watching the directory tree. Does
+   * nothing if already started.
+   *
+   * @throws IOException if the tree cannot be watched
+   */
+  public synchronized void start() throws IOException {
+    if (this.thread != null) {
+      return;
+    }
+    loadJournal();
+    this.startTime = FileTime.fromMillis(System.currentTimeMillis());
+    this.watchService = FileSystems.getDefault().newWatchService();
+    this.preexisting.clear();
+    WatchService service = this.watchService;
+    Files.walkFileTree(this.root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!dir.equals(CleanupTracker.this.root) && isIgnored(dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        register(service, dir);
+        addPreexisting(dir);
+        return FileVisitResult.CONTINUE;
+      }
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        addPreexisting(file);
+        return FileVisitResult.CONTINUE;
+      }
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException ex) {
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    this.thread = new Thread(this::run, "cleanup-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Stops watching the directory tree. Recorded entries are kept and
+   * the journal is compacted.
+   */
+  public synchronized void stop() {
+    if (this.thread == null) {
+      return;
+    }
+    try {
+      this.watchService.close();
+    } catch (IOException ex) {
+      LOGGER.log(Level.FINE, "failed to close watch service", ex);
+    }
+    synchronized (this.watchedDirectories) {
+      this.watchedDirectories.clear();
+    }
+    this.thread = null;
+    this.watchService = null;
+    this.preexisting.clear();
+    compact();
+  }
+
+  /**
+   * Stops watching the directory tree and forgets every recorded entry
+   * without deleting it. The journal is deleted.
+   */
+  public synchronized void discard() {
+    stop();
+    this.entries.clear();
+    compact();
+  }
+
+  /**
+   * Deletes the specified journal without deleting its entries, e.g.
+   * when cleaning up is disabled.
+   *
+   * @param journalFile specified journal file
+   */
+  public static void discardJournal(Path journalFile) {
+    try {
+      Files.deleteIfExists(journalFile);
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to delete cleanup journal: " + journalFile.toString(), ex);
+    }
+  }
+
+  /**
+   * Records the specified file or directory as created. Paths outside
+   * the tree, ignored paths and paths below a recorded directory are not
+   * recorded.
+   *
+   * @param path specified path
+   */
+  public synchronized void record(Path path) {
+    Path normalized = path.toAbsolutePath().normalize();
+    if (!normalized.startsWith(this.root) || normalized.equals(this.root)
+        || isIgnored(normalized) || this.preexisting.contains(normalized)) {
+      return;
+    }
+    for (Path parent = normalized.getParent(); parent != null && !parent.equals(this.root); parent = parent.getParent()) {
+      if (this.entries.contains(parent)) {
+        return;
+      }
+    }
+    if (this.entries.add(normalized)) {
+      append(ADD, normalized);
+    }
+  }
+
+  /**
+   * Returns the number of recorded entries.
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Deletes every recorded entry in the background. Entries are deleted
+   * in parallel. Deleted entries and entries which no longer exist are
+   * removed from the journal.
+   *
+   * @param listener specified progress listener or null
+   * @return a future which completes with a summary of the cleanup
+   */
+  public CompletableFuture<Result> cleanup(ProgressListener listener) {
+    ProgressListener progress = (listener != null) ? listener : (done, total) -> {};
+    List<Path> targets = new ArrayList<>();
+    synchronized (this) {
+      /* Entries below another entry are deleted with it. Skipping them
+         ensures that no two deletions in parallel overlap. */
+      for (Path entry : this.entries) {
+        boolean isNested = false;
+        for (Path parent = entry.getParent(); parent != null; parent = parent.getParent()) {
+          if (this.entries.contains(parent)) {
+            isNested = true;
+            break;
+          }
+        }
+        if (!isNested) {
+          targets.add(entry);
+        }
+      }
+    }
+    int total = targets.size();
+    AtomicInteger done = new AtomicInteger(0);
+    List<CompletableFuture<Path>> futures = new ArrayList<>();
+    for (Path target : targets) {
+      futures.add(CompletableFuture.supplyAsync(() -> {
+        boolean isDeleted = delete(target);
+        progress.progress(done.incrementAndGet(), total);
+        return isDeleted ? null : target;
+      }, this.executor));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+      List<Path> failed = new ArrayList<>();
+      for (CompletableFuture<Path> future : futures) {
+        Path target = future.join();
+        if (target != null) {
+          failed.add(target);
+        }
+      }
+      synchronized (this) {
+        List<Path> deleted = new ArrayList<>(targets);
+        deleted.removeAll(failed);
+        for (Path target : deleted) {
+          this.entries.remove(target);
+          /* Remove nested entries as well. */
+          this.entries.removeIf(entry -> entry.startsWith(target));
+        }
+        compact();
+      }
+      return new Result(total - failed.size(), failed);
+    });
+  }
+
+  private static boolean delete(Path target) {
+    try {
+      if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+        FileUtils.deleteDirectory(target.toFile());
+      } else {
+        Files.deleteIfExists(target);
+      }
+      return true;
+    } catch (IOException ex) {
+      LOGGER.log(Level.FINE, "failed to delete " + target.toString(), ex);
+      return false;
+    }
+  }
+
+  /**
+   * Marks the specified path as existing before tracking started unless
+   * it was recorded by a previous tracker, which still owns it.
+   */
+  private synchronized void addPreexisting(Path path) {
+    Path normalized = path.toAbsolutePath().normalize();
+    if (!this.entries.contains(normalized)) {
+      this.preexisting.add(normalized);
+    }
+  }
+
+  private boolean isIgnored(Path path) {
+    if (this.ignoreList.isEmpty()) {
+      return false;
+    }
+    for (Path name : this.root.relativize(path)) {
+      String lower = name.toString().toLowerCase(Locale.US);
+      for (String ignored : this.ignoreList) {
+        if (lower.contains(ignored.toLowerCase(Locale.US))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void register(WatchService service, Path dir) throws IOException {
+    WatchKey key = dir.register(service,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE
+    );
+    synchronized (this.watchedDirectories) {
+      this.watchedDirectories.put(key, dir);
+    }
+  }
+
+  private void run() {
+    WatchService service = this.watchService;
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        Path dir;
+        synchronized (this.watchedDirectories) {
+          dir = this.watchedDirectories.get(key);
+        }
+        if (dir == null) {
+          key.cancel();
+          continue;
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            rescan(dir);
+            continue;
+          }
+          Path path = dir.resolve((Path) event.context());
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+            record(path);
+          } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            forget(path);
+          }
+        }
+        if (!key.reset()) {
+          synchronized (this.watchedDirectories) {
+            this.watchedDirectories.remove(key);
+          }
+        }
+        flush();
+      }
+    } catch (ClosedWatchServiceException | InterruptedException ex) {
+      /* Stopped. */
+    }
+  }
+
+  /**
+   * Records the entries of the specified directory which were created
+   * after tracking started. Used when events were lost.
+   */
+  private void rescan(Path dir) {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path path : stream) {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (attrs.creationTime().compareTo(this.startTime) >= 0) {
+          record(path);
+        }
+      }
+    } catch (IOException ex) {
+      LOGGER.log(Level.FINE, "failed to rescan " + dir.toString(), ex);
+    }
+  }
+
+  private synchronized void forget(Path path) {
+    Path normalized = path.toAbsolutePath().normalize();
+    if (this.entries.remove(normalized)) {
+      append(REMOVE, normalized);
+    }
+  }
+
+  /* ************************************************************ */
+  /* Journal */
+  /* ************************************************************ */
+
+  /*
+   * The journal is a UTF-8 text file with one change per line: '+' or
+   * '-' followed by an absolute path. It is only appended to while the
+   * tracker runs and rewritten with the remaining entries after loading
+   * and after a cleanup.
+   */
+
+  private synchronized void loadJournal() {
+    flush();
+    this.journalLength = 0;
+    if (Files.isRegularFile(this.journalFile)) {
+      try (BufferedReader br = Files.newBufferedReader(this.journalFile, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = br.readLine()) != null) {
+          this.journalLength++;
+          if (line.length() < 2) {
+            continue;
+          }
+          try {
+            Path path = Paths.get(line.substring(1));
+            if (line.charAt(0) == ADD) {
+              this.entries.add(path);
+            } else if (line.charAt(0) == REMOVE) {
+              this.entries.remove(path);
+            }
+          } catch (InvalidPathException ex) {
+            /* Skip corrupt line. */
+          }
+        }
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, "failed to read cleanup journal: " + this.journalFile.toString(), ex);
+      }
+    }
+    compact();
+  }
+
+  private synchronized void append(char op, Path path) {
+    try {
+      if (this.journal == null) {
+        Path parent = this.journalFile.toAbsolutePath().getParent();
+        if (parent != null) {
+          Files.createDirectories(parent);
+        }
+        this.journal = Files.newBufferedWriter(this.journalFile, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      this.journal.write(op);
+      this.journal.write(path.toString());
+      this.journal.newLine();
+      this.journalLength++;
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to write cleanup journal: " + this.journalFile.toString(), ex);
+    }
+  }
+
+  private synchronized void flush() {
+    if (this.journal == null) {
+      return;
+    }
+    try {
+      this.journal.flush();
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to write cleanup journal: " + this.journalFile.toString(), ex);
+    }
+  }
+
+  /**
+   * Rewrites the journal with only the remaining entries. Deletes the
+   * journal if there are none.
+   */
+  private synchronized void compact() {
+    try {
+      if (this.journal != null) {
+        this.journal.close();
+        this.journal = null;
+      }
+      if (this.entries.isEmpty()) {
+        Files.deleteIfExists(this.journalFile);
+        this.journalLength = 0;
+        return;
+      }
+      if (this.journalLength == this.entries.size() && Files.isRegularFile(this.journalFile)) {
+        return;
+      }
+      StringBuilder sb = new StringBuilder();
+      for (Path path : this.entries) {
+        sb.append(ADD).append(path.toString()).append(System.lineSeparator());
+      }
+      Path parent = this.journalFile.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      AtomicFile.write(this.journalFile, sb.toString().getBytes(StandardCharsets.UTF_8));
+      this.journalLength = this.entries.size();
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to write cleanup journal: " + this.journalFile.toString(), ex);
+    }
+  }
+
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Class for incrementally synchronizing the contents of a source directory
+ * to a target directory. Only files which are new or have changed
+ * are copied.
+ */
+public class DirectorySync {
+
+  /**
+   * Container class for the outcome of a synchronization.
+   */
+  public static class Result {
+
+    private int copied;
+    private int deleted;
+    private int unchanged;
+
+    private Result() {
+      this.copied = 0;
+      this.deleted = 0;
+      this.unchanged = 0;
+    }
+
+    /**
+     * Returns the number of files copied to the target directory.
+     */
+    public int getCopied() {
+      return this.copied;
+    }
+
+    /**
+     * Returns the number of files and directories deleted from the
+     * target directory.
+     */
+    public int getDeleted() {
+      return this.deleted;
+    }
+
+    /**
+     * Returns the number of files that were already up to date.
+     */
+    public int getUnchanged() {
+      return this.unchanged;
+    }
+
+    @Override
+    public String toString() {
+      return "copied=" + this.copied + ", deleted=" + this.deleted + ", unchanged=" + this.unchanged;
+    }
+
+  }
+
+  /**
+   * Container class for the attributes compared between both trees.
+   */
+  private static class Entry {
+
+    private final boolean isDirectory;
+    private final long size;
+    private final FileTime lastModified;
+
+    private Entry(BasicFileAttributes attrs) {
+      this.isDirectory = attrs.isDirectory();
+      this.size = attrs.size();
+      this.lastModified = attrs.lastModifiedTime();
+    }
+
+  }
+
+  private boolean deleteExtraneous;
+  private boolean verifyContents;
+
+  public DirectorySync() {
+    this.deleteExtraneous = false;
+    this.verifyContents = false;
+  }
+
+  /**
+   * Sets whether files and directories in the target which do not exist
+   * in the source should be deleted.
+   *
+   * @param enabled specified boolean value
+   */
+  public DirectorySync setDeleteExtraneous(boolean enabled) {
+    this.deleteExtraneous = enabled;
+    return this;
+  }
+
+  /**
+   * Sets whether files with the same size but a different modification
+   * time should have their contents compared before being copied.
+   * When disabled, a different modification time is treated as a change.
+   *
+   * @param enabled specified boolean value
+   */
+  public DirectorySync setVerifyContents(boolean enabled) {
+    this.verifyContents = enabled;
+    return this;
+  }
+
+  /**
+   * Synchronizes the specified source directory to the specified
+   * target directory. Both trees are walked concurrently. Changed files are
+   * written to a temporary file and renamed over the target file.
+   *
+   * @param src specified source directory
+   * @param dest specified target directory
+   * @throws IOException if an I/O error occurs
+   */
+  public Result sync(Path src, Path dest) throws IOException {
+    Result result = new Result();
+    if (!Files.isDirectory(src)) {
+      return result;
+    }
+    Files.createDirectories(dest);
+
+    CompletableFuture<Map<String, Entry>> destWalk = CompletableFuture.supplyAsync(() -> {
+      try {
+        return walk(dest);
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    });
+    Map<String, Entry> srcEntries = walk(src);
+    Map<String, Entry> destEntries;
+    try {
+      destEntries = destWalk.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) ex.getCause()).getCause();
+      }
+      throw ex;
+    }
+
+    for (Map.Entry<String, Entry> item : srcEntries.entrySet()) {
+      String relative = item.getKey();
+      Entry srcEntry = item.getValue();
+      Entry destEntry = destEntries.get(relative);
+      Path srcPath = src.resolve(relative);
+      Path destPath = dest.resolve(relative);
+
+      if (srcEntry.isDirectory) {
+        if (destEntry == null || !destEntry.isDirectory) {
+          if (destEntry != null) {
+            Files.delete(destPath);
+          }
+          Files.createDirectories(destPath);
+        }
+        continue;
+      }
+
+      if (destEntry != null && !destEntry.isDirectory && destEntry.size == srcEntry.size) {
+        if (destEntry.lastModified.toMillis() == srcEntry.lastModified.toMillis()) {
+          result.unchanged++;
+          continue;
+        } else if (this.verifyContents && contentEquals(srcPath, destPath)) {
+          /* Align the modification time so the next sync takes the fast path. */
+          Files.setLastModifiedTime(destPath, srcEntry.lastModified);
+          result.unchanged++;
+          continue;
+        }
+      }
+
+      if (destEntry != null && destEntry.isDirectory) {
+        deleteTree(destPath);
+      }
+      copy(srcPath, destPath);
+      result.copied++;
+    }
+
+    if (this.deleteExtraneous) {
+      /* Delete deepest paths first so that directories are empty when reached. */
+      List<String> extraneous = new ArrayList<>();
+      for (String relative : destEntries.keySet()) {
+        if (!srcEntries.containsKey(relative)) {
+          extraneous.add(relative);
+        }
+      }
+      Collections.sort(extraneous, Collections.reverseOrder());
+      for (String relative : extraneous) {
+        Path path = dest.resolve(relative);
+        if (Files.deleteIfExists(path)) {
+          result.deleted++;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  private static Map<String, Entry> walk(Path root) throws IOException {
+    Map<String, Entry> entries = new HashMap<>();
+    if (!Files.isDirectory(root)) {
+      return entries;
+    }
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        if (!dir.equals(root)) {
+          entries.put(relativize(root, dir), new Entry(attrs));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        entries.put(relativize(root, file), new Entry(attrs));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return entries;
+  }
+
+  private static String relativize(Path root, Path path) {
+    return root.relativize(path).toString().replace('\\', '/');
+  }
+
+  private static void copy(Path src, Path dest) throws IOException {
+    Path parent = dest.getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path tmp = AtomicFile.getTempFile(dest);
+    Files.copy(src, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    AtomicFile.move(tmp, dest);
+  }
+
+  private static void deleteTree(Path root) throws IOException {
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+        if (ex != null) {
+          throw ex;
+        }
+        Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private static boolean contentEquals(Path a, Path b) throws IOException {
+    try (InputStream inA = new BufferedInputStream(Files.newInputStream(a));
+         InputStream inB = new BufferedInputStream(Files.newInputStream(b))) {
+      int ch;
+      while ((ch = inA.read()) != -1) {
+        if (ch != inB.read()) {
+          return false;
+        }
+      }
+      return inB.read() == -1;
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Immutable class identifying a specific revision of a file by its
+ * absolute path, size, modification time and file key. Two stamps are equal
+ * if the file has most likely not been modified in between.
+ */
+public final class FileStamp {
+
+  private static final String NO_FILE_KEY = "-";
+
+  private final String path;
+  private final long size;
+  private final long lastModified;
+  private final String fileKey;
+
+  private FileStamp(String path, long size, long lastModified, String fileKey) {
+    this.path = path;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.fileKey = fileKey;
+  }
+
+  /**
+   * Returns the stamp of the specified file.
+   *
+   * @param file specified file
+   * @throws IOException if the file attributes cannot be read
+   */
+  public static FileStamp of(Path file) throws IOException {
+    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+    /* The file key is not available on all platforms (e.g. Windows). */
+    Object key = attrs.fileKey();
+    return new FileStamp(
+        file.toAbsolutePath().normalize().toString(),
+        attrs.size(),
+        attrs.lastModifiedTime().toMillis(),
+        (key == null) ? NO_FILE_KEY : key.toString().replace('\t', ' ')
+    );
+  }
+
+  /**
+   * Returns the stamp encoded by {@link #toString()}.
+   *
+   * @param str specified encoded stamp
+   * @throws IllegalArgumentException if the string is not a valid stamp
+   */
+  public static FileStamp parse(String str) {
+    String[] tokens = str.split("\t", -1);
+    if (tokens.length != 4) {
+      throw new IllegalArgumentException("invalid file stamp: " + str);
+    }
+    return new FileStamp(tokens[3], Long.parseLong(tokens[0]), Long.parseLong(tokens[1]), tokens[2]);
+  }
+
+  public String getPath() {
+    return this.path;
+  }
+
+  public long getSize() {
+    return this.size;
+  }
+
+  public long getLastModified() {
+    return this.lastModified;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof FileStamp)) {
+      return false;
+    }
+    FileStamp other = (FileStamp) obj;
+    return this.size == other.size
+        && this.lastModified == other.lastModified
+        && this.path.equals(other.path)
+        && this.fileKey.equals(other.fileKey);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.path, this.size, this.lastModified, this.fileKey);
+  }
+
+  /**
+   * Returns the tab-separated encoding of this stamp. The path is last
+   * since it is the only field which may contain spaces.
+   */
+  @Override
+  public String toString() {
+    return this.size + "\t" + this.lastModified + "\t" + this.fileKey + "\t" + this.path;
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Utilities class for computing several digests of a file in a single pass.
+ * Small and medium files are memory-mapped and every digest consumes the
+ * same mapping. Larger files are read once through a large buffer which
+ * is fed to every digest before the next chunk is read.
+ */
+public class MultiDigest {
+
+  public static final String MD5 = "MD5";
+  public static final String SHA1 = "SHA-1";
+  public static final String SHA256 = "SHA-256";
+
+  private static final long MIN_MAP_SIZE = 64L * 1024; /* mapping tiny files costs more than reading them */
+  private static final long MAX_MAP_SIZE = 256L * 1024 * 1024;
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  private MultiDigest() {}
+
+  /**
+   * Returns the lowercase hexadecimal digests of the specified file for
+   * each of the specified algorithms. The file is read exactly once.
+   *
+   * @param file specified file
+   * @param algorithms specified {@link MessageDigest} algorithm names
+   * @return a map of the uppercase algorithm name to its digest
+   * @throws IOException if an I/O error occurs or an algorithm is not supported
+   */
+  public static Map<String, String> compute(Path file, Collection<String> algorithms) throws IOException {
+    if (algorithms == null || algorithms.isEmpty()) {
+      throw new IllegalArgumentException("algorithms cannot be null or empty");
+    }
+
+    Map<String, MessageDigest> digests = new LinkedHashMap<>();
+    for (String algorithm : algorithms) {
+      String name = normalize(algorithm);
+      if (!digests.containsKey(name)) {
+        try {
+          digests.put(name, MessageDigest.getInstance(name));
+        } catch (NoSuchAlgorithmException ex) {
+          throw new IOException(ex);
+        }
+      }
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size >= MIN_MAP_SIZE && size <= MAX_MAP_SIZE) {
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        for (MessageDigest md : digests.values()) {
+          md.update(mapped.duplicate());
+        }
+      } else {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(size, 1)));
+        while (channel.read(buffer) != -1) {
+          buffer.flip();
+          for (MessageDigest md : digests.values()) {
+            md.update(buffer.array(), 0, buffer.limit());
+          }
+          buffer.clear();
+        }
+      }
+    }
+
+    Map<String, String> result = new LinkedHashMap<>();
+    for (Map.Entry<String, MessageDigest> entry : digests.entrySet()) {
+      result.put(entry.getKey(), toHex(entry.getValue().digest()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the canonical form of the specified algorithm name which is
+   * used as the key in the maps returned by this class.
+   *
+   * @param algorithm specified algorithm name
+   */
+  public static String normalize(String algorithm) {
+    return algorithm.trim().toUpperCase(Locale.US);
+  }
+
+  /**
+   * Returns the specified bytes as a lowercase hexadecimal string.
+   *
+   * @param bytes specified bytes
+   */
+  public static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the bytes of the specified hexadecimal string.
+   *
+   * @param hex specified hexadecimal string of even length
+   * @throws NumberFormatException if the string is not hexadecimal
+   */
+  public static byte[] fromHex(String hex) {
+    if (hex.length() % 2 != 0) {
+      throw new NumberFormatException("odd length: " + hex);
+    }
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return bytes;
+  }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Class for finding any number of byte signatures in a single pass.
+ *
+ * The signatures are compiled into an Aho-Corasick automaton which is
+ * expanded into a complete transition table, so scanning costs one table
+ * lookup per input byte regardless of the number of signatures.
+ */
+public class MultiPatternScanner {
+
+  private static final int ALPHABET_SIZE = 256;
+
+  private final int[] lengths;
+  private final int[][] transitions; /* state -> byte -> state */
+  private final int[][] outputs; /* state -> indices of signatures ending in this state */
+
+  /**
+   * Creates a scanner for the specified signatures.
+   *
+   * @param signatures specified non-empty signatures
+   */
+  public MultiPatternScanner(List<byte[]> signatures) {
+    if (signatures == null || signatures.isEmpty()) {
+      throw new IllegalArgumentException("signatures cannot be null or empty");
+    }
+
+    /* Build the trie. */
+    List<int[]> trie = new ArrayList<>();
+    List<List<Integer>> out = new ArrayList<>();
+    trie.add(newState());
+    out.add(new ArrayList<>());
+    this.lengths = new int[signatures.size()];
+    for (int i = 0; i < signatures.size(); i++) {
+      byte[] signature = signatures.get(i);
+      if (signature == null || signature.length < 1) {
+        throw new IllegalArgumentException("signature cannot be null or empty: index=" + i);
+      }
+      this.lengths[i] = signature.length;
+      int state = 0;
+      for (byte b : signature) {
+        int c = b & 0xFF;
+        if (trie.get(state)[c] < 0) {
+          trie.get(state)[c] = trie.size();
+          trie.add(newState());
+          out.add(new ArrayList<>());
+        }
+        state = trie.get(state)[c];
+      }
+      out.get(state).add(i);
+    }
+
+    /* Compute failure links breadth-first and turn the trie into a complete automaton. */
+    int[] fail = new int[trie.size()];
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int c = 0; c < ALPHABET_SIZE; c++) {
+      int next = trie.get(0)[c];
+      if (next < 0) {
+        trie.get(0)[c] = 0;
+      } else {
+        fail[next] = 0;
+        queue.add(next);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      out.get(state).addAll(out.get(fail[state]));
+      for (int c = 0; c < ALPHABET_SIZE; c++) {
+        int next = trie.get(state)[c];
+        if (next < 0) {
+          trie.get(state)[c] = trie.get(fail[state])[c];
+        } else {
+          fail[next] = trie.get(fail[state])[c];
+          queue.add(next);
+        }
+      }
+    }
+
+    this.transitions = trie.toArray(new int[trie.size()][]);
+    this.outputs = new int[out.size()][];
+    for (int i = 0; i < out.size(); i++) {
+      this.outputs[i] = out.get(i).stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+  private static int[] newState() {
+    int[] state = new int[ALPHABET_SIZE];
+    Arrays.fill(state, -1);
+    return state;
+  }
+
+  /**
+   * Returns the offset of the first occurrence of each signature in the
+   * specified buffer between its position and limit. The returned array
+   * is indexed like the signatures passed to the constructor and contains
+   * -1 for each signature which was not found. Scanning stops as soon as
+   * every signature has been found.
+   *
+   * @param buffer specified buffer
+   */
+  public long[] scan(ByteBuffer buffer) {
+    long[] offsets = new long[this.lengths.length];
+    Arrays.fill(offsets, -1);
+    int remaining = offsets.length;
+    int state = 0;
+    int start = buffer.position();
+    int end = buffer.limit();
+    for (int pos = start; pos < end && remaining > 0; pos++) {
+      state = this.transitions[state][buffer.get(pos) & 0xFF];
+      for (int index : this.outputs[state]) {
+        if (offsets[index] < 0) {
+          offsets[index] = pos - start + 1 - this.lengths[index];
+          remaining--;
+        }
+      }
+    }
+    return offsets;
+  }
+
+  /**
+   * Memory-maps the specified file and scans it as described in
+   * {@link #scan(java.nio.ByteBuffer)}. Files larger than the specified
+   * maximum size are not scanned and report no matches.
+   *
+   * @param file specified file
+   * @param maxSize specified maximum file size in bytes
+   * @throws IOException if an I/O error occurs
+   */
+  public long[] scan(Path file, long maxSize) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > maxSize || size > Integer.MAX_VALUE) {
+        long[] offsets = new long[this.lengths.length];
+        Arrays.fill(offsets, -1);
+        return offsets;
+      }
+      return scan(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for reading the headers and version resource of a Windows
+ * Portable Executable (EXE or DLL) file.
+ *
+ * The file is memory-mapped and only the DOS header, PE headers, section
+ * table and the VS_VERSIONINFO resource are accessed, so typically only a
+ * few kilobytes are read regardless of the file size.
+ */
+public class PortableExecutable {
+
+  /**
+   * Enum for the target architecture of an executable.
+   */
+  public enum Machine {
+
+    X86(0x014c, "x86"),
+    X64(0x8664, "x64"),
+    ARM(0x01c0, "ARM"),
+    ARM64(0xaa64, "ARM64"),
+    UNKNOWN(-1, "Unknown")
+    ;
+
+    private final int id;
+    private final String str;
+
+    private Machine(int id, String str) {
+      this.id = id;
+      this.str = str;
+    }
+
+    private static Machine get(int id) {
+      for (Machine val : Machine.values()) {
+        if (val.id == id) {
+          return val;
+        }
+      }
+      return UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
+  private static final int DOS_SIGNATURE = 0x5A4D; /* "MZ" */
+  private static final int PE_SIGNATURE = 0x00004550; /* "PE\0\0" */
+  private static final int PE32_MAGIC = 0x10b;
+  private static final int PE32_PLUS_MAGIC = 0x20b;
+  private static final int IMAGE_FILE_DLL = 0x2000;
+  private static final int RESOURCE_DIRECTORY_INDEX = 2;
+  private static final int RT_VERSION = 16;
+  private static final int FIXED_FILE_INFO_SIGNATURE = 0xFEEF04BD;
+  private static final int VS_FF_DEBUG = 0x1;
+  private static final int MAX_RESOURCE_DEPTH = 3;
+
+  private Machine machine;
+  private boolean isDll;
+  private int[] fileVersion; /* null if the file has no version resource */
+  private int[] productVersion;
+  private boolean isDebugBuild;
+  private final Map<String, String> strings;
+
+  private PortableExecutable() {
+    this.machine = Machine.UNKNOWN;
+    this.isDll = false;
+    this.fileVersion = null;
+    this.productVersion = null;
+    this.isDebugBuild = false;
+    this.strings = new HashMap<>();
+  }
+
+  /**
+   * Reads the headers and version resource of the specified file.
+   *
+   * @param file specified file
+   * @throws IOException if an I/O error occurs or the file is not a
+   *     valid Portable Executable
+   */
+  public static PortableExecutable read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      PortableExecutable pe = new PortableExecutable();
+      try {
+        pe.parse(buffer);
+      } catch (IndexOutOfBoundsException ex) {
+        throw new IOException("truncated Portable Executable: " + file.toString(), ex);
+      }
+      return pe;
+    }
+  }
+
+  /**
+   * Returns the target architecture.
+   */
+  public Machine getMachine() {
+    return this.machine;
+  }
+
+  /**
+   * Tests whether the file is a DLL rather than an executable.
+   */
+  public boolean isDll() {
+    return this.isDll;
+  }
+
+  /**
+   * Tests whether the file contains a version resource.
+   */
+  public boolean hasVersionInfo() {
+    return this.fileVersion != null;
+  }
+
+  /**
+   * Returns the four components of the fixed file version
+   * or null if the file has no version resource.
+   */
+  public int[] getFileVersion() {
+    return (this.fileVersion == null) ? null : this.fileVersion.clone();
+  }
+
+  /**
+   * Returns the four components of the fixed product version
+   * or null if the file has no version resource.
+   */
+  public int[] getProductVersion() {
+    return (this.productVersion == null) ? null : this.productVersion.clone();
+  }
+
+  /**
+   * Tests whether the version resource marks the file as a debug build.
+   */
+  public boolean isDebugBuild() {
+    return this.isDebugBuild;
+  }
+
+  /**
+   * Returns the value of the specified entry in the version resource's
+   * string table, e.g. "OriginalFilename", or null if it does not exist.
+   *
+   * @param key specified key
+   */
+  public String getString(String key) {
+    return this.strings.get(key);
+  }
+
+  /**
+   * Returns all entries of the version resource's string table.
+   */
+  public Map<String, String> getStrings() {
+    return Collections.unmodifiableMap(this.strings);
+  }
+
+  private void parse(ByteBuffer buffer) throws IOException {
+    if (buffer.limit() < 0x40 || u16(buffer, 0) != DOS_SIGNATURE) {
+      throw new IOException("missing DOS header");
+    }
+    int peOffset = buffer.getInt(0x3C);
+    if (peOffset < 0 || peOffset > buffer.limit() - 24 || buffer.getInt(peOffset) != PE_SIGNATURE) {
+      throw new IOException("missing PE header");
+    }
+
+    /* COFF file header */
+    int coff = peOffset + 4;
+    this.machine = Machine.get(u16(buffer, coff));
+    int sectionCount = u16(buffer, coff + 2);
+    int optionalHeaderSize = u16(buffer, coff + 16);
+    this.isDll = (u16(buffer, coff + 18) & IMAGE_FILE_DLL) != 0;
+
+    /* Optional header */
+    int optional = coff + 20;
+    int dataDirectories;
+    int rvaCountOffset;
+    switch (u16(buffer, optional)) {
+      case PE32_MAGIC:
+        rvaCountOffset = optional + 92;
+        dataDirectories = optional + 96;
+        break;
+      case PE32_PLUS_MAGIC:
+        rvaCountOffset = optional + 108;
+        dataDirectories = optional + 112;
+        break;
+      default:
+        throw new IOException("unknown optional header magic");
+    }
+    if (buffer.getInt(rvaCountOffset) <= RESOURCE_DIRECTORY_INDEX) {
+      return;
+    }
+    int resourceRva = buffer.getInt(dataDirectories + RESOURCE_DIRECTORY_INDEX * 8);
+    if (resourceRva == 0) {
+      return;
+    }
+
+    /* Section table */
+    int sections = optional + optionalHeaderSize;
+    int[][] sectionTable = new int[sectionCount][];
+    for (int i = 0; i < sectionCount; i++) {
+      int entry = sections + i * 40;
+      sectionTable[i] = new int[] {
+        buffer.getInt(entry + 12), /* virtual address */
+        Math.max(buffer.getInt(entry + 8), buffer.getInt(entry + 16)), /* size */
+        buffer.getInt(entry + 20) /* pointer to raw data */
+      };
+    }
+
+    int resourceRoot = toOffset(sectionTable, resourceRva);
+    if (resourceRoot < 0) {
+      return;
+    }
+    int versionData = findResource(buffer, resourceRoot, resourceRoot, RT_VERSION, 0);
+    if (versionData < 0) {
+      return;
+    }
+    int offset = toOffset(sectionTable, buffer.getInt(versionData));
+    int size = buffer.getInt(versionData + 4);
+    if (offset < 0 || size <= 0 || offset > buffer.limit() - size) {
+      return;
+    }
+    parseVersionInfo(buffer, offset, offset + size);
+  }
+
+  private static int toOffset(int[][] sectionTable, int rva) {
+    for (int[] section : sectionTable) {
+      if (rva >= section[0] && rva < section[0] + section[1]) {
+        return rva - section[0] + section[2];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Descends the resource directory tree and returns the file offset of
+   * the first IMAGE_RESOURCE_DATA_ENTRY below the entry with the
+   * specified type ID, or -1 if not found.
+   */
+  private static int findResource(ByteBuffer buffer, int root, int directory, int type, int depth) {
+    if (depth >= MAX_RESOURCE_DEPTH) {
+      return -1;
+    }
+    int entryCount = u16(buffer, directory + 12) + u16(buffer, directory + 14);
+    for (int i = 0; i < entryCount; i++) {
+      int entry = directory + 16 + i * 8;
+      int name = buffer.getInt(entry);
+      int target = buffer.getInt(entry + 4);
+      if (depth == 0 && name != type) {
+        /* Only the type level is filtered. Name and language take the first entry. */
+        continue;
+      }
+      if ((target & 0x80000000) != 0) {
+        int result = findResource(buffer, root, root + (target & 0x7FFFFFFF), type, depth + 1);
+        if (result >= 0) {
+          return result;
+        }
+      } else {
+        return root + target;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parses a VS_VERSIONINFO block. Every block has the layout
+   * wLength, wValueLength, wType, szKey, padding, Value, padding, Children.
+   */
+  private void parseVersionInfo(ByteBuffer buffer, int start, int end) {
+    int length = u16(buffer, start);
+    int valueLength = u16(buffer, start + 2);
+    int keyEnd = skipString(buffer, start + 6, end);
+    int value = align(keyEnd);
+    if (valueLength >= 52 && value + 52 <= end && buffer.getInt(value) == FIXED_FILE_INFO_SIGNATURE) {
+      /* VS_FIXEDFILEINFO */
+      this.fileVersion = toVersion(buffer.getInt(value + 8), buffer.getInt(value + 12));
+      this.productVersion = toVersion(buffer.getInt(value + 16), buffer.getInt(value + 20));
+      int flags = buffer.getInt(value + 28) & buffer.getInt(value + 24);
+      this.isDebugBuild = (flags & VS_FF_DEBUG) != 0;
+    }
+
+    /* Children: StringFileInfo and VarFileInfo */
+    int blockEnd = Math.min(end, start + length);
+    int child = align(value + valueLength);
+    while (child + 6 < blockEnd) {
+      int childLength = u16(buffer, child);
+      if (childLength == 0) {
+        break;
+      }
+      int childEnd = Math.min(blockEnd, child + childLength);
+      if ("StringFileInfo".equals(readString(buffer, child + 6, childEnd))) {
+        /* StringTable blocks, each containing String blocks. */
+        int table = align(skipString(buffer, child + 6, childEnd));
+        while (table + 6 < childEnd) {
+          int tableLength = u16(buffer, table);
+          if (tableLength == 0) {
+            break;
+          }
+          int tableEnd = Math.min(childEnd, table + tableLength);
+          int string = align(skipString(buffer, table + 6, tableEnd));
+          while (string + 6 < tableEnd) {
+            int stringLength = u16(buffer, string);
+            if (stringLength == 0) {
+              break;
+            }
+            int stringEnd = Math.min(tableEnd, string + stringLength);
+            String key = readString(buffer, string + 6, stringEnd);
+            String val = readString(buffer, align(skipString(buffer, string + 6, stringEnd)), stringEnd);
+            if (!this.strings.containsKey(key)) {
+              this.strings.put(key, val);
+            }
+            string = align(stringEnd);
+          }
+          table = align(tableEnd);
+        }
+      }
+      child = align(childEnd);
+    }
+  }
+
+  private static int[] toVersion(int ms, int ls) {
+    return new int[] {(ms >>> 16) & 0xFFFF, ms & 0xFFFF, (ls >>> 16) & 0xFFFF, ls & 0xFFFF};
+  }
+
+  private static int u16(ByteBuffer buffer, int offset) {
+    return buffer.getShort(offset) & 0xFFFF;
+  }
+
+  private static int align(int offset) {
+    return (offset + 3) & ~3;
+  }
+
+  /**
+   * Returns the offset after the null-terminated UTF-16LE string at the
+   * specified offset.
+   */
+  private static int skipString(ByteBuffer buffer, int offset, int end) {
+    while (offset + 1 < end && buffer.getShort(offset) != 0) {
+      offset += 2;
+    }
+    return offset + 2;
+  }
+
+  private static String readString(ByteBuffer buffer, int offset, int end) {
+    StringBuilder sb = new StringBuilder();
+    while (offset + 1 < end) {
+      char ch = buffer.getChar(offset);
+      if (ch == 0) {
+        break;
+      }
+      sb.append(ch);
+      offset += 2;
+    }
+    return sb.toString();
+  }
+
+}
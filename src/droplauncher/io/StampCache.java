@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for a small persistent cache which maps a {@link FileStamp} to a
+ * string value. An entry is only returned while the file still matches
+ * its stamp, so a modified file is never answered from the cache.
+ *
+ * The cache is a plain text file with one entry per line. Changed
+ * entries are appended and later lines replace earlier lines of the same
+ * file. Once the file holds many more lines than live entries, it is
+ * compacted: it is rewritten atomically without replaced entries and
+ * without entries of files which no longer exist. The least recently used
+ * entries are evicted beyond {@link #MAX_ENTRIES}. Failing to read or
+ * write the cache file is never fatal.
+ */
+public class StampCache {
+
+  private static final Logger LOGGER = Logger.getLogger(StampCache.class.getName());
+
+  /**
+   * Maximum number of entries kept in the cache.
+   */
+  public static final int MAX_ENTRIES = 10000;
+
+  private static final int COMPACT_SLACK = 256; /* lines which may be appended beyond twice the live entries */
+
+  private final Path file;
+  private Map<String, Map.Entry<FileStamp, String>> entries; /* path -> (stamp, value), least recently used first */
+  private int lineCount; /* lines in the cache file */
+
+  public StampCache(Path file) {
+    if (file == null) {
+      throw new IllegalArgumentException("file cannot be null");
+    }
+    this.file = file;
+    this.entries = null;
+    this.lineCount = 0;
+  }
+
+  /**
+   * Returns the cached value for the specified stamp or null if the cache
+   * does not contain a value for this revision of the file.
+   *
+   * @param stamp specified stamp
+   */
+  public synchronized String get(FileStamp stamp) {
+    load();
+    Map.Entry<FileStamp, String> entry = this.entries.get(stamp.getPath());
+    if (entry == null || !entry.getKey().equals(stamp)) {
+      return null;
+    }
+    return entry.getValue();
+  }
+
+  /**
+   * Associates the specified value with the specified stamp and appends
+   * it to the cache file. Any value stored for an older revision of the
+   * same file is replaced.
+   *
+   * @param stamp specified stamp
+   * @param value specified value which must not contain tabs or line breaks
+   */
+  public synchronized void put(FileStamp stamp, String value) {
+    if (value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException("value cannot contain tabs or line breaks");
+    }
+    load();
+    Map.Entry<FileStamp, String> prev = this.entries.get(stamp.getPath());
+    if (prev != null && prev.getKey().equals(stamp) && prev.getValue().equals(value)) {
+      return;
+    }
+    this.entries.put(stamp.getPath(), new AbstractMap.SimpleImmutableEntry<>(stamp, value));
+    append(stamp, value);
+    compactIfNeeded();
+  }
+
+  private void load() {
+    if (this.entries != null) {
+      return;
+    }
+    this.entries = new LinkedHashMap<String, Map.Entry<FileStamp, String>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Map.Entry<FileStamp, String>> eldest) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+    this.lineCount = 0;
+    if (!Files.isRegularFile(this.file)) {
+      return;
+    }
+    try (BufferedReader br = Files.newBufferedReader(this.file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        this.lineCount++;
+        /* Format: <value>\t<stamp> */
+        int index = line.indexOf('\t');
+        if (index < 0) {
+          continue;
+        }
+        try {
+          FileStamp stamp = FileStamp.parse(line.substring(index + 1));
+          this.entries.put(stamp.getPath(), new AbstractMap.SimpleImmutableEntry<>(stamp, line.substring(0, index)));
+        } catch (IllegalArgumentException ex) {
+          /* Skip malformed entry. */
+        }
+      }
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to read cache file: " + this.file.toString(), ex);
+    }
+    compactIfNeeded();
+  }
+
+  private void append(FileStamp stamp, String value) {
+    String line = value + '\t' + stamp.toString() + '\n';
+    try {
+      Files.createDirectories(this.file.toAbsolutePath().getParent());
+      Files.write(this.file, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      this.lineCount++;
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to write cache file: " + this.file.toString(), ex);
+    }
+  }
+
+  private void compactIfNeeded() {
+    if (this.lineCount <= 2 * this.entries.size() + COMPACT_SLACK) {
+      return;
+    }
+    /* Drop entries of deleted files, e.g. of removed imports. */
+    for (Iterator<Map.Entry<FileStamp, String>> it = this.entries.values().iterator(); it.hasNext();) {
+      boolean exists;
+      try {
+        exists = Files.exists(Paths.get(it.next().getKey().getPath()));
+      } catch (InvalidPathException ex) {
+        exists = false;
+      }
+      if (!exists) {
+        it.remove();
+      }
+    }
+    store();
+  }
+
+  private void store() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<FileStamp, String> entry : this.entries.values()) {
+      sb.append(entry.getValue()).append('\t').append(entry.getKey().toString()).append('\n');
+    }
+    try {
+      AtomicFile.write(this.file, sb.toString().getBytes(StandardCharsets.UTF_8));
+      this.lineCount = this.entries.size();
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "failed to write cache file: " + this.file.toString(), ex);
+    }
+  }
+
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.main;
+
+import adakite.util.AdakiteUtils;
+import droplauncher.DropLauncher;
+import droplauncher.bwapi.BWAPI;
+import droplauncher.bwapi.bot.Bot;
+import droplauncher.bwheadless.BWHeadless;
+import droplauncher.mvc.model.Model;
+import droplauncher.mvc.view.View;
+import droplauncher.session.AdmissionController;
+import droplauncher.session.BotMatch;
+import droplauncher.session.ClonePool;
+import droplauncher.session.SessionManager;
+import droplauncher.session.Tournament;
+import droplauncher.starcraft.Starcraft;
+import droplauncher.starcraft.Starcraft.Race;
+import droplauncher.ui.ConsoleSink;
+import droplauncher.ui.Errors;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Command-line front end which runs a bot without starting the JavaFX
+ * toolkit. Output is printed to the standard output stream and errors to
+ * the standard error stream. The exit code indicates the result.
+ *
+ * This class must not reference JavaFX classes so it can be used as the
+ * main class on machines without a display:
+ *
+ * <pre>
+ * java -cp DropLauncher.jar droplauncher.main.Headless --bot MyBot.dll --bwapi-dll BWAPI.dll
+ * </pre>
+ *
+ * With {@code --vs}, two bots play each other without a human player.
+ * The first bot hosts a game on the specified map and the opponent
+ * joins it. Both run in clones of the StarCraft directory:
+ *
+ * <pre>
+ * java -cp DropLauncher.jar droplauncher.main.Headless --bot MyBot.dll --bwapi-dll BWAPI.dll --vs Opponent.dll --map "maps\(2)Benzene.scx"
+ * </pre>
+ *
+ * Repeating {@code --vs} or specifying a tournament option plays a
+ * {@link Tournament} between all bots instead of a single game. Bots
+ * report the result of a game in their output, see {@link BotMatch}. The
+ * expected lines can be changed with {@code --win-pattern} and
+ * {@code --loss-pattern}.
+ */
+public class Headless {
+
+  public enum Option {
+
+    BOT("--bot", "<file>", "bot file (*.dll, *.exe, *.jar)"),
+    BWAPI_DLL("--bwapi-dll", "<file>", "path to " + BWAPI.DLL_FILENAME_RELEASE),
+    RACE("--race", "<race>", "Terran, Zerg, Protoss or Random (default: Random)"),
+    NAME("--name", "<name>", "bot name (default: bot filename)"),
+    STARCRAFT("--starcraft", "<file>", "path to " + Starcraft.BINARY_FILENAME + " (default: from settings)"),
+    AUTO_REJOIN("--auto-rejoin", null, "rejoin the lobby after each game instead of exiting"),
+    VS("--vs", "<file>", "opponent bot file; host a game between both bots, repeat for a tournament"),
+    VS_BWAPI_DLL("--vs-bwapi-dll", "<file>", "path to the opponent's " + BWAPI.DLL_FILENAME_RELEASE + " (default: same as " + "--bwapi-dll" + ")"),
+    VS_RACE("--vs-race", "<race>", "opponent race (default: Random)"),
+    MAP("--map", "<map>", "map to host, relative to the StarCraft directory; repeat to play maps in turn"),
+    TIME_LIMIT("--time-limit", "<minutes>", "stop the game and count it as a draw after this time (default: " + TimeUnit.MILLISECONDS.toMinutes(BotMatch.DEFAULT_TIME_LIMIT) + ")"),
+    WIN_PATTERN("--win-pattern", "<regex>", "pattern of a bot output line which reports a win (default: " + BotMatch.DEFAULT_WIN_PATTERN.pattern() + ")"),
+    LOSS_PATTERN("--loss-pattern", "<regex>", "pattern of a bot output line which reports a loss (default: " + BotMatch.DEFAULT_LOSS_PATTERN.pattern() + ")"),
+    SLOTS("--slots", "<n>", "number of tournament games played at the same time (default: 1)"),
+    ROUNDS("--rounds", "<n>", "number of tournament rounds (default: 1)"),
+    SWISS("--swiss", null, "use Swiss pairings instead of round-robin"),
+    RESULTS("--results", "<file>", "CSV file to which tournament results are appended"),
+    ADAPTIVE("--adaptive", null, "play as many tournament games at the same time as the load allows, up to --slots"),
+    HELP("--help", null, "print this help and exit")
+    ;
+
+    private final String str;
+    private final String arg;
+    private final String description;
+
+    private Option(String str, String arg, String description) {
+      this.str = str;
+      this.arg = arg;
+      this.description = description;
+    }
+
+    public boolean hasArgument() {
+      return this.arg != null;
+    }
+
+    public static Option get(String str) {
+      for (Option option : Option.values()) {
+        if (option.str.equalsIgnoreCase(str)) {
+          return option;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
+  public static final int EXIT_OK = 0;
+  public static final int EXIT_ERROR = 1;
+  public static final int EXIT_USAGE = 2;
+
+  private static final long PROCESS_CHECK_INTERVAL = 1000; /* milliseconds */
+
+  private enum Event {
+    GAME_ENDED,
+    FAILED,
+    SHUTDOWN
+  }
+
+  private final PrintStream out;
+  private final BlockingQueue<Event> events;
+  private final Object lifecycleLock;
+  private BWHeadless bwheadless;
+  private boolean isRunning;
+  private volatile boolean isShutdown;
+
+  public Headless(PrintStream out) {
+    this.out = out;
+    this.events = new LinkedBlockingQueue<>();
+    this.lifecycleLock = new Object();
+    this.bwheadless = null;
+    this.isRunning = false;
+    this.isShutdown = false;
+  }
+
+  public static void main(String[] args) {
+    System.exit(new Headless(System.out).run(args));
+  }
+
+  /**
+   * Returns true if the specified program arguments request the
+   * command-line interface.
+   *
+   * @param args specified program arguments
+   */
+  public static boolean isRequested(String[] args) {
+    for (String arg : args) {
+      if (Option.get(arg) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Runs the bot as specified by the program arguments and returns the
+   * exit code. Blocks until the bot has been ejected for the last time.
+   *
+   * @param args specified program arguments
+   */
+  public int run(String[] args) {
+    Path botFile = null;
+    Path bwapiDll = null;
+    Path starcraftExe = null;
+    String race = Race.RANDOM.toString();
+    String name = null;
+    boolean autoRejoin = false;
+    List<Path> opponentFiles = new ArrayList<>();
+    Path opponentBwapiDll = null;
+    String opponentRace = Race.RANDOM.toString();
+    List<String> maps = new ArrayList<>();
+    long timeLimit = BotMatch.DEFAULT_TIME_LIMIT;
+    Pattern winPattern = BotMatch.DEFAULT_WIN_PATTERN;
+    Pattern lossPattern = BotMatch.DEFAULT_LOSS_PATTERN;
+    boolean isTournament = false;
+    int slots = 1;
+    int rounds = 1;
+    Tournament.Format format = Tournament.Format.ROUND_ROBIN;
+    Path resultsFile = null;
+    boolean isAdaptive = false;
+
+    for (int i = 0; i < args.length; i++) {
+      Option option = Option.get(args[i]);
+      if (option == null) {
+        return usage("unrecognized argument: " + args[i]);
+      }
+      String value = null;
+      if (option.hasArgument()) {
+        if (i + 1 >= args.length) {
+          return usage("missing value for " + option.toString());
+        }
+        value = args[++i];
+      }
+      switch (option) {
+        case BOT:
+          botFile = Paths.get(value).toAbsolutePath();
+          break;
+        case BWAPI_DLL:
+          bwapiDll = Paths.get(value).toAbsolutePath();
+          break;
+        case RACE:
+          race = value;
+          break;
+        case NAME:
+          name = value;
+          break;
+        case STARCRAFT:
+          starcraftExe = Paths.get(value).toAbsolutePath();
+          break;
+        case AUTO_REJOIN:
+          autoRejoin = true;
+          break;
+        case VS:
+          opponentFiles.add(Paths.get(value).toAbsolutePath());
+          break;
+        case VS_BWAPI_DLL:
+          opponentBwapiDll = Paths.get(value).toAbsolutePath();
+          break;
+        case VS_RACE:
+          opponentRace = value;
+          break;
+        case MAP:
+          maps.add(value);
+          break;
+        case TIME_LIMIT:
+          try {
+            timeLimit = TimeUnit.MINUTES.toMillis(Long.parseLong(value));
+          } catch (NumberFormatException ex) {
+            return usage("invalid time limit: " + value);
+          }
+          break;
+        case WIN_PATTERN:
+        case LOSS_PATTERN:
+          Pattern pattern;
+          try {
+            pattern = Pattern.compile(value, Pattern.CASE_INSENSITIVE);
+          } catch (PatternSyntaxException ex) {
+            return usage("invalid value for " + option.toString() + ": " + value);
+          }
+          if (option == Option.WIN_PATTERN) {
+            winPattern = pattern;
+          } else {
+            lossPattern = pattern;
+          }
+          break;
+        case SLOTS:
+        case ROUNDS:
+          int count;
+          try {
+            count = Integer.parseInt(value);
+          } catch (NumberFormatException ex) {
+            count = 0;
+          }
+          if (count < 1) {
+            return usage("invalid value for " + option.toString() + ": " + value);
+          }
+          if (option == Option.SLOTS) {
+            slots = count;
+          } else {
+            rounds = count;
+          }
+          isTournament = true;
+          break;
+        case SWISS:
+          format = Tournament.Format.SWISS;
+          isTournament = true;
+          break;
+        case RESULTS:
+          resultsFile = Paths.get(value).toAbsolutePath();
+          isTournament = true;
+          break;
+        case ADAPTIVE:
+          isAdaptive = true;
+          isTournament = true;
+          break;
+        case HELP:
+          printHelp(this.out);
+          return EXIT_OK;
+        default:
+          break;
+      }
+    }
+    if (botFile == null) {
+      return usage("missing " + Option.BOT.toString());
+    }
+    if (bwapiDll == null) {
+      return usage("missing " + Option.BWAPI_DLL.toString());
+    }
+    if (!Starcraft.Race.isValid(race)) {
+      return usage("invalid race: " + race);
+    }
+    if (isTournament && opponentFiles.isEmpty()) {
+      return usage("missing " + Option.VS.toString());
+    }
+    if (!opponentFiles.isEmpty()) {
+      if (maps.isEmpty()) {
+        return usage("missing " + Option.MAP.toString());
+      }
+      if (!Starcraft.Race.isValid(opponentRace)) {
+        return usage("invalid race: " + opponentRace);
+      }
+    }
+
+    Model model = new Model();
+    model.ensureDefaultSettings();
+
+    try {
+      if (starcraftExe == null) {
+        starcraftExe = Starcraft.getExe();
+      }
+      if (name == null) {
+        name = Starcraft.sanitizeProfileName(FilenameUtils.getBaseName(botFile.toString()));
+        if (AdakiteUtils.isNullOrEmpty(name)) {
+          name = Bot.DEFAULT_NAME;
+        }
+      }
+      Bot bot = model.getBWHeadless().getBot();
+      bot.setFile(botFile);
+      bot.setBwapiDll(bwapiDll);
+      bot.setRace(race);
+      bot.setName(name);
+      model.getBWHeadless()
+          .setStarcraftExe(starcraftExe)
+          .enableConsoleOutput(new StreamConsole());
+    } catch (Exception ex) {
+      Errors.report("invalid configuration", ex);
+      return EXIT_USAGE;
+    }
+    if (!opponentFiles.isEmpty()) {
+      List<Bot> bots = new ArrayList<>();
+      bots.add(model.getBWHeadless().getBot());
+      try {
+        for (Path opponentFile : opponentFiles) {
+          Bot opponent = new Bot();
+          opponent.setFile(opponentFile);
+          opponent.setBwapiDll((opponentBwapiDll != null) ? opponentBwapiDll : bwapiDll);
+          opponent.setRace(opponentRace);
+          String opponentName = Starcraft.sanitizeProfileName(FilenameUtils.getBaseName(opponentFile.toString()));
+          opponent.setName(AdakiteUtils.isNullOrEmpty(opponentName) ? Bot.DEFAULT_NAME : opponentName);
+          bots.add(opponent);
+        }
+      } catch (Exception ex) {
+        Errors.report("invalid configuration", ex);
+        return EXIT_USAGE;
+      }
+      isTournament = isTournament || bots.size() > 2;
+
+      /* Each game needs two StarCraft directories. Keep enough ready for every tournament slot. */
+      Path starcraftDirectory = AdakiteUtils.getParentDirectory(starcraftExe);
+      ClonePool pool = new ClonePool(starcraftDirectory, ClonePool.getDirectory(Model.getSettings().snapshot()), isTournament ? 2 * slots : 0)
+          .setVerifyContents(Model.getSettings().isEnabled(BWAPI.PropertyKey.VERIFY_COPY_CONTENTS.toString()));
+      SessionManager manager = new SessionManager().setConsoleOutput(new StreamConsole());
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> manager.stopAll().join(), "headless-shutdown"));
+      try {
+        this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + "Preparing StarCraft directories in " + pool.getDirectory().toString() + "...");
+        pool.start().join();
+        if (isTournament) {
+          Tournament tournament = new Tournament(manager, pool, bots, maps)
+              .setFormat(format)
+              .setSlots(slots)
+              .setRounds(rounds)
+              .setTimeLimit(timeLimit)
+              .setResultPatterns(winPattern, lossPattern)
+              .setResultsFile(resultsFile);
+          if (isAdaptive) {
+            tournament.setAdmissionController(new AdmissionController(1, slots, 1)
+                .setOnDecision(decision -> {
+                  if (decision.isLimitChange()) {
+                    this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + "Concurrent games: " + decision.toString());
+                  }
+                }));
+          }
+          runTournament(tournament);
+        } else {
+          runMatch(manager, pool, bots.get(0), bots.get(1), maps.get(0), timeLimit, winPattern, lossPattern);
+        }
+        return EXIT_OK;
+      } catch (CompletionException ex) {
+        Errors.report("failed to play", (ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : ex);
+        return EXIT_ERROR;
+      } catch (RuntimeException ex) {
+        Errors.report("failed to play", ex);
+        return EXIT_ERROR;
+      } finally {
+        manager.shutdown();
+        pool.shutdown();
+      }
+    }
+    this.bwheadless = model.getBWHeadless();
+
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      this.isShutdown = true;
+      this.events.offer(Event.SHUTDOWN);
+      stopBot();
+    }, "headless-shutdown"));
+
+    try {
+      while (!this.isShutdown) {
+        this.events.clear();
+        if (!startBot()) {
+          return EXIT_ERROR;
+        }
+        Event event = awaitEvent();
+        if (event == Event.GAME_ENDED) {
+          TimeUnit.MILLISECONDS.sleep(Model.AUTO_EJECT_DELAY);
+        }
+        if (!stopBot()) {
+          return EXIT_ERROR;
+        }
+        if (event == Event.FAILED) {
+          return EXIT_ERROR;
+        }
+        if (!autoRejoin || event == Event.SHUTDOWN) {
+          break;
+        }
+        TimeUnit.MILLISECONDS.sleep(Model.AUTO_REJOIN_DELAY);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      stopBot();
+    }
+    return EXIT_OK;
+  }
+
+  /**
+   * Plays one game between the specified bots and prints the result.
+   */
+  private void runMatch(SessionManager manager, ClonePool pool, Bot bot, Bot opponent, String map, long timeLimit,
+                        Pattern winPattern, Pattern lossPattern) {
+    ClonePool.Clone hostClone = pool.acquire().join();
+    try {
+      ClonePool.Clone joinClone = pool.acquire().join();
+      try {
+        this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + "Hosting game on " + map + "...");
+        BotMatch.Result result = new BotMatch(manager, DropLauncher.PROGRAM_NAME, map)
+            .setPlayer(BotMatch.Side.HOST, bot, hostClone.getStarcraftExe())
+            .setPlayer(BotMatch.Side.JOINER, opponent, joinClone.getStarcraftExe())
+            .setTimeLimit(timeLimit)
+            .setResultPatterns(winPattern, lossPattern)
+            .play()
+            .join();
+        BotMatch.Side winner = result.getWinner();
+        String winnerName = (winner == null) ? "none" : getName((winner == BotMatch.Side.HOST) ? bot : opponent);
+        this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + "Result: " + result.toString() + ", winner: " + winnerName);
+      } finally {
+        pool.release(joinClone);
+      }
+    } finally {
+      pool.release(hostClone);
+    }
+  }
+
+  /**
+   * Plays the specified tournament and prints each result and the final
+   * scores.
+   */
+  private void runTournament(Tournament tournament) {
+    List<String> names = tournament.getNames();
+    tournament.setOnGameFinished(game -> this.out.println(View.MessagePrefix.DROPLAUNCHER.get()
+        + "Game " + game.getNumber() + ": " + names.get(game.getHost()) + " vs " + names.get(game.getJoiner())
+        + " on " + game.getMap() + ": " + game.getResult().toString()));
+    tournament.run().join();
+    for (int i = 0; i < names.size(); i++) {
+      this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + names.get(i) + ": " + tournament.getScore(i));
+    }
+  }
+
+  private static String getName(Bot bot) {
+    try {
+      return bot.getName();
+    } catch (Exception ex) {
+      return Bot.DEFAULT_NAME;
+    }
+  }
+
+  /**
+   * Blocks until the game ends, the launch fails or the program shuts
+   * down. A bwheadless process which exits without reporting the end of
+   * the game, e.g. because it or StarCraft crashed, counts as a failure.
+   */
+  private Event awaitEvent() throws InterruptedException {
+    while (true) {
+      Event event = this.events.poll(PROCESS_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+      if (event != null) {
+        return event;
+      }
+      if (this.isShutdown) {
+        return Event.SHUTDOWN;
+      }
+      if (!this.bwheadless.isAlive()) {
+        /* Give the output reader a chance to deliver the final lines. */
+        event = this.events.poll(PROCESS_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        if (event != null) {
+          return event;
+        }
+        System.err.println("error: bwheadless exited before the game ended");
+        return Event.FAILED;
+      }
+    }
+  }
+
+  private boolean startBot() {
+    synchronized (this.lifecycleLock) {
+      if (this.isShutdown) {
+        return true;
+      }
+      this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + "Attempting to join game...");
+      try {
+        this.bwheadless.start();
+        this.isRunning = true;
+        return true;
+      } catch (Exception ex) {
+        Errors.report("failed to join game", ex);
+        return false;
+      }
+    }
+  }
+
+  private boolean stopBot() {
+    synchronized (this.lifecycleLock) {
+      if (!this.isRunning) {
+        return true;
+      }
+      this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + "Disconnecting bot...");
+      try {
+        this.bwheadless.stop();
+        this.isRunning = false;
+        this.out.println(View.MessagePrefix.DROPLAUNCHER.get() + View.Message.BOT_EJECTED.toString());
+        return true;
+      } catch (Exception ex) {
+        Errors.report("failed to eject bot", ex);
+        return false;
+      }
+    }
+  }
+
+  private int usage(String message) {
+    System.err.println("error: " + message);
+    printHelp(System.err);
+    return EXIT_USAGE;
+  }
+
+  private static void printHelp(PrintStream stream) {
+    stream.println(DropLauncher.PROGRAM_TITLE);
+    stream.println();
+    stream.println("Options:");
+    for (Option option : Option.values()) {
+      String usage = option.hasArgument() ? option.str + " " + option.arg : option.str;
+      stream.println(String.format(Locale.US, "  %-22s %s", usage, option.description));
+    }
+    stream.println();
+    stream.println("Exit codes: " + EXIT_OK + " success, " + EXIT_ERROR + " launch or eject failed, " + EXIT_USAGE + " invalid arguments");
+  }
+
+  /**
+   * Prints process output to the standard output stream and watches it
+   * for the end of the game and fatal errors.
+   */
+  private class StreamConsole implements ConsoleSink {
+
+    @Override
+    public void print(String str) {
+      /* Replace bwheadless.exe child process output prefix with bot module prefix. */
+      if (str.startsWith(View.MessagePrefix.BWHEADLESS.get() + ":: ")) {
+        int index = str.indexOf(":: ");
+        str = View.MessagePrefix.BOT.get() + str.substring(index + ":: ".length());
+      }
+      if (AdakiteUtils.isNullOrEmpty(str)) {
+        return;
+      }
+      Headless.this.out.print(str);
+
+      if (str.startsWith(View.MessagePrefix.BWHEADLESS.get() + View.Message.GAME_HAS_ENDED.toString())
+          || str.startsWith(View.MessagePrefix.BWHEADLESS.get() + View.Message.GAME_OVER.toString())) {
+        Headless.this.events.offer(Event.GAME_ENDED);
+      } else if (str.contains(View.Message.ERROR_126.toString())
+          || str.contains(View.Message.ERROR_740.toString())) {
+        Headless.this.events.offer(Event.FAILED);
+      }
+    }
+
+    @Override
+    public void println(String line) {
+      print(line + AdakiteUtils.newline());
+    }
+
+  }
+
+}
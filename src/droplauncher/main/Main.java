@@ -19,18 +19,48 @@ package droplauncher.main;
 
 import droplauncher.mvc.MVC;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 
 public class Main extends Application {
 
+  private MVC mvc;
+
   public static void main(String[] args) {
+    StartupTrace.mark("main");
+    if (Headless.isRequested(args)) {
+      /* Prefer droplauncher.main.Headless as the main class to avoid loading JavaFX at all. */
+      System.exit(new Headless(System.out).run(args));
+    }
+    if (System.getProperty("javafx.preloader") == null) {
+      System.setProperty("javafx.preloader", StartupPreloader.class.getName());
+    }
     launch(args);
   }
 
+  /**
+   * Loads the settings on the launcher thread while the preloader is
+   * visible so that no file I/O runs on the JavaFX application thread
+   * before the main window is shown.
+   */
+  @Override
+  public void init() throws Exception {
+    StartupTrace.mark("init");
+    notifyPreloader(new StartupPreloader.Status("Loading settings...", 0.3));
+    this.mvc = new MVC();
+    this.mvc.loadSettings();
+    StartupTrace.mark("settings loaded");
+    notifyPreloader(new StartupPreloader.Status("Starting...", 1.0));
+  }
+
   @Override
   public void start(Stage stage) throws Exception {
-    MVC mvc = new MVC();
-    mvc.start(stage);
+    StartupTrace.mark("start");
+    stage.addEventHandler(WindowEvent.WINDOW_SHOWN, e -> StartupTrace.mark("first paint"));
+    this.mvc.start(stage);
+    /* Queued behind the work posted while starting. */
+    Platform.runLater(StartupTrace::finish);
   }
 
 }
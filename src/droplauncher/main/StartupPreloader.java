@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.main;
+
+import droplauncher.DropLauncher;
+import javafx.application.Preloader;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.StageStyle;
+
+/**
+ * Lightweight splash window which shows the progress of
+ * {@link Main#init()} while the main window is not yet available.
+ */
+public class StartupPreloader extends Preloader {
+
+  /**
+   * Notification which updates the status text and progress bar.
+   */
+  public static class Status implements Preloader.PreloaderNotification {
+
+    private final String text;
+    private final double progress;
+
+    public Status(String text, double progress) {
+      this.text = text;
+      this.progress = progress;
+    }
+
+    public String getText() {
+      return this.text;
+    }
+
+    public double getProgress() {
+      return this.progress;
+    }
+
+  }
+
+  private Stage stage;
+  private Label lblStatus;
+  private ProgressBar progressBar;
+
+  @Override
+  public void start(Stage primaryStage) throws Exception {
+    StartupTrace.mark("preloader start");
+    this.stage = primaryStage;
+    this.lblStatus = new Label("Starting...");
+    this.progressBar = new ProgressBar(ProgressBar.INDETERMINATE_PROGRESS);
+    this.progressBar.setPrefWidth(250);
+
+    VBox box = new VBox(8, new Label(DropLauncher.PROGRAM_TITLE), this.progressBar, this.lblStatus);
+    box.setPadding(new Insets(16));
+
+    this.stage.initStyle(StageStyle.UNDECORATED);
+    this.stage.setScene(new Scene(box));
+    this.stage.show();
+  }
+
+  @Override
+  public void handleApplicationNotification(PreloaderNotification info) {
+    if (info instanceof Status) {
+      Status status = (Status) info;
+      this.lblStatus.setText(status.getText());
+      this.progressBar.setProgress(status.getProgress());
+    }
+  }
+
+  @Override
+  public void handleStateChangeNotification(StateChangeNotification info) {
+    if (info.getType() == StateChangeNotification.Type.BEFORE_START) {
+      this.stage.hide();
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.main;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Utilities class for recording how long startup phases take, measured
+ * from the start of the JVM.
+ *
+ * Phases are recorded via {@link #mark(java.lang.String)}. The report is
+ * logged once {@link #finish()} is called and is additionally printed to
+ * the standard error stream if the system property
+ * {@value #PROPERTY_KEY} is set to true.
+ */
+public class StartupTrace {
+
+  private static final Logger LOGGER = Logger.getLogger(StartupTrace.class.getName());
+
+  public static final String PROPERTY_KEY = "droplauncher.trace.startup";
+
+  /* Timestamps are taken with System.currentTimeMillis() so they can be compared with the JVM start time. */
+  private static final List<String> PHASES = new ArrayList<>();
+  private static final List<Long> TIMESTAMPS = new ArrayList<>();
+  private static boolean IS_FINISHED = false;
+
+  private StartupTrace() {}
+
+  /**
+   * Records that the specified phase has been reached. Ignored after
+   * {@link #finish()} has been called.
+   *
+   * @param phase specified phase name
+   */
+  public static synchronized void mark(String phase) {
+    if (IS_FINISHED) {
+      return;
+    }
+    PHASES.add(phase);
+    TIMESTAMPS.add(System.currentTimeMillis());
+  }
+
+  /**
+   * Records the final phase "ready" and reports all phases. Subsequent
+   * calls do nothing.
+   */
+  public static void finish() {
+    String report;
+    synchronized (StartupTrace.class) {
+      if (IS_FINISHED) {
+        return;
+      }
+      mark("ready");
+      IS_FINISHED = true;
+      report = getReport();
+    }
+    LOGGER.log(Level.INFO, report);
+    if (Boolean.getBoolean(PROPERTY_KEY)) {
+      System.err.println(report);
+    }
+  }
+
+  /**
+   * Returns one line per recorded phase with the elapsed milliseconds
+   * since JVM start and since the previous phase.
+   */
+  public static synchronized String getReport() {
+    /* Resolved here rather than in mark() so that java.management is not loaded before the window appears. */
+    long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+    StringBuilder sb = new StringBuilder("startup trace (ms since JVM start, +ms since previous phase):");
+    long previous = jvmStart;
+    for (int i = 0; i < PHASES.size(); i++) {
+      long timestamp = TIMESTAMPS.get(i);
+      sb.append(System.lineSeparator())
+          .append(String.format("%8d %+7d  %s", timestamp - jvmStart, timestamp - previous, PHASES.get(i)));
+      previous = timestamp;
+    }
+    return sb.toString();
+  }
+
+}
@@ -19,7 +19,12 @@ package droplauncher.mvc;
 
 import droplauncher.mvc.controller.Controller;
 import droplauncher.mvc.model.Model;
+import droplauncher.mvc.view.AlertErrorReporter;
+import droplauncher.mvc.view.ExceptionAlert;
 import droplauncher.mvc.view.View;
+import droplauncher.ui.Errors;
+import java.io.IOException;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 
 public class MVC {
@@ -29,6 +34,8 @@ public class MVC {
   private View view;
 
   public MVC() {
+    Errors.setReporter(new AlertErrorReporter());
+
     this.controller = new Controller();
     this.model = new Model();
     this.view = new View();
@@ -37,12 +44,28 @@ public class MVC {
     this.controller.setView(this.view);
 
     this.view.setController(this.controller);
+  }
 
+  /**
+   * Loads the settings file and fills in missing default values. Performs
+   * file I/O and should be called before {@link #start(javafx.stage.Stage)}
+   * from a thread other than the JavaFX application thread.
+   */
+  public void loadSettings() {
     this.model.ensureDefaultSettings();
   }
 
   public void start(Stage stage) {
     this.view.start(stage);
+
+    /* Apply external edits of the settings file while running. */
+    try {
+      this.model.getSettingsWatcher()
+          .setOnChange(keys -> Platform.runLater(() -> this.view.update()))
+          .start();
+    } catch (IOException ex) {
+      new ExceptionAlert().showAndWait("Failed to watch settings file for changes", ex);
+    }
   }
 
 }
@@ -17,33 +17,34 @@
 
 package droplauncher.mvc.controller;
 
-import adakite.checksum.Checksum;
-import adakite.debugging.Debugging;
 import adakite.exception.DirectoryNotFoundException;
 import adakite.exception.InvalidArgumentException;
 import adakite.exception.InvalidStateException;
-import adakite.ini.exception.IniParseException;
 import adakite.util.AdakiteUtils;
-import adakite.util.AdakiteUtils.DirectoryTraverseOption;
 import adakite.util.AdakiteUtils.StringCompareOption;
-import adakite.util.DirectoryMonitor;
 import adakite.util.MemoryFile;
 import adakite.windows.Windows;
 import adakite.windows.task.exception.TasklistParseException;
 import droplauncher.bwapi.BWAPI;
 import droplauncher.bwapi.bot.Bot;
+import droplauncher.bwapi.bot.BotBundle;
+import droplauncher.bwapi.bot.BotCatalog;
+import droplauncher.bwapi.bot.ImportPipeline;
+import droplauncher.bwapi.snapshot.SnapshotStore;
 import droplauncher.mvc.model.Model;
 import droplauncher.mvc.view.SettingsWindow;
 import droplauncher.mvc.view.SimpleAlert;
 import droplauncher.mvc.view.View;
 import droplauncher.DropLauncher;
-import droplauncher.bwapi.bot.exception.InvalidBwapiDllException;
 import droplauncher.bwapi.bot.exception.MissingBotFileException;
 import droplauncher.bwapi.bot.exception.MissingBotNameException;
 import droplauncher.bwapi.bot.exception.MissingBotRaceException;
 import droplauncher.bwapi.bot.exception.MissingBwapiDllException;
 import droplauncher.bwheadless.exception.MissingBotException;
-import droplauncher.exception.EncryptedArchiveException;
+import droplauncher.io.CleanupTracker;
+import droplauncher.io.DirectorySync;
+import droplauncher.io.MultiDigest;
+import droplauncher.io.PortableExecutable;
 import droplauncher.bwapi.bot.exception.InvalidBotTypeException;
 import droplauncher.bwheadless.exception.MissingBWHeadlessExeException;
 import droplauncher.mvc.view.ConsoleOutputWrapper;
@@ -54,7 +55,6 @@ import droplauncher.mvc.view.help.Help;
 import droplauncher.starcraft.Starcraft;
 import droplauncher.starcraft.Starcraft.Race;
 import droplauncher.starcraft.exception.MissingStarcraftExeException;
-import droplauncher.starcraft.exception.StarcraftProfileNameException;
 import droplauncher.starcraft.exception.UnsupportedStarcraftVersionException;
 import droplauncher.process.exception.ClosePipeException;
 import java.io.File;
@@ -62,36 +62,130 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javafx.application.Platform;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.ChoiceDialog;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import net.lingala.zip4j.core.ZipFile;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 
+/**
+ * Class for handling user and program requests.
+ *
+ * Launching and stopping the bot is driven by a single-threaded command
+ * loop: requests are posted as {@link Command} messages to a bounded
+ * mailbox and handled one at a time, so state transitions never race.
+ * The handler only changes the state and hands the actual work to a
+ * worker thread, which posts a completion message when it is done.
+ *
+ * <pre>
+ * IDLE     --START-----------> STARTING --LAUNCH_SUCCEEDED--> RUNNING
+ * STARTING --CANCEL----------> IDLE (launch not started yet)
+ * STARTING --LAUNCH_FAILED---> IDLE
+ * RUNNING  --STOP------------> STOPPING --STOP_SUCCEEDED----> IDLE
+ * STOPPING --STOP_FAILED-----> RUNNING
+ * </pre>
+ *
+ * A CANCEL received while the launch is already running lets the launch
+ * finish and stops the bot right away.
+ */
 public class Controller {
 
+  private static final Logger LOGGER = Logger.getLogger(Controller.class.getName());
+
   public enum State {
-    LOCKED,
     IDLE,
-    RUNNING
+    STARTING,
+    RUNNING,
+    STOPPING
+  }
+
+  /**
+   * Enum for messages handled by the command loop.
+   */
+  public enum Command {
+
+    /* Requests */
+    START,
+    STOP,
+    CANCEL,
+    AUTO_EJECT, /* stop after the auto-eject delay */
+    AUTO_REJOIN, /* start after the auto-rejoin delay */
+
+    /* Completion of worker tasks */
+    LAUNCH_SUCCEEDED,
+    LAUNCH_FAILED,
+    STOP_SUCCEEDED,
+    STOP_FAILED
+
   }
 
+  private static final int MAILBOX_CAPACITY = 32;
+  private static final long IMPORT_PROGRESS_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+  /* Catalog entries of imported bots which have not been used for this long are forgotten. */
+  private static final long IMPORT_RETENTION = TimeUnit.DAYS.toMillis(30);
+
   private Model model;
   private View view;
-  private State state;
-  private final Object stateLock;
-  private DirectoryMonitor directoryMonitor;
+  private volatile State state; /* only written by the command loop */
+  private CleanupTracker cleanupTracker;
+  private boolean isClosing; /* only accessed on the JavaFX thread */
+  private Help help; /* created on first use */
+  private ImportPipeline.Task importTask; /* only accessed on the JavaFX thread */
+  private int importGeneration;
+
+  private final BlockingQueue<Command> mailbox;
+  private final InstrumentedExecutor worker;
+  private final ScheduledExecutorService timer;
+  private final ExecutorService exporter;
+  private Future<?> launchTask;
+  private AtomicBoolean launchClaim; /* set by whichever of the launch and a cancel runs first */
+  private boolean isCancelRequested;
 
   public Controller() {
     this.model = null;
     this.state = State.IDLE;
-    this.stateLock = new Object();
-    this.directoryMonitor = null;
+    this.cleanupTracker = null;
+    this.isClosing = false;
+    this.help = null;
+    this.importTask = null;
+    this.importGeneration = 0;
+    this.mailbox = new ArrayBlockingQueue<>(MAILBOX_CAPACITY);
+    this.worker = new InstrumentedExecutor("controller-worker");
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "controller-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.exporter = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "bundle-export");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.launchTask = null;
+    this.launchClaim = null;
+    this.isCancelRequested = false;
+    Thread loop = new Thread(this::runCommandLoop, "controller-loop");
+    loop.setDaemon(true);
+    loop.start();
   }
 
   public void setModel(Model model) {
@@ -102,22 +196,170 @@ public class Controller {
     this.view = view;
   }
 
+  /* ************************************************************ */
+  /* Command loop */
+  /* ************************************************************ */
+
   /**
-   * Manually sets the program state indicator after acquiring
-   * access to an intrinsic lock object.
+   * Posts the specified command to the command loop. Does not block.
    *
-   * @param state specified state
+   * @param command specified command
+   * @return
+   *     true if the command was accepted,
+   *     otherwise false if the mailbox is full and the command was dropped
    */
-  private void setState(State state) {
-    synchronized(this.stateLock) {
-      this.state = state;
+  public boolean post(Command command) {
+    boolean accepted = this.mailbox.offer(command);
+    if (!accepted) {
+      LOGGER.log(Level.WARNING, "mailbox full, dropped command: {0}", command);
+    }
+    return accepted;
+  }
+
+  /**
+   * Posts the completion of a worker task. Blocks while the mailbox is
+   * full since completions must never be dropped.
+   */
+  private void complete(Command command) {
+    try {
+      this.mailbox.put(command);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      LOGGER.log(Level.SEVERE, "interrupted while posting completion: {0}", command);
+    }
+  }
+
+  private void runCommandLoop() {
+    while (true) {
+      Command command;
+      try {
+        command = this.mailbox.take();
+      } catch (InterruptedException ex) {
+        return;
+      }
+      try {
+        handle(command);
+      } catch (RuntimeException ex) {
+        LOGGER.log(Level.SEVERE, "failed to handle command: " + command, ex);
+      }
+    }
+  }
+
+  /**
+   * Handles the specified command on the command loop thread.
+   */
+  private void handle(Command command) {
+    State current = this.state;
+    switch (command) {
+      case START:
+        if (current != State.IDLE) {
+          break;
+        }
+        this.isCancelRequested = false;
+        transition(State.STARTING);
+        AtomicBoolean claim = new AtomicBoolean(false);
+        this.launchClaim = claim;
+        this.launchTask = this.worker.submit("launch", () -> launch(claim));
+        return;
+      case CANCEL:
+        if (current != State.STARTING) {
+          break;
+        }
+        if (this.launchClaim.compareAndSet(false, true)) {
+          /* The launch has not started and will not do any work. */
+          this.launchTask.cancel(false);
+          this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Launch cancelled.");
+          transition(State.IDLE);
+        } else {
+          /* The launch is in progress. Stop the bot as soon as it finishes. */
+          this.isCancelRequested = true;
+          this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Cancelling launch...");
+        }
+        return;
+      case STOP:
+        if (current != State.RUNNING) {
+          break;
+        }
+        transition(State.STOPPING);
+        this.worker.submit("stop", this::stop);
+        return;
+      case AUTO_EJECT:
+        if (current != State.RUNNING) {
+          break;
+        }
+        this.timer.schedule(() -> post(Command.STOP), Model.AUTO_EJECT_DELAY, TimeUnit.MILLISECONDS);
+        return;
+      case AUTO_REJOIN:
+        if (current != State.IDLE) {
+          break;
+        }
+        this.timer.schedule(() -> post(Command.START), Model.AUTO_REJOIN_DELAY, TimeUnit.MILLISECONDS);
+        return;
+      case LAUNCH_SUCCEEDED:
+        if (current != State.STARTING) {
+          break;
+        }
+        if (this.isCancelRequested) {
+          transition(State.STOPPING);
+          this.worker.submit("stop", this::stop);
+        } else {
+          transition(State.RUNNING);
+        }
+        return;
+      case LAUNCH_FAILED:
+        if (current != State.STARTING) {
+          break;
+        }
+        transition(State.IDLE);
+        return;
+      case STOP_SUCCEEDED:
+        transition(State.IDLE);
+        if (this.isCancelRequested) {
+          this.isCancelRequested = false;
+          this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Launch cancelled.");
+        } else {
+          this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + View.Message.BOT_EJECTED.toString());
+        }
+        return;
+      case STOP_FAILED:
+        transition(State.RUNNING);
+        return;
+      default:
+        break;
     }
+    LOGGER.log(Level.FINE, "ignored command {0} in state {1}", new Object[] {command, current});
+  }
+
+  private void transition(State next) {
+    LOGGER.log(Level.FINE, "state {0} -> {1} ({2})", new Object[] {this.state, next, this.worker});
+    this.state = next;
+    Platform.runLater(() -> {
+      switch (next) {
+        case IDLE:
+          this.view.btnStartSetText(View.StartButtonText.START.toString());
+          this.view.btnStartSetEnabled(true);
+          break;
+        case STARTING:
+          this.view.btnStartSetText(View.StartButtonText.CANCEL.toString());
+          this.view.btnStartSetEnabled(true);
+          break;
+        case RUNNING:
+          this.view.btnStartSetText(View.StartButtonText.STOP.toString());
+          this.view.btnStartSetEnabled(true);
+          break;
+        case STOPPING:
+          this.view.btnStartSetText(View.StartButtonText.STOP.toString());
+          this.view.btnStartSetEnabled(false);
+          break;
+        default:
+          break;
+      }
+    });
   }
 
   private void startBWHeadless() throws InvalidStateException,
                                         IOException,
                                         InvalidBotTypeException,
-                                        IniParseException,
                                         MissingBotNameException,
                                         MissingBotRaceException,
                                         MissingBotFileException,
@@ -129,17 +371,38 @@ public class Controller {
                                         MissingBWHeadlessExeException,
                                         UnsupportedStarcraftVersionException,
                                         DirectoryNotFoundException {
-    /* Initialize DirectoryMonitor if required. */
+    /* Start tracking changes to the StarCraft directory if required. */
     Path starcraftPath = Starcraft.getDirectory();
-    if (this.directoryMonitor == null) {
-      this.directoryMonitor = new DirectoryMonitor(starcraftPath);
-      this.directoryMonitor.getIgnoreList().add("maps"); /* ignore any file/directory containing "*maps*" */
-      this.directoryMonitor.getIgnoreList().add("bwta"); /* ignore any file/directory containing "*bwta*" */
-      this.directoryMonitor.getIgnoreList().add("bwta2"); /* ignore any file/directory containing "*bwta2*" */
-      this.directoryMonitor.getIgnoreList().add("bwapi-data"); /* ignore any file/directory containing "*bwapi-data*" */
-      this.directoryMonitor.reset();
+    if (!Model.getSettings().isEnabled(Starcraft.PropertyKey.CLEAN_SC_DIR.toString())) {
+      /* Nothing is tracked or journaled while cleaning up is disabled. */
+      if (this.cleanupTracker != null) {
+        this.cleanupTracker.discard();
+        this.cleanupTracker = null;
+      }
+      this.model.getBWHeadless().getBwapiDirectory().setWriteLog(null);
+    } else if (this.cleanupTracker == null || !this.cleanupTracker.getRoot().equals(starcraftPath.toAbsolutePath().normalize())) {
+      if (this.cleanupTracker != null) {
+        /* The StarCraft directory changed. Its entries stay in the journal. */
+        this.cleanupTracker.stop();
+      }
+      this.cleanupTracker = new CleanupTracker(starcraftPath, DropLauncher.CLEANUP_JOURNAL_FILE);
+      this.cleanupTracker.getIgnoreList().add("maps"); /* ignore any file/directory containing "*maps*" */
+      this.cleanupTracker.getIgnoreList().add("bwta"); /* ignore any file/directory containing "*bwta*" */
+      this.cleanupTracker.getIgnoreList().add("bwta2"); /* ignore any file/directory containing "*bwta2*" */
+      this.cleanupTracker.getIgnoreList().add("bwapi-data"); /* ignore any file/directory containing "*bwapi-data*" */
+      this.cleanupTracker.start();
+    }
+    if (this.cleanupTracker != null) {
+      this.model.getBWHeadless().getBwapiDirectory().setWriteLog(this.cleanupTracker::record);
     }
 
+    /* Remember the bot and the settings of this launch. */
+    this.model.getBotCatalog().record(this.model.getBWHeadless().getBot(), Model.getSettings().snapshot().getValues())
+        .exceptionally(ex -> {
+          LOGGER.log(Level.WARNING, "failed to catalog bot", ex);
+          return null;
+        });
+
     this.model.getBWHeadless()
         .setStarcraftExe(Starcraft.getExe())
         .enableConsoleOutput(new ConsoleOutputWrapper(this.view.getConsoleOutput()));
@@ -154,13 +417,28 @@ public class Controller {
                                        TasklistParseException {
     this.model.getBWHeadless().stop();
 
+    if (Model.getSettings().isEnabled(BWAPI.PropertyKey.SNAPSHOT_WRITE.toString())) {
+      /* Store a snapshot of "bwapi-data/write/". */
+      try {
+        Path bwapiWriteDirectory = this.model.getBWHeadless().getBwapiDirectory().getWriteDirectory();
+        String id = this.model.getSnapshotStore().capture(this.model.getBWHeadless().getBot().getName(), bwapiWriteDirectory);
+        this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Stored snapshot " + id + " of " + bwapiWriteDirectory.toString());
+      } catch (MissingBotNameException ex) {
+        /* Do nothing. */
+      }
+    }
+
     if (Model.getSettings().isEnabled(BWAPI.PropertyKey.COPY_WRITE_READ.toString())) {
       /* Copy contents of "bwapi-data/write/" to "bwapi-data/read/". */
       Path bwapiWriteDirectory = this.model.getBWHeadless().getBwapiDirectory().getWriteDirectory();
       Path bwapiReadDirectory = this.model.getBWHeadless().getBwapiDirectory().getReadDirectory();
       String copyMessage = View.MessagePrefix.COPY.get() + bwapiWriteDirectory.toString() + " -> " + bwapiReadDirectory.toString();
       this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + copyMessage);
-      FileUtils.copyDirectory(bwapiWriteDirectory.toFile(), bwapiReadDirectory.toFile());
+      DirectorySync.Result result = new DirectorySync()
+          .setDeleteExtraneous(Model.getSettings().isEnabled(BWAPI.PropertyKey.MIRROR_WRITE_READ.toString()))
+          .setVerifyContents(Model.getSettings().isEnabled(BWAPI.PropertyKey.VERIFY_COPY_CONTENTS.toString()))
+          .sync(bwapiWriteDirectory, bwapiReadDirectory);
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + View.MessagePrefix.COPY.get(result.toString()));
     }
   }
 
@@ -177,9 +455,11 @@ public class Controller {
       case IDLE:
         /* Do nothing. */
         break;
+      case STARTING:
+        /* Fall through. */
       case RUNNING:
         /* Fall through. */
-      case LOCKED:
+      case STOPPING:
         /* Fall through. */
       default:
         String errorMessage = "program is still in state " + state.toString()
@@ -189,202 +469,304 @@ public class Controller {
         throw new InvalidStateException(errorMessage);
     }
 
-    if (Model.getSettings().isEnabled(Starcraft.PropertyKey.CLEAN_SC_DIR.toString())) {
-      /* Clean up StarCraft directory. */
-      try {
-        if (this.directoryMonitor != null) {
-          this.directoryMonitor.update();
-          for (Path path : this.directoryMonitor.getNewFiles()) {
-            if (AdakiteUtils.fileExists(path)) {
-              AdakiteUtils.deleteFile(path);
-            } else if (AdakiteUtils.directoryExists(path)) {
-              FileUtils.deleteDirectory(path.toFile());
-            }
-          }
+    if (this.isClosing) {
+      /* Already cleaning up. */
+      return;
+    }
+
+    if (Model.getSettings().isEnabled(Starcraft.PropertyKey.CLEAN_SC_DIR.toString())
+        && this.cleanupTracker != null) {
+      /* Clean up StarCraft directory in the background and exit when done. */
+      this.isClosing = true;
+      this.cleanupTracker.stop();
+      String text = "Cleaning up StarCraft directory...";
+      this.view.showProgress(text, -1, false);
+      this.cleanupTracker.cleanup((done, total) -> Platform.runLater(() -> {
+        this.view.showProgress(text, (double) done / total, false);
+      })).whenComplete((result, ex) -> Platform.runLater(() -> {
+        this.view.hideProgress();
+        if (ex != null) {
+          new ExceptionAlert().showAndWait("failed to clean up StarCraft directory", (ex instanceof CompletionException && ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : new Exception(ex));
+        } else if (!result.getFailed().isEmpty()) {
+          LOGGER.log(Level.WARNING, "failed to clean up: {0}", result.getFailed());
         }
-//        if (Model.getSettings().hasValue(Starcraft.PropertyKey.STARCRAFT_EXE.toString())) {
-//          Path starcraftDirectory = AdakiteUtils.getParentDirectory(Paths.get(Model.getSettings().getValue(Starcraft.PropertyKey.STARCRAFT_EXE.toString())));
-//          if (starcraftDirectory != null) {
-//            for (BWAPI.ExtractableDll val : BWAPI.ExtractableDll.values()) {
-//              Path file = starcraftDirectory.resolve(Paths.get(val.toString()));
-//              if (AdakiteUtils.fileExists(file)) {
-//                AdakiteUtils.deleteFile(file);
-//              }
-//            }
-//          }
-//        }
-      } catch (Exception ex) {
-        new ExceptionAlert().showAndWait("failed to clean up StarCraft directory", ex);
+        exit(stage);
+      }));
+      return;
+    }
+
+    if (!Model.getSettings().isEnabled(Starcraft.PropertyKey.CLEAN_SC_DIR.toString())) {
+      /* Entries must not be deleted by a later session which has cleaning up enabled. */
+      if (this.cleanupTracker != null) {
+        this.cleanupTracker.discard();
+        this.cleanupTracker = null;
+      } else {
+        CleanupTracker.discardJournal(DropLauncher.CLEANUP_JOURNAL_FILE);
       }
     }
 
+    exit(stage);
+  }
+
+  private void exit(Stage stage) {
+    try {
+      Model.getSettings().flush();
+    } catch (Exception ex) {
+      new ExceptionAlert().showAndWait("Failed to update settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
+    }
+
     stage.close();
     Platform.exit();
   }
 
-  /**
-   * Reads a dropped or selected file which is meant for bwheadless and
-   * sets the appropriate settings.
-   *
-   * @param file specified file to process
-   */
-  private void processFile(Path file) throws InvalidArgumentException,
-                                             StarcraftProfileNameException,
-                                             InvalidBwapiDllException {
+  public void filesDropped(List<File> paths) {
     if (getState() != State.IDLE) {
+      Platform.runLater(() -> {
+        View.displayOperationProhibitedDialog("Loading bot files is not allowed while a bot is running.");
+      });
       return;
     }
 
-    if (file == null) {
-      throw new InvalidArgumentException(Debugging.Message.CANNOT_BE_NULL.toString("file"));
+    /* A new drop replaces an import which is still running. */
+    if (this.importTask != null) {
+      this.importTask.cancel();
     }
 
-    String ext = FilenameUtils.getExtension(file.toString()).toLowerCase(Locale.US);
-    if (AdakiteUtils.isNullOrEmpty(ext, StringCompareOption.TRIM)) {
-      ext = "";
+    List<Path> roots = new ArrayList<>();
+    for (File path : paths) {
+      roots.add(path.toPath());
     }
-    switch (ext) {
-      case "zip":
-        processZipFile(file);
-        break;
-      case "dll":
-        /* Fall through. */
-      case "exe":
-        /* Fall through. */
-      case "jar":
-        if (file.getFileName().toString().equalsIgnoreCase(Starcraft.BINARY_FILENAME)) {
-          /* Set StarCraft.exe path. */
-          Model.getSettings().setValue(Starcraft.PropertyKey.STARCRAFT_EXE.toString(), file.toAbsolutePath().toString());
-          Platform.runLater(() -> {
-            new SimpleAlert().showAndWait(AlertType.INFORMATION,
-                DialogTitle.PROGRAM_NAME,
-                Starcraft.BINARY_FILENAME + " path set to: " + file.toAbsolutePath().toString()
-            );
-          });
-        } else if (file.getFileName().toString().equalsIgnoreCase(BWAPI.DLL_FILENAME_RELEASE)) {
-          /* Set BWAPI.dll path. */
-          this.model.getBWHeadless().getBot().setBwapiDll(file.toAbsolutePath());
-        } else {
-          /* Set bot file. */
-          this.model.getBWHeadless().getBot().setFile(file.toAbsolutePath());
-          /* Set bot race. */
-          this.model.getBWHeadless().getBot().setRace(Race.RANDOM.toString());
-          /* Set clean bot name. */
-          String name = FilenameUtils.getBaseName(file.toString());
-          name = Starcraft.sanitizeProfileName(name);
-          this.model.getBWHeadless().getBot().setName(name);
+
+    int generation = ++this.importGeneration;
+    AtomicLong lastProgressUpdate = new AtomicLong(0);
+    ImportPipeline.Task task = this.model.getImportPipeline().start(roots, (stage, done, total) -> {
+      /* Limit the number of updates queued on the JavaFX thread. */
+      long now = System.nanoTime();
+      long last = lastProgressUpdate.get();
+      if (done != total && now - last < IMPORT_PROGRESS_INTERVAL && last != 0) {
+        return;
+      }
+      lastProgressUpdate.set(now);
+      Platform.runLater(() -> {
+        if (this.importGeneration == generation) {
+          this.view.showProgress(stage.toString() + "...", (total > 0) ? (double) done / total : -1, true);
         }
-        break;
-      default:
-        /* Treat as a config file. */
-        this.model.getBWHeadless().getBot().addExtraFile(file);
-        break;
+      });
+    });
+    this.importTask = task;
+    this.view.showProgress(ImportPipeline.Stage.WALK.toString() + "...", -1, true);
+
+    task.getResult().whenComplete((result, ex) -> Platform.runLater(() -> {
+      if (this.importGeneration != generation) {
+        /* Superseded by a newer import, which cleans up afterwards. */
+        if (ex == null) {
+          task.release();
+        }
+        return;
+      }
+      this.importTask = null;
+      this.view.hideProgress();
+      if (task.isCancelled()) {
+        this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Import cancelled.");
+      } else if (ex != null) {
+        new ExceptionAlert().showAndWait("failed to import files", (ex instanceof CompletionException && ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : new Exception(ex));
+      } else {
+        commitImport(result);
+        /* The files of the result are now referenced by the bot. */
+        task.release();
+      }
+      cleanupImports();
+    }));
+  }
+
+  /**
+   * Cancels the running import, if any.
+   */
+  public void cancelImportClicked() {
+    if (this.importTask != null) {
+      this.importTask.cancel();
     }
   }
 
   /**
-   * Processes a ZIP file. Extracts the ZIP file and processes its contents
-   * via {@link #processFile(java.nio.file.Path)}.
+   * Applies the result of an import to the bot in a single step. The
+   * changes are made to a copy of the bot which replaces the current bot
+   * only if every change succeeded.
    *
-   * @param file specified path to the ZIP file
-   * @see #processFile(java.nio.file.Path)
+   * @param result specified import result
    */
-  private void processZipFile(Path file) {
-    try {
-      if (file == null) {
-        throw new IllegalArgumentException(Debugging.Message.CANNOT_BE_NULL.toString("file"));
-      } else {
-        String ext = FilenameUtils.getExtension(file.toString()).toLowerCase(Locale.US);
-        if (AdakiteUtils.isNullOrEmpty(ext, StringCompareOption.TRIM) || !ext.equals("zip")) {
-          throw new IllegalArgumentException("path does not appear to be a ZIP file: " + file.toString());
-        }
-      }
+  private void commitImport(ImportPipeline.Result result) {
+    if (getState() != State.IDLE) {
+      View.displayOperationProhibitedDialog("The dropped files were not loaded because a bot is running.");
+      return;
+    }
 
-      ZipFile zipFile = new ZipFile(file.toAbsolutePath().toString());
-      if (zipFile.isEncrypted()) {
-        throw new EncryptedArchiveException("encrypted archive not supported: " + zipFile.getFile().getAbsolutePath());
+    Bot current = this.model.getBWHeadless().getBot();
+    int prevNum = current.getExtraFiles().size();
+    Bot bot = new Bot(current);
+    try {
+      if (result.getBwapiDll() != null) {
+        bot.setBwapiDll(result.getBwapiDll().toAbsolutePath());
       }
-      /* Create temporary directory. */
-      Path tmpDir = DropLauncher.TEMP_DIRECTORY;
-      FileUtils.deleteDirectory(tmpDir.toFile());
-      AdakiteUtils.createDirectory(tmpDir);
-      /* Extract files to temporary directory. */
-      zipFile.extractAll(tmpDir.toString());
-      /* Process contents of temporary directory. */
-      Path[] tmpList = AdakiteUtils.getDirectoryContents(tmpDir);
-      for (Path tmpPath : tmpList) {
-        if (!AdakiteUtils.directoryExists(tmpPath)) {
-          processFile(tmpPath);
+      if (result.getBotFile() != null) {
+        Path file = result.getBotFile();
+        bot.setFile(file.toAbsolutePath());
+        BotBundle bundle = result.getBundle();
+        if (bundle != null) {
+          /* Use the name and race recorded in the bundle. */
+          bot.setRace(Race.isValid(bundle.getRace()) ? bundle.getRace() : Race.RANDOM.toString());
+          bot.setName(Starcraft.sanitizeProfileName(bundle.getName()));
+        } else {
+          bot.setRace(Race.RANDOM.toString());
+          /* Set clean bot name. */
+          String name = FilenameUtils.getBaseName(file.toString());
+          name = Starcraft.sanitizeProfileName(name);
+          bot.setName(name);
         }
       }
+      for (Path file : result.getConfigFiles()) {
+        bot.addExtraFile(file);
+      }
+      this.model.getBWHeadless().setBot(bot);
     } catch (Exception ex) {
       new ExceptionAlert().showAndWait(null, ex);
-    }
-  }
-
-  public void filesDropped(List<File> paths) throws IOException,
-                                                    InvalidArgumentException,
-                                                    StarcraftProfileNameException,
-                                                    InvalidBwapiDllException,
-                                                    DirectoryNotFoundException {
-    if (getState() != State.IDLE) {
-      Platform.runLater(() -> {
-        View.displayOperationProhibitedDialog("Loading bot files is not allowed while a bot is running.");
-      });
       return;
     }
 
-    /* Parse all objects dropped into a complete list of files dropped since
-       dropping a directory does NOT include all subdirectories and
-       files by default. */
-    List<Path> fileList = new ArrayList<>();
-    for (File path : paths) {
-      if (path.isDirectory()) {
-        Path[] tmpList = AdakiteUtils.getDirectoryContents(path.toPath(), DirectoryTraverseOption.OMIT_DIRECTORY_NAMES);
-        fileList.addAll(Arrays.asList(tmpList));
-      } else if (path.isFile()) {
-        fileList.add(path.toPath());
-      } else {
-        throw new InvalidArgumentException("unknown file dropped: " + path.getAbsolutePath());
-      }
+    for (String warning : result.getWarnings()) {
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + warning);
     }
 
-    /* Keep track of previous number of extra bot files. */
-    int prevNum = this.model.getBWHeadless().getBot().getExtraFiles().size();
-
-    /* Process all files. */
-    for (Path file : fileList) {
-      processFile(file);
+    if (result.getStarcraftExe() != null) {
+      /* Set StarCraft.exe path. */
+      Path file = result.getStarcraftExe();
+      Model.getSettings().setValue(Starcraft.PropertyKey.STARCRAFT_EXE.toString(), file.toAbsolutePath().toString());
+      new SimpleAlert().showAndWait(AlertType.INFORMATION,
+          DialogTitle.PROGRAM_NAME,
+          Starcraft.BINARY_FILENAME + " path set to: " + file.toAbsolutePath().toString()
+      );
     }
 
     /* Find current number of extra bot files. */
-    int currNum = this.model.getBWHeadless().getBot().getExtraFiles().size();
+    int currNum = bot.getExtraFiles().size();
 
     if (currNum > prevNum) {
       /* If more extra bot files have been processed, display a dialog message. */
       StringBuilder sb = new StringBuilder(currNum);
-      for (String extra : this.model.getBWHeadless().getBot().getExtraFiles()) {
+      for (String extra : bot.getExtraFiles()) {
         sb.append(FilenameUtils.getName(extra)).append(AdakiteUtils.newline());
       }
-      Platform.runLater(() -> {
-        String message = "The following file"
-            + ((currNum != 1) ? "s" : "") + " will be treated as "
-            + ((currNum != 1) ? "configuration files" : "a configuration file")
-            + " and will be copied to the \"" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.AI_DIRECTORY).toString() + "\" directory when the bot is launched: "
-            + AdakiteUtils.newline(2) + sb.toString();
-        new SimpleAlert().showAndWait(
-            AlertType.INFORMATION,
-            DialogTitle.PROGRAM_NAME,
-            message
-        );
-      });
+      String message = "The following file"
+          + ((currNum != 1) ? "s" : "") + " will be treated as "
+          + ((currNum != 1) ? "configuration files" : "a configuration file")
+          + " and will be copied to the \"" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.AI_DIRECTORY).toString() + "\" directory when the bot is launched: "
+          + AdakiteUtils.newline(2) + sb.toString();
+      new SimpleAlert().showAndWait(
+          AlertType.INFORMATION,
+          DialogTitle.PROGRAM_NAME,
+          message
+      );
     }
 
     this.view.update();
+
+    if (result.getBotFile() != null) {
+      restoreFromCatalog(bot, result.getConfigFiles().isEmpty());
+    }
+  }
+
+  /**
+   * Applies the race and, if requested, the extra files remembered for
+   * the specified bot once its catalog entry has been looked up. Unknown
+   * bots are added to the catalog.
+   *
+   * @param bot specified bot which was just loaded
+   * @param isRestoreExtraFiles whether to restore the remembered extra files
+   */
+  private void restoreFromCatalog(Bot bot, boolean isRestoreExtraFiles) {
+    Path file;
+    try {
+      file = bot.getFile();
+    } catch (MissingBotFileException ex) {
+      return;
+    }
+    BotCatalog catalog = this.model.getBotCatalog();
+    catalog.find(file).thenAccept(entry -> Platform.runLater(() -> {
+      Bot current = this.model.getBWHeadless().getBot();
+      if (current != bot || getState() != State.IDLE) {
+        /* The bot was replaced in the meantime. */
+        return;
+      }
+      if (entry != null) {
+        try {
+          current.setRace(entry.getRace());
+          if (isRestoreExtraFiles) {
+            for (String extraFile : entry.getExtraFiles()) {
+              if (AdakiteUtils.fileExists(Paths.get(extraFile))) {
+                current.addExtraFile(Paths.get(extraFile));
+              }
+            }
+          }
+        } catch (InvalidArgumentException ex) {
+          LOGGER.log(Level.WARNING, "failed to restore catalog entry: " + entry.getHash(), ex);
+        }
+        this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Recognized known bot: " + entry.toString());
+        this.view.update();
+      }
+      catalog.record(current, null).exceptionally(ex -> {
+        LOGGER.log(Level.WARNING, "failed to catalog bot", ex);
+        return null;
+      });
+    }));
   }
 
   public void clearExtraBotFiles() {
     this.model.getBWHeadless().getBot().clearExtraFiles();
+    cleanupImports();
+  }
+
+  /**
+   * Deletes files extracted by previous imports in the background unless
+   * they are still used by the current bot or by a catalog entry. Catalog
+   * entries of imported bots which have not been used recently are
+   * forgotten first.
+   */
+  private void cleanupImports() {
+    Bot bot = this.model.getBWHeadless().getBot();
+    List<Path> inUse = new ArrayList<>();
+    try {
+      inUse.add(bot.getFile());
+    } catch (MissingBotFileException ex) {
+      /* Bot file not set. */
+    }
+    try {
+      inUse.add(bot.getBwapiDll());
+    } catch (MissingBwapiDllException ex) {
+      /* BWAPI.dll not set. */
+    }
+    for (String file : bot.getExtraFiles()) {
+      inUse.add(Paths.get(file));
+    }
+    /* Files of cataloged bots may have been extracted from archives. */
+    BotCatalog catalog = this.model.getBotCatalog();
+    catalog.prune(DropLauncher.TEMP_DIRECTORY, IMPORT_RETENTION)
+        .thenCompose(removed -> catalog.getEntriesAsync())
+        .thenCompose(entries -> {
+          for (BotCatalog.Entry entry : entries) {
+            inUse.add(entry.getFile());
+            if (entry.getBwapiDll() != null) {
+              inUse.add(entry.getBwapiDll());
+            }
+            for (String file : entry.getExtraFiles()) {
+              inUse.add(Paths.get(file));
+            }
+          }
+          return this.model.getImportPipeline().cleanup(inUse);
+        })
+        .exceptionally(ex -> {
+          LOGGER.log(Level.WARNING, "failed to clean up imported files", ex);
+          return null;
+        });
   }
 
   /* ************************************************************ */
@@ -395,11 +777,7 @@ public class Controller {
    * Gets the manually set state indicator of the program.
    */
   public State getState() {
-    State currentState;
-    synchronized(this.stateLock) {
-      currentState = this.state;
-    }
-    return currentState;
+    return this.state;
   }
 
   public String getBotFilename() {
@@ -411,15 +789,66 @@ public class Controller {
     }
   }
 
-  public String getBwapiDllVersion() {
+  /**
+   * Returns a future which completes with the headers of the bot's
+   * BWAPI.dll or null if it is not set or could not be read. Only the
+   * headers and version resource are read.
+   */
+  public CompletableFuture<PortableExecutable> getBwapiDllHeaders() {
+    Path dll;
     try {
-      String dll = this.model.getBWHeadless().getBot().getBwapiDll().toString();
-      String md5sum = new Checksum(Paths.get(dll), Checksum.Algorithm.MD5).get();
-      String version = BWAPI.getBwapiVersion(md5sum);
-      return version;
+      dll = this.model.getBWHeadless().getBot().getBwapiDll();
     } catch (Exception ex) {
-      return null;
+      return CompletableFuture.completedFuture(null);
     }
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return PortableExecutable.read(dll);
+      } catch (IOException ex) {
+        return null;
+      }
+    }, Model.getChecksumService().getExecutor());
+  }
+
+  /**
+   * Returns a future which completes with the MD5 checksum of the bot's
+   * BWAPI.dll or null if it is not set or could not be read.
+   * The checksum is computed in the background and cached per file revision.
+   */
+  public CompletableFuture<String> getBwapiDllChecksum() {
+    Path dll;
+    try {
+      dll = this.model.getBWHeadless().getBot().getBwapiDll();
+    } catch (Exception ex) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return Model.getChecksumService().getChecksum(dll, MultiDigest.MD5)
+        .handle((md5sum, ex) -> (ex == null) ? md5sum : null);
+  }
+
+  /**
+   * Returns a future which completes with the version of the bot's
+   * BWAPI.dll confirmed by its checksum or null if it is not set
+   * or could not be read.
+   *
+   * @see BWAPI#getBwapiVersion(java.lang.String, droplauncher.io.PortableExecutable)
+   */
+  public CompletableFuture<String> getBwapiDllVersion() {
+    return getBwapiDllVersion(getBwapiDllHeaders());
+  }
+
+  /**
+   * Returns a future which completes with the version of the bot's
+   * BWAPI.dll confirmed by its checksum, using headers which were already
+   * requested via {@link #getBwapiDllHeaders()} so they are not read
+   * twice.
+   *
+   * @param headers specified future of the headers
+   */
+  public CompletableFuture<String> getBwapiDllVersion(CompletableFuture<PortableExecutable> headers) {
+    return headers.thenCombine(getBwapiDllChecksum(), (pe, md5sum) ->
+        (pe == null && md5sum == null) ? null : BWAPI.getBwapiVersion(md5sum, pe)
+    );
   }
 
   public String getBotName() {
@@ -457,13 +886,185 @@ public class Controller {
     }
     List<File> files = fc.showOpenMultipleDialog(stage);
     if (files != null && files.size() > 0) {
+      filesDropped(files);
+    }
+    this.view.update();
+  }
+
+  public void mnuFileLoadKnownBotClicked() {
+    if (getState() != State.IDLE) {
+      Platform.runLater(() -> {
+        View.displayOperationProhibitedDialog("Loading bot files is not allowed while a bot is running.");
+      });
+      return;
+    }
+    chooseKnownBot("Load bot:", this::loadKnownBot);
+  }
+
+  public void mnuFileRemoveKnownBotClicked() {
+    chooseKnownBot("Remove bot from catalog:", entry -> {
+      this.model.getBotCatalog().remove(entry.getHash()).whenComplete((result, ex) -> Platform.runLater(() -> {
+        if (ex != null) {
+          new ExceptionAlert().showAndWait("failed to remove bot from catalog", (ex instanceof CompletionException && ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : new Exception(ex));
+          return;
+        }
+        this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Removed known bot: " + entry.toString());
+        cleanupImports();
+      }));
+    });
+  }
+
+  /**
+   * Reads the catalog in the background and lets the user choose one of
+   * its entries on the JavaFX thread.
+   *
+   * @param text specified prompt of the dialog
+   * @param action specified action which is performed with the chosen entry
+   */
+  private void chooseKnownBot(String text, Consumer<BotCatalog.Entry> action) {
+    this.model.getBotCatalog().getEntriesAsync().whenComplete((entries, ex) -> Platform.runLater(() -> {
+      if (ex != null) {
+        new ExceptionAlert().showAndWait("failed to read bot catalog", (ex instanceof CompletionException && ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : new Exception(ex));
+        return;
+      }
+      if (entries.isEmpty()) {
+        new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, "No known bots found. Bots are remembered after they have been loaded once.");
+        return;
+      }
+      ChoiceDialog<BotCatalog.Entry> dialog = new ChoiceDialog<>(entries.get(0), entries);
+      dialog.setTitle(DialogTitle.PROGRAM_NAME.toString());
+      dialog.setHeaderText(null);
+      dialog.setContentText(text);
+      View.addDefaultStylesheet(dialog.getDialogPane().getStylesheets());
+      Optional<BotCatalog.Entry> entry = dialog.showAndWait();
+      if (entry.isPresent()) {
+        action.accept(entry.get());
+      }
+    }));
+  }
+
+  private void loadKnownBot(BotCatalog.Entry entry) {
+    if (getState() != State.IDLE) {
+      View.displayOperationProhibitedDialog("Loading bot files is not allowed while a bot is running.");
+      return;
+    }
+    if (!AdakiteUtils.fileExists(entry.getFile())) {
+      new SimpleAlert().showAndWait(AlertType.WARNING, DialogTitle.WARNING, "Bot file not found: " + entry.getFile().toString());
+      return;
+    }
+    try {
+      Bot bot = entry.toBot();
+      this.model.getBWHeadless().setBot(bot);
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Loaded known bot: " + entry.toString());
+      this.model.getBotCatalog().record(bot, null);
+    } catch (Exception ex) {
+      new ExceptionAlert().showAndWait(null, ex);
+    }
+    this.view.update();
+  }
+
+  public void mnuFileCatalogBotsClicked(Stage stage) {
+    DirectoryChooser dc = new DirectoryChooser();
+    dc.setTitle("Select a directory of bots ...");
+    File directory = dc.showDialog(stage);
+    if (directory == null) {
+      return;
+    }
+    String text = "Cataloging bots...";
+    this.view.showProgress(text, -1, false);
+    AtomicLong lastProgressUpdate = new AtomicLong(0);
+    this.model.getBotCatalog().catalog(directory.toPath(), (done, total) -> {
+      long now = System.nanoTime();
+      if (done != total && now - lastProgressUpdate.get() < IMPORT_PROGRESS_INTERVAL) {
+        return;
+      }
+      lastProgressUpdate.set(now);
+      Platform.runLater(() -> this.view.showProgress(text, (double) done / total, false));
+    }).whenComplete((report, ex) -> Platform.runLater(() -> {
+      this.view.hideProgress();
+      if (ex != null) {
+        new ExceptionAlert().showAndWait("failed to catalog bots", (ex instanceof CompletionException && ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : new Exception(ex));
+        return;
+      }
+      for (Map.Entry<Path, List<String>> problem : report.getProblems().entrySet()) {
+        for (String message : problem.getValue()) {
+          this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + problem.getKey().getFileName().toString() + ": " + message);
+        }
+      }
+      new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME,
+          "Bots cataloged: " + report.getEntries().size()
+          + AdakiteUtils.newline() + "Bots with problems: " + report.getProblems().size()
+      );
+    }));
+  }
+
+  public void mnuFileExportBundleClicked(Stage stage) {
+    Bot bot = new Bot(this.model.getBWHeadless().getBot());
+    String name;
+    try {
+      bot.getFile();
+      name = bot.getName();
+    } catch (MissingBotFileException ex) {
+      View.displayMissingFieldDialog("bot file");
+      return;
+    } catch (Exception ex) {
+      name = Bot.DEFAULT_NAME;
+    }
+    FileChooser fc = new FileChooser();
+    fc.setTitle("Export bot bundle ...");
+    fc.setInitialFileName(name + "." + BotBundle.EXTENSION);
+    fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Bot bundle (*." + BotBundle.EXTENSION + ")", "*." + BotBundle.EXTENSION));
+    File file = fc.showSaveDialog(stage);
+    if (file == null) {
+      return;
+    }
+    Path target = file.toPath();
+    /* Write on a dedicated thread rather than whichever thread completes the version lookup. */
+    getBwapiDllVersion().thenAcceptAsync(version -> {
       try {
-        filesDropped(files);
+        BotBundle.write(bot, (version != null) ? version : BWAPI.DLL_UNKNOWN, target);
       } catch (Exception ex) {
-        /* Do nothing. */
+        throw new CompletionException(ex);
       }
+    }, this.exporter).whenComplete((v, ex) -> Platform.runLater(() -> {
+      if (ex != null) {
+        new ExceptionAlert().showAndWait("failed to export bot bundle", (ex instanceof CompletionException && ex.getCause() instanceof Exception) ? (Exception) ex.getCause() : new Exception(ex));
+        return;
+      }
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Exported bot bundle: " + target.toAbsolutePath().toString());
+    }));
+  }
+
+  public void mnuFileRestoreSnapshotClicked() {
+    if (getState() != State.IDLE) {
+      Platform.runLater(() -> {
+        View.displayOperationProhibitedDialog("Restoring learning data is not allowed while a bot is running.");
+      });
+      return;
+    }
+    try {
+      String botName = this.model.getBWHeadless().getBot().getName();
+      List<String> ids = this.model.getSnapshotStore().list(botName);
+      if (ids.isEmpty()) {
+        new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, "No snapshots found for bot: " + botName);
+        return;
+      }
+      ChoiceDialog<String> dialog = new ChoiceDialog<>(ids.get(ids.size() - 1), ids);
+      dialog.setTitle(DialogTitle.PROGRAM_NAME.toString());
+      dialog.setHeaderText(null);
+      dialog.setContentText("Restore snapshot to `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.READ_DIRECTORY).toString() + "':");
+      View.addDefaultStylesheet(dialog.getDialogPane().getStylesheets());
+      Optional<String> id = dialog.showAndWait();
+      if (id.isPresent()) {
+        Path bwapiReadDirectory = Starcraft.getDirectory().resolve(BWAPI.ROOT_DIRECTORY).resolve(BWAPI.READ_DIRECTORY);
+        int count = this.model.getSnapshotStore().restore(botName, id.get(), bwapiReadDirectory);
+        this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Restored snapshot " + id.get() + " to " + bwapiReadDirectory.toString() + " (" + count + " files written)");
+      }
+    } catch (MissingStarcraftExeException ex) {
+      View.displayMissingFieldDialog("path to " + Starcraft.BINARY_FILENAME);
+    } catch (Exception ex) {
+      new ExceptionAlert().showAndWait(null, ex);
     }
-    this.view.update();
   }
 
   public void mnuFileExitClicked(Stage stage) {
@@ -487,7 +1088,10 @@ public class Controller {
 
   public void mnuHelpContentsClicked() {
     Platform.runLater(() -> {
-      new Help().show();
+      if (this.help == null) {
+        this.help = new Help();
+      }
+      this.help.show();
     });
   }
 
@@ -495,145 +1099,140 @@ public class Controller {
     new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, DropLauncher.PROGRAM_ABOUT);
   }
 
-  public void btnStartClicked() throws InvalidStateException {
-    /* Check if BWAPI.dll is known. */
-    String bwapiDllVersion = getBwapiDllVersion();
-    if (getState() == State.IDLE
-        && Model.getSettings().isEnabled(BWAPI.PropertyKey.WARN_UNKNOWN_BWAPI_DLL.toString())
-        && !AdakiteUtils.isNullOrEmpty(bwapiDllVersion)
-        && bwapiDllVersion.equalsIgnoreCase(BWAPI.DLL_UNKNOWN)) {
-      boolean response = new YesNoDialog().userConfirms(
-          "Warning",
-          "The " + BWAPI.DLL_FILENAME_RELEASE + " you provided is not on the list of known official BWAPI versions.\n\nDo you want to continue anyway?"
-      );
-      if (response == false) {
-        /* User does not wish to continue. Abort. */
-        new SimpleAlert().showAndWait(
-            AlertType.WARNING,
-            DialogTitle.WARNING,
-            "Launch aborted!"
-        );
-        return;
-      }
-    }
-
-    State prevState = getState();
-
-    if (prevState == State.LOCKED) {
-      throw new InvalidStateException("unable to start/stop, current_state=" + prevState.toString());
-    }
-
-    setState(State.LOCKED);
-
-    switch (prevState) {
+  public void btnStartClicked() {
+    switch (getState()) {
       case IDLE:
-        /* Start bwheadless. */
-        this.view.btnStartSetEnabled(false);
-        new Thread(() -> {
-          boolean success = false;
-          try {
-            this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Attempting to join game...");
-            startBWHeadless();
-            Platform.runLater(() -> {
-              this.view.btnStartSetText(View.StartButtonText.STOP.toString());
-              this.view.btnStartSetEnabled(true);
-            });
-            setState(State.RUNNING);
-            success = true;
-          } catch (InvalidStateException
-              | IniParseException
-              | IOException
-              | InvalidArgumentException
-              | TasklistParseException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait(null, ex);
-            });
-          } catch (MissingBotFileException ex) {
-            Platform.runLater(() -> {
-              View.displayMissingFieldDialog("bot file (e.g.: *.dll, *.exe, *.jar)");
-            });
-          } catch (MissingBotNameException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("something went wrong with setting the bot's name", ex);
-            });
-          } catch (MissingBotRaceException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("something went wrong with setting the bot's race", ex);
-            });
-          } catch (MissingBwapiDllException ex) {
-            Platform.runLater(() -> {
-              View.displayMissingFieldDialog(BWAPI.DLL_FILENAME_RELEASE + " is not set");
-            });
-          } catch (MissingBotException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("something went wrong with preparing the bot's data", ex);
-            });
-          } catch (InvalidBotTypeException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("bot type is not supported", ex);
-            });
-          } catch (MissingStarcraftExeException ex) {
-            //TODO: Clear StarCraft.exe path. This exception could be because the provided path was not found.
-            Platform.runLater(() -> {
-              View.displayMissingFieldDialog("path to " + Starcraft.BINARY_FILENAME);
-            });
-          } catch (MissingBWHeadlessExeException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("something went wrong with preparing bwheadless", ex);
-            });
-          } catch (UnsupportedStarcraftVersionException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("The selected " + Starcraft.BINARY_FILENAME + " is not supported. Currently, only Brood War 1.16.1 is supported. You can disable this error in the settings if you believe this to be a false positive.", ex);
-            });
-          } catch (DirectoryNotFoundException ex) {
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait("something went wrong while processing directory contents", ex);
-            });
-          }
-          if (!success) {
-            this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Failed to join game.");
-            setState(prevState);
-            Platform.runLater(() -> {
-              this.view.btnStartSetText(View.StartButtonText.START.toString());
-              this.view.btnStartSetEnabled(true);
-            });
-          }
-        }).start();
-        return;
+        if (Model.getSettings().isEnabled(BWAPI.PropertyKey.WARN_UNKNOWN_BWAPI_DLL.toString())) {
+          /* Check if BWAPI.dll is known. The dialog is shown once the checksum is available. */
+          this.view.btnStartSetEnabled(false);
+          getBwapiDllChecksum().thenAccept(md5sum -> Platform.runLater(() -> {
+            this.view.btnStartSetEnabled(true);
+            if (!AdakiteUtils.isNullOrEmpty(md5sum)
+                && BWAPI.getBwapiVersion(md5sum).equalsIgnoreCase(BWAPI.DLL_UNKNOWN)) {
+              boolean response = new YesNoDialog().userConfirms(
+                  "Warning",
+                  "The " + BWAPI.DLL_FILENAME_RELEASE + " you provided is not on the list of known official BWAPI versions.\n\nDo you want to continue anyway?"
+              );
+              if (response == false) {
+                /* User does not wish to continue. Abort. */
+                new SimpleAlert().showAndWait(
+                    AlertType.WARNING,
+                    DialogTitle.WARNING,
+                    "Launch aborted!"
+                );
+                return;
+              }
+            }
+            post(Command.START);
+          }));
+        } else {
+          post(Command.START);
+        }
+        break;
+      case STARTING:
+        post(Command.CANCEL);
+        break;
       case RUNNING:
-        /* Stop bwheadless. */
-        this.view.btnStartSetEnabled(false);
-        new Thread(() -> {
-          try {
-            this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Disconnecting bot...");
-            stopBWHeadless();
-            Platform.runLater(() -> {
-              this.view.btnStartSetText(View.StartButtonText.START.toString());
-              this.view.btnStartSetEnabled(true);
-            });
-            setState(State.IDLE);
-            this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + View.Message.BOT_EJECTED.toString());
-          } catch (Exception ex) {
-            /* Stop failed. */
-            Platform.runLater(() -> {
-              new ExceptionAlert().showAndWait(null, ex);
-            });
-            this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "failed to eject bot");
-            setState(prevState);
-            Platform.runLater(() -> {
-              this.view.btnStartSetText(View.StartButtonText.STOP.toString());
-              this.view.btnStartSetEnabled(true);
-            });
-          }
-        }).start();
-        return;
+        post(Command.STOP);
+        break;
       default:
         break;
     }
+  }
 
-    //TODO: It does not seem effectively possible to reach this line. Delete? Refactor above code?
-    if (getState() == State.LOCKED) {
-      throw new InvalidStateException("current_state=" + State.LOCKED.toString());
+  /**
+   * Launches bwheadless and the bot. Runs on the worker thread. Unless the
+   * launch was cancelled before it started, the launch result is always
+   * posted so the state machine never stays in STARTING.
+   *
+   * @param claim specified flag which is set by the launch or by a
+   *     cancel, whichever runs first
+   */
+  private void launch(AtomicBoolean claim) {
+    if (!claim.compareAndSet(false, true)) {
+      /* Cancelled before it started. */
+      return;
+    }
+    boolean success = false;
+    try {
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Attempting to join game...");
+      startBWHeadless();
+      success = true;
+    } catch (InvalidStateException
+        | IOException
+        | InvalidArgumentException
+        | TasklistParseException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait(null, ex);
+      });
+    } catch (MissingBotFileException ex) {
+      Platform.runLater(() -> {
+        View.displayMissingFieldDialog("bot file (e.g.: *.dll, *.exe, *.jar)");
+      });
+    } catch (MissingBotNameException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("something went wrong with setting the bot's name", ex);
+      });
+    } catch (MissingBotRaceException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("something went wrong with setting the bot's race", ex);
+      });
+    } catch (MissingBwapiDllException ex) {
+      Platform.runLater(() -> {
+        View.displayMissingFieldDialog(BWAPI.DLL_FILENAME_RELEASE + " is not set");
+      });
+    } catch (MissingBotException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("something went wrong with preparing the bot's data", ex);
+      });
+    } catch (InvalidBotTypeException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("bot type is not supported", ex);
+      });
+    } catch (MissingStarcraftExeException ex) {
+      //TODO: Clear StarCraft.exe path. This exception could be because the provided path was not found.
+      Platform.runLater(() -> {
+        View.displayMissingFieldDialog("path to " + Starcraft.BINARY_FILENAME);
+      });
+    } catch (MissingBWHeadlessExeException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("something went wrong with preparing bwheadless", ex);
+      });
+    } catch (UnsupportedStarcraftVersionException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("The selected " + Starcraft.BINARY_FILENAME + " is not supported. Currently, only Brood War 1.16.1 is supported. You can disable this error in the settings if you believe this to be a false positive.", ex);
+      });
+    } catch (DirectoryNotFoundException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("something went wrong while processing directory contents", ex);
+      });
+    } catch (RuntimeException ex) {
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait("something went wrong while launching the bot", ex);
+      });
+    } finally {
+      if (!success) {
+        this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Failed to join game.");
+      }
+      complete(success ? Command.LAUNCH_SUCCEEDED : Command.LAUNCH_FAILED);
+    }
+  }
+
+  /**
+   * Stops bwheadless and the bot. Runs on the worker thread.
+   */
+  private void stop() {
+    try {
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "Disconnecting bot...");
+      stopBWHeadless();
+      complete(Command.STOP_SUCCEEDED);
+    } catch (Exception ex) {
+      /* Stop failed. */
+      Platform.runLater(() -> {
+        new ExceptionAlert().showAndWait(null, ex);
+      });
+      this.view.getConsoleOutput().println(View.MessagePrefix.DROPLAUNCHER.get() + "failed to eject bot");
+      complete(Command.STOP_FAILED);
     }
   }
 
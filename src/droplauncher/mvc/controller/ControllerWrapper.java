@@ -17,8 +17,6 @@
 
 package droplauncher.mvc.controller;
 
-import adakite.exception.InvalidStateException;
-
 public class ControllerWrapper {
 
   private Controller controller;
@@ -30,24 +28,30 @@ public class ControllerWrapper {
   }
 
   /**
-   * Makes a request to start BWHeadless.
-   *
-   * @throws InvalidStateException
+   * Makes a request to start BWHeadless after the auto-rejoin delay.
+   * Ignored unless the controller is idle.
    */
-  public void startBWHeadless() throws InvalidStateException {
-    if (this.controller.getState() == Controller.State.IDLE) {
-      this.controller.btnStartClicked();
-    }
+  public void autoRejoin() {
+    this.controller.post(Controller.Command.AUTO_REJOIN);
+  }
+
+  /**
+   * Makes a request to stop BWHeadless after the auto-eject delay.
+   * Ignored unless the controller is running.
+   */
+  public void autoEject() {
+    this.controller.post(Controller.Command.AUTO_EJECT);
   }
 
   /**
-   * Makes a request to stop BWHeadless.
-   *
-   * @throws InvalidStateException
+   * Makes a request to stop BWHeadless immediately. A launch which is
+   * still in progress is cancelled.
    */
-  public void stopBWHeadless() throws InvalidStateException {
-    if (this.controller.getState() == Controller.State.RUNNING) {
-      this.controller.btnStartClicked();
+  public void stopBWHeadless() {
+    if (this.controller.getState() == Controller.State.STARTING) {
+      this.controller.post(Controller.Command.CANCEL);
+    } else {
+      this.controller.post(Controller.Command.STOP);
     }
   }
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.mvc.controller;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for running long operations on a single named daemon thread while
+ * recording how many tasks were submitted, completed and failed and how
+ * long they took.
+ */
+public class InstrumentedExecutor {
+
+  private static final Logger LOGGER = Logger.getLogger(InstrumentedExecutor.class.getName());
+
+  private final String name;
+  private final ExecutorService executor;
+  private final AtomicInteger pending;
+  private final AtomicLong submitted;
+  private final AtomicLong completed;
+  private final AtomicLong failed;
+  private final AtomicLong totalNanos;
+  private final AtomicLong maxNanos;
+
+  /**
+   * Creates an executor whose thread has the specified name.
+   *
+   * @param name specified thread name
+   */
+  public InstrumentedExecutor(String name) {
+    this.name = name;
+    this.executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pending = new AtomicInteger(0);
+    this.submitted = new AtomicLong(0);
+    this.completed = new AtomicLong(0);
+    this.failed = new AtomicLong(0);
+    this.totalNanos = new AtomicLong(0);
+    this.maxNanos = new AtomicLong(0);
+  }
+
+  /**
+   * Submits the specified task. Exceptions thrown by the task are logged
+   * and counted as failures.
+   *
+   * @param taskName specified name used in log messages
+   * @param task specified task
+   * @return a future which can be used to cancel the task before it starts
+   */
+  public Future<?> submit(String taskName, Runnable task) {
+    this.submitted.incrementAndGet();
+    this.pending.incrementAndGet();
+    return this.executor.submit(() -> {
+      this.pending.decrementAndGet();
+      long start = System.nanoTime();
+      boolean success = false;
+      try {
+        task.run();
+        success = true;
+      } catch (RuntimeException ex) {
+        LOGGER.log(Level.SEVERE, this.name + ": task failed: " + taskName, ex);
+      } finally {
+        long elapsed = System.nanoTime() - start;
+        this.totalNanos.addAndGet(elapsed);
+        this.maxNanos.accumulateAndGet(elapsed, Math::max);
+        (success ? this.completed : this.failed).incrementAndGet();
+        LOGGER.log(Level.FINE, "{0}: {1} took {2} ms", new Object[] {this.name, taskName, TimeUnit.NANOSECONDS.toMillis(elapsed)});
+      }
+    });
+  }
+
+  /**
+   * Returns the number of tasks which were submitted but have not started.
+   * Tasks which were cancelled before starting are still counted.
+   */
+  public int getPendingCount() {
+    return this.pending.get();
+  }
+
+  public long getSubmittedCount() {
+    return this.submitted.get();
+  }
+
+  public long getCompletedCount() {
+    return this.completed.get();
+  }
+
+  public long getFailedCount() {
+    return this.failed.get();
+  }
+
+  /**
+   * Returns the longest task duration in milliseconds.
+   */
+  public long getMaxDurationMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(this.maxNanos.get());
+  }
+
+  @Override
+  public String toString() {
+    long finished = this.completed.get() + this.failed.get();
+    long average = (finished == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(this.totalNanos.get() / finished);
+    return this.name
+        + ": submitted=" + this.submitted.get()
+        + ", completed=" + this.completed.get()
+        + ", failed=" + this.failed.get()
+        + ", avg_ms=" + average
+        + ", max_ms=" + getMaxDurationMillis();
+  }
+
+}
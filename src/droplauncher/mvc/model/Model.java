@@ -19,15 +19,18 @@ package droplauncher.mvc.model;
 
 import adakite.util.AdakiteUtils;
 import droplauncher.bwapi.BWAPI;
+import droplauncher.bwapi.bot.BotCatalog;
+import droplauncher.bwapi.bot.ImportPipeline;
+import droplauncher.bwapi.snapshot.SnapshotStore;
 import droplauncher.bwheadless.BWHeadless;
 import droplauncher.mvc.view.View;
 import droplauncher.starcraft.Starcraft;
 import droplauncher.DropLauncher;
-import droplauncher.mvc.view.ExceptionAlert;
+import droplauncher.io.ChecksumService;
+import droplauncher.ui.Errors;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import javafx.application.Platform;
 
 public class Model {
 
@@ -35,37 +38,62 @@ public class Model {
   public static final int AUTO_REJOIN_DELAY = 3500; /* milliseconds */
 
   private static ProgramSettings SETTINGS = new ProgramSettings();
+  private static final ChecksumService CHECKSUM_SERVICE = new ChecksumService(DropLauncher.CACHE_DIRECTORY);
 
   private BWHeadless bwheadless;
+  private SnapshotStore snapshotStore;
+  private SettingsWatcher settingsWatcher;
+  private ImportPipeline importPipeline;
+  private BotCatalog botCatalog;
 
   public Model() {
     this.bwheadless = new BWHeadless();
+    this.snapshotStore = new SnapshotStore();
+    this.settingsWatcher = new SettingsWatcher(DropLauncher.SETTINGS_FILE, Model.SETTINGS);
+    this.importPipeline = new ImportPipeline(Model.CHECKSUM_SERVICE, DropLauncher.TEMP_DIRECTORY);
+    this.botCatalog = new BotCatalog(Model.CHECKSUM_SERVICE, this.importPipeline, BotCatalog.DEFAULT_FILE);
   }
 
   public BWHeadless getBWHeadless() {
     return this.bwheadless;
   }
 
+  public SnapshotStore getSnapshotStore() {
+    return this.snapshotStore;
+  }
+
+  public SettingsWatcher getSettingsWatcher() {
+    return this.settingsWatcher;
+  }
+
+  public ImportPipeline getImportPipeline() {
+    return this.importPipeline;
+  }
+
+  public BotCatalog getBotCatalog() {
+    return this.botCatalog;
+  }
+
   public static ProgramSettings getSettings() {
     return Model.SETTINGS;
   }
 
+  public static ChecksumService getChecksumService() {
+    return Model.CHECKSUM_SERVICE;
+  }
+
   public void ensureDefaultSettings() {
     if (AdakiteUtils.fileExists(DropLauncher.SETTINGS_FILE)) {
       try {
-        DropLauncher.getSettings().parse(DropLauncher.SETTINGS_FILE);
+        Model.getSettings().load(DropLauncher.SETTINGS_FILE);
       } catch (Exception ex) {
-        Platform.runLater(() -> {
-          new ExceptionAlert().showAndWait("Failed to parse settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
-        });
+        Errors.report("Failed to parse settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
       }
     } else {
       try {
         AdakiteUtils.createFile(DropLauncher.SETTINGS_FILE);
       } catch (Exception ex) {
-        Platform.runLater(() -> {
-          new ExceptionAlert().showAndWait("Failed to create settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
-        });
+        Errors.report("Failed to create settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
       }
     }
 
@@ -78,9 +106,7 @@ public class Model {
           Files.copy(DropLauncher.SETTINGS_FILE, Paths.get(DropLauncher.SETTINGS_FILE.toString() + ".bak"), StandardCopyOption.REPLACE_EXISTING);
           Model.getSettings().setValue(DropLauncher.PropertyKey.VERSION.toString(), DropLauncher.PROGRAM_VERSION);
         } catch (Exception ex) {
-          Platform.runLater(() -> {
-            new ExceptionAlert().showAndWait("Failed to create backup of settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
-          });
+          Errors.report("Failed to create backup of settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
         }
       }
     }
@@ -90,6 +116,15 @@ public class Model {
     if (!Model.getSettings().hasValue(BWAPI.PropertyKey.COPY_WRITE_READ.toString())) {
       Model.getSettings().setEnabled(BWAPI.PropertyKey.COPY_WRITE_READ.toString(), true);
     }
+    if (!Model.getSettings().hasValue(BWAPI.PropertyKey.MIRROR_WRITE_READ.toString())) {
+      Model.getSettings().setEnabled(BWAPI.PropertyKey.MIRROR_WRITE_READ.toString(), false);
+    }
+    if (!Model.getSettings().hasValue(BWAPI.PropertyKey.VERIFY_COPY_CONTENTS.toString())) {
+      Model.getSettings().setEnabled(BWAPI.PropertyKey.VERIFY_COPY_CONTENTS.toString(), false);
+    }
+    if (!Model.getSettings().hasValue(BWAPI.PropertyKey.SNAPSHOT_WRITE.toString())) {
+      Model.getSettings().setEnabled(BWAPI.PropertyKey.SNAPSHOT_WRITE.toString(), false);
+    }
     if (!Model.getSettings().hasValue(BWAPI.PropertyKey.WARN_UNKNOWN_BWAPI_DLL.toString())) {
       Model.getSettings().setEnabled(BWAPI.PropertyKey.WARN_UNKNOWN_BWAPI_DLL.toString(), true);
     }
@@ -128,11 +163,9 @@ public class Model {
     }
 
     try {
-      DropLauncher.getSettings().store(DropLauncher.SETTINGS_FILE);
+      Model.getSettings().flush();
     } catch (Exception ex) {
-      Platform.runLater(() -> {
-        new ExceptionAlert().showAndWait("Failed to save settings to local file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
-      });
+      Errors.report("Failed to save settings to local file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
     }
   }
 
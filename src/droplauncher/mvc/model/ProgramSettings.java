@@ -19,53 +19,290 @@ package droplauncher.mvc.model;
 
 import droplauncher.DropLauncher;
 import droplauncher.bwapi.BWAPI;
+import droplauncher.bwapi.IniOverlay;
 import droplauncher.bwheadless.BWHeadless;
-import droplauncher.mvc.view.ExceptionAlert;
+import droplauncher.io.AtomicFile;
+import droplauncher.io.FileStamp;
 import droplauncher.mvc.view.View;
 import droplauncher.starcraft.Starcraft;
+import droplauncher.ui.Errors;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
-import javafx.application.Platform;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Class for accessing the program settings.
+ *
+ * Every known key is registered with its INI section when this class is
+ * loaded, so looking up a key does not scan the property key enums.
+ * Values and their boolean interpretation are cached after the first
+ * read and updated on every change. Code which needs a consistent view
+ * of several settings, e.g. a launch, should capture a
+ * {@link SettingsSnapshot} once via {@link #snapshot()}.
+ *
+ * Changes are applied in memory and persisted write-behind: the first
+ * change marks the settings dirty and schedules a flush on a background
+ * thread, and every change made before that flush runs is written along
+ * with it. A flush copies the changed values while holding the settings
+ * lock and applies them to the text of the current file without the
+ * lock, so reading and changing settings never waits for disk I/O. The
+ * settings file is replaced via a temporary file and an atomic rename so
+ * that a crash never leaves a partial file behind. Pending changes are
+ * flushed on shutdown.
+ *
+ * Edits made to the settings file by other programs are applied via
+ * {@link #applyExternalChanges(java.util.Map)} (see {@link SettingsWatcher}).
+ * If a key was changed both externally and in this program since the
+ * last flush, the change made in this program wins.
+ */
 public class ProgramSettings {
 
+  /**
+   * Interface for receiving notifications about changed settings.
+   * Listeners are called on the thread which made the change.
+   */
+  public interface ChangeListener {
+
+    /**
+     * Called after the specified key has changed.
+     *
+     * @param key specified key
+     * @param oldValue previous value or null if the key had no value
+     * @param newValue new value or null if the key has no value
+     */
+    void settingChanged(String key, String oldValue, String newValue);
+
+  }
+
+  private static final Logger LOGGER = Logger.getLogger(ProgramSettings.class.getName());
+
+  private static final long FLUSH_DELAY = 500; /* milliseconds */
+
+  private static final Map<String, String> SECTIONS = createSectionMap(); /* key -> section */
+
+  private final Object lock;
+  private final Object flushLock; /* serializes flushes, which must not hold the settings lock during I/O */
+  private final ScheduledExecutorService writer;
+  private boolean isDirty;
+  private boolean isFlushScheduled;
+  private final Set<String> pendingKeys; /* keys changed in this program since the last flush */
+  private volatile FileStamp lastFlushStamp;
+
+  private final Map<String, String> resolvedSections; /* key as passed by the caller -> section */
+  private final Map<String, CachedValue> values; /* key -> value */
+  private final List<ChangeListener> listeners;
+
+  /**
+   * Container class for a cached value since {@link ConcurrentHashMap}
+   * does not accept null values.
+   */
+  private static class CachedValue {
+
+    private final String value;
+    private final boolean isEnabled;
+
+    private CachedValue(String value, boolean isEnabled) {
+      this.value = value;
+      this.isEnabled = isEnabled;
+    }
+
+  }
+
   public ProgramSettings() {
-    /* Do nothing. */
+    this.lock = DropLauncher.getSettings();
+    this.flushLock = new Object();
+    this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "settings-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.isDirty = false;
+    this.isFlushScheduled = false;
+    this.pendingKeys = new HashSet<>();
+    this.lastFlushStamp = null;
+    this.resolvedSections = new ConcurrentHashMap<>();
+    this.values = new ConcurrentHashMap<>();
+    this.listeners = new CopyOnWriteArrayList<>();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        flush();
+      } catch (Exception ex) {
+        LOGGER.log(Level.SEVERE, "failed to flush settings on shutdown", ex);
+      }
+    }, "settings-shutdown-flush"));
+  }
+
+  private static Map<String, String> createSectionMap() {
+    Map<String, String> sections = new HashMap<>();
+    for (DropLauncher.PropertyKey val : DropLauncher.PropertyKey.values()) {
+      sections.putIfAbsent(val.toString(), "droplauncher");
+    }
+    for (BWAPI.PropertyKey val : BWAPI.PropertyKey.values()) {
+      sections.putIfAbsent(val.toString(), "bwapi");
+    }
+    for (View.PropertyKey val : View.PropertyKey.values()) {
+      sections.putIfAbsent(val.toString(), "ui");
+    }
+    for (Starcraft.PropertyKey val : Starcraft.PropertyKey.values()) {
+      sections.putIfAbsent(val.toString(), "starcraft");
+    }
+    for (BWHeadless.PropertyKey val : BWHeadless.PropertyKey.values()) {
+      sections.putIfAbsent(val.toString(), "bwh");
+    }
+    return Collections.unmodifiableMap(sections);
+  }
+
+  /**
+   * Returns all registered keys.
+   */
+  public static Set<String> getKeys() {
+    return SECTIONS.keySet();
+  }
+
+  /**
+   * Returns the INI section of the specified registered key or null if
+   * the key is not registered.
+   *
+   * @param key specified key
+   */
+  public static String getRegisteredSection(String key) {
+    return SECTIONS.get(key);
   }
 
   private String getSection(String uniqueKey) {
-    uniqueKey = uniqueKey.toLowerCase(Locale.US);
+    String section = this.resolvedSections.get(uniqueKey);
+    if (section != null) {
+      return section;
+    }
 
-    for (DropLauncher.PropertyKey val : DropLauncher.PropertyKey.values()) {
-      if (uniqueKey.equals(val.toString())) {
-        return "droplauncher";
+    String key = uniqueKey.toLowerCase(Locale.US);
+    section = SECTIONS.get(key);
+    if (section == null) {
+      /* Keys which carry a prefix in front of a bwheadless key. */
+      for (BWHeadless.PropertyKey val : BWHeadless.PropertyKey.values()) {
+        if (key.endsWith(val.toString())) {
+          section = "bwh";
+          break;
+        }
       }
     }
+    if (section == null) {
+      throw new IllegalArgumentException("not found: uniqueKey=" + key);
+    }
+    this.resolvedSections.put(uniqueKey, section);
+    return section;
+  }
 
-    for (BWAPI.PropertyKey val : BWAPI.PropertyKey.values()) {
-      if (uniqueKey.equals(val.toString())) {
-        return "bwapi";
-      }
+  private CachedValue getCachedValue(String key) {
+    CachedValue cached = this.values.get(key);
+    if (cached != null) {
+      return cached;
     }
+    String section = getSection(key);
+    synchronized (this.lock) {
+      cached = readValue(section, key);
+      this.values.put(key, cached);
+    }
+    return cached;
+  }
 
-    for (View.PropertyKey val : View.PropertyKey.values()) {
-      if (uniqueKey.equals(val.toString())) {
-        return "ui";
-      }
+  /* Must be called while holding the lock. */
+  private static CachedValue readValue(String section, String key) {
+    if (!DropLauncher.getSettings().hasValue(section, key)) {
+      return new CachedValue(null, false);
     }
+    return new CachedValue(
+        DropLauncher.getSettings().getValue(section, key),
+        DropLauncher.getSettings().isEnabled(section, key)
+    );
+  }
 
-    for (Starcraft.PropertyKey val : Starcraft.PropertyKey.values()) {
-      if (uniqueKey.equals(val.toString())) {
-        return "starcraft";
-      }
+  /**
+   * Parses the specified settings file into memory, replacing the
+   * current values, and notifies listeners of every changed key.
+   *
+   * @param file specified settings file
+   * @throws Exception if the file could not be parsed
+   */
+  public void load(Path file) throws Exception {
+    Map<String, String> before;
+    Map<String, String> after;
+    synchronized (this.lock) {
+      before = snapshot().getValues();
+      DropLauncher.getSettings().parse(file);
+      this.values.clear();
+      after = snapshot().getValues();
     }
+    for (String key : SECTIONS.keySet()) {
+      fireChanged(key, before.get(key), after.get(key));
+    }
+  }
 
-    for (BWHeadless.PropertyKey val : BWHeadless.PropertyKey.values()) {
-      if (uniqueKey.endsWith(val.toString())) {
-        return "bwh";
+  /**
+   * Returns an immutable copy of the values of all registered keys.
+   */
+  public SettingsSnapshot snapshot() {
+    Map<String, String> snapshotValues = new HashMap<>();
+    Map<String, Boolean> snapshotEnabled = new HashMap<>();
+    synchronized (this.lock) {
+      for (Map.Entry<String, String> entry : SECTIONS.entrySet()) {
+        CachedValue cached = this.values.get(entry.getKey());
+        if (cached == null) {
+          cached = readValue(entry.getValue(), entry.getKey());
+          this.values.put(entry.getKey(), cached);
+        }
+        if (cached.value != null) {
+          snapshotValues.put(entry.getKey(), cached.value);
+          snapshotEnabled.put(entry.getKey(), cached.isEnabled);
+        }
       }
     }
+    return new SettingsSnapshot(snapshotValues, snapshotEnabled);
+  }
+
+  /**
+   * Adds the specified listener.
+   *
+   * @param listener specified listener
+   */
+  public void addChangeListener(ChangeListener listener) {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Removes the specified listener.
+   *
+   * @param listener specified listener
+   */
+  public void removeChangeListener(ChangeListener listener) {
+    this.listeners.remove(listener);
+  }
 
-    throw new IllegalArgumentException("not found: uniqueKey=" + uniqueKey);
+  private void fireChanged(String key, String oldValue, String newValue) {
+    if (Objects.equals(oldValue, newValue)) {
+      return;
+    }
+    for (ChangeListener listener : this.listeners) {
+      listener.settingChanged(key, oldValue, newValue);
+    }
   }
 
   /**
@@ -75,7 +312,14 @@ public class ProgramSettings {
    * @throws IllegalStateException if the specified key does not exist
    */
   public String getValue(String key) {
-    return DropLauncher.getSettings().getValue(getSection(key), key);
+    String value = getCachedValue(key).value;
+    if (value == null) {
+      /* Let the underlying settings report the missing key. */
+      synchronized (this.lock) {
+        return DropLauncher.getSettings().getValue(getSection(key), key);
+      }
+    }
+    return value;
   }
 
   /**
@@ -84,25 +328,161 @@ public class ProgramSettings {
    * @param key specified key
    */
   public boolean hasValue(String key) {
-    return DropLauncher.getSettings().hasValue(getSection(key), key);
+    return getCachedValue(key).value != null;
   }
 
   /**
    * Sets the specified key to the specified value regardless if
-   * the specified key existed previously.
+   * the specified key existed previously. The settings file is updated
+   * in the background.
    *
    * @param key specified key
    * @param val specified value
    */
   public void setValue(String key, String val) {
-    DropLauncher.getSettings().setValue(getSection(key), key, val);
-    try {
-      DropLauncher.getSettings().store(DropLauncher.SETTINGS_FILE);
-    } catch (Exception ex) {
-      Platform.runLater(() -> {
-        new ExceptionAlert().showAndWait("Failed to update settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
-      });
+    String section = getSection(key);
+    String oldValue;
+    String newValue;
+    synchronized (this.lock) {
+      oldValue = getCachedValue(key).value;
+      DropLauncher.getSettings().setValue(section, key, val);
+      CachedValue cached = readValue(section, key);
+      this.values.put(key, cached);
+      newValue = cached.value;
+      if (Objects.equals(oldValue, newValue)) {
+        return;
+      }
+      this.isDirty = true;
+      this.pendingKeys.add(key.toLowerCase(Locale.US));
+      if (!this.isFlushScheduled) {
+        this.isFlushScheduled = true;
+        this.writer.schedule(() -> {
+          try {
+            flush();
+          } catch (Exception ex) {
+            Errors.report("Failed to update settings file: " + DropLauncher.SETTINGS_FILE.toString(), ex);
+          }
+        }, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+      }
+    }
+    fireChanged(key.toLowerCase(Locale.US), oldValue, newValue);
+  }
+
+  /**
+   * Writes pending changes to the settings file. Does nothing if there
+   * are no pending changes.
+   *
+   * Only keys with pending changes and keys which are missing from the
+   * file are written. Every other line of the file is kept as-is. The
+   * file is read first and external edits of keys without pending changes
+   * are applied in memory, so an edit which has not been picked up by
+   * {@link SettingsWatcher} yet is neither overwritten nor lost.
+   *
+   * @throws Exception if the settings file could not be written
+   */
+  public void flush() throws Exception {
+    synchronized (this.flushLock) {
+      synchronized (this.lock) {
+        this.isFlushScheduled = false;
+        if (!this.isDirty) {
+          return;
+        }
+        this.isDirty = false;
+      }
+
+      Path file = DropLauncher.SETTINGS_FILE;
+      try {
+        String text = Files.exists(file) ? new String(Files.readAllBytes(file), Charset.defaultCharset()) : "";
+        Map<String, String> fileValues = SettingsWatcher.parse(new BufferedReader(new StringReader(text)));
+        applyExternalChanges(fileValues);
+
+        Map<String, String> changed = new HashMap<>(); /* pending key -> value */
+        Map<String, String> current;
+        synchronized (this.lock) {
+          for (String key : this.pendingKeys) {
+            String value = getCachedValue(key).value;
+            if (value != null) {
+              changed.put(key, value);
+            }
+          }
+          current = snapshot().getValues();
+        }
+
+        IniOverlay overlay = new IniOverlay();
+        for (Map.Entry<String, String> entry : changed.entrySet()) {
+          overlay.setValue(getSection(entry.getKey()), entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+          if (!changed.containsKey(entry.getKey()) && !fileValues.containsKey(entry.getKey())) {
+            overlay.setValue(getSection(entry.getKey()), entry.getKey(), entry.getValue());
+          }
+        }
+        AtomicFile.write(file, overlay.render(text).getBytes(Charset.defaultCharset()));
+        FileStamp stamp = FileStamp.of(file);
+        synchronized (this.lock) {
+          /* Keys which were changed again during the write stay pending for the next flush. */
+          for (Map.Entry<String, String> entry : changed.entrySet()) {
+            if (Objects.equals(getCachedValue(entry.getKey()).value, entry.getValue())) {
+              this.pendingKeys.remove(entry.getKey());
+            }
+          }
+          this.lastFlushStamp = stamp;
+        }
+      } catch (Exception ex) {
+        /* Keep the changes pending so that the next flush retries them. */
+        synchronized (this.lock) {
+          this.isDirty = true;
+        }
+        throw ex;
+      }
+    }
+  }
+
+  /**
+   * Tests whether the specified file revision was written by the last
+   * flush of this program.
+   *
+   * @param stamp specified file revision
+   */
+  public boolean isOwnWrite(FileStamp stamp) {
+    return stamp != null && stamp.equals(this.lastFlushStamp);
+  }
+
+  /**
+   * Applies values read from an externally edited settings file. Only
+   * registered keys whose value differs are applied, and keys with
+   * changes pending from this program are skipped. Applied values are not
+   * written back to the file. Keys which were removed from the file are
+   * kept in memory.
+   *
+   * @param fileValues specified values keyed by registered key
+   * @return the keys which were changed
+   */
+  public List<String> applyExternalChanges(Map<String, String> fileValues) {
+    List<String> changed = new ArrayList<>();
+    List<String[]> events = new ArrayList<>();
+    synchronized (this.lock) {
+      for (Map.Entry<String, String> entry : fileValues.entrySet()) {
+        String key = entry.getKey();
+        String section = SECTIONS.get(key);
+        if (section == null || this.pendingKeys.contains(key)) {
+          continue;
+        }
+        String oldValue = getCachedValue(key).value;
+        if (Objects.equals(oldValue, entry.getValue())) {
+          continue;
+        }
+        DropLauncher.getSettings().setValue(section, key, entry.getValue());
+        CachedValue cached = readValue(section, key);
+        this.values.put(key, cached);
+        changed.add(key);
+        events.add(new String[] {key, oldValue, cached.value});
+      }
+    }
+    for (String[] event : events) {
+      fireChanged(event[0], event[1], event[2]);
     }
+    return changed;
   }
 
   /**
@@ -112,7 +492,7 @@ public class ProgramSettings {
    * @param key specified key
    */
   public boolean isEnabled(String key) {
-    return DropLauncher.getSettings().isEnabled(getSection(key), key);
+    return getCachedValue(key).isEnabled;
   }
 
   /**
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.mvc.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable copy of the program settings at a point in time.
+ *
+ * @see ProgramSettings#snapshot()
+ */
+public class SettingsSnapshot {
+
+  private final Map<String, String> values;
+  private final Map<String, Boolean> enabled;
+
+  SettingsSnapshot(Map<String, String> values, Map<String, Boolean> enabled) {
+    this.values = Collections.unmodifiableMap(new HashMap<>(values));
+    this.enabled = Collections.unmodifiableMap(new HashMap<>(enabled));
+  }
+
+  /**
+   * Returns the associated value with the specified key.
+   *
+   * @param key specified key
+   * @throws IllegalStateException if the specified key does not have a value
+   */
+  public String getValue(String key) {
+    String value = this.values.get(key);
+    if (value == null) {
+      throw new IllegalStateException("key not found: " + key);
+    }
+    return value;
+  }
+
+  /**
+   * Tests whether the specified key has an associated value.
+   *
+   * @param key specified key
+   */
+  public boolean hasValue(String key) {
+    return this.values.containsKey(key);
+  }
+
+  /**
+   * Tests whether the specified key has a TRUE or FALSE value. Returns
+   * FALSE if the specified key does not exist.
+   *
+   * @param key specified key
+   */
+  public boolean isEnabled(String key) {
+    Boolean val = this.enabled.get(key);
+    return val != null && val;
+  }
+
+  /**
+   * Returns all values of this snapshot keyed by setting key.
+   */
+  public Map<String, String> getValues() {
+    return this.values;
+  }
+
+  /**
+   * Returns a copy of this snapshot in which the specified values replace
+   * the values of this snapshot. A null value removes the key. The
+   * program settings are not changed.
+   *
+   * @param overlay specified values keyed by setting key
+   */
+  public SettingsSnapshot overlay(Map<String, String> overlay) {
+    if (overlay == null || overlay.isEmpty()) {
+      return this;
+    }
+    Map<String, String> overlayValues = new HashMap<>(this.values);
+    Map<String, Boolean> overlayEnabled = new HashMap<>(this.enabled);
+    for (Map.Entry<String, String> entry : overlay.entrySet()) {
+      String key = entry.getKey().toLowerCase(Locale.US);
+      if (entry.getValue() == null) {
+        overlayValues.remove(key);
+        overlayEnabled.remove(key);
+      } else {
+        overlayValues.put(key, entry.getValue());
+        overlayEnabled.put(key, Boolean.parseBoolean(entry.getValue().trim()));
+      }
+    }
+    return new SettingsSnapshot(overlayValues, overlayEnabled);
+  }
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.mvc.model;
+
+import droplauncher.io.FileStamp;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for applying external edits of the settings file while this
+ * program is running.
+ *
+ * The parent directory of the settings file is watched on a background
+ * thread. After an edit, the file is read and only the registered keys
+ * whose values differ from the current settings are applied via
+ * {@link ProgramSettings#applyExternalChanges(java.util.Map)}, which also
+ * defines how conflicts with unflushed changes are resolved. Edits caused
+ * by this program's own flushes are recognized by their file stamp and
+ * ignored.
+ */
+public class SettingsWatcher {
+
+  private static final Logger LOGGER = Logger.getLogger(SettingsWatcher.class.getName());
+
+  private static final long SETTLE_DELAY = 200; /* milliseconds to wait for an editor to finish writing */
+
+  private final Path file;
+  private final ProgramSettings settings;
+  private Consumer<List<String>> onChange;
+  private WatchService watchService;
+  private Thread thread;
+
+  public SettingsWatcher(Path file, ProgramSettings settings) {
+    if (file == null || settings == null) {
+      throw new IllegalArgumentException("file and settings cannot be null");
+    }
+    this.file = file.toAbsolutePath().normalize();
+    this.settings = settings;
+    this.onChange = null;
+    this.watchService = null;
+    this.thread = null;
+  }
+
+  /**
+   * Sets the callback which receives the keys changed by an external
+   * edit. The callback is invoked on the watcher thread.
+   *
+   * @param onChange specified callback
+   */
+  public SettingsWatcher setOnChange(Consumer<List<String>> onChange) {
+    this.onChange = onChange;
+    return this;
+  }
+
+  /**
+   * Starts watching the settings file. Does nothing if already started.
+   *
+   * @throws IOException if the directory cannot be watched
+   */
+  public synchronized void start() throws IOException {
+    if (this.thread != null) {
+      return;
+    }
+    Path directory = this.file.getParent();
+    this.watchService = FileSystems.getDefault().newWatchService();
+    directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::run, "settings-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Stops watching the settings file.
+   */
+  public synchronized void stop() {
+    if (this.thread == null) {
+      return;
+    }
+    try {
+      this.watchService.close();
+    } catch (IOException ex) {
+      LOGGER.log(Level.FINE, "failed to close watch service", ex);
+    }
+    this.thread = null;
+    this.watchService = null;
+  }
+
+  private void run() {
+    WatchService service = this.watchService;
+    Path filename = this.file.getFileName();
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        boolean isAffected = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW || filename.equals(event.context())) {
+            isAffected = true;
+          }
+        }
+        key.reset();
+        if (!isAffected) {
+          continue;
+        }
+
+        /* Coalesce the burst of events caused by a single save. */
+        Thread.sleep(SETTLE_DELAY);
+        WatchKey pending;
+        while ((pending = service.poll()) != null) {
+          pending.pollEvents();
+          pending.reset();
+        }
+
+        reload();
+      }
+    } catch (ClosedWatchServiceException | InterruptedException ex) {
+      /* Stopped. */
+    }
+  }
+
+  private void reload() {
+    try {
+      if (!Files.isRegularFile(this.file) || this.settings.isOwnWrite(FileStamp.of(this.file))) {
+        return;
+      }
+      List<String> changed = this.settings.applyExternalChanges(read(this.file));
+      if (!changed.isEmpty() && this.onChange != null) {
+        this.onChange.accept(changed);
+      }
+    } catch (IOException ex) {
+      /* The file may be mid-write. The next event triggers another attempt. */
+      LOGGER.log(Level.FINE, "failed to reload settings file: " + this.file.toString(), ex);
+    }
+  }
+
+  /**
+   * Reads the registered keys from the specified INI file.
+   *
+   * @see #parse(java.io.BufferedReader)
+   */
+  private static Map<String, String> read(Path file) throws IOException {
+    try (BufferedReader br = Files.newBufferedReader(file, Charset.defaultCharset())) {
+      return parse(br);
+    }
+  }
+
+  /**
+   * Reads the registered keys from the specified INI text. Keys are only
+   * accepted in the section they are registered to.
+   *
+   * @param br specified reader of the INI text
+   * @throws IOException if an I/O error occurs
+   */
+  static Map<String, String> parse(BufferedReader br) throws IOException {
+    Map<String, String> values = new HashMap<>();
+    String section = "";
+    String line;
+    while ((line = br.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith(";") || line.startsWith("#")) {
+        continue;
+      }
+      if (line.startsWith("[") && line.endsWith("]")) {
+        section = line.substring(1, line.length() - 1).trim().toLowerCase(Locale.US);
+        continue;
+      }
+      int eq = line.indexOf('=');
+      if (eq < 1) {
+        continue;
+      }
+      String key = line.substring(0, eq).trim().toLowerCase(Locale.US);
+      if (section.equals(ProgramSettings.getRegisteredSection(key))) {
+        values.put(key, line.substring(eq + 1).trim());
+      }
+    }
+    return values;
+  }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.mvc.view;
+
+import droplauncher.ui.ErrorReporter;
+import javafx.application.Platform;
+
+/**
+ * Reporter which displays errors as an {@link ExceptionAlert} on the
+ * JavaFX application thread.
+ */
+public class AlertErrorReporter implements ErrorReporter {
+
+  @Override
+  public void report(String message, Exception ex) {
+    Platform.runLater(() -> {
+      new ExceptionAlert().showAndWait(message, ex);
+    });
+  }
+
+}
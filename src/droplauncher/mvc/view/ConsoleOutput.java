@@ -17,7 +17,6 @@
 
 package droplauncher.mvc.view;
 
-import adakite.exception.InvalidStateException;
 import adakite.util.AdakiteUtils;
 import adakite.windows.exception.WindowsException;
 import droplauncher.DropLauncher;
@@ -101,56 +100,16 @@ public class ConsoleOutput {
     /* Test for auto-eject option. */
     if ((message.startsWith(View.MessagePrefix.BWHEADLESS.get() + View.Message.GAME_HAS_ENDED.toString())
           || message.startsWith(View.MessagePrefix.BWHEADLESS.get() + View.Message.GAME_OVER.toString()))
-        && Model.getSettings().hasValue(DropLauncher.PropertyKey.AUTO_EJECT_BOT.toString())
         && Model.getSettings().isEnabled(DropLauncher.PropertyKey.AUTO_EJECT_BOT.toString())) {
-      try {
-        Thread.sleep(Model.AUTO_EJECT_DELAY);
-      } catch (InterruptedException ex) {
-        /* Do nothing. */
-      } catch (Exception ex) {
-        Platform.runLater(() -> {
-          new ExceptionAlert().showAndWait("something went wrong with the auto-eject timer", ex);
-        });
-      }
-      try {
-        this.controller.stopBWHeadless();
-      } catch (Exception ex) {
-        Platform.runLater(() -> {
-          new ExceptionAlert().showAndWait("something went wrong with auto-ejecting the bot", ex);
-        });
-      }
+      this.controller.autoEject();
     /* Test for auto-rejoin option. */
     } else if (message.startsWith(View.MessagePrefix.DROPLAUNCHER.get() + View.Message.BOT_EJECTED.toString())
-        && Model.getSettings().hasValue(DropLauncher.PropertyKey.AUTO_BOT_REJOIN.toString())
         && Model.getSettings().isEnabled(DropLauncher.PropertyKey.AUTO_BOT_REJOIN.toString())) {
-      try {
-        Thread.sleep(Model.AUTO_REJOIN_DELAY);
-      } catch (InterruptedException ex) {
-        /* Do nothing. */
-      } catch (Exception ex) {
-        Platform.runLater(() -> {
-          new ExceptionAlert().showAndWait("something went wrong with the auto-rejoin timer", ex);
-        });
-      }
-      //TODO: Auto-rejoin fails if BWAPI.dll is unknown because displaying the
-      //      YesNoDialog is not within the JavaFX thread when the call is invoked.
-      //      Using "Platform.runLater" is a temporary fix for the issue.
-      Platform.runLater(() -> {
-        try {
-          this.controller.startBWHeadless();
-        } catch (Exception ex) {
-          new ExceptionAlert().showAndWait("something went wrong with auto-rejoin", ex);
-        }
-      });
+      this.controller.autoRejoin();
     /* Test for "failed to load module" error. */
     } else if (message.contains(View.Message.ERROR_126.toString())) {
       Platform.runLater(() -> {
-        try {
-          this.controller.stopBWHeadless();
-        } catch (InvalidStateException ex) {
-          /* Do nothing. */
-          //TODO: Do something?
-        }
+        this.controller.stopBWHeadless();
         String exceptionMessage = WindowsException.SystemError.ERROR_MOD_NOT_FOUND.toString()
             + AdakiteUtils.newline(2)
             + "This error may be caused by missing Microsoft Visual C++ runtime files if you are trying to load BWAPI 4.2.0 or newer."
@@ -161,12 +120,7 @@ public class ConsoleOutput {
     /* Test for "operation requires elevation" error. */
     } else if (message.contains(View.Message.ERROR_740.toString())) {
       Platform.runLater(() -> {
-        try {
-          this.controller.stopBWHeadless();
-        } catch (InvalidStateException ex) {
-          /* Do nothing. */
-          //TODO: Do something?
-        }
+        this.controller.stopBWHeadless();
         String exceptionMessage = WindowsException.SystemError.ERROR_ELEVATION_REQUIRED.toString()
             + AdakiteUtils.newline(2)
             + "This error may be caused by trying to start StarCraft with administrative compatibility settings."
@@ -17,7 +17,9 @@
 
 package droplauncher.mvc.view;
 
-public class ConsoleOutputWrapper {
+import droplauncher.ui.ConsoleSink;
+
+public class ConsoleOutputWrapper implements ConsoleSink {
 
   private ConsoleOutput consoleOutput;
 
@@ -27,10 +29,12 @@ public class ConsoleOutputWrapper {
     this.consoleOutput = consoleOutput;
   }
 
+  @Override
   public void print(String str) {
     this.consoleOutput.print(str);
   }
 
+  @Override
   public void println(String line) {
     this.consoleOutput.println(line);
   }
@@ -24,13 +24,16 @@ import droplauncher.bwheadless.BWHeadless;
 import droplauncher.mvc.model.Model;
 import droplauncher.starcraft.Starcraft;
 import java.io.File;
+import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.Control;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Region;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
@@ -46,6 +49,9 @@ public class SettingsWindow {
   private Scene scene;
 
   private CheckBox chkBwapiWriteRead;
+  private CheckBox chkBwapiMirrorWriteRead;
+  private CheckBox chkBwapiVerifyCopy;
+  private CheckBox chkBwapiSnapshotWrite;
   private CheckBox chkCleanStarcraftDirectory;
   private CheckBox chkWarnBwapiDll;
   private Label lblChangeStarcraftExe;
@@ -66,7 +72,31 @@ public class SettingsWindow {
     this.chkBwapiWriteRead.setOnAction(e -> {
       Model.getSettings().setEnabled(BWAPI.PropertyKey.COPY_WRITE_READ.toString(), this.chkBwapiWriteRead.isSelected());
     });
-    this.chkBwapiWriteRead.setTooltip(createTooltip("Copy contents of `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.WRITE_DIRECTORY).toString() + "' to `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.READ_DIRECTORY.toString()) + "' after eject", this.chkBwapiWriteRead));
+    installTooltip(this.chkBwapiWriteRead, "Copy contents of `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.WRITE_DIRECTORY).toString() + "' to `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.READ_DIRECTORY.toString()) + "' after eject");
+
+    this.chkBwapiMirrorWriteRead = new CheckBox();
+    this.chkBwapiMirrorWriteRead.setText("Delete files from `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.READ_DIRECTORY).toString() + "' which were removed from `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.WRITE_DIRECTORY).toString() + "'");
+    this.chkBwapiMirrorWriteRead.setSelected(Model.getSettings().isEnabled(BWAPI.PropertyKey.MIRROR_WRITE_READ.toString()));
+    this.chkBwapiMirrorWriteRead.setOnAction(e -> {
+      Model.getSettings().setEnabled(BWAPI.PropertyKey.MIRROR_WRITE_READ.toString(), this.chkBwapiMirrorWriteRead.isSelected());
+    });
+    installTooltip(this.chkBwapiMirrorWriteRead, "When copying after eject, also delete files from `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.READ_DIRECTORY).toString() + "' that no longer exist in `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.WRITE_DIRECTORY).toString() + "'.");
+
+    this.chkBwapiVerifyCopy = new CheckBox();
+    this.chkBwapiVerifyCopy.setText("Compare file contents before copying files with a different modification time");
+    this.chkBwapiVerifyCopy.setSelected(Model.getSettings().isEnabled(BWAPI.PropertyKey.VERIFY_COPY_CONTENTS.toString()));
+    this.chkBwapiVerifyCopy.setOnAction(e -> {
+      Model.getSettings().setEnabled(BWAPI.PropertyKey.VERIFY_COPY_CONTENTS.toString(), this.chkBwapiVerifyCopy.isSelected());
+    });
+    installTooltip(this.chkBwapiVerifyCopy, "When copying after eject, files which have the same size but a different modification time are only copied if their contents differ. Useful for bots which rewrite unchanged learning files.");
+
+    this.chkBwapiSnapshotWrite = new CheckBox();
+    this.chkBwapiSnapshotWrite.setText("Keep a snapshot of `" + BWAPI.ROOT_DIRECTORY.resolve(BWAPI.WRITE_DIRECTORY).toString() + "' after every eject");
+    this.chkBwapiSnapshotWrite.setSelected(Model.getSettings().isEnabled(BWAPI.PropertyKey.SNAPSHOT_WRITE.toString()));
+    this.chkBwapiSnapshotWrite.setOnAction(e -> {
+      Model.getSettings().setEnabled(BWAPI.PropertyKey.SNAPSHOT_WRITE.toString(), this.chkBwapiSnapshotWrite.isSelected());
+    });
+    installTooltip(this.chkBwapiSnapshotWrite, "When enabled, the bot's learning data is saved after every game so that it can be restored later via the \"" + View.MenuText.FILE.toString() + " > " + View.MenuText.RESTORE_SNAPSHOT.toString() + "\" menu option. Unchanged files are only stored once.");
 
     this.chkCleanStarcraftDirectory = new CheckBox();
     this.chkCleanStarcraftDirectory.setText("Clean StarCraft directory before closing program");
@@ -74,7 +104,7 @@ public class SettingsWindow {
     this.chkCleanStarcraftDirectory.setOnAction(e -> {
       Model.getSettings().setEnabled(Starcraft.PropertyKey.CLEAN_SC_DIR.toString(), this.chkCleanStarcraftDirectory.isSelected());
     });
-    this.chkCleanStarcraftDirectory.setTooltip(createTooltip("When enabled, " + DropLauncher.PROGRAM_NAME + " will attempt to remove any unnecessary files created or extracted by " + DropLauncher.PROGRAM_NAME + " before exiting.", this.chkCleanStarcraftDirectory));
+    installTooltip(this.chkCleanStarcraftDirectory, "When enabled, " + DropLauncher.PROGRAM_NAME + " will attempt to remove any unnecessary files created or extracted by " + DropLauncher.PROGRAM_NAME + " before exiting.");
 
     this.chkWarnBwapiDll = new CheckBox();
     this.chkWarnBwapiDll.setText("Warn about unknown BWAPI versions");
@@ -82,7 +112,7 @@ public class SettingsWindow {
     this.chkWarnBwapiDll.setOnAction(e -> {
       Model.getSettings().setEnabled(BWAPI.PropertyKey.WARN_UNKNOWN_BWAPI_DLL.toString(), this.chkWarnBwapiDll.isSelected());
     });
-    this.chkWarnBwapiDll.setTooltip(createTooltip("When enabled, a warning message will popup if the selected BWAPI.dll file does not match a list of known official versions.", this.chkWarnBwapiDll));
+    installTooltip(this.chkWarnBwapiDll, "When enabled, a warning message will popup if the selected BWAPI.dll file does not match a list of known official versions.");
 
     this.lblChangeStarcraftExe = new Label();
     this.lblChangeStarcraftExe.setText(Starcraft.BINARY_FILENAME + ":");
@@ -110,7 +140,7 @@ public class SettingsWindow {
         this.lblChangeStarcraftExeText.setText(file.getAbsolutePath());
       }
     });
-    this.btnChangeStarcraftExe.setTooltip(createTooltip("Click to select the StarCraft.exe used by the bot.", this.btnChangeStarcraftExe));
+    installTooltip(this.btnChangeStarcraftExe, "Click to select the StarCraft.exe used by the bot.");
 
     this.chkExtractBotDependencies = new CheckBox();
     this.chkExtractBotDependencies.setText("Auto-extract bot dependencies");
@@ -118,7 +148,7 @@ public class SettingsWindow {
     this.chkExtractBotDependencies.setOnAction(e -> {
       Model.getSettings().setEnabled(Starcraft.PropertyKey.EXTRACT_BOT_DEPENDENCIES.toString(), this.chkExtractBotDependencies.isSelected());
     });
-    this.chkExtractBotDependencies.setTooltip(createTooltip("Note: BWAPI bots can be compiled in different languages (i.e. C++, Java, Scala, etc.) and different formats (.exe, .dll, .jar, etc.). This option will automatically extract all dependencies to the StarCraft directory that may be required to run the bot.", this.chkExtractBotDependencies));
+    installTooltip(this.chkExtractBotDependencies, "Note: BWAPI bots can be compiled in different languages (i.e. C++, Java, Scala, etc.) and different formats (.exe, .dll, .jar, etc.). This option will automatically extract all dependencies to the StarCraft directory that may be required to run the bot.");
 
     this.chkVerifyStarcraftVersion = new CheckBox();
     this.chkVerifyStarcraftVersion.setText("Verify " + Starcraft.BINARY_FILENAME + " version");
@@ -126,7 +156,7 @@ public class SettingsWindow {
     this.chkVerifyStarcraftVersion.setOnAction(e -> {
       Model.getSettings().setEnabled(Starcraft.PropertyKey.CHECK_FOR_SUPPORTED_VERSION.toString(), this.chkVerifyStarcraftVersion.isSelected());
     });
-    this.chkVerifyStarcraftVersion.setTooltip(createTooltip("Verify that the selected " + Starcraft.BINARY_FILENAME + " is supported. (i.e.: " + Starcraft.FULL_EXPANSION_NAME + " 1.16.1)", this.chkVerifyStarcraftVersion));
+    installTooltip(this.chkVerifyStarcraftVersion, "Verify that the selected " + Starcraft.BINARY_FILENAME + " is supported. (i.e.: " + Starcraft.FULL_EXPANSION_NAME + " 1.16.1)");
 
     this.chkKickBotOnLag = new CheckBox();
     this.chkKickBotOnLag.setText("Kick the bot if it lags too much (Experimental)");
@@ -134,7 +164,7 @@ public class SettingsWindow {
     this.chkKickBotOnLag.setOnAction(e -> {
       Model.getSettings().setEnabled(BWHeadless.PropertyKey.KICK_BOT_ON_LAG.toString(), this.chkKickBotOnLag.isSelected());
     });
-    this.chkKickBotOnLag.setTooltip(createTooltip("Kick the bot if it starts lagging too much during the game or when frame timeout becomes too high.", this.chkKickBotOnLag));
+    installTooltip(this.chkKickBotOnLag, "Kick the bot if it starts lagging too much during the game or when frame timeout becomes too high.");
 
     CustomGridPane fileSelectPane = new CustomGridPane();
     fileSelectPane.add(this.lblChangeStarcraftExe);
@@ -148,6 +178,9 @@ public class SettingsWindow {
     mainGridPane.add(this.chkExtractBotDependencies).nextRow();
     mainGridPane.add(this.chkCleanStarcraftDirectory).nextRow();
     mainGridPane.add(this.chkBwapiWriteRead).nextRow();
+    mainGridPane.add(this.chkBwapiMirrorWriteRead).nextRow();
+    mainGridPane.add(this.chkBwapiVerifyCopy).nextRow();
+    mainGridPane.add(this.chkBwapiSnapshotWrite).nextRow();
     mainGridPane.add(this.chkKickBotOnLag).nextRow();
     mainGridPane.add(this.chkVerifyStarcraftVersion).nextRow();
     mainGridPane.add(this.chkWarnBwapiDll).nextRow();
@@ -173,6 +206,23 @@ public class SettingsWindow {
     return this;
   }
 
+  /**
+   * Installs a tooltip with the specified text on the specified control.
+   * The tooltip is only created once the mouse first enters the control.
+   */
+  private void installTooltip(Control control, String str) {
+    EventHandler<MouseEvent> creator = new EventHandler<MouseEvent>() {
+      @Override
+      public void handle(MouseEvent e) {
+        control.removeEventHandler(MouseEvent.MOUSE_ENTERED, this);
+        DelayedTooltip tooltip = createTooltip(str, control);
+        tooltip.isHoveringPrimary().set(true);
+        control.setTooltip(tooltip);
+      }
+    };
+    control.addEventHandler(MouseEvent.MOUSE_ENTERED, creator);
+  }
+
   private DelayedTooltip createTooltip(String str, Node node) {
     DelayedTooltip tooltip = new DelayedTooltip();
     tooltip.setDuration(Integer.MAX_VALUE);
@@ -18,10 +18,10 @@
 package droplauncher.mvc.view;
 
 import adakite.debugging.Debugging;
-import adakite.exception.InvalidStateException;
 import adakite.util.AdakiteUtils;
 import adakite.util.AdakiteUtils.StringCompareOption;
 import adakite.windows.Windows;
+import droplauncher.io.PortableExecutable;
 import droplauncher.mvc.controller.Controller;
 import droplauncher.mvc.model.Model;
 import droplauncher.starcraft.Starcraft.Race;
@@ -37,6 +37,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.application.Platform;
@@ -55,8 +56,10 @@ import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.SeparatorMenuItem;
 import javafx.scene.control.TextField;
+import javafx.scene.input.ContextMenuEvent;
 import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
@@ -176,6 +179,7 @@ public class View implements EventHandler<DragEvent>  {
   public enum StartButtonText {
 
     START("Join Game"),
+    CANCEL("Cancel"),
     STOP("Terminate")
     ;
 
@@ -238,6 +242,7 @@ public class View implements EventHandler<DragEvent>  {
 
   public enum Message {
 
+    GAME_STARTED("game started"),
     GAME_HAS_ENDED("game has ended"),
     GAME_OVER("game over"),
     ERROR_126("error 126"),
@@ -262,6 +267,11 @@ public class View implements EventHandler<DragEvent>  {
 
     FILE("File"),
       SELECT_BOT_FILES("Select bot files..."),
+      LOAD_KNOWN_BOT("Load known bot..."),
+      CATALOG_BOTS("Catalog bot directory..."),
+      REMOVE_KNOWN_BOT("Remove known bot..."),
+      EXPORT_BUNDLE("Export bot bundle..."),
+      RESTORE_SNAPSHOT("Restore learning data..."),
       EXIT("Exit"),
 
     EDIT("Edit"),
@@ -313,6 +323,7 @@ public class View implements EventHandler<DragEvent>  {
 
   private Label lblBwapiVersion;
   private Label lblBwapiVersionText;
+  private int bwapiVersionRequest;
   private Label lblBotFile;
   private Label lblBotFileText;
   private Label lblBotName;
@@ -323,11 +334,16 @@ public class View implements EventHandler<DragEvent>  {
   private CheckBox chkAutoEject;
   private CheckBox chkAutoRejoin;
   private Button btnClearExtraBotFiles;
+  private HBox boxProgress;
+  private Label lblProgressStatus;
+  private ProgressBar pbProgress;
+  private Button btnProgressCancel;
 
   private boolean isColorThemeEnabled;
 
   public View() {
     this.isColorThemeEnabled = false;
+    this.bwapiVersionRequest = 0;
   }
 
   public void setController(Controller controller) {
@@ -338,10 +354,25 @@ public class View implements EventHandler<DragEvent>  {
     /* File */
     MenuItem mnuFileSelectBotFiles = new MenuItem(MenuText.SELECT_BOT_FILES.toString());
     mnuFileSelectBotFiles.setOnAction(e -> { this.controller.mnuFileSelectBotFilesClicked(this.stage); });
+    MenuItem mnuFileLoadKnownBot = new MenuItem(MenuText.LOAD_KNOWN_BOT.toString());
+    mnuFileLoadKnownBot.setOnAction(e -> { this.controller.mnuFileLoadKnownBotClicked(); });
+    MenuItem mnuFileCatalogBots = new MenuItem(MenuText.CATALOG_BOTS.toString());
+    mnuFileCatalogBots.setOnAction(e -> { this.controller.mnuFileCatalogBotsClicked(this.stage); });
+    MenuItem mnuFileRemoveKnownBot = new MenuItem(MenuText.REMOVE_KNOWN_BOT.toString());
+    mnuFileRemoveKnownBot.setOnAction(e -> { this.controller.mnuFileRemoveKnownBotClicked(); });
+    MenuItem mnuFileExportBundle = new MenuItem(MenuText.EXPORT_BUNDLE.toString());
+    mnuFileExportBundle.setOnAction(e -> { this.controller.mnuFileExportBundleClicked(this.stage); });
+    MenuItem mnuFileRestoreSnapshot = new MenuItem(MenuText.RESTORE_SNAPSHOT.toString());
+    mnuFileRestoreSnapshot.setOnAction(e -> { this.controller.mnuFileRestoreSnapshotClicked(); });
     MenuItem mnuFileExit = new MenuItem(MenuText.EXIT.toString());
     mnuFileExit.setOnAction(e -> { this.controller.mnuFileExitClicked(this.stage); });
     this.fileMenu = new Menu(MenuText.FILE.toString());
     this.fileMenu.getItems().add(mnuFileSelectBotFiles);
+    this.fileMenu.getItems().add(mnuFileLoadKnownBot);
+    this.fileMenu.getItems().add(mnuFileCatalogBots);
+    this.fileMenu.getItems().add(mnuFileRemoveKnownBot);
+    this.fileMenu.getItems().add(mnuFileExportBundle);
+    this.fileMenu.getItems().add(mnuFileRestoreSnapshot);
     this.fileMenu.getItems().add(mnuFileExit);
 
     /* Theme */
@@ -427,11 +458,7 @@ public class View implements EventHandler<DragEvent>  {
     this.btnStart.setMinHeight(45); //Changed from 30
     this.btnStart.getStyleClass().add("launch-btn");
     this.btnStart.setOnAction(e -> {
-      try {
-        this.controller.btnStartClicked();
-      } catch (InvalidStateException ex) {
-        new ExceptionAlert().showAndWait(null, ex);
-      }
+      this.controller.btnStartClicked();
     });
     this.chkAutoEject = new CheckBox();
     this.chkAutoEject.setText("Terminate bot after game has ended");
@@ -448,73 +475,12 @@ public class View implements EventHandler<DragEvent>  {
     this.consoleOutput.get().setMinHeight(200); //300
     this.consoleOutput.get().setEditable(false);
     this.consoleOutput.setController(new ControllerWrapper(this.controller));
-    ContextMenu cmConsoleOutput = new ContextMenu();
-    MenuItem miClear = new MenuItem("Clear");
-    miClear.setOnAction(e -> {
-      if (AdakiteUtils.isNullOrEmpty(getOutputLog(), StringCompareOption.TRIM)) {
-        return;
-      }
-      Platform.runLater(() -> {
-        if (new YesNoDialog().userConfirms("Confirmation", "Are you sure you want to clear the console output? You will not be able to retrieve it.")) {
-          this.consoleOutput.clear();
-        }
-      });
-    });
-    cmConsoleOutput.getItems().add(miClear);
-    cmConsoleOutput.getItems().add(new SeparatorMenuItem());
-    MenuItem miSave = new MenuItem("Save to file...");
-    miSave.setOnAction(e -> {
-      if (AdakiteUtils.isNullOrEmpty(getOutputLog(), StringCompareOption.TRIM)) {
-        new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, "Log is empty. Nothing to save.");
-        return;
-      }
-
-      FileChooser fc = new FileChooser();
-      fc.getExtensionFilters().add(new ExtensionFilter("*.log", "log"));
-      String botName = this.controller.getBotName();
-      String datetime = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").format(LocalDateTime.now());
-      String initialFilename = datetime + "_" + (AdakiteUtils.isNullOrEmpty(botName, StringCompareOption.TRIM) ? "DropLauncher" : botName) + ".log";
-      fc.setInitialFileName(initialFilename);
-      String userDirectory = Windows.getUserDesktopDirectory().toAbsolutePath().toString();
-      if (userDirectory != null) {
-        fc.setInitialDirectory(new File(userDirectory));
-      }
-      File userFile = fc.showSaveDialog(this.stage);
-      if (userFile != null) {
-        Path saveFile = userFile.toPath().toAbsolutePath();
-        String filename = FilenameUtils.getBaseName(saveFile.toString());
-        Path saveParent = AdakiteUtils.getParentDirectory(saveFile);
-        if (saveParent == null) {
-          saveParent = Paths.get("");
-        }
-        String saveExt = fc.getSelectedExtensionFilter().getExtensions().get(0);
-        if (AdakiteUtils.isNullOrEmpty(saveExt, StringCompareOption.TRIM) || saveExt.equals("*")) {
-          saveExt = "log";
-        }
-        String userExt = FilenameUtils.getExtension(saveFile.toString());
-        if (!AdakiteUtils.isNullOrEmpty(userExt, StringCompareOption.TRIM)) {
-          /* If user used a file extention, use that one over the context menu selected file extension. */
-          saveExt = userExt;
-        }
-
-        try {
-          saveFile = saveParent.resolve(filename + (AdakiteUtils.isNullOrEmpty(saveExt, StringCompareOption.TRIM) ? "" : ("." + saveExt)));
-        } catch (Exception ex) {
-          new ExceptionAlert().showAndWait("Failed to save file due to an invalid filename or directory", ex);
-          return;
-        }
-
-        try {
-          this.controller.saveToFile(saveFile, getOutputLog());
-          new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, "File saved to: " + AdakiteUtils.newline(2) + saveFile.toAbsolutePath().toString());
-        } catch (Exception ex) {
-          new ExceptionAlert().showAndWait(null, ex);
-          return;
-        }
+    /* The context menu is rarely used. Build it on first request. */
+    this.consoleOutput.get().addEventFilter(ContextMenuEvent.CONTEXT_MENU_REQUESTED, e -> {
+      if (this.consoleOutput.get().getContextMenu() == null) {
+        this.consoleOutput.get().setContextMenu(createConsoleContextMenu());
       }
     });
-    cmConsoleOutput.getItems().add(miSave);
-    this.consoleOutput.get().setContextMenu(cmConsoleOutput);
     this.consoleOutput.get().managedProperty().bind(this.consoleOutput.get().visibleProperty());
     this.consoleOutput.get().setVisible(Model.getSettings().isEnabled(View.PropertyKey.SHOW_LOG_WINDOW.toString()));
     this.btnClearExtraBotFiles = new Button(ButtonText.CLEAR_EXTRA_BOT_FILES.toString());
@@ -539,6 +505,19 @@ public class View implements EventHandler<DragEvent>  {
       });
     });
     this.btnClearExtraBotFiles.managedProperty().bind(this.btnClearExtraBotFiles.visibleProperty());
+    this.lblProgressStatus = new Label();
+    this.pbProgress = new ProgressBar();
+    this.btnProgressCancel = new Button("Cancel");
+    this.btnProgressCancel.setOnAction(e -> { this.controller.cancelImportClicked(); });
+    this.btnProgressCancel.managedProperty().bind(this.btnProgressCancel.visibleProperty());
+    this.boxProgress = new HBox();
+    this.boxProgress.getChildren().add(this.pbProgress);
+    this.boxProgress.getChildren().add(this.lblProgressStatus);
+    this.boxProgress.getChildren().add(this.btnProgressCancel);
+    this.boxProgress.setSpacing(DefaultSetting.LABEL_TEXT_SPACING.intValue());
+    this.boxProgress.setAlignment(Pos.CENTER);
+    this.boxProgress.managedProperty().bind(this.boxProgress.visibleProperty());
+    this.boxProgress.setVisible(false);
 
     CustomGridPane fileLabelGridPane = new CustomGridPane();
     fileLabelGridPane.add(this.lblBotFile);
@@ -573,6 +552,7 @@ public class View implements EventHandler<DragEvent>  {
 
     VBox boxStartConsole = new VBox();
     boxStartConsole.getChildren().add(this.btnStart);
+    boxStartConsole.getChildren().add(this.boxProgress);
     boxStartConsole.getChildren().add(this.consoleOutput.get());
     boxStartConsole.setSpacing(DefaultSetting.GAP.intValue());
     boxStartConsole.setAlignment(Pos.CENTER);
@@ -624,6 +604,76 @@ public class View implements EventHandler<DragEvent>  {
     this.btnStart.requestFocus();
   }
 
+  private ContextMenu createConsoleContextMenu() {
+    ContextMenu cmConsoleOutput = new ContextMenu();
+    MenuItem miClear = new MenuItem("Clear");
+    miClear.setOnAction(e -> {
+      if (AdakiteUtils.isNullOrEmpty(getOutputLog(), StringCompareOption.TRIM)) {
+        return;
+      }
+      Platform.runLater(() -> {
+        if (new YesNoDialog().userConfirms("Confirmation", "Are you sure you want to clear the console output? You will not be able to retrieve it.")) {
+          this.consoleOutput.clear();
+        }
+      });
+    });
+    cmConsoleOutput.getItems().add(miClear);
+    cmConsoleOutput.getItems().add(new SeparatorMenuItem());
+    MenuItem miSave = new MenuItem("Save to file...");
+    miSave.setOnAction(e -> {
+      if (AdakiteUtils.isNullOrEmpty(getOutputLog(), StringCompareOption.TRIM)) {
+        new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, "Log is empty. Nothing to save.");
+        return;
+      }
+
+      FileChooser fc = new FileChooser();
+      fc.getExtensionFilters().add(new ExtensionFilter("*.log", "log"));
+      String botName = this.controller.getBotName();
+      String datetime = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss").format(LocalDateTime.now());
+      String initialFilename = datetime + "_" + (AdakiteUtils.isNullOrEmpty(botName, StringCompareOption.TRIM) ? "DropLauncher" : botName) + ".log";
+      fc.setInitialFileName(initialFilename);
+      String userDirectory = Windows.getUserDesktopDirectory().toAbsolutePath().toString();
+      if (userDirectory != null) {
+        fc.setInitialDirectory(new File(userDirectory));
+      }
+      File userFile = fc.showSaveDialog(this.stage);
+      if (userFile != null) {
+        Path saveFile = userFile.toPath().toAbsolutePath();
+        String filename = FilenameUtils.getBaseName(saveFile.toString());
+        Path saveParent = AdakiteUtils.getParentDirectory(saveFile);
+        if (saveParent == null) {
+          saveParent = Paths.get("");
+        }
+        String saveExt = fc.getSelectedExtensionFilter().getExtensions().get(0);
+        if (AdakiteUtils.isNullOrEmpty(saveExt, StringCompareOption.TRIM) || saveExt.equals("*")) {
+          saveExt = "log";
+        }
+        String userExt = FilenameUtils.getExtension(saveFile.toString());
+        if (!AdakiteUtils.isNullOrEmpty(userExt, StringCompareOption.TRIM)) {
+          /* If user used a file extention, use that one over the context menu selected file extension. */
+          saveExt = userExt;
+        }
+
+        try {
+          saveFile = saveParent.resolve(filename + (AdakiteUtils.isNullOrEmpty(saveExt, StringCompareOption.TRIM) ? "" : ("." + saveExt)));
+        } catch (Exception ex) {
+          new ExceptionAlert().showAndWait("Failed to save file due to an invalid filename or directory", ex);
+          return;
+        }
+
+        try {
+          this.controller.saveToFile(saveFile, getOutputLog());
+          new SimpleAlert().showAndWait(AlertType.INFORMATION, DialogTitle.PROGRAM_NAME, "File saved to: " + AdakiteUtils.newline(2) + saveFile.toAbsolutePath().toString());
+        } catch (Exception ex) {
+          new ExceptionAlert().showAndWait(null, ex);
+          return;
+        }
+      }
+    });
+    cmConsoleOutput.getItems().add(miSave);
+    return cmConsoleOutput;
+  }
+
   public ConsoleOutput getConsoleOutput() {
     return this.consoleOutput;
   }
@@ -657,7 +707,25 @@ public class View implements EventHandler<DragEvent>  {
    * Updates the components to display the internal values.
    */
   public void update() {
-    setText(this.lblBwapiVersionText, this.controller.getBwapiDllVersion());
+    /*
+     * The version is looked up in the background. Only the latest request updates the label.
+     * The version resource is shown until the checksum confirms or rejects it.
+     */
+    int request = ++this.bwapiVersionRequest;
+    CompletableFuture<PortableExecutable> bwapiDllHeaders = this.controller.getBwapiDllHeaders();
+    CompletableFuture<String> bwapiDllVersion = this.controller.getBwapiDllVersion(bwapiDllHeaders);
+    bwapiDllHeaders.thenAccept(headers -> Platform.runLater(() -> {
+      if (request == this.bwapiVersionRequest && !bwapiDllVersion.isDone() && headers != null) {
+        setText(this.lblBwapiVersionText, BWAPI.getBwapiVersion(headers));
+        sizeToScene();
+      }
+    }));
+    bwapiDllVersion.thenAccept(version -> Platform.runLater(() -> {
+      if (request == this.bwapiVersionRequest) {
+        setText(this.lblBwapiVersionText, version);
+        sizeToScene();
+      }
+    }));
 
     setText(this.lblBotFileText, this.controller.getBotFilename());
     if (!AdakiteUtils.isNullOrEmpty(this.controller.getBotFilename())) {
@@ -715,6 +783,31 @@ public class View implements EventHandler<DragEvent>  {
     }
   }
 
+  /**
+   * Shows the progress of a running background operation, e.g. an
+   * import or cleaning up the StarCraft directory.
+   *
+   * @param text specified status text
+   * @param progress specified progress from 0 to 1 or a negative value if unknown
+   * @param isCancellable whether the operation is an import which can be cancelled
+   */
+  public void showProgress(String text, double progress, boolean isCancellable) {
+    this.lblProgressStatus.setText(text);
+    this.pbProgress.setProgress((progress < 0) ? ProgressBar.INDETERMINATE_PROGRESS : progress);
+    this.btnProgressCancel.setVisible(isCancellable);
+    if (!this.boxProgress.isVisible()) {
+      this.boxProgress.setVisible(true);
+      sizeToScene();
+    }
+  }
+
+  public void hideProgress() {
+    if (this.boxProgress.isVisible()) {
+      this.boxProgress.setVisible(false);
+      sizeToScene();
+    }
+  }
+
   public void btnStartSetText(String str) {
     setText(this.btnStart, str);
   }
@@ -744,11 +837,7 @@ public class View implements EventHandler<DragEvent>  {
       }
       event.setDropCompleted(isTransferDone);
       event.consume();
-      try {
-        this.controller.filesDropped(files);
-      } catch (Exception ex) {
-        new ExceptionAlert().showAndWait(null, ex);
-      }
+      this.controller.filesDropped(files);
     }
   }
 
@@ -81,11 +81,30 @@ public class Help {
   private WebViewWrapper browser;
 
   public Help() {
-    this.list = new ListView<>();
-    this.browser = new WebViewWrapper();
+    this.stage = null;
+    this.scene = null;
+    this.list = null;
+    this.browser = null;
   }
 
+  /**
+   * Shows the help window. The window and its browser are created on the
+   * first call and reused afterwards.
+   */
   public Help show() {
+    if (this.stage == null) {
+      init();
+    }
+    this.stage.show();
+    this.stage.toFront();
+
+    return this;
+  }
+
+  private void init() {
+    this.list = new ListView<>();
+    this.browser = new WebViewWrapper();
+
     HBox hbox = new HBox();
 
     ObservableList<String> items = FXCollections.observableArrayList();
@@ -115,9 +134,6 @@ public class Help {
     this.stage.setTitle(View.MenuText.HELP_CONTENTS.toString());
     this.stage.setResizable(true);
     this.stage.setScene(this.scene);
-    this.stage.show();
-
-    return this;
   }
 
 }
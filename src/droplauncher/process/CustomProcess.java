@@ -19,7 +19,7 @@ package droplauncher.process;
 
 import adakite.debugging.Debugging;
 import adakite.util.AdakiteUtils;
-import droplauncher.mvc.view.ConsoleOutputWrapper;
+import droplauncher.ui.ConsoleSink;
 import droplauncher.process.exception.ClosePipeException;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -34,7 +34,7 @@ public class CustomProcess {
   private Thread stdoutGobbler;
   private Thread stderrGobbler;
   private String processName;
-  private ConsoleOutputWrapper consoleOutput;
+  private ConsoleSink consoleOutput;
 
   public CustomProcess() {
     this.process = null;
@@ -71,7 +71,7 @@ public class CustomProcess {
    *
    * @param consoleOutput specified UI control text object
    */
-  public CustomProcess setConsoleOutput(ConsoleOutputWrapper consoleOutput) {
+  public CustomProcess setConsoleOutput(ConsoleSink consoleOutput) {
     this.consoleOutput = consoleOutput;
     return this;
   }
@@ -107,6 +107,13 @@ public class CustomProcess {
     this.stderrGobbler.start();
   }
 
+  /**
+   * Tests whether the process has been started and has not exited.
+   */
+  public boolean isAlive() {
+    return this.process != null && this.process.isAlive();
+  }
+
   /**
    * Attempts to close the pipe.
    *
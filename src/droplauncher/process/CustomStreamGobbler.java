@@ -19,13 +19,12 @@ package droplauncher.process;
 
 import adakite.util.AdakiteUtils;
 import adakite.util.AdakiteUtils.StringCompareOption;
-import droplauncher.mvc.view.ConsoleOutputWrapper;
-import droplauncher.mvc.view.ExceptionAlert;
+import droplauncher.ui.ConsoleSink;
+import droplauncher.ui.Errors;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import javafx.application.Platform;
 
 /**
  * Class for consuming output from an input stream.
@@ -33,7 +32,7 @@ import javafx.application.Platform;
 public class CustomStreamGobbler implements Runnable {
 
   private InputStream inputStream;
-  private ConsoleOutputWrapper consoleOutput;
+  private ConsoleSink consoleOutput;
   private String streamName;
 
   private CustomStreamGobbler() {}
@@ -44,7 +43,7 @@ public class CustomStreamGobbler implements Runnable {
     this.streamName = null;
   }
 
-  public CustomStreamGobbler setConsoleOutput(ConsoleOutputWrapper consoleOutput) {
+  public CustomStreamGobbler setConsoleOutput(ConsoleSink consoleOutput) {
     this.consoleOutput = consoleOutput;
     return this;
   }
@@ -74,9 +73,7 @@ public class CustomStreamGobbler implements Runnable {
         }
       }
     } catch (Exception ex) {
-      Platform.runLater(() -> {
-        new ExceptionAlert().showAndWait(null, ex);
-      });
+      Errors.report(null, ex);
     }
   }
 
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.process;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of the parent process IDs of all running processes.
+ *
+ * Used to decide which tasks were started by a specific process, e.g. the
+ * StarCraft.exe started by a bwheadless process, since such tasks cannot
+ * be attributed by their image name when several launches are running.
+ */
+public class ProcessTree {
+
+  /* Prints "PID PPID" for every process. Get-WmiObject is available from PowerShell 2.0 to 5.1. */
+  private static final String[] QUERY_COMMAND = {
+    "powershell.exe", "-NoProfile", "-NonInteractive", "-Command",
+    "Get-WmiObject Win32_Process | ForEach-Object { '{0} {1}' -f $_.ProcessId, $_.ParentProcessId }"
+  };
+  private static final int MAX_DEPTH = 64;
+
+  private final Map<String, String> parents; /* PID to parent PID */
+
+  private ProcessTree(Map<String, String> parents) {
+    this.parents = parents;
+  }
+
+  /**
+   * Returns a snapshot of the currently running processes.
+   *
+   * @throws IOException if the process list cannot be queried
+   */
+  public static ProcessTree query() throws IOException {
+    ProcessBuilder pb = new ProcessBuilder(QUERY_COMMAND);
+    pb.redirectErrorStream(true);
+    Process process = pb.start();
+    /* PowerShell waits for its standard input to close before exiting. */
+    process.getOutputStream().close();
+    Map<String, String> parents = new HashMap<>();
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length == 2 && isPid(fields[0]) && isPid(fields[1])) {
+          parents.put(fields[0], fields[1]);
+        }
+      }
+    }
+    try {
+      if (process.waitFor() != 0 || parents.isEmpty()) {
+        throw new IOException("failed to query process list");
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while querying process list", ex);
+    }
+    return new ProcessTree(Collections.unmodifiableMap(parents));
+  }
+
+  /**
+   * Returns the process ID of this Java virtual machine or null if it
+   * cannot be determined.
+   */
+  public static String getCurrentPid() {
+    /* The runtime name is "pid@hostname" on common JVMs. */
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int index = name.indexOf('@');
+    String pid = (index > 0) ? name.substring(0, index) : name;
+    return isPid(pid) ? pid : null;
+  }
+
+  /**
+   * Returns the parent process ID of the specified process or null if
+   * the process is unknown.
+   *
+   * @param pid specified process ID
+   */
+  public String getParent(String pid) {
+    return this.parents.get(pid);
+  }
+
+  /**
+   * Tests whether the specified process is one of the specified
+   * ancestors or was started by one of them, directly or indirectly.
+   *
+   * @param pid specified process ID
+   * @param ancestors specified process IDs of the possible ancestors
+   */
+  public boolean isDescendant(String pid, Collection<String> ancestors) {
+    Set<String> visited = new HashSet<>();
+    String current = pid;
+    for (int depth = 0; current != null && depth < MAX_DEPTH; depth++) {
+      if (ancestors.contains(current)) {
+        return true;
+      }
+      if (!visited.add(current)) {
+        /* Parent IDs of exited processes may have been reused. */
+        return false;
+      }
+      current = this.parents.get(current);
+    }
+    return false;
+  }
+
+  private static boolean isPid(String str) {
+    if (str.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < str.length(); i++) {
+      if (!Character.isDigit(str.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.session;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for limiting the number of games which run at the same time based
+ * on the measured load of this computer.
+ *
+ * Each game acquires a permit before it starts and releases it after it
+ * has finished. The number of permits is adjusted periodically from three
+ * signals:
+ * <ul>
+ *   <li>system CPU load</li>
+ *   <li>free physical memory</li>
+ *   <li>the share of recent games which ended abnormally, e.g. because a
+ *       bot exceeded its frame time limit and was ejected</li>
+ * </ul>
+ * If any signal indicates overload, the limit is halved. If every signal
+ * indicates spare capacity while all permits are in use, the limit is
+ * increased by one. Between the thresholds the limit is kept. An increase
+ * requires several consecutive samples with spare capacity and a decrease
+ * is not repeated before the previous one had time to take effect, so
+ * the limit does not oscillate around a threshold.
+ *
+ * Every admission, release and change of the limit is recorded as a
+ * {@link Decision} together with the most recent sample, logged and
+ * optionally appended to a CSV file.
+ */
+public class AdmissionController {
+
+  private static final Logger LOGGER = Logger.getLogger(AdmissionController.class.getName());
+
+  public static final long DEFAULT_SAMPLE_INTERVAL = 5000; /* milliseconds */
+  public static final double DEFAULT_CPU_LOW = 0.70;
+  public static final double DEFAULT_CPU_HIGH = 0.90;
+  public static final double DEFAULT_MIN_FREE_MEMORY = 0.10; /* fraction of physical memory */
+  public static final double DEFAULT_MAX_ABNORMAL_RATIO = 0.20;
+
+  private static final int INCREASE_SAMPLES = 3; /* consecutive samples with spare capacity before an increase */
+  private static final int DECREASE_SAMPLES = 2; /* samples after a change before a decrease */
+  private static final int GAME_WINDOW = 10; /* recent games considered for the abnormal ratio */
+  private static final int MIN_GAMES = 3; /* recent games required before the abnormal ratio is trusted */
+  private static final int MAX_DECISIONS = 1000;
+
+  private static final String CSV_HEADER = "time,action,old_limit,new_limit,active,cpu_load,free_memory,abnormal_ratio,reason";
+
+  public enum Action {
+
+    ADMIT("admit"), /* a permit was taken */
+    RELEASE("release"), /* a permit was returned */
+    RAISE_LIMIT("raise_limit"),
+    BACK_OFF("back_off")
+    ;
+
+    private final String str;
+
+    private Action(String str) {
+      this.str = str;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
+  /**
+   * Load signals measured at one point in time. Signals which are not
+   * available on this platform are NaN.
+   */
+  public static class Sample {
+
+    private final double cpuLoad;
+    private final double freeMemory;
+    private final double abnormalRatio;
+    private final int active;
+
+    private Sample(double cpuLoad, double freeMemory, double abnormalRatio, int active) {
+      this.cpuLoad = cpuLoad;
+      this.freeMemory = freeMemory;
+      this.abnormalRatio = abnormalRatio;
+      this.active = active;
+    }
+
+    /**
+     * Returns the system CPU load between 0 and 1.
+     */
+    public double getCpuLoad() {
+      return this.cpuLoad;
+    }
+
+    /**
+     * Returns the free physical memory as a fraction of the total
+     * physical memory.
+     */
+    public double getFreeMemory() {
+      return this.freeMemory;
+    }
+
+    /**
+     * Returns the share of recent games which ended abnormally or NaN if
+     * too few games have ended since the last change of the limit.
+     */
+    public double getAbnormalRatio() {
+      return this.abnormalRatio;
+    }
+
+    /**
+     * Returns the number of permits in use.
+     */
+    public int getActive() {
+      return this.active;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "cpu=%.2f, free_memory=%.2f, abnormal=%.2f, active=%d",
+          this.cpuLoad, this.freeMemory, this.abnormalRatio, this.active);
+    }
+
+  }
+
+  /**
+   * An admission, a release or a change of the limit. The old and new
+   * limit of an admission or release are equal.
+   */
+  public static class Decision {
+
+    private final Instant time;
+    private final Action action;
+    private final int oldLimit;
+    private final int newLimit;
+    private final Sample sample;
+    private final String reason;
+
+    private Decision(Action action, int oldLimit, int newLimit, Sample sample, String reason) {
+      this.time = Instant.now();
+      this.action = action;
+      this.oldLimit = oldLimit;
+      this.newLimit = newLimit;
+      this.sample = sample;
+      this.reason = reason;
+    }
+
+    public Instant getTime() {
+      return this.time;
+    }
+
+    public Action getAction() {
+      return this.action;
+    }
+
+    public int getOldLimit() {
+      return this.oldLimit;
+    }
+
+    public int getNewLimit() {
+      return this.newLimit;
+    }
+
+    public Sample getSample() {
+      return this.sample;
+    }
+
+    public String getReason() {
+      return this.reason;
+    }
+
+    /**
+     * Tests whether this decision changed the limit.
+     */
+    public boolean isLimitChange() {
+      return this.action == Action.RAISE_LIMIT || this.action == Action.BACK_OFF;
+    }
+
+    @Override
+    public String toString() {
+      return this.action + " " + this.oldLimit + " -> " + this.newLimit + ": " + this.reason + " (" + this.sample + ")";
+    }
+
+  }
+
+  private final int minLimit;
+  private final int maxLimit;
+  private double cpuLow;
+  private double cpuHigh;
+  private double minFreeMemory;
+  private double maxAbnormalRatio;
+  private long sampleInterval;
+  private Path logFile;
+  private Consumer<Decision> onDecision;
+  private int limit; /* guarded by this */
+  private int active; /* guarded by this */
+  private final Deque<Boolean> recentGames; /* guarded by this */
+  private final Deque<Decision> decisions; /* guarded by this */
+  private int spareSamples; /* guarded by this */
+  private int samplesSinceChange; /* guarded by this */
+  private Sample lastSample; /* guarded by this */
+  private final Object logLock;
+  private ScheduledExecutorService sampler;
+
+  /**
+   * Creates a controller.
+   *
+   * @param minLimit specified lowest number of permits, at least one
+   * @param maxLimit specified highest number of permits
+   * @param initialLimit specified number of permits before the first
+   *     adjustment
+   */
+  public AdmissionController(int minLimit, int maxLimit, int initialLimit) {
+    if (minLimit < 1 || maxLimit < minLimit) {
+      throw new IllegalArgumentException("invalid limits: min=" + minLimit + ", max=" + maxLimit);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.cpuLow = DEFAULT_CPU_LOW;
+    this.cpuHigh = DEFAULT_CPU_HIGH;
+    this.minFreeMemory = DEFAULT_MIN_FREE_MEMORY;
+    this.maxAbnormalRatio = DEFAULT_MAX_ABNORMAL_RATIO;
+    this.sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+    this.logFile = null;
+    this.onDecision = null;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    this.active = 0;
+    this.recentGames = new ArrayDeque<>();
+    this.decisions = new ArrayDeque<>();
+    this.spareSamples = 0;
+    this.samplesSinceChange = 0;
+    this.lastSample = null;
+    this.logLock = new Object();
+    this.sampler = null;
+  }
+
+  /**
+   * Sets the CPU load below which the limit may be increased and above
+   * which it is decreased.
+   *
+   * @param low specified lower threshold between 0 and 1
+   * @param high specified upper threshold between 0 and 1
+   */
+  public AdmissionController setCpuThresholds(double low, double high) {
+    if (low > high) {
+      throw new IllegalArgumentException("low threshold cannot exceed high threshold");
+    }
+    this.cpuLow = low;
+    this.cpuHigh = high;
+    return this;
+  }
+
+  /**
+   * Sets the fraction of physical memory below which the limit is
+   * decreased.
+   *
+   * @param minFreeMemory specified fraction between 0 and 1
+   */
+  public AdmissionController setMinFreeMemory(double minFreeMemory) {
+    this.minFreeMemory = minFreeMemory;
+    return this;
+  }
+
+  /**
+   * Sets the share of abnormally ended games above which the limit is
+   * decreased.
+   *
+   * @param maxAbnormalRatio specified share between 0 and 1
+   */
+  public AdmissionController setMaxAbnormalRatio(double maxAbnormalRatio) {
+    this.maxAbnormalRatio = maxAbnormalRatio;
+    return this;
+  }
+
+  /**
+   * Sets the time between two samples. Takes effect on the next call to
+   * {@link #start()}.
+   *
+   * @param sampleInterval specified interval in milliseconds
+   */
+  public AdmissionController setSampleInterval(long sampleInterval) {
+    this.sampleInterval = Math.max(1, sampleInterval);
+    return this;
+  }
+
+  /**
+   * Sets the CSV file to which decisions are appended. A header is written
+   * if the file does not exist yet.
+   *
+   * @param logFile specified file or null to not write decisions
+   */
+  public AdmissionController setLogFile(Path logFile) {
+    this.logFile = logFile;
+    return this;
+  }
+
+  /**
+   * Sets the callback which receives every decision. The callback is
+   * invoked on the sampling thread for changes of the limit and on the
+   * calling thread for admissions and releases.
+   *
+   * @param onDecision specified callback
+   */
+  public AdmissionController setOnDecision(Consumer<Decision> onDecision) {
+    this.onDecision = onDecision;
+    return this;
+  }
+
+  public synchronized int getLimit() {
+    return this.limit;
+  }
+
+  /**
+   * Returns the number of permits in use.
+   */
+  public synchronized int getActiveCount() {
+    return this.active;
+  }
+
+  /**
+   * Returns the most recent decisions, oldest first.
+   */
+  public synchronized List<Decision> getDecisions() {
+    return new ArrayList<>(this.decisions);
+  }
+
+  /**
+   * Starts sampling. Does nothing if already started.
+   */
+  public synchronized void start() {
+    if (this.sampler != null) {
+      return;
+    }
+    this.sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "admission-control");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.sampler.scheduleWithFixedDelay(() -> {
+      try {
+        adjust(sample());
+      } catch (RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "failed to adjust limit", ex);
+      }
+    }, this.sampleInterval, this.sampleInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops sampling. The limit is kept.
+   */
+  public synchronized void stop() {
+    if (this.sampler != null) {
+      this.sampler.shutdownNow();
+      this.sampler = null;
+    }
+  }
+
+  /**
+   * Blocks until a permit is available and takes it.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquire() throws InterruptedException {
+    Decision decision;
+    synchronized (this) {
+      while (this.active >= this.limit) {
+        wait();
+      }
+      this.active++;
+      decision = permit(Action.ADMIT, "permit " + this.active + " of " + this.limit + " taken");
+    }
+    record(decision);
+  }
+
+  /**
+   * Returns a permit taken by {@link #acquire()}.
+   */
+  public void release() {
+    Decision decision;
+    synchronized (this) {
+      if (this.active < 1) {
+        throw new IllegalStateException("no permit to release");
+      }
+      this.active--;
+      notifyAll();
+      decision = permit(Action.RELEASE, this.active + " of " + this.limit + " permits in use");
+    }
+    record(decision);
+  }
+
+  /**
+   * Records how a game ended.
+   *
+   * @param isAbnormal whether the game ended abnormally
+   * @see BotMatch.Result#isAbnormal()
+   */
+  public synchronized void reportGame(boolean isAbnormal) {
+    this.recentGames.addLast(isAbnormal);
+    while (this.recentGames.size() > GAME_WINDOW) {
+      this.recentGames.removeFirst();
+    }
+  }
+
+  private Sample sample() {
+    double cpuLoad = Double.NaN;
+    double freeMemory = Double.NaN;
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      com.sun.management.OperatingSystemMXBean sunOs = (com.sun.management.OperatingSystemMXBean) os;
+      double load = sunOs.getSystemCpuLoad();
+      if (load >= 0) {
+        cpuLoad = load;
+      }
+      long total = sunOs.getTotalPhysicalMemorySize();
+      if (total > 0) {
+        freeMemory = (double) sunOs.getFreePhysicalMemorySize() / total;
+      }
+    }
+    synchronized (this) {
+      double abnormalRatio = Double.NaN;
+      if (this.recentGames.size() >= MIN_GAMES) {
+        int abnormal = 0;
+        for (boolean isAbnormal : this.recentGames) {
+          if (isAbnormal) {
+            abnormal++;
+          }
+        }
+        abnormalRatio = (double) abnormal / this.recentGames.size();
+      }
+      return new Sample(cpuLoad, freeMemory, abnormalRatio, this.active);
+    }
+  }
+
+  /**
+   * Adjusts the limit according to the specified sample. The limit is
+   * only increased while CPU load and free memory can be measured.
+   */
+  private void adjust(Sample sample) {
+    Decision decision = null;
+    synchronized (this) {
+      this.lastSample = sample;
+      this.samplesSinceChange++;
+
+      String overload = null;
+      if (sample.cpuLoad > this.cpuHigh) {
+        overload = "CPU load above " + this.cpuHigh;
+      } else if (sample.freeMemory < this.minFreeMemory) {
+        overload = "free memory below " + this.minFreeMemory;
+      } else if (sample.abnormalRatio > this.maxAbnormalRatio) {
+        overload = "abnormal games above " + this.maxAbnormalRatio;
+      }
+
+      if (overload != null) {
+        this.spareSamples = 0;
+        if (this.limit > this.minLimit && this.samplesSinceChange >= DECREASE_SAMPLES) {
+          decision = change(Action.BACK_OFF, Math.max(this.minLimit, this.limit / 2), sample, overload);
+        }
+      } else if (sample.cpuLoad < this.cpuLow && sample.freeMemory >= this.minFreeMemory
+          && !(sample.abnormalRatio > this.maxAbnormalRatio / 2) && sample.active >= this.limit) {
+        /* Spare capacity is only meaningful while every permit is in use. */
+        this.spareSamples++;
+        if (this.limit < this.maxLimit && this.spareSamples >= INCREASE_SAMPLES) {
+          decision = change(Action.RAISE_LIMIT, this.limit + 1, sample, "spare capacity for " + this.spareSamples + " samples");
+        }
+      } else {
+        this.spareSamples = 0;
+      }
+    }
+    if (decision != null) {
+      record(decision);
+    }
+  }
+
+  private Decision change(Action action, int newLimit, Sample sample, String reason) {
+    Decision decision = new Decision(action, this.limit, newLimit, sample, reason);
+    this.limit = newLimit;
+    this.spareSamples = 0;
+    this.samplesSinceChange = 0;
+    /* Games which ended before the change say nothing about the new limit. */
+    this.recentGames.clear();
+    addDecision(decision);
+    notifyAll();
+    return decision;
+  }
+
+  /**
+   * Creates the decision for an admission or release. The load signals
+   * are taken from the most recent sample, so taking a permit never waits
+   * for a measurement.
+   */
+  private Decision permit(Action action, String reason) {
+    Sample last = this.lastSample;
+    Sample sample = (last == null)
+        ? new Sample(Double.NaN, Double.NaN, Double.NaN, this.active)
+        : new Sample(last.cpuLoad, last.freeMemory, last.abnormalRatio, this.active);
+    Decision decision = new Decision(action, this.limit, this.limit, sample, reason);
+    addDecision(decision);
+    return decision;
+  }
+
+  private void addDecision(Decision decision) {
+    this.decisions.addLast(decision);
+    while (this.decisions.size() > MAX_DECISIONS) {
+      this.decisions.removeFirst();
+    }
+  }
+
+  private void record(Decision decision) {
+    LOGGER.log(decision.isLimitChange() ? Level.INFO : Level.FINE, "admission: {0}", decision);
+    if (this.logFile != null) {
+      /* Admissions and releases are recorded on the threads of the games. */
+      synchronized (this.logLock) {
+        try {
+          boolean isNew = !Files.exists(this.logFile);
+          try (BufferedWriter bw = Files.newBufferedWriter(this.logFile, StandardCharsets.UTF_8,
+              StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (isNew) {
+              bw.write(CSV_HEADER);
+              bw.newLine();
+            }
+            Sample sample = decision.sample;
+            bw.write(decision.time.toString()
+                + "," + decision.action
+                + "," + decision.oldLimit
+                + "," + decision.newLimit
+                + "," + sample.active
+                + "," + String.format(Locale.US, "%.3f,%.3f,%.3f", sample.cpuLoad, sample.freeMemory, sample.abnormalRatio)
+                + ",\"" + decision.reason.replace("\"", "\"\"") + "\"");
+            bw.newLine();
+          }
+        } catch (IOException ex) {
+          LOGGER.log(Level.SEVERE, "failed to write decision: " + this.logFile.toString(), ex);
+        }
+      }
+    }
+    if (this.onDecision != null) {
+      this.onDecision.accept(decision);
+    }
+  }
+
+}
@@ -0,0 +1,559 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.session;
+
+import droplauncher.bwapi.bot.Bot;
+import droplauncher.bwheadless.BWHeadless;
+import droplauncher.mvc.view.View;
+import droplauncher.ui.ConsoleSink;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Class for a fully automated game between two bots.
+ *
+ * The first bot hosts a game with the specified map and the second bot
+ * joins it. Each bot runs in its own {@link GameSession} and StarCraft
+ * directory. Both sessions use the LocalPC network provider by default
+ * since they run on the same computer.
+ *
+ * bwheadless joins the first open game it finds, so matches played at the
+ * same time take turns in the lobby: a match holds the lobby from starting
+ * its host until bwheadless reports that the game has started. If the
+ * game does not start in time, both sessions are stopped before the lobby
+ * is released and the match has no result.
+ *
+ * The result is determined from the output of both sessions:
+ * <ol>
+ *   <li>a bot whose output matches the loss pattern loses and a bot whose
+ *       output matches the win pattern wins. Only output of the bot
+ *       client and bwheadless, which includes the output of a DLL bot, is
+ *       matched, without the session and process prefixes and the
+ *       child-output marker of bwheadless. By default, a bot reports
+ *       its result by printing a line such as "DROPLAUNCHER_RESULT: win"
+ *       from its onEnd() callback.</li>
+ *   <li>a bot whose bwheadless process exits or fails before the game
+ *       has ended loses</li>
+ *   <li>a game which has not ended before the time limit is a draw</li>
+ * </ol>
+ * If both games ended without a recognized result, or the results
+ * contradict each other, the result has no winner and is not a draw.
+ */
+public class BotMatch {
+
+  private static final Logger LOGGER = Logger.getLogger(BotMatch.class.getName());
+
+  /* Default patterns for the result marker printed by a bot, e.g. from its onEnd() callback. */
+  public static final Pattern DEFAULT_WIN_PATTERN = Pattern.compile("^\\s*DROPLAUNCHER_RESULT:\\s*(win|victory)\\b", Pattern.CASE_INSENSITIVE);
+  public static final Pattern DEFAULT_LOSS_PATTERN = Pattern.compile("^\\s*DROPLAUNCHER_RESULT:\\s*(loss|defeat)\\b", Pattern.CASE_INSENSITIVE);
+
+  public static final long DEFAULT_TIME_LIMIT = TimeUnit.MINUTES.toMillis(60);
+
+  private static final long JOIN_TIMEOUT = 60000; /* milliseconds for the joiner to enter the host's game */
+
+  /* Completes when the match which holds the lobby releases it. Guarded by LOBBY_LOCK. */
+  private static final Object LOBBY_LOCK = new Object();
+  private static CompletableFuture<Void> lobbyReleased = CompletableFuture.completedFuture(null);
+
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "match-timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  public enum Side {
+    HOST,
+    JOINER
+  }
+
+  /**
+   * Outcome of a match.
+   */
+  public static class Result {
+
+    private final Side winner;
+    private final boolean isDraw;
+    private final String reason;
+    private final long durationMillis;
+    private final boolean isAbnormal;
+
+    private Result(Side winner, boolean isDraw, String reason, long durationMillis, boolean isAbnormal) {
+      this.winner = winner;
+      this.isDraw = isDraw;
+      this.reason = reason;
+      this.durationMillis = durationMillis;
+      this.isAbnormal = isAbnormal;
+    }
+
+    /**
+     * Returns a result without a winner for a match which could not be
+     * played, e.g. because no StarCraft directory was available.
+     *
+     * @param reason specified description of the failure
+     */
+    static Result failed(String reason) {
+      return new Result(null, false, reason, 0, true);
+    }
+
+    /**
+     * Returns the winning side or null if there is no winner.
+     */
+    public Side getWinner() {
+      return this.winner;
+    }
+
+    public boolean isDraw() {
+      return this.isDraw;
+    }
+
+    /**
+     * Tests whether the outcome of the match is known, i.e. it has a
+     * winner or is a draw.
+     */
+    public boolean isDecided() {
+      return this.winner != null || this.isDraw;
+    }
+
+    /**
+     * Returns a short description of how the result was determined.
+     */
+    public String getReason() {
+      return this.reason;
+    }
+
+    public long getDurationMillis() {
+      return this.durationMillis;
+    }
+
+    /**
+     * Tests whether the match did not end normally, i.e. a bot failed to
+     * start or its bwheadless process exited before the game ended. This
+     * happens e.g. when a bot exceeds a frame time limit on an overloaded
+     * computer.
+     */
+    public boolean isAbnormal() {
+      return this.isAbnormal;
+    }
+
+    @Override
+    public String toString() {
+      String outcome = (this.winner != null) ? this.winner + " won" : (this.isDraw ? "draw" : "no result");
+      return outcome + " (" + this.reason + ", " + TimeUnit.MILLISECONDS.toSeconds(this.durationMillis) + " s)";
+    }
+
+  }
+
+  private final SessionManager manager;
+  private final String gameName;
+  private final String map;
+  private final Map<Side, Player> players;
+  private BWHeadless.NetworkProvider networkProvider;
+  private long timeLimit;
+  private Pattern winPattern;
+  private Pattern lossPattern;
+
+  /**
+   * Creates a match.
+   *
+   * @param manager specified manager which runs the sessions
+   * @param gameName specified name of the hosted game, which is also used
+   *     to name the sessions
+   * @param map specified map relative to the StarCraft directory,
+   *     e.g. "maps\(2)Benzene.scx"
+   */
+  public BotMatch(SessionManager manager, String gameName, String map) {
+    if (manager == null || gameName == null || map == null) {
+      throw new IllegalArgumentException("manager, gameName and map cannot be null");
+    }
+    this.manager = manager;
+    this.gameName = gameName;
+    this.map = map;
+    this.players = new HashMap<>();
+    this.networkProvider = BWHeadless.NetworkProvider.LOCAL_PC;
+    this.timeLimit = DEFAULT_TIME_LIMIT;
+    this.winPattern = DEFAULT_WIN_PATTERN;
+    this.lossPattern = DEFAULT_LOSS_PATTERN;
+  }
+
+  /**
+   * Sets the bot of the specified side.
+   *
+   * @param side specified side
+   * @param bot specified bot
+   * @param starcraftExe specified StarCraft.exe in a directory which is
+   *     not used by the other side, e.g. a {@link ClonePool.Clone}
+   */
+  public BotMatch setPlayer(Side side, Bot bot, Path starcraftExe) {
+    this.players.put(side, new Player(side, bot, starcraftExe));
+    return this;
+  }
+
+  /**
+   * Sets the network provider. Defaults to LocalPC, which requires both
+   * bots to run on this computer.
+   *
+   * @param networkProvider specified network provider
+   */
+  public BotMatch setNetworkProvider(BWHeadless.NetworkProvider networkProvider) {
+    this.networkProvider = networkProvider;
+    return this;
+  }
+
+  /**
+   * Sets the time after which a running game is stopped and counted as
+   * a draw.
+   *
+   * @param timeLimit specified time limit in milliseconds
+   */
+  public BotMatch setTimeLimit(long timeLimit) {
+    this.timeLimit = timeLimit;
+    return this;
+  }
+
+  /**
+   * Sets the patterns which identify a win or a loss in the output of a
+   * bot. Patterns are matched against each line of bot client and
+   * bwheadless output without the session and process prefixes.
+   *
+   * @param winPattern specified win pattern
+   * @param lossPattern specified loss pattern
+   */
+  public BotMatch setResultPatterns(Pattern winPattern, Pattern lossPattern) {
+    this.winPattern = winPattern;
+    this.lossPattern = lossPattern;
+    return this;
+  }
+
+  /**
+   * Starts both bots and returns a future which completes with the
+   * result once the game has ended and both sessions have stopped.
+   * Sessions are removed from the manager afterwards.
+   *
+   * @throws IllegalStateException if a side has no bot
+   * @throws IllegalArgumentException if the manager rejects a session,
+   *     e.g. because both sides use the same StarCraft directory
+   */
+  public CompletableFuture<Result> play() {
+    Player host = this.players.get(Side.HOST);
+    Player joiner = this.players.get(Side.JOINER);
+    if (host == null || joiner == null) {
+      throw new IllegalStateException("both sides need a bot");
+    }
+    host.create(this.manager, hostOverlay());
+    try {
+      joiner.create(this.manager, joinOverlay());
+    } catch (RuntimeException ex) {
+      host.remove(this.manager);
+      throw ex;
+    }
+
+    AtomicLong start = new AtomicLong(System.currentTimeMillis());
+    AtomicBoolean isStopping = new AtomicBoolean(false);
+    Consumer<GameSession> listener = session -> {
+      if (isStopping.get()) {
+        return;
+      }
+      for (Player player : this.players.values()) {
+        if (player.session == session && session.getState() == GameSession.State.IDLE) {
+          /* The session stopped before the game ended, e.g. the manager found the process exited. */
+          player.ended(true);
+        }
+      }
+    };
+    this.manager.addListener(listener);
+
+    CompletableFuture<Void> ended = CompletableFuture.allOf(host.ended, joiner.ended);
+    CompletableFuture<Void> timeout = new CompletableFuture<>();
+    CompletableFuture<Void> lobby = new CompletableFuture<>();
+    CompletableFuture<Void> started = host.started.applyToEither(joiner.started, x -> null);
+    AtomicBoolean isJoinTimeout = new AtomicBoolean(false);
+
+    /* The joiner only finds the host's game since no other match is in the lobby. */
+    return acquireLobby(lobby)
+        .thenCompose(v -> {
+          start.set(System.currentTimeMillis());
+          return this.manager.start(host.session);
+        })
+        .thenCompose(session -> this.manager.start(joiner.session))
+        .thenCompose(session -> within(CompletableFuture.anyOf(started, host.ended, joiner.ended), JOIN_TIMEOUT))
+        .handle((v, ex) -> {
+          if (ex != null) {
+            LOGGER.log(Level.WARNING, "failed to start match: " + this.gameName, ex);
+            Player failed = (host.session.getState() == GameSession.State.RUNNING) ? joiner : host;
+            failed.failed = true;
+          } else if (!started.isDone() && !host.ended.isDone() && !joiner.ended.isDone()) {
+            LOGGER.log(Level.WARNING, "game did not start in time: {0}", this.gameName);
+            isJoinTimeout.set(true);
+          }
+          return null;
+        })
+        .thenCompose(v -> {
+          if (!started.isDone()) {
+            /* Stop a host which is still open and a joiner which is still searching before another match enters the lobby. */
+            isStopping.set(true);
+            return CompletableFuture.allOf(stop(host.session), stop(joiner.session));
+          }
+          return CompletableFuture.completedFuture(null);
+        })
+        .thenCompose(v -> {
+          lobby.complete(null);
+          if (isStopping.get()) {
+            return CompletableFuture.completedFuture(null);
+          }
+          TIMER.schedule(() -> timeout.complete(null), this.timeLimit, TimeUnit.MILLISECONDS);
+          return ended.applyToEither(timeout, x -> null);
+        })
+        .thenCompose(v -> {
+          isStopping.set(true);
+          return CompletableFuture.allOf(stop(host.session), stop(joiner.session));
+        })
+        .handle((v, ex) -> {
+          lobby.complete(null);
+          this.manager.removeListener(listener);
+          host.remove(this.manager);
+          joiner.remove(this.manager);
+          return decide(host, joiner, isJoinTimeout.get(), timeout.isDone() && !ended.isDone(), System.currentTimeMillis() - start.get());
+        });
+  }
+
+  private Map<String, String> hostOverlay() {
+    Map<String, String> overlay = new HashMap<>();
+    overlay.put(BWHeadless.PropertyKey.CONNECT_MODE.toString(), BWHeadless.ConnectMode.HOST.toString());
+    overlay.put(BWHeadless.PropertyKey.NETWORK_PROVIDER.toString(), this.networkProvider.toString());
+    overlay.put(BWHeadless.PropertyKey.GAME_NAME.toString(), this.gameName);
+    overlay.put(BWHeadless.PropertyKey.MAP.toString(), this.map);
+    return overlay;
+  }
+
+  private Map<String, String> joinOverlay() {
+    Map<String, String> overlay = new HashMap<>();
+    overlay.put(BWHeadless.PropertyKey.CONNECT_MODE.toString(), BWHeadless.ConnectMode.JOIN.toString());
+    overlay.put(BWHeadless.PropertyKey.NETWORK_PROVIDER.toString(), this.networkProvider.toString());
+    return overlay;
+  }
+
+  private static Result decide(Player host, Player joiner, boolean isJoinTimeout, boolean isTimeout, long duration) {
+    if (isJoinTimeout) {
+      return new Result(null, false, "game did not start", duration, true);
+    }
+
+    /* Failures to start and crashes lose. */
+    boolean hostLost = host.failed || host.crashed;
+    boolean joinerLost = joiner.failed || joiner.crashed;
+    if (hostLost || joinerLost) {
+      if (hostLost && joinerLost) {
+        return new Result(null, false, "both bots failed", duration, true);
+      }
+      Player loser = hostLost ? host : joiner;
+      return new Result(hostLost ? Side.JOINER : Side.HOST, false,
+          loser.side + (loser.failed ? " failed to start" : " exited before the game ended"), duration, true);
+    }
+
+    /* Results reported by the bots. */
+    boolean hostWon = host.reportedWin || joiner.reportedLoss;
+    boolean joinerWon = joiner.reportedWin || host.reportedLoss;
+    if (hostWon && joinerWon) {
+      return new Result(null, false, "conflicting results", duration, false);
+    } else if (hostWon || joinerWon) {
+      return new Result(hostWon ? Side.HOST : Side.JOINER, false, "reported by bot", duration, false);
+    }
+
+    if (isTimeout) {
+      return new Result(null, true, "time limit reached", duration, false);
+    }
+    return new Result(null, false, "no result reported", duration, false);
+  }
+
+  /**
+   * Stops the specified session if it is running. Failures are logged.
+   */
+  private CompletableFuture<Void> stop(GameSession session) {
+    if (session.getState() != GameSession.State.RUNNING) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return this.manager.stop(session).handle((stopped, ex) -> {
+      if (ex != null) {
+        LOGGER.log(Level.WARNING, "failed to stop session: " + session.getId(), ex);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Returns a future which completes once the lobby has been released by
+   * the previous match. The specified future releases the lobby for the
+   * next match and must always be completed.
+   *
+   * @param release specified future which the caller completes to
+   *     release the lobby
+   */
+  private static CompletableFuture<Void> acquireLobby(CompletableFuture<Void> release) {
+    synchronized (LOBBY_LOCK) {
+      CompletableFuture<Void> previous = lobbyReleased;
+      lobbyReleased = release;
+      return previous;
+    }
+  }
+
+  /**
+   * Returns a future which completes when the specified future completes
+   * or after the specified time, whichever happens first.
+   */
+  private static CompletableFuture<Void> within(CompletableFuture<?> future, long millis) {
+    CompletableFuture<Void> ret = new CompletableFuture<>();
+    TIMER.schedule(() -> ret.complete(null), millis, TimeUnit.MILLISECONDS);
+    future.whenComplete((v, ex) -> ret.complete(null));
+    return ret;
+  }
+
+  /**
+   * One side of the match. Flags are written by output and listener
+   * threads and read once both sessions have stopped.
+   */
+  private class Player implements ConsoleSink {
+
+    private final Side side;
+    private final Bot bot;
+    private final Path starcraftExe;
+    private final CompletableFuture<Void> ended;
+    private final CompletableFuture<Void> started;
+    private GameSession session;
+    private ConsoleSink consoleOutput;
+    private volatile boolean failed;
+    private volatile boolean crashed;
+    private volatile boolean reportedWin;
+    private volatile boolean reportedLoss;
+
+    private Player(Side side, Bot bot, Path starcraftExe) {
+      this.side = side;
+      this.bot = bot;
+      this.starcraftExe = starcraftExe;
+      this.ended = new CompletableFuture<>();
+      this.started = new CompletableFuture<>();
+      this.session = null;
+      this.consoleOutput = null;
+      this.failed = false;
+      this.crashed = false;
+      this.reportedWin = false;
+      this.reportedLoss = false;
+    }
+
+    private void create(SessionManager manager, Map<String, String> overlay) {
+      String id = BotMatch.this.gameName + "-" + this.side.toString().toLowerCase(Locale.US);
+      this.consoleOutput = manager.getConsoleOutput();
+      this.session = manager.create(id, this.starcraftExe, this.bot, overlay);
+      this.session.setConsoleOutput(this);
+    }
+
+    private void remove(SessionManager manager) {
+      if (this.session != null && this.session.getState() == GameSession.State.IDLE) {
+        manager.remove(this.session.getId());
+      }
+    }
+
+    private void ended(boolean isCrash) {
+      if (!this.ended.isDone()) {
+        this.crashed = isCrash;
+        this.ended.complete(null);
+      }
+    }
+
+    @Override
+    public void print(String str) {
+      if (this.consoleOutput != null) {
+        this.consoleOutput.print(str);
+      }
+      check(str);
+    }
+
+    @Override
+    public void println(String line) {
+      if (this.consoleOutput != null) {
+        this.consoleOutput.println(line);
+      }
+      check(line);
+    }
+
+    private void check(String line) {
+      String output = getProcessOutput(line);
+      if (output != null) {
+        if (BotMatch.this.winPattern.matcher(output).find()) {
+          this.reportedWin = true;
+        }
+        if (BotMatch.this.lossPattern.matcher(output).find()) {
+          this.reportedLoss = true;
+        }
+      }
+      int index = line.indexOf(View.MessagePrefix.BWHEADLESS.get());
+      if (index >= 0) {
+        String message = line.substring(index + View.MessagePrefix.BWHEADLESS.get().length());
+        if (message.startsWith(View.Message.GAME_STARTED.toString())) {
+          this.started.complete(null);
+        }
+        if (message.startsWith(View.Message.GAME_HAS_ENDED.toString())
+            || message.startsWith(View.Message.GAME_OVER.toString())) {
+          ended(false);
+        }
+      }
+      if (line.contains(View.Message.ERROR_126.toString()) || line.contains(View.Message.ERROR_740.toString())) {
+        ended(true);
+      }
+    }
+
+    /**
+     * Returns the output of the bot client or bwheadless in the specified
+     * line without the session and process prefixes, or null if the line
+     * is not process output, e.g. a message of this program.
+     */
+    private String getProcessOutput(String line) {
+      String message = line;
+      if (message.startsWith("[")) {
+        /* Session prefix, see GameSession#setConsoleOutput(ConsoleSink). */
+        int index = message.indexOf("] ");
+        if (index >= 0) {
+          message = message.substring(index + 2);
+        }
+      }
+      /* Output of bwheadless.exe child processes, e.g. a DLL bot, is bot output. See ConsoleOutput#print(String). */
+      if (message.startsWith(View.MessagePrefix.BWHEADLESS.get() + ":: ")) {
+        int index = message.indexOf(":: ");
+        message = View.MessagePrefix.BOT.get() + message.substring(index + ":: ".length());
+      }
+      for (View.MessagePrefix prefix : new View.MessagePrefix[] {View.MessagePrefix.BOT, View.MessagePrefix.BWHEADLESS}) {
+        if (message.startsWith(prefix.get())) {
+          return message.substring(prefix.get().length());
+        }
+      }
+      return null;
+    }
+
+  }
+
+}
@@ -0,0 +1,551 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.session;
+
+import droplauncher.DropLauncher;
+import droplauncher.bwapi.BWAPI;
+import droplauncher.io.AtomicFile;
+import droplauncher.io.DirectorySync;
+import droplauncher.mvc.model.SettingsSnapshot;
+import droplauncher.starcraft.Starcraft;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Class for a pool of isolated clones of a StarCraft directory, one per
+ * concurrent game.
+ *
+ * A clone consists of two layers:
+ * <ul>
+ *   <li>The shared layer: every file of the base directory is a hard
+ *       link to the base file, so creating a clone costs almost no time
+ *       or disk space. Files which BWAPI or this program replace,
+ *       e.g. extracted dependencies, are replaced via rename and never
+ *       written through the link.</li>
+ *   <li>The writable layer: paths which are written in place during a
+ *       game, e.g. "bwapi-data" and the INI files in the root directory, are real copies.</li>
+ * </ul>
+ * If hard links are not supported, e.g. because the pool directory is on
+ * a different file system such as a RAM disk, files are copied instead.
+ *
+ * A number of idle clones is built ahead of demand. A released clone is
+ * reset before it is handed out again: the writable layer is restored
+ * from the base directory, files which were added during the game, such
+ * as a client bot, are deleted and replaced links are restored. Clones
+ * are kept on disk and reused by the next pool which uses the same base
+ * directory.
+ */
+public class ClonePool {
+
+  private static final Logger LOGGER = Logger.getLogger(ClonePool.class.getName());
+
+  public static final Path DEFAULT_DIRECTORY = DropLauncher.DATA_DIRECTORY.resolve("clones");
+
+  private static final String CLONE_PREFIX = "clone-";
+  private static final String BASE_FILENAME = "base.txt"; /* base directory the existing clones were built from */
+
+  /* Lowercase paths relative to the StarCraft directory which are written in place during a game. */
+  private static final List<String> WRITABLE_PATHS = Collections.unmodifiableList(Arrays.asList(
+      BWAPI.ROOT_DIRECTORY.toString().toLowerCase(Locale.US),
+      "characters",
+      "errors",
+      "maps/replays"
+  ));
+
+  /* Extensions of files in the root directory which are written in place. */
+  private static final List<String> WRITABLE_EXTENSIONS = Collections.unmodifiableList(Arrays.asList(
+      "ini",
+      "cfg",
+      "log"
+  ));
+
+  /**
+   * A clone of the base directory.
+   */
+  public static class Clone {
+
+    private final int number;
+    private final Path directory;
+
+    private Clone(int number, Path directory) {
+      this.number = number;
+      this.directory = directory;
+    }
+
+    public int getNumber() {
+      return this.number;
+    }
+
+    public Path getDirectory() {
+      return this.directory;
+    }
+
+    public Path getStarcraftExe() {
+      return this.directory.resolve(Starcraft.BINARY_FILENAME);
+    }
+
+    @Override
+    public String toString() {
+      return this.directory.toString();
+    }
+
+  }
+
+  private final Path base;
+  private final Path directory;
+  private final int idleTarget;
+  private final Deque<Clone> idle; /* guarded by this */
+  private final Set<Clone> inUse; /* guarded by this */
+  private int pending; /* clones being built or reset for the idle queue, guarded by this */
+  private final AtomicInteger nextNumber;
+  private volatile Boolean isLinkSupported; /* null until the first link attempt */
+  private volatile boolean verifyContents;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a pool. Call {@link #start()} to adopt existing clones and
+   * build the idle clones.
+   *
+   * @param base specified StarCraft directory to clone
+   * @param directory specified directory in which to create clones
+   * @param idleTarget specified number of idle clones to keep ready
+   */
+  public ClonePool(Path base, Path directory, int idleTarget) {
+    if (base == null || directory == null) {
+      throw new IllegalArgumentException("base and directory cannot be null");
+    }
+    this.base = base.toAbsolutePath().normalize();
+    this.directory = directory.toAbsolutePath().normalize();
+    if (this.directory.startsWith(this.base)) {
+      throw new IllegalArgumentException("clone directory cannot be inside the StarCraft directory: " + this.directory.toString());
+    }
+    this.idleTarget = Math.max(0, idleTarget);
+    this.idle = new ArrayDeque<>();
+    this.inUse = new HashSet<>();
+    this.pending = 0;
+    this.nextNumber = new AtomicInteger(0);
+    this.isLinkSupported = null;
+    this.verifyContents = false;
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "clone-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Returns the clone directory set in the specified settings or the
+   * default directory.
+   *
+   * @param settings specified settings
+   */
+  public static Path getDirectory(SettingsSnapshot settings) {
+    String key = Starcraft.PropertyKey.CLONE_DIRECTORY.toString();
+    return settings.hasValue(key) && !settings.getValue(key).trim().isEmpty()
+        ? Paths.get(settings.getValue(key).trim())
+        : DEFAULT_DIRECTORY;
+  }
+
+  /**
+   * Sets whether writable files of a clone with the same size but a
+   * different modification time than the base file should have their
+   * contents compared before being restored.
+   *
+   * @param enabled specified boolean value
+   * @see DirectorySync#setVerifyContents(boolean)
+   */
+  public ClonePool setVerifyContents(boolean enabled) {
+    this.verifyContents = enabled;
+    return this;
+  }
+
+  public Path getBase() {
+    return this.base;
+  }
+
+  public Path getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Returns whether clones share files with the base directory via hard
+   * links or null if no clone has been built yet.
+   */
+  public Boolean isLinkSupported() {
+    return this.isLinkSupported;
+  }
+
+  /**
+   * Returns the number of idle clones which are ready to be acquired.
+   */
+  public synchronized int getIdleCount() {
+    return this.idle.size();
+  }
+
+  /**
+   * Adopts the clones left by a previous pool of the same base directory,
+   * deletes clones of other base directories and builds idle clones up
+   * to the target.
+   *
+   * @return a future which completes once existing clones have been
+   *     adopted or deleted
+   */
+  public CompletableFuture<Void> start() {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        Files.createDirectories(this.directory);
+        Path baseFile = this.directory.resolve(BASE_FILENAME);
+        boolean isSameBase = Files.isRegularFile(baseFile)
+            && new String(Files.readAllBytes(baseFile), StandardCharsets.UTF_8).trim().equals(this.base.toString());
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, CLONE_PREFIX + "*")) {
+          for (Path path : stream) {
+            if (Files.isDirectory(path)) {
+              existing.add(path);
+            }
+          }
+        }
+        Collections.sort(existing);
+        for (Path path : existing) {
+          int number;
+          try {
+            number = Integer.parseInt(path.getFileName().toString().substring(CLONE_PREFIX.length()));
+          } catch (NumberFormatException ex) {
+            continue;
+          }
+          this.nextNumber.accumulateAndGet(number, Math::max);
+          if (isSameBase) {
+            synchronized (this) {
+              this.pending++;
+            }
+            resetAsync(new Clone(number, path));
+          } else {
+            FileUtils.deleteQuietly(path.toFile());
+          }
+        }
+        AtomicFile.write(baseFile, (this.base.toString() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+      refill();
+    }, this.executor);
+  }
+
+  /**
+   * Returns an idle clone or builds a new one if none is ready.
+   *
+   * @return a future which completes with a clone which is reserved for
+   *     the caller until it is passed to {@link #release(Clone)}
+   */
+  public CompletableFuture<Clone> acquire() {
+    Clone clone;
+    synchronized (this) {
+      clone = this.idle.poll();
+      if (clone != null) {
+        this.inUse.add(clone);
+      }
+    }
+    if (clone != null) {
+      refill();
+      return CompletableFuture.completedFuture(clone);
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      Clone built = build();
+      synchronized (this) {
+        this.inUse.add(built);
+      }
+      return built;
+    }, this.executor).whenComplete((built, ex) -> refill());
+  }
+
+  /**
+   * Resets the specified clone in the background and returns it to the
+   * idle clones.
+   *
+   * @param clone specified clone which was acquired from this pool
+   */
+  public void release(Clone clone) {
+    synchronized (this) {
+      if (!this.inUse.remove(clone)) {
+        throw new IllegalArgumentException("clone is not in use: " + clone.toString());
+      }
+      this.pending++;
+    }
+    resetAsync(clone);
+  }
+
+  /**
+   * Stops building clones. Clones are kept on disk for the next pool.
+   */
+  public void shutdown() {
+    this.executor.shutdown();
+  }
+
+  /**
+   * Builds idle clones until the idle clones and the clones being
+   * prepared reach the target.
+   */
+  private void refill() {
+    int missing;
+    synchronized (this) {
+      missing = this.idleTarget - this.idle.size() - this.pending;
+      if (missing <= 0) {
+        return;
+      }
+      this.pending += missing;
+    }
+    for (int i = 0; i < missing; i++) {
+      CompletableFuture.runAsync(() -> {
+        Clone clone = null;
+        try {
+          clone = build();
+        } catch (RuntimeException ex) {
+          LOGGER.log(Level.WARNING, "failed to build clone of " + this.base.toString(), ex);
+        }
+        synchronized (this) {
+          this.pending--;
+          if (clone != null) {
+            this.idle.add(clone);
+          }
+        }
+      }, this.executor);
+    }
+  }
+
+  private void resetAsync(Clone clone) {
+    CompletableFuture.runAsync(() -> {
+      boolean success = false;
+      try {
+        reset(clone);
+        success = true;
+      } catch (IOException | RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "failed to reset clone, deleting: " + clone.toString(), ex);
+        FileUtils.deleteQuietly(clone.getDirectory().toFile());
+      }
+      synchronized (this) {
+        this.pending--;
+        if (success) {
+          this.idle.add(clone);
+        }
+      }
+      if (!success) {
+        refill();
+      }
+    }, this.executor);
+  }
+
+  /* ************************************************************ */
+  /* Build and reset */
+  /* ************************************************************ */
+
+  private Clone build() {
+    int number = this.nextNumber.incrementAndGet();
+    Path target = this.directory.resolve(CLONE_PREFIX + number);
+    long start = System.nanoTime();
+    try {
+      if (Files.exists(target)) {
+        FileUtils.deleteDirectory(target.toFile());
+      }
+      Files.createDirectories(target);
+      mirror(target);
+    } catch (IOException ex) {
+      FileUtils.deleteQuietly(target.toFile());
+      throw new UncheckedIOException(ex);
+    }
+    LOGGER.log(Level.FINE, "built clone {0} in {1} ms (hard links: {2})",
+        new Object[] {target, (System.nanoTime() - start) / 1000000, this.isLinkSupported});
+    return new Clone(number, target);
+  }
+
+  /**
+   * Restores the specified clone to the state of the base directory.
+   */
+  private void reset(Clone clone) throws IOException {
+    Path target = clone.getDirectory();
+
+    /* Delete files which are not part of the base and restore replaced links. */
+    Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        String relative = toRelative(target, dir);
+        if (!relative.isEmpty() && isWritable(relative, true)) {
+          /* Restored by mirror(). */
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String relative = toRelative(target, file);
+        Path baseFile = ClonePool.this.base.resolve(relative);
+        if (!Files.isRegularFile(baseFile)) {
+          Files.delete(file);
+        } else if (!isWritable(relative, false) && isReplaced(file, attrs, baseFile)) {
+          Files.delete(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+        if (ex != null) {
+          throw ex;
+        }
+        if (!dir.equals(target) && !Files.isDirectory(ClonePool.this.base.resolve(toRelative(target, dir)))) {
+          Files.delete(dir);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    mirror(target);
+  }
+
+  /**
+   * Creates every directory and file of the base directory which is
+   * missing in the specified target and restores the writable layer.
+   */
+  private void mirror(Path target) throws IOException {
+    DirectorySync sync = new DirectorySync()
+        .setDeleteExtraneous(true)
+        .setVerifyContents(this.verifyContents);
+    Files.walkFileTree(this.base, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        String relative = toRelative(ClonePool.this.base, dir);
+        Path targetDir = target.resolve(relative);
+        if (!relative.isEmpty() && isWritable(relative, true)) {
+          sync.sync(dir, targetDir);
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        Files.createDirectories(targetDir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String relative = toRelative(ClonePool.this.base, file);
+        Path targetFile = target.resolve(relative);
+        if (isWritable(relative, false)) {
+          if (!Files.isRegularFile(targetFile)
+              || Files.size(targetFile) != attrs.size()
+              || !Files.getLastModifiedTime(targetFile).equals(attrs.lastModifiedTime())) {
+            Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+          }
+        } else if (!Files.exists(targetFile)) {
+          link(file, targetFile);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    /* Writable directories which only exist in the clone are not visited above. */
+    for (String writable : WRITABLE_PATHS) {
+      if (!Files.isDirectory(this.base.resolve(writable))) {
+        FileUtils.deleteQuietly(target.resolve(writable).toFile());
+      }
+    }
+  }
+
+  /**
+   * Tests whether the specified file of the shared layer no longer
+   * matches the specified base file, i.e. it is not a link to the base
+   * file or, if files are copied, its size or modification time differs.
+   */
+  private boolean isReplaced(Path file, BasicFileAttributes attrs, Path baseFile) throws IOException {
+    if (this.isLinkSupported == Boolean.TRUE) {
+      return !Files.isSameFile(file, baseFile);
+    }
+    return attrs.size() != Files.size(baseFile)
+        || !attrs.lastModifiedTime().equals(Files.getLastModifiedTime(baseFile));
+  }
+
+  /**
+   * Creates a hard link to the specified file or copies it if hard links
+   * are not supported.
+   */
+  private void link(Path source, Path target) throws IOException {
+    if (this.isLinkSupported != Boolean.FALSE) {
+      try {
+        Files.createLink(target, source);
+        this.isLinkSupported = Boolean.TRUE;
+        return;
+      } catch (UnsupportedOperationException | FileSystemException ex) {
+        if (this.isLinkSupported == null) {
+          LOGGER.log(Level.INFO, "hard links not supported, copying files: " + target.toString(), ex);
+          this.isLinkSupported = Boolean.FALSE;
+        }
+      }
+    }
+    Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+  }
+
+  /**
+   * Tests whether the specified relative path belongs to the writable
+   * layer.
+   *
+   * @param relative specified path relative to the StarCraft directory
+   *     with forward slashes
+   * @param isDirectory whether the path is a directory
+   */
+  private static boolean isWritable(String relative, boolean isDirectory) {
+    String path = relative.toLowerCase(Locale.US);
+    for (String writable : WRITABLE_PATHS) {
+      if (path.equals(writable) || path.startsWith(writable + "/")) {
+        return true;
+      }
+    }
+    return !isDirectory
+        && path.indexOf('/') < 0
+        && WRITABLE_EXTENSIONS.contains(FilenameUtils.getExtension(path));
+  }
+
+  private static String toRelative(Path root, Path path) {
+    return root.relativize(path).toString().replace('\\', '/');
+  }
+
+}
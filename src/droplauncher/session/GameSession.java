@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.session;
+
+import adakite.exception.InvalidArgumentException;
+import adakite.exception.InvalidStateException;
+import adakite.windows.task.exception.TasklistParseException;
+import droplauncher.bwapi.bot.Bot;
+import droplauncher.bwapi.bot.exception.InvalidBotTypeException;
+import droplauncher.bwapi.bot.exception.MissingBotFileException;
+import droplauncher.bwapi.bot.exception.MissingBotNameException;
+import droplauncher.bwapi.bot.exception.MissingBotRaceException;
+import droplauncher.bwapi.bot.exception.MissingBwapiDllException;
+import droplauncher.bwheadless.BWHeadless;
+import droplauncher.bwheadless.exception.MissingBWHeadlessExeException;
+import droplauncher.bwheadless.exception.MissingBotException;
+import droplauncher.mvc.model.Model;
+import droplauncher.mvc.model.SettingsSnapshot;
+import droplauncher.process.exception.ClosePipeException;
+import droplauncher.starcraft.exception.MissingStarcraftExeException;
+import droplauncher.starcraft.exception.UnsupportedStarcraftVersionException;
+import droplauncher.ui.ConsoleSink;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Class for a single bot launch with its own StarCraft directory,
+ * settings and processes. Sessions are independent of the bot and the
+ * state of the graphical interface and of each other, so several
+ * sessions can run at the same time.
+ *
+ * The settings of a session are the program settings at the time of each
+ * launch with the session's overlay applied on top. The overlay is
+ * never written to the settings file.
+ *
+ * @see SessionManager
+ */
+public class GameSession {
+
+  public enum State {
+    IDLE,
+    STARTING,
+    RUNNING,
+    STOPPING
+  }
+
+  private final String id;
+  private final Path starcraftExe;
+  private final Bot bot;
+  private final Map<String, String> settingsOverlay;
+  private final BWHeadless bwheadless;
+  private volatile State state;
+  private volatile Consumer<GameSession> onStateChange;
+
+  /**
+   * Creates a session.
+   *
+   * @param id specified unique name of this session
+   * @param starcraftExe specified StarCraft.exe, which must not be used by
+   *     another running session
+   * @param bot specified bot. A copy is launched, so the specified bot is
+   *     never modified.
+   * @param settingsOverlay specified settings which replace the program
+   *     settings for this session or null
+   */
+  public GameSession(String id, Path starcraftExe, Bot bot, Map<String, String> settingsOverlay) {
+    if (id == null || starcraftExe == null || bot == null) {
+      throw new IllegalArgumentException("id, starcraftExe and bot cannot be null");
+    }
+    this.id = id;
+    this.starcraftExe = starcraftExe.toAbsolutePath().normalize();
+    this.bot = new Bot(bot);
+    this.settingsOverlay = (settingsOverlay == null)
+        ? Collections.<String, String>emptyMap()
+        : Collections.unmodifiableMap(new HashMap<>(settingsOverlay));
+    this.bwheadless = new BWHeadless();
+    this.state = State.IDLE;
+    this.onStateChange = null;
+  }
+
+  public String getId() {
+    return this.id;
+  }
+
+  public Path getStarcraftExe() {
+    return this.starcraftExe;
+  }
+
+  /**
+   * Returns the StarCraft directory of this session.
+   */
+  public Path getStarcraftDirectory() {
+    Path parent = this.starcraftExe.getParent();
+    return (parent != null) ? parent : this.starcraftExe.getRoot();
+  }
+
+  /**
+   * Returns a copy of the bot of this session.
+   */
+  public Bot getBot() {
+    return new Bot(this.bot);
+  }
+
+  public Map<String, String> getSettingsOverlay() {
+    return this.settingsOverlay;
+  }
+
+  /**
+   * Returns the current program settings with the overlay of this
+   * session applied.
+   */
+  public SettingsSnapshot getSettings() {
+    return Model.getSettings().snapshot().overlay(this.settingsOverlay);
+  }
+
+  /**
+   * Returns the bwheadless instance of this session, e.g. to access its
+   * BWAPI directory.
+   */
+  public BWHeadless getBWHeadless() {
+    return this.bwheadless;
+  }
+
+  public State getState() {
+    return this.state;
+  }
+
+  /**
+   * Sets the callback which is invoked after every state change. The
+   * callback is invoked on the thread which changed the state.
+   *
+   * @param onStateChange specified callback or null
+   */
+  public GameSession setOnStateChange(Consumer<GameSession> onStateChange) {
+    this.onStateChange = onStateChange;
+    return this;
+  }
+
+  /**
+   * Sets the destination of the output of this session. Every line is
+   * prefixed with the ID of this session.
+   *
+   * @param consoleOutput specified destination or null to disable output
+   */
+  public GameSession setConsoleOutput(ConsoleSink consoleOutput) {
+    if (consoleOutput == null) {
+      this.bwheadless.disableConsoleOutput();
+    } else {
+      this.bwheadless.enableConsoleOutput(new PrefixedConsoleSink("[" + this.id + "] ", consoleOutput));
+    }
+    return this;
+  }
+
+  /**
+   * Tests whether the processes of this session are still running. Only
+   * meaningful in state {@link State#RUNNING}.
+   */
+  public boolean isAlive() {
+    return this.bwheadless.isAlive();
+  }
+
+  /**
+   * Configures the StarCraft directory of this session and starts
+   * bwheadless and the bot. Blocks until the processes have started.
+   *
+   * @throws InvalidStateException if this session is not idle
+   * @see BWHeadless#start(droplauncher.mvc.model.SettingsSnapshot)
+   */
+  public void start() throws IOException,
+                             MissingBotException,
+                             InvalidBotTypeException,
+                             MissingBotNameException,
+                             MissingBotRaceException,
+                             MissingBotFileException,
+                             MissingBwapiDllException,
+                             MissingStarcraftExeException,
+                             InvalidArgumentException,
+                             InvalidStateException,
+                             TasklistParseException,
+                             MissingBWHeadlessExeException,
+                             UnsupportedStarcraftVersionException {
+    transition(State.IDLE, State.STARTING);
+    boolean success = false;
+    try {
+      /* The launch modifies the bot, e.g. its file is replaced by the deployed copy. */
+      this.bwheadless
+          .setBot(new Bot(this.bot))
+          .setStarcraftExe(this.starcraftExe);
+      this.bwheadless.start(getSettings());
+      success = true;
+    } finally {
+      setState(success ? State.RUNNING : State.IDLE);
+    }
+  }
+
+  /**
+   * Stops the processes of this session. Tasks started by other sessions
+   * are not affected.
+   *
+   * @throws InvalidStateException if this session is not running
+   * @see BWHeadless#stop()
+   */
+  public void stop() throws IOException,
+                            ClosePipeException,
+                            MissingBotFileException,
+                            TasklistParseException,
+                            InvalidStateException {
+    transition(State.RUNNING, State.STOPPING);
+    boolean success = false;
+    try {
+      this.bwheadless.stop();
+      success = true;
+    } finally {
+      setState(success ? State.IDLE : State.RUNNING);
+    }
+  }
+
+  private synchronized void transition(State expected, State next) throws InvalidStateException {
+    if (this.state != expected) {
+      throw new InvalidStateException("session " + this.id + " is in state " + this.state + ", expected " + expected);
+    }
+    setState(next);
+  }
+
+  private synchronized void setState(State next) {
+    this.state = next;
+    Consumer<GameSession> callback = this.onStateChange;
+    if (callback != null) {
+      callback.accept(this);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.id + " (" + this.state + ", " + getStarcraftDirectory().toString() + ")";
+  }
+
+  /**
+   * Console sink which prefixes every line.
+   */
+  private static class PrefixedConsoleSink implements ConsoleSink {
+
+    private final String prefix;
+    private final ConsoleSink sink;
+
+    private PrefixedConsoleSink(String prefix, ConsoleSink sink) {
+      this.prefix = prefix;
+      this.sink = sink;
+    }
+
+    @Override
+    public void print(String str) {
+      this.sink.print(this.prefix + str);
+    }
+
+    @Override
+    public void println(String line) {
+      this.sink.println(this.prefix + line);
+    }
+
+  }
+
+}
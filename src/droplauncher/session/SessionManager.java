@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.session;
+
+import droplauncher.bwapi.bot.Bot;
+import droplauncher.ui.ConsoleSink;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class for starting, stopping and monitoring several
+ * {@link GameSession}s at the same time.
+ *
+ * Every session must use its own StarCraft directory since BWAPI is
+ * configured per directory. Starting and stopping run on a small worker
+ * pool. Work which does not depend on the session, e.g. verifying the
+ * checksums of deployed files, goes through the shared
+ * {@link droplauncher.io.ChecksumService} and is done once for all
+ * sessions.
+ *
+ * Running sessions are polled periodically. A session whose bwheadless
+ * process has exited, e.g. because the game ended, is stopped so that
+ * its remaining tasks are killed and its bwapi.ini is restored.
+ */
+public class SessionManager {
+
+  private static final Logger LOGGER = Logger.getLogger(SessionManager.class.getName());
+
+  private static final long MONITOR_INTERVAL = 1000; /* milliseconds */
+
+  private final Map<String, GameSession> sessions; /* guarded by this */
+  private final List<Consumer<GameSession>> listeners;
+  private final Set<String> exitedSessions; /* IDs of exited sessions which are being stopped */
+  private final ExecutorService executor;
+  private final ScheduledExecutorService monitor;
+  private ConsoleSink consoleOutput;
+
+  public SessionManager() {
+    this.sessions = new LinkedHashMap<>();
+    this.listeners = new CopyOnWriteArrayList<>();
+    this.exitedSessions = ConcurrentHashMap.newKeySet();
+    int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    AtomicInteger threadCount = new AtomicInteger(0);
+    this.executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread thread = new Thread(r, "session-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "session-monitor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.monitor.scheduleWithFixedDelay(this::poll, MONITOR_INTERVAL, MONITOR_INTERVAL, TimeUnit.MILLISECONDS);
+    this.consoleOutput = null;
+  }
+
+  /**
+   * Sets the destination of the output of sessions which are created
+   * afterwards.
+   *
+   * @param consoleOutput specified destination or null
+   */
+  public SessionManager setConsoleOutput(ConsoleSink consoleOutput) {
+    this.consoleOutput = consoleOutput;
+    return this;
+  }
+
+  public ConsoleSink getConsoleOutput() {
+    return this.consoleOutput;
+  }
+
+  /**
+   * Adds the specified listener which is notified after every state
+   * change of every session. Listeners are called on worker threads.
+   *
+   * @param listener specified listener
+   */
+  public void addListener(Consumer<GameSession> listener) {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Removes the specified listener.
+   *
+   * @param listener specified listener
+   */
+  public void removeListener(Consumer<GameSession> listener) {
+    this.listeners.remove(listener);
+  }
+
+  /**
+   * Creates and registers a new idle session.
+   *
+   * @param id specified unique name of the session
+   * @param starcraftExe specified StarCraft.exe
+   * @param bot specified bot
+   * @param settingsOverlay specified settings which replace the program
+   *     settings for this session or null
+   * @throws IllegalArgumentException if the ID is already used or another
+   *     session uses the same StarCraft directory
+   * @see GameSession#GameSession(java.lang.String, java.nio.file.Path, droplauncher.bwapi.bot.Bot, java.util.Map)
+   */
+  public synchronized GameSession create(String id, Path starcraftExe, Bot bot, Map<String, String> settingsOverlay) {
+    if (this.sessions.containsKey(id)) {
+      throw new IllegalArgumentException("session already exists: " + id);
+    }
+    GameSession session = new GameSession(id, starcraftExe, bot, settingsOverlay);
+    for (GameSession other : this.sessions.values()) {
+      if (other.getStarcraftDirectory().equals(session.getStarcraftDirectory())) {
+        throw new IllegalArgumentException("StarCraft directory already used by session " + other.getId() + ": " + session.getStarcraftDirectory().toString());
+      }
+    }
+    session.setConsoleOutput(this.consoleOutput);
+    session.setOnStateChange(this::fireChanged);
+    this.sessions.put(id, session);
+    return session;
+  }
+
+  /**
+   * Returns the session with the specified ID or null if not found.
+   *
+   * @param id specified ID
+   */
+  public synchronized GameSession get(String id) {
+    return this.sessions.get(id);
+  }
+
+  /**
+   * Returns all sessions in the order they were created.
+   */
+  public synchronized List<GameSession> getSessions() {
+    return new ArrayList<>(this.sessions.values());
+  }
+
+  /**
+   * Returns the number of sessions which are not idle.
+   */
+  public synchronized int getActiveCount() {
+    int count = 0;
+    for (GameSession session : this.sessions.values()) {
+      if (session.getState() != GameSession.State.IDLE) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Removes the specified idle session.
+   *
+   * @param id specified ID
+   * @throws IllegalStateException if the session is not idle
+   */
+  public synchronized void remove(String id) {
+    GameSession session = this.sessions.get(id);
+    if (session == null) {
+      return;
+    }
+    if (session.getState() != GameSession.State.IDLE) {
+      throw new IllegalStateException("session is still in state " + session.getState() + ": " + id);
+    }
+    session.setOnStateChange(null);
+    this.sessions.remove(id);
+  }
+
+  /**
+   * Starts the specified session in the background.
+   *
+   * @param session specified session
+   * @return a future which completes once the processes have started
+   */
+  public CompletableFuture<GameSession> start(GameSession session) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        session.start();
+      } catch (Exception ex) {
+        throw new CompletionException(ex);
+      }
+      return session;
+    }, this.executor);
+  }
+
+  /**
+   * Stops the specified session in the background.
+   *
+   * @param session specified session
+   * @return a future which completes once the processes have stopped
+   */
+  public CompletableFuture<GameSession> stop(GameSession session) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        session.stop();
+      } catch (Exception ex) {
+        throw new CompletionException(ex);
+      }
+      return session;
+    }, this.executor);
+  }
+
+  /**
+   * Stops every running session in parallel.
+   *
+   * @return a future which completes once every session has stopped or
+   *     failed to stop
+   */
+  public CompletableFuture<Void> stopAll() {
+    List<CompletableFuture<GameSession>> futures = new ArrayList<>();
+    for (GameSession session : getSessions()) {
+      if (session.getState() == GameSession.State.RUNNING) {
+        futures.add(stop(session).exceptionally(ex -> {
+          LOGGER.log(Level.WARNING, "failed to stop session: " + session.getId(), ex);
+          return session;
+        }));
+      }
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+  }
+
+  /**
+   * Stops polling sessions and releases the worker threads. Sessions
+   * which are still running are not stopped.
+   *
+   * @see #stopAll()
+   */
+  public void shutdown() {
+    this.monitor.shutdownNow();
+    this.executor.shutdown();
+  }
+
+  /**
+   * Stops running sessions whose bwheadless process has exited.
+   */
+  private void poll() {
+    for (GameSession session : getSessions()) {
+      if (session.getState() != GameSession.State.RUNNING
+          || session.isAlive()
+          || !this.exitedSessions.add(session.getId())) {
+        continue;
+      }
+      LOGGER.log(Level.FINE, "session exited: {0}", session.getId());
+      stop(session).whenComplete((stopped, ex) -> {
+        this.exitedSessions.remove(session.getId());
+        if (ex != null) {
+          LOGGER.log(Level.WARNING, "failed to stop exited session: " + session.getId(), ex);
+        }
+      });
+    }
+  }
+
+  private void fireChanged(GameSession session) {
+    for (Consumer<GameSession> listener : this.listeners) {
+      try {
+        listener.accept(session);
+      } catch (RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "session listener failed", ex);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.session;
+
+import droplauncher.bwapi.bot.Bot;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Class for playing many {@link BotMatch}es between a set of bots.
+ *
+ * Games are generated per round and played on a fixed number of slots.
+ * Each slot plays one game at a time in two clones acquired from a
+ * {@link ClonePool}. Every slot has its own queue of games. A slot whose
+ * queue is empty takes games from the back of the other queues so that a
+ * long game does not leave the remaining slots idle. An optional
+ * {@link AdmissionController} limits how many slots play at the same time.
+ *
+ * In a round-robin tournament, all games of all rounds are known in
+ * advance and are queued at once. In a Swiss tournament, the pairings of
+ * a round depend on the scores of the previous rounds, so each round is
+ * queued after the previous round has finished. A win scores one point
+ * and a draw half a point.
+ *
+ * Results are appended to a CSV file as soon as each game has finished so
+ * that a long tournament can be inspected while it is running and the
+ * results survive a crash.
+ */
+public class Tournament {
+
+  private static final Logger LOGGER = Logger.getLogger(Tournament.class.getName());
+
+  private static final String CSV_HEADER = "game,round,slot,map,host,joiner,winner,draw,reason,duration_ms,finished";
+
+  public enum Format {
+
+    ROUND_ROBIN("round_robin"),
+    SWISS("swiss")
+    ;
+
+    private final String str;
+
+    private Format(String str) {
+      this.str = str;
+    }
+
+    /**
+     * Returns the format with the specified name or null if not found.
+     *
+     * @param str specified name
+     */
+    public static Format get(String str) {
+      for (Format val : Format.values()) {
+        if (str.equalsIgnoreCase(val.toString())) {
+          return val;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return this.str;
+    }
+
+  }
+
+  /**
+   * A scheduled game. The result is set once the game has been played.
+   */
+  public static class Game {
+
+    private final int number;
+    private final int round;
+    private final int host;
+    private final int joiner;
+    private final String map;
+    private volatile int slot;
+    private volatile BotMatch.Result result;
+
+    private Game(int number, int round, int host, int joiner, String map) {
+      this.number = number;
+      this.round = round;
+      this.host = host;
+      this.joiner = joiner;
+      this.map = map;
+      this.slot = -1;
+      this.result = null;
+    }
+
+    public int getNumber() {
+      return this.number;
+    }
+
+    public int getRound() {
+      return this.round;
+    }
+
+    /**
+     * Returns the index of the hosting bot.
+     */
+    public int getHost() {
+      return this.host;
+    }
+
+    /**
+     * Returns the index of the joining bot.
+     */
+    public int getJoiner() {
+      return this.joiner;
+    }
+
+    public String getMap() {
+      return this.map;
+    }
+
+    /**
+     * Returns the slot which played this game or -1 if not played yet.
+     */
+    public int getSlot() {
+      return this.slot;
+    }
+
+    /**
+     * Returns the result or null if not played yet.
+     */
+    public BotMatch.Result getResult() {
+      return this.result;
+    }
+
+    /**
+     * Returns the index of the winning bot or -1 if there is no winner.
+     */
+    public int getWinner() {
+      if (this.result == null || this.result.getWinner() == null) {
+        return -1;
+      }
+      return (this.result.getWinner() == BotMatch.Side.HOST) ? this.host : this.joiner;
+    }
+
+  }
+
+  private final SessionManager manager;
+  private final ClonePool pool;
+  private final List<Bot> bots;
+  private final List<String> names;
+  private final List<String> maps;
+  private Format format;
+  private int rounds;
+  private int slots;
+  private long timeLimit;
+  private Pattern winPattern;
+  private Pattern lossPattern;
+  private Path resultsFile;
+  private Consumer<Game> onGameFinished;
+  private AdmissionController admission;
+  private final List<Game> games; /* guarded by this */
+  private final int[] halfPoints; /* guarded by this */
+  private final Set<Integer> byes; /* guarded by this */
+  private final AtomicInteger nextGame;
+  private volatile boolean isCancelled;
+  private BufferedWriter results;
+
+  /**
+   * Creates a tournament.
+   *
+   * @param manager specified manager which runs the sessions
+   * @param pool specified pool which provides a StarCraft directory for
+   *     each bot of a game
+   * @param bots specified bots, at least two
+   * @param maps specified maps relative to the StarCraft directory, which
+   *     are played in turn
+   */
+  public Tournament(SessionManager manager, ClonePool pool, List<Bot> bots, List<String> maps) {
+    if (manager == null || pool == null || bots == null || maps == null) {
+      throw new IllegalArgumentException("manager, pool, bots and maps cannot be null");
+    }
+    if (bots.size() < 2) {
+      throw new IllegalArgumentException("a tournament needs at least two bots");
+    }
+    if (maps.isEmpty()) {
+      throw new IllegalArgumentException("a tournament needs at least one map");
+    }
+    this.manager = manager;
+    this.pool = pool;
+    this.bots = new ArrayList<>(bots);
+    this.names = new ArrayList<>();
+    for (Bot bot : this.bots) {
+      this.names.add(getName(bot));
+    }
+    this.maps = new ArrayList<>(maps);
+    this.format = Format.ROUND_ROBIN;
+    this.rounds = 1;
+    this.slots = 1;
+    this.timeLimit = BotMatch.DEFAULT_TIME_LIMIT;
+    this.winPattern = BotMatch.DEFAULT_WIN_PATTERN;
+    this.lossPattern = BotMatch.DEFAULT_LOSS_PATTERN;
+    this.resultsFile = null;
+    this.onGameFinished = null;
+    this.admission = null;
+    this.games = new ArrayList<>();
+    this.halfPoints = new int[this.bots.size()];
+    this.byes = new HashSet<>();
+    this.nextGame = new AtomicInteger(0);
+    this.isCancelled = false;
+    this.results = null;
+  }
+
+  public Tournament setFormat(Format format) {
+    this.format = format;
+    return this;
+  }
+
+  /**
+   * Sets the number of rounds. In a round-robin tournament, every pair of
+   * bots plays once per round with the host alternating between rounds.
+   * In a Swiss tournament, every bot plays at most once per round.
+   *
+   * @param rounds specified number of rounds
+   */
+  public Tournament setRounds(int rounds) {
+    this.rounds = Math.max(1, rounds);
+    return this;
+  }
+
+  /**
+   * Sets the number of games played at the same time. Each slot uses two
+   * StarCraft directories.
+   *
+   * @param slots specified number of slots
+   */
+  public Tournament setSlots(int slots) {
+    this.slots = Math.max(1, slots);
+    return this;
+  }
+
+  /**
+   * Sets the time limit of each game.
+   *
+   * @param timeLimit specified time limit in milliseconds
+   * @see BotMatch#setTimeLimit(long)
+   */
+  public Tournament setTimeLimit(long timeLimit) {
+    this.timeLimit = timeLimit;
+    return this;
+  }
+
+  /**
+   * Sets the patterns which identify a win or a loss in the output of a
+   * bot.
+   *
+   * @param winPattern specified win pattern
+   * @param lossPattern specified loss pattern
+   * @see BotMatch#setResultPatterns(Pattern, Pattern)
+   */
+  public Tournament setResultPatterns(Pattern winPattern, Pattern lossPattern) {
+    this.winPattern = winPattern;
+    this.lossPattern = lossPattern;
+    return this;
+  }
+
+  /**
+   * Sets the CSV file to which results are appended. A header is written
+   * if the file does not exist yet.
+   *
+   * @param resultsFile specified file or null to not record results
+   */
+  public Tournament setResultsFile(Path resultsFile) {
+    this.resultsFile = resultsFile;
+    return this;
+  }
+
+  /**
+   * Sets the callback which receives each game after it has been played.
+   * The callback is invoked on the slot thread.
+   *
+   * @param onGameFinished specified callback
+   */
+  public Tournament setOnGameFinished(Consumer<Game> onGameFinished) {
+    this.onGameFinished = onGameFinished;
+    return this;
+  }
+
+  /**
+   * Sets the controller which decides how many of the slots may play at
+   * the same time. The number of slots is the upper bound. The controller
+   * is started and stopped by {@link #run()}.
+   *
+   * @param admission specified controller or null to use every slot
+   */
+  public Tournament setAdmissionController(AdmissionController admission) {
+    this.admission = admission;
+    return this;
+  }
+
+  public List<String> getNames() {
+    return Collections.unmodifiableList(this.names);
+  }
+
+  /**
+   * Returns the score of the bot with the specified index.
+   *
+   * @param bot specified index
+   */
+  public synchronized double getScore(int bot) {
+    return this.halfPoints[bot] / 2.0;
+  }
+
+  /**
+   * Returns the games which have been played so far.
+   */
+  public synchronized List<Game> getGames() {
+    return new ArrayList<>(this.games);
+  }
+
+  /**
+   * Stops queueing games. Games which are being played are finished.
+   */
+  public void cancel() {
+    this.isCancelled = true;
+  }
+
+  /**
+   * Plays every round on a background thread.
+   *
+   * @return a future which completes with the played games once the
+   *     last round has finished or the tournament was cancelled
+   */
+  public CompletableFuture<List<Game>> run() {
+    CompletableFuture<List<Game>> future = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        runRounds();
+        future.complete(getGames());
+      } catch (Exception ex) {
+        future.completeExceptionally(ex);
+      }
+    }, "tournament");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+
+  private void runRounds() throws IOException {
+    if (this.resultsFile != null) {
+      boolean isNew = !Files.exists(this.resultsFile);
+      this.results = Files.newBufferedWriter(this.resultsFile, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      if (isNew) {
+        this.results.write(CSV_HEADER);
+        this.results.newLine();
+        this.results.flush();
+      }
+    }
+    AtomicInteger threadCount = new AtomicInteger(0);
+    ExecutorService executor = Executors.newFixedThreadPool(this.slots, r -> {
+      Thread thread = new Thread(r, "tournament-slot-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    if (this.admission != null) {
+      this.admission.start();
+    }
+    try {
+      if (this.format == Format.ROUND_ROBIN) {
+        List<Game> all = new ArrayList<>();
+        for (int round = 1; round <= this.rounds; round++) {
+          all.addAll(roundRobin(round));
+        }
+        play(executor, all);
+      } else {
+        for (int round = 1; round <= this.rounds && !this.isCancelled; round++) {
+          play(executor, swiss(round));
+        }
+      }
+    } finally {
+      if (this.admission != null) {
+        this.admission.stop();
+      }
+      executor.shutdownNow();
+      if (this.results != null) {
+        this.results.close();
+        this.results = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the games of the specified round-robin round. The bot with
+   * the lower index hosts in odd rounds.
+   */
+  private List<Game> roundRobin(int round) {
+    List<Game> list = new ArrayList<>();
+    for (int i = 0; i < this.bots.size(); i++) {
+      for (int j = i + 1; j < this.bots.size(); j++) {
+        list.add((round % 2 == 1) ? newGame(round, i, j) : newGame(round, j, i));
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Returns the games of the specified Swiss round. Bots are ranked by
+   * score and each bot is paired with the next ranked bot it has not
+   * played yet, or the next ranked bot if it has played all remaining
+   * bots. With
+   * an odd number of bots, the lowest ranked bot which has not had a bye
+   * sits out and scores a win.
+   */
+  private synchronized List<Game> swiss(int round) {
+    List<Integer> ranking = new ArrayList<>();
+    for (int i = 0; i < this.bots.size(); i++) {
+      ranking.add(i);
+    }
+    /* Stable sort keeps the initial order among equal scores. */
+    Collections.sort(ranking, Comparator.comparingInt((Integer i) -> this.halfPoints[i]).reversed());
+
+    Set<Long> played = new HashSet<>();
+    for (Game game : this.games) {
+      played.add(pairKey(game.host, game.joiner));
+    }
+
+    if (ranking.size() % 2 == 1) {
+      int bye = ranking.get(ranking.size() - 1);
+      for (int i = ranking.size() - 1; i >= 0; i--) {
+        if (!this.byes.contains(ranking.get(i))) {
+          bye = ranking.get(i);
+          break;
+        }
+      }
+      ranking.remove(Integer.valueOf(bye));
+      this.byes.add(bye);
+      this.halfPoints[bye] += 2;
+      LOGGER.log(Level.INFO, "round {0}: bye for {1}", new Object[] {round, this.names.get(bye)});
+    }
+
+    List<Game> list = new ArrayList<>();
+    while (!ranking.isEmpty()) {
+      int first = ranking.remove(0);
+      int index = 0;
+      for (int i = 0; i < ranking.size(); i++) {
+        if (!played.contains(pairKey(first, ranking.get(i)))) {
+          index = i;
+          break;
+        }
+      }
+      int second = ranking.remove(index);
+      list.add((round % 2 == 1) ? newGame(round, first, second) : newGame(round, second, first));
+    }
+    return list;
+  }
+
+  private Game newGame(int round, int host, int joiner) {
+    int number = this.nextGame.incrementAndGet();
+    /* Offset by the round so that a pair does not play on the same map every round. */
+    return new Game(number, round, host, joiner, this.maps.get((number + round - 2) % this.maps.size()));
+  }
+
+  private static long pairKey(int a, int b) {
+    return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+  }
+
+  /**
+   * Deals the specified games to the slot queues and blocks until every
+   * queue is empty and every slot has finished its game.
+   */
+  private void play(ExecutorService executor, List<Game> list) {
+    List<ConcurrentLinkedDeque<Game>> queues = new ArrayList<>();
+    for (int i = 0; i < this.slots; i++) {
+      queues.add(new ConcurrentLinkedDeque<>());
+    }
+    for (int i = 0; i < list.size(); i++) {
+      queues.get(i % this.slots).addLast(list.get(i));
+    }
+    List<CompletableFuture<Void>> workers = new ArrayList<>();
+    for (int i = 0; i < this.slots; i++) {
+      int slot = i;
+      workers.add(CompletableFuture.runAsync(() -> work(slot, queues), executor));
+    }
+    CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[workers.size()])).join();
+  }
+
+  /**
+   * Plays games from the queue of the specified slot, then steals games
+   * from the other queues until every queue is empty.
+   */
+  private void work(int slot, List<ConcurrentLinkedDeque<Game>> queues) {
+    while (!this.isCancelled) {
+      if (this.admission != null) {
+        try {
+          this.admission.acquire();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      try {
+        Game game = queues.get(slot).pollFirst();
+        for (int i = 1; game == null && i < queues.size(); i++) {
+          /* Steal from the back, which holds the games the owner reaches last. */
+          game = queues.get((slot + i) % queues.size()).pollLast();
+        }
+        if (game == null) {
+          return;
+        }
+        game.slot = slot + 1;
+        play(game);
+      } finally {
+        if (this.admission != null) {
+          this.admission.release();
+        }
+      }
+    }
+  }
+
+  private void play(Game game) {
+    ClonePool.Clone hostClone = null;
+    ClonePool.Clone joinClone = null;
+    try {
+      hostClone = this.pool.acquire().join();
+      joinClone = this.pool.acquire().join();
+      game.result = new BotMatch(this.manager, "game-" + game.number, game.map)
+          .setPlayer(BotMatch.Side.HOST, this.bots.get(game.host), hostClone.getStarcraftExe())
+          .setPlayer(BotMatch.Side.JOINER, this.bots.get(game.joiner), joinClone.getStarcraftExe())
+          .setTimeLimit(this.timeLimit)
+          .setResultPatterns(this.winPattern, this.lossPattern)
+          .play()
+          .join();
+    } catch (RuntimeException ex) {
+      /* Environment failures, e.g. a clone which cannot be built, are recorded as games without a result. */
+      LOGGER.log(Level.WARNING, "failed to play game " + game.number, ex);
+      game.result = BotMatch.Result.failed("failed to play: " + ex.getMessage());
+    } finally {
+      if (hostClone != null) {
+        this.pool.release(hostClone);
+      }
+      if (joinClone != null) {
+        this.pool.release(joinClone);
+      }
+    }
+    finished(game);
+  }
+
+  private void finished(Game game) {
+    synchronized (this) {
+      this.games.add(game);
+      int winner = game.getWinner();
+      if (winner >= 0) {
+        this.halfPoints[winner] += 2;
+      } else if (game.result.isDraw()) {
+        this.halfPoints[game.host]++;
+        this.halfPoints[game.joiner]++;
+      }
+      if (this.results != null) {
+        try {
+          this.results.write(toCsv(game));
+          this.results.newLine();
+          this.results.flush();
+        } catch (IOException ex) {
+          LOGGER.log(Level.SEVERE, "failed to write result of game " + game.number, ex);
+        }
+      }
+    }
+    if (this.admission != null) {
+      this.admission.reportGame(game.result.isAbnormal());
+    }
+    LOGGER.log(Level.INFO, "game {0}: {1} vs {2} on {3}: {4}",
+        new Object[] {game.number, this.names.get(game.host), this.names.get(game.joiner), game.map, game.result});
+    if (this.onGameFinished != null) {
+      this.onGameFinished.accept(game);
+    }
+  }
+
+  private String toCsv(Game game) {
+    BotMatch.Result result = game.result;
+    int winner = game.getWinner();
+    return game.number
+        + "," + game.round
+        + "," + game.slot
+        + "," + csv(game.map)
+        + "," + csv(this.names.get(game.host))
+        + "," + csv(this.names.get(game.joiner))
+        + "," + ((winner >= 0) ? csv(this.names.get(winner)) : "")
+        + "," + result.isDraw()
+        + "," + csv(result.getReason())
+        + "," + result.getDurationMillis()
+        + "," + Instant.now().toString();
+  }
+
+  /**
+   * Quotes the specified field if it contains a separator, quote or line
+   * break.
+   */
+  private static String csv(String field) {
+    if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+      return field;
+    }
+    return "\"" + field.replace("\"", "\"\"") + "\"";
+  }
+
+  private static String getName(Bot bot) {
+    try {
+      return bot.getName();
+    } catch (Exception ex) {
+      return Bot.DEFAULT_NAME;
+    }
+  }
+
+}
@@ -20,12 +20,18 @@ package droplauncher.starcraft;
 import adakite.debugging.Debugging;
 import adakite.util.AdakiteUtils;
 import adakite.util.AdakiteUtils.StringCompareOption;
+import droplauncher.DropLauncher;
+import droplauncher.io.FileStamp;
+import droplauncher.io.MultiPatternScanner;
+import droplauncher.io.StampCache;
 import droplauncher.mvc.model.Model;
 import droplauncher.starcraft.exception.MissingStarcraftExeException;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 /**
@@ -55,7 +61,13 @@ public class Starcraft {
     /**
      * Whether to check if the specified StarCraft.exe version is supported.
      */
-    CHECK_FOR_SUPPORTED_VERSION("check_version")
+    CHECK_FOR_SUPPORTED_VERSION("check_version"),
+
+    /**
+     * Directory in which clones of the StarCraft directory are created
+     * for concurrent games, e.g. on a RAM disk.
+     */
+    CLONE_DIRECTORY("clone_directory")
 
     ;
 
@@ -128,6 +140,57 @@ public class Starcraft {
 
   }
 
+  /**
+   * Enum for StarCraft.exe builds which can be recognized by a byte
+   * signature in the executable. Builds are listed in order of precedence
+   * so that a specific build is reported before a generic one.
+   */
+  public enum Build {
+
+    /**
+     * Brood War 1.16.1, identified by the path of its debug symbols file.
+     */
+    BROOD_WAR_1161("Brood War 1.16.1", BW_1161_STRING_SEARCH_KEY, BW_1161_MAX_FILE_SIZE, true),
+
+    /**
+     * Any other Brood War build produced by the same legacy build tree,
+     * identified by the common prefix of its debug symbols path.
+     */
+    BROOD_WAR_LEGACY("Brood War (unrecognized legacy build)", BW_LEGACY_STRING_SEARCH_KEY, MAX_EXECUTABLE_SIZE, false),
+
+    /**
+     * No known signature was found.
+     */
+    UNKNOWN("Unknown", null, 0, false)
+
+    ;
+
+    private final String description;
+    private final String signature;
+    private final long maxFileSize;
+    private final boolean isSupported;
+
+    private Build(String description, String signature, long maxFileSize, boolean isSupported) {
+      this.description = description;
+      this.signature = signature;
+      this.maxFileSize = maxFileSize;
+      this.isSupported = isSupported;
+    }
+
+    /**
+     * Tests whether DropLauncher supports this build.
+     */
+    public boolean isSupported() {
+      return this.isSupported;
+    }
+
+    @Override
+    public String toString() {
+      return this.description;
+    }
+
+  }
+
   public static final String NAME = "StarCraft";
   public static final String EXPANSION_NAME = "Brood War";
   public static final String FULL_EXPANSION_NAME = NAME + ": " + EXPANSION_NAME;
@@ -141,10 +204,18 @@ public class Starcraft {
   /* Maximum profile name length in Brood War 1.16.1 */
   public static final int MAX_PROFILE_NAME_LENGTH = 24;
 
+  public static final String BW_LEGACY_STRING_SEARCH_KEY = "C:\\projects\\Legacy\\trunk\\Starcraft\\Starcraft";
   public static final String BW_1161_STRING_SEARCH_KEY = "C:\\projects\\Legacy\\trunk\\Starcraft\\Starcraft1.16.1.build\\Build\\DebugInfo\\BroodWar.pdb";
   public static final String BW_1161_HEX_SEARCH_KEY = "433A5C70726F6A656374735C4C65676163795C7472756E6B5C5374617263726166745C537461726372616674312E31362E312E6275696C645C4275696C645C4465627567496E666F5C42726F6F645761722E706462"; /*  */
+  /* StarCraft.exe 1.16.1 is 1.164 MiB. */
+  public static final long BW_1161_MAX_FILE_SIZE = 2 * 1024 * 1024;
+  /* Files larger than this are not scanned for any signature. */
+  public static final long MAX_EXECUTABLE_SIZE = 16 * 1024 * 1024;
   public static final byte[] BW_1161_BINARY_SEARCH_KEY = {67, 58, 92, 112, 114, 111, 106, 101, 99, 116, 115, 92, 76, 101, 103, 97, 99, 121, 92, 116, 114, 117, 110, 107, 92, 83, 116, 97, 114, 99, 114, 97, 102, 116, 92, 83, 116, 97, 114, 99, 114, 97, 102, 116, 49, 46, 49, 54, 46, 49, 46, 98, 117, 105, 108, 100, 92, 66, 117, 105, 108, 100, 92, 68, 101, 98, 117, 103, 73, 110, 102, 111, 92, 66, 114, 111, 111, 100, 87, 97, 114, 46, 112, 100, 98};
 
+  private static final MultiPatternScanner BUILD_SCANNER = createBuildScanner();
+  private static final StampCache BUILD_CACHE = new StampCache(DropLauncher.CACHE_DIRECTORY.resolve("starcraft-build.cache"));
+
   private Starcraft() {}
 
   /**
@@ -193,6 +264,53 @@ public class Starcraft {
     return getDirectory().resolve(Paths.get(Starcraft.BINARY_FILENAME));
   }
 
+  private static MultiPatternScanner createBuildScanner() {
+    List<byte[]> signatures = new ArrayList<>();
+    for (Build build : Build.values()) {
+      if (build.signature != null) {
+        signatures.add(build.signature.getBytes(StandardCharsets.ISO_8859_1));
+      }
+    }
+    return new MultiPatternScanner(signatures);
+  }
+
+  /**
+   * Returns the build of the specified StarCraft executable. All known
+   * signatures are matched in a single pass over the memory-mapped file.
+   * The result is cached per file revision so that an unchanged file
+   * is only scanned once.
+   *
+   * @param file specified path to file
+   * @throws IOException if an I/O error occurs
+   */
+  public static Build getBuild(Path file) throws IOException {
+    FileStamp stamp = FileStamp.of(file);
+    String cached = BUILD_CACHE.get(stamp);
+    if (cached != null) {
+      try {
+        return Build.valueOf(cached);
+      } catch (IllegalArgumentException ex) {
+        /* Build was renamed or removed. Scan again. */
+      }
+    }
+
+    Build result = Build.UNKNOWN;
+    long[] offsets = BUILD_SCANNER.scan(file, MAX_EXECUTABLE_SIZE);
+    int index = 0;
+    for (Build build : Build.values()) {
+      if (build.signature == null) {
+        continue;
+      }
+      if (offsets[index++] >= 0 && stamp.getSize() <= build.maxFileSize) {
+        result = build;
+        break;
+      }
+    }
+
+    BUILD_CACHE.put(stamp, result.name());
+    return result;
+  }
+
   /**
    * Tests whether a chunk of bytes found in the BW 1.16.1 executable is
    * present in the specified file. Note: This method is just quick and naive for
@@ -200,12 +318,10 @@ public class Starcraft {
    *
    * @param file specified path to file
    * @throws IOException
+   * @see #getBuild(java.nio.file.Path)
    */
   public static boolean isBroodWar1161(Path file) throws IOException {
-    byte[] bytes = Files.readAllBytes(file);
-    return (bytes.length < (2 * 1024 * 1024) /* StarCraft.exe 1.16.1 is 1.164 MiB. */
-        && (bytes.length > Starcraft.BW_1161_BINARY_SEARCH_KEY.length)
-        && AdakiteUtils.contains(bytes, Starcraft.BW_1161_BINARY_SEARCH_KEY));
+    return getBuild(file) == Build.BROOD_WAR_1161;
   }
 
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.ui;
+
+/**
+ * Interface for destinations of log output, e.g. the log window of the
+ * graphical interface or the standard output stream of the command-line
+ * interface.
+ */
+public interface ConsoleSink {
+
+  /**
+   * Prints the specified string.
+   *
+   * @param str specified string
+   */
+  void print(String str);
+
+  /**
+   * Prints the specified line followed by a line separator.
+   *
+   * @param line specified line
+   */
+  void println(String line);
+
+}
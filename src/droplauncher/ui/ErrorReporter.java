@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.ui;
+
+/**
+ * Interface for presenting errors to the user, e.g. as a dialog in the
+ * graphical interface or as a message on the standard error stream of the
+ * command-line interface.
+ */
+public interface ErrorReporter {
+
+  /**
+   * Reports the specified error. May be called from any thread.
+   *
+   * @param message specified message or null to only describe the exception
+   * @param ex specified exception
+   */
+  void report(String message, Exception ex);
+
+}
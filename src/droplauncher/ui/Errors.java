@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 Adakite
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package droplauncher.ui;
+
+import java.io.PrintStream;
+
+/**
+ * Utilities class for reporting errors from code which does not depend on
+ * a specific user interface. Errors are printed to the standard error
+ * stream until a different reporter is installed via
+ * {@link #setReporter(droplauncher.ui.ErrorReporter)}.
+ */
+public class Errors {
+
+  private static volatile ErrorReporter REPORTER = new StreamErrorReporter(System.err);
+
+  private Errors() {}
+
+  public static ErrorReporter getReporter() {
+    return Errors.REPORTER;
+  }
+
+  /**
+   * Installs the specified reporter for all subsequent errors.
+   *
+   * @param reporter specified reporter
+   */
+  public static void setReporter(ErrorReporter reporter) {
+    if (reporter == null) {
+      throw new IllegalArgumentException("reporter cannot be null");
+    }
+    Errors.REPORTER = reporter;
+  }
+
+  /**
+   * Reports the specified error via the installed reporter.
+   *
+   * @param message specified message or null to only describe the exception
+   * @param ex specified exception
+   */
+  public static void report(String message, Exception ex) {
+    Errors.REPORTER.report(message, ex);
+  }
+
+  /**
+   * Reporter which prints errors to a stream.
+   */
+  public static class StreamErrorReporter implements ErrorReporter {
+
+    private final PrintStream stream;
+
+    public StreamErrorReporter(PrintStream stream) {
+      this.stream = stream;
+    }
+
+    @Override
+    public void report(String message, Exception ex) {
+      StringBuilder sb = new StringBuilder("error: ");
+      if (message != null) {
+        sb.append(message);
+        if (ex != null) {
+          sb.append(": ");
+        }
+      }
+      if (ex != null) {
+        sb.append(ex.getClass().getSimpleName());
+        if (ex.getMessage() != null) {
+          sb.append(": ").append(ex.getMessage());
+        }
+      }
+      this.stream.println(sb.toString());
+    }
+
+  }
+
+}